@@ -38,6 +38,11 @@ import kotlin.math.roundToLong
  * Using a (blocking) audio player it is even possible to synchronize execution of
  * AudioProcessors and sound. This behavior can be used for visualization.
  *
+ * Multichannel streams are dispatched interleaved: buffer size and overlap count
+ * samples of all channels and should be multiples of the number of channels. A
+ * [MultichannelAudioProcessor] reads the reused [AudioEvent.channelBuffers]; they are
+ * split again after every processor that may have changed the interleaved buffer.
+ *
  * @author Joren Six
  */
 class AudioDispatcher
@@ -46,7 +51,8 @@ class AudioDispatcher
  *
  * @param stream          The stream to read data from.
  * @param audioBufferSize The size of the buffer defines how much samples are processed
- * in one step. Common values are 1024,2048.
+ * in one step. Common values are 1024,2048. For multichannel streams it counts the
+ * samples of all channels.
  * @param bufferOverlap   How much consecutive buffers overlap (in samples). Half of the
  * AudioBufferSize is common (512, 1024) for an FFT.
  */
@@ -106,6 +112,11 @@ constructor(
     private var byteOverlap = 0
     private var byteStepSize = 0
 
+    /**
+     * The number of bytes of one sample of one channel.
+     */
+    private val bytesPerSample = format.frameSize / format.channels
+
     /**
      * The number of bytes to skip before processing starts.
      */
@@ -166,12 +177,15 @@ constructor(
      * AudioBufferSize is common (512, 1024) for an FFT.
      */
     fun setStepSizeAndOverlap(audioBufferSize: Int, bufferOverlap: Int) {
+        require(audioBufferSize % format.channels == 0 && bufferOverlap % format.channels == 0) {
+            "The buffer size and overlap should be multiples of the number of channels (${format.channels})"
+        }
         audioFloatBuffer = FloatArray(audioBufferSize)
         floatOverlap = bufferOverlap
         floatStepSize = audioFloatBuffer.size - floatOverlap
-        audioByteBuffer = ByteArray(audioFloatBuffer.size * format.frameSize)
-        byteOverlap = floatOverlap * format.frameSize
-        byteStepSize = floatStepSize * format.frameSize
+        audioByteBuffer = ByteArray(audioFloatBuffer.size * bytesPerSample)
+        byteOverlap = floatOverlap * bytesPerSample
+        byteStepSize = floatStepSize * bytesPerSample
     }
 
     /**
@@ -242,6 +256,8 @@ constructor(
                     //skip to the next audio processors if false is returned.
                     break
                 }
+                // the interleaved buffer may have been changed in place
+                if (processor !is MultichannelAudioProcessor) audioEvent.invalidateChannelBuffers()
             }
             if (!isStopped) {
                 //Update the number of bytes processed;
@@ -400,8 +416,9 @@ constructor(
                 for (i in audioByteBuffer.indices) {
                     audioByteBuffer[i] = audioByteBufferContent[i]
                 }
-                val totalSamplesRead = totalBytesRead / format.frameSize
-                audioFloatBuffer = FloatArray(offsetInSamples + totalBytesRead / format.frameSize)
+                // only complete frames are passed on
+                val totalSamplesRead = totalBytesRead / format.frameSize * format.channels
+                audioFloatBuffer = FloatArray(offsetInSamples + totalSamplesRead)
                 converter!!.toFloatArray(
                     audioByteBuffer,
                     offsetInBytes,
@@ -437,6 +454,7 @@ constructor(
 
         // Makes sure AudioEvent contains correct info.
         audioEvent.floatBuffer = audioFloatBuffer
+        audioEvent.channels = format.channels
         audioEvent.overlap = offsetInSamples
         return totalBytesRead
     }
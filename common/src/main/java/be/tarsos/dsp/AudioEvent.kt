@@ -32,6 +32,13 @@ import kotlin.math.sqrt
  * An audio event flows through the processing pipeline. The object is reused for performance reasons.
  * The arrays with audio information are also reused, so watch out when using the buffer getter and setters.
  *
+ * Multichannel audio is available in two layouts: [floatBuffer] holds the frames
+ * interleaved, [channelBuffers] holds one array per channel. The channel buffers are
+ * split from the interleaved buffer on first access and reused for every event. A
+ * processor chain marks them out of date with [invalidateChannelBuffers] after every
+ * processor that is not a [MultichannelAudioProcessor], since such a processor may
+ * change [floatBuffer] in place.
+ *
  * @author Joren Six
  */
 class AudioEvent @JvmOverloads constructor(
@@ -39,15 +46,111 @@ class AudioEvent @JvmOverloads constructor(
      * The format specifies a particular arrangement of data in a sound stream.
      */
     private val format: TarsosDSPAudioFormat,
-    /**
-     * The audio data encoded in floats from -1.0 to 1.0.
-     */
-    var floatBuffer: FloatArray,
+    floatBuffer: FloatArray,
     /**
      * The overlap in samples.
      */
     var overlap: Int = 0
 ) {
+    /**
+     * The audio data encoded in floats from -1.0 to 1.0, interleaved if there is more
+     * than one channel.
+     */
+    var floatBuffer: FloatArray = floatBuffer
+        set(value) {
+            field = value
+            channelBuffersValid = false
+        }
+
+    /**
+     * The number of interleaved channels in [floatBuffer]. It starts as the number of
+     * channels of the format; a processor that mixes the channels down sets it to one.
+     */
+    var channels: Int = format.channels
+        set(value) {
+            require(value > 0) { "The number of channels should be positive" }
+            field = value
+            channelBuffersValid = false
+        }
+
+    private var planar: Array<FloatArray> = emptyArray()
+    private var channelBuffersValid = false
+
+    /**
+     * The number of frames in [floatBuffer], one sample per channel.
+     */
+    val frameCount: Int
+        get() = floatBuffer.size / channels
+
+    /**
+     * The audio data with one array of [frameCount] samples per channel. For mono
+     * audio the only channel is [floatBuffer] itself. The arrays are reused: a
+     * processor that changes them in place calls [interleave] if the processors after
+     * it read [floatBuffer].
+     */
+    val channelBuffers: Array<FloatArray>
+        get() {
+            if (!channelBuffersValid) deinterleave()
+            return planar
+        }
+
+    /**
+     * @param channel The index of the channel.
+     * @return The samples of the channel, see [channelBuffers].
+     */
+    fun getChannelBuffer(channel: Int): FloatArray = channelBuffers[channel]
+
+    /**
+     * Splits [floatBuffer] into the [channelBuffers]. A processor that changes
+     * [floatBuffer] in place calls this if the processors after it read the channel
+     * buffers.
+     */
+    fun deinterleave() {
+        val buffer = floatBuffer
+        if (channels == 1) {
+            if (planar.size != 1) planar = arrayOf(buffer) else planar[0] = buffer
+        } else {
+            val frames = frameCount
+            if (planar.size != channels || planar[0].size != frames) {
+                planar = Array(channels) { FloatArray(frames) }
+            }
+            for (c in 0 until channels) {
+                val channel = planar[c]
+                var index = c
+                for (i in 0 until frames) {
+                    channel[i] = buffer[index]
+                    index += channels
+                }
+            }
+        }
+        channelBuffersValid = true
+    }
+
+    /**
+     * Marks the [channelBuffers] as out of date, they are split from [floatBuffer]
+     * again on the next access.
+     */
+    fun invalidateChannelBuffers() {
+        channelBuffersValid = false
+    }
+
+    /**
+     * Copies the [channelBuffers] back into [floatBuffer].
+     */
+    fun interleave() {
+        if (channels == 1 || !channelBuffersValid) return
+        val buffer = floatBuffer
+        val frames = frameCount
+        for (c in 0 until channels) {
+            val channel = planar[c]
+            var index = c
+            for (i in 0 until frames) {
+                buffer[index] = channel[i]
+                index += channels
+            }
+        }
+    }
+
     private val converter: TarsosDSPAudioFloatConverter = TarsosDSPAudioFloatConverter.getConverter(format)!!
 
     /**
@@ -141,6 +141,8 @@ class AudioGenerator @JvmOverloads constructor(audioBufferSize: Int, bufferOverl
                     //skip to the next audio processors if false is returned.
                     break
                 }
+                // the interleaved buffer may have been changed in place
+                if (processor !is MultichannelAudioProcessor) audioEvent.invalidateChannelBuffers()
             }
             if (!stopped) {
                 audioEvent.setBytesProcessed(samplesProcessed * format.frameSize.toLong())
@@ -22,6 +22,7 @@
  */
 package be.tarsos.dsp
 
+import be.tarsos.dsp.util.flushDenormal
 import kotlin.math.abs
 import kotlin.math.exp
 
@@ -86,7 +87,8 @@ class EnvelopeFollower @JvmOverloads constructor(
             envelopeOut = if (envelopeOut < envelopeIn) {
                 envelopeIn + gainAttack * (envelopeOut - envelopeIn)
             } else {
-                envelopeIn + gainRelease * (envelopeOut - envelopeIn)
+                // flushed to zero instead of decaying into subnormal numbers during silence
+                flushDenormal(envelopeIn + gainRelease * (envelopeOut - envelopeIn))
             }
             buffer[i] = envelopeOut
         }
@@ -0,0 +1,38 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp
+
+/**
+ * An audio processor that handles every channel of multichannel audio, reading the
+ * planar [AudioEvent.channelBuffers] rather than the interleaved
+ * [AudioEvent.floatBuffer]. Processors that do not implement this interface see the
+ * interleaved buffer only.
+ *
+ * The channel buffers are split once and shared by consecutive channel-aware
+ * processors, so many channels can be processed by one dispatcher without
+ * conversions or allocations in the processors. After any other processor the
+ * dispatcher marks them out of date, as it may have changed the interleaved buffer
+ * in place. A channel-aware processor that changes the channel buffers in place
+ * calls [AudioEvent.interleave] so that the processors after it see the change.
+ */
+interface MultichannelAudioProcessor : AudioProcessor
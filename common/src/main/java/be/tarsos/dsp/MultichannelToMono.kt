@@ -22,39 +22,50 @@
  */
 package be.tarsos.dsp
 
-class MultichannelToMono(private val channels: Int, private val mean: Boolean) : AudioProcessor {
+/**
+ * Mixes multichannel audio down to mono, either the mean of all channels or only the
+ * first channel. The mono buffer replaces the interleaved buffer of the event, the
+ * processors after this one see one channel. The mono buffer is reused.
+ *
+ * @param channels The number of channels.
+ * @param mean     True for the mean of all channels, false for the first channel.
+ */
+class MultichannelToMono(private val channels: Int, private val mean: Boolean) : MultichannelAudioProcessor {
+    private var mono = FloatArray(0)
+
     override fun process(audioEvent: AudioEvent): Boolean {
         val buffer = audioEvent.floatBuffer
-        val newBuffer = FloatArray(buffer.size / channels)
-        if (mean) {
-            if (channels == 2) {
-                var i = 0
-                while (i < buffer.size) {
-                    newBuffer[i / channels] = (buffer[i] + buffer[i + 1]) / 2.0f
-                    i += channels
+        val frames = buffer.size / channels
+        if (mono.size != frames) mono = FloatArray(frames)
+        val output = mono
+        if (audioEvent.channels == channels) {
+            val channelBuffers = audioEvent.channelBuffers
+            System.arraycopy(channelBuffers[0], 0, output, 0, frames)
+            if (mean) {
+                for (c in 1 until channels) {
+                    val channel = channelBuffers[c]
+                    for (i in 0 until frames) output[i] += channel[i]
                 }
-            } else {
-                var i = 0
-                while (i < buffer.size) {
-                    var sum = 0.0
-                    for (j in 0 until channels) {
-                        sum += buffer[i + j]
-                    }
-                    newBuffer[i / channels] = (sum / channels).toFloat()
-                    i += channels
+                val scale = 1f / channels
+                for (i in 0 until frames) output[i] *= scale
+            }
+        } else if (mean) {
+            // the event does not know the channel layout, mix the interleaved buffer
+            for (i in 0 until frames) {
+                var sum = 0.0
+                for (j in 0 until channels) {
+                    sum += buffer[i * channels + j]
                 }
+                output[i] = (sum / channels).toFloat()
             }
         } else {
-            var i = 0
-            while (i < buffer.size) {
-                newBuffer[i / channels] = buffer[i]
-                i += channels
-            }
+            for (i in 0 until frames) output[i] = buffer[i * channels]
         }
-        audioEvent.floatBuffer = newBuffer
+        audioEvent.floatBuffer = output
+        audioEvent.channels = 1
         return true
     }
 
     override fun processingFinished() {}
 
-}
\ No newline at end of file
+}
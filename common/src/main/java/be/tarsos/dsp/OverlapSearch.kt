@@ -0,0 +1,241 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp
+
+import be.tarsos.dsp.util.fft.FloatFFT
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
+
+/**
+ * Finds the offset at which a stretched sequence is joined in waveform similarity
+ * based overlap-add: the offset in the seek window where the input is most alike the
+ * end of the previous sequence, in terms of the cross-correlation over the overlap.
+ * A heuristic slightly favors offsets close to the middle of the seek window.
+ *
+ * The [Mode.BRUTE_FORCE] search computes a dot product of `overlapLength` samples at
+ * each of the `seekLength` offsets. [Mode.FFT] computes the same correlations for
+ * all offsets at once with a fast Fourier transform and finds the same offsets up to
+ * float rounding. [Mode.HIERARCHICAL] first searches every `decimation`-th offset
+ * using every `decimation`-th sample and then refines the best candidates at full
+ * resolution; it is the fastest but may miss a narrow correlation peak.
+ */
+class OverlapSearch @JvmOverloads constructor(
+    /**
+     * The number of samples that are mixed.
+     */
+    val overlapLength: Int,
+    /**
+     * The number of offsets to search.
+     */
+    val seekLength: Int,
+    /**
+     * The search algorithm.
+     */
+    val mode: Mode = Mode.BRUTE_FORCE,
+    /**
+     * The step of the coarse hierarchical search.
+     */
+    val decimation: Int = DEFAULT_DECIMATION
+) {
+    /**
+     * The search algorithms.
+     */
+    enum class Mode {
+        BRUTE_FORCE, HIERARCHICAL, FFT
+    }
+
+    private val reference = FloatArray(overlapLength)
+    private val fftSize: Int
+    private val fft: FloatFFT?
+    private val fftSamples: FloatArray
+    private val fftReference: FloatArray
+    private val correlation: FloatArray
+    private val candidates = IntArray(CANDIDATES)
+    private val candidateScores = DoubleArray(CANDIDATES)
+
+    /**
+     * The number of input samples, starting from the search position, that are read.
+     */
+    val windowLength: Int
+        get() = seekLength + overlapLength - 1
+
+    /**
+     * Searches the best offset.
+     *
+     * @param mid      The end of the previous sequence, `overlapLength` samples.
+     * @param samples  The input samples.
+     * @param position The index of the first input sample, [windowLength] samples
+     * from there on are read.
+     * @return The best offset from position, between zero and `seekLength`.
+     */
+    fun bestOffset(mid: FloatArray, samples: FloatArray, position: Int): Int {
+        // slope the amplitude of the mid buffer samples
+        var norm = 0.0
+        for (i in 0 until overlapLength) {
+            reference[i] = mid[i] * i * (overlapLength - i).toFloat()
+            norm += reference[i] * reference[i].toDouble()
+        }
+        // to avoid division by zero
+        if (norm < 1e-8) norm = 1.0
+        val scale = 1 / sqrt(norm)
+        return when (mode) {
+            Mode.BRUTE_FORCE -> bruteForce(samples, position, scale)
+            Mode.HIERARCHICAL -> hierarchical(samples, position, scale)
+            Mode.FFT -> fftSearch(samples, position, scale)
+        }
+    }
+
+    private fun score(correlation: Double, scale: Double, offset: Int): Double {
+        // heuristic rule to slightly favor values close to mid of the range
+        val tmp = (2 * offset - seekLength).toDouble() / seekLength
+        return (correlation * scale + 0.1) * (1.0 - 0.25 * tmp * tmp)
+    }
+
+    private fun dotProduct(samples: FloatArray, compare: Int, step: Int): Double {
+        var correlation = 0.0
+        var i = 1
+        while (i < overlapLength) {
+            correlation += reference[i] * samples[compare + i].toDouble()
+            i += step
+        }
+        return correlation
+    }
+
+    private fun bruteForce(samples: FloatArray, position: Int, scale: Double): Int {
+        var bestScore = -10.0
+        var bestOffset = 0
+        for (offset in 0 until seekLength) {
+            val score = score(dotProduct(samples, position + offset, 1), scale, offset)
+            if (score > bestScore) {
+                bestScore = score
+                bestOffset = offset
+            }
+        }
+        return bestOffset
+    }
+
+    private fun hierarchical(samples: FloatArray, position: Int, scale: Double): Int {
+        // coarse search, keeping the best few offsets
+        candidateScores.fill(Double.NEGATIVE_INFINITY)
+        var offset = 0
+        while (offset < seekLength) {
+            val score = score(decimation * dotProduct(samples, position + offset, decimation), scale, offset)
+            if (score > candidateScores[CANDIDATES - 1]) {
+                var c = CANDIDATES - 1
+                while (c > 0 && score > candidateScores[c - 1]) {
+                    candidateScores[c] = candidateScores[c - 1]
+                    candidates[c] = candidates[c - 1]
+                    c--
+                }
+                candidateScores[c] = score
+                candidates[c] = offset
+            }
+            offset += decimation
+        }
+        // refine around the candidates at full resolution
+        var bestScore = -10.0
+        var bestOffset = 0
+        for (c in 0 until CANDIDATES) {
+            if (candidateScores[c] == Double.NEGATIVE_INFINITY) break
+            val from = max(0, candidates[c] - decimation + 1)
+            val to = min(seekLength, candidates[c] + decimation)
+            for (o in from until to) {
+                val score = score(dotProduct(samples, position + o, 1), scale, o)
+                // ties are resolved in favour of the lowest offset, like the brute force search
+                if (score > bestScore || score == bestScore && o < bestOffset) {
+                    bestScore = score
+                    bestOffset = o
+                }
+            }
+        }
+        return bestOffset
+    }
+
+    private fun fftSearch(samples: FloatArray, position: Int, scale: Double): Int {
+        val fft = fft!!
+        val a = fftSamples
+        val b = fftReference
+        System.arraycopy(samples, position, a, 0, windowLength)
+        a.fill(0f, windowLength, fftSize)
+        b[0] = 0f
+        System.arraycopy(reference, 1, b, 1, overlapLength - 1)
+        b.fill(0f, overlapLength, fftSize)
+        fft.realForward(a)
+        fft.realForward(b)
+        // the spectrum of the cross-correlation: a times the complex conjugate of b
+        a[0] *= b[0]
+        a[1] *= b[1]
+        var k = 2
+        while (k < fftSize) {
+            val re = a[k] * b[k] + a[k + 1] * b[k + 1]
+            val im = a[k + 1] * b[k] - a[k] * b[k + 1]
+            a[k] = re
+            a[k + 1] = im
+            k += 2
+        }
+        fft.realInverse(a, true)
+        System.arraycopy(a, 0, correlation, 0, seekLength)
+        var bestScore = -10.0
+        var bestOffset = 0
+        for (offset in 0 until seekLength) {
+            val score = score(correlation[offset].toDouble(), scale, offset)
+            if (score > bestScore) {
+                bestScore = score
+                bestOffset = offset
+            }
+        }
+        return bestOffset
+    }
+
+    companion object {
+        /**
+         * The default step of the coarse hierarchical search.
+         */
+        const val DEFAULT_DECIMATION = 4
+
+        /**
+         * The number of coarse offsets refined by the hierarchical search.
+         */
+        private const val CANDIDATES = 3
+    }
+
+    init {
+        require(overlapLength > 0 && seekLength > 0) { "The overlap and seek length should be positive" }
+        require(decimation > 0) { "The decimation should be positive" }
+        if (mode == Mode.FFT) {
+            // no circular wrap around for the searched offsets
+            fftSize = Integer.highestOneBit(max(2, windowLength - 1)) shl 1
+            fft = FloatFFT(fftSize)
+            fftSamples = FloatArray(fftSize)
+            fftReference = FloatArray(fftSize)
+            correlation = FloatArray(seekLength)
+        } else {
+            fftSize = 0
+            fft = null
+            fftSamples = FloatArray(0)
+            fftReference = FloatArray(0)
+            correlation = FloatArray(0)
+        }
+    }
+}
@@ -2,56 +2,148 @@ package be.tarsos.dsp
 
 import be.tarsos.dsp.util.PI
 import be.tarsos.dsp.util.TWO_PI
-import be.tarsos.dsp.util.fft.FFT
+import be.tarsos.dsp.util.fft.FloatFFT
+import kotlin.math.abs
+import kotlin.math.atan2
 import kotlin.math.cos
+import kotlin.math.max
 import kotlin.math.sin
+import kotlin.math.sqrt
 
 /**
  * This is a translation of code by Stephan M. Bernsee. See the following explanation on this code:
  * [Pitch shifting using the STFT](http://www.dspdimension.com/admin/pitch-shifting-using-the-ft/).
  *
+ * Multichannel audio is shifted coherently: the true frequencies and so
+ * the phase advance of each bin are estimated once from the mid signal, the mean of
+ * all channels, and applied to every channel. Each channel keeps its own magnitudes
+ * and its phase difference with the mid signal, so the stereo image is preserved.
+ * Where the channels cancel out in the mid signal, as with channels in anti-phase,
+ * the phase of the mid signal is meaningless; those bins follow the strongest channel.
+ * Audio events should have the same number of channels; an event that was mixed
+ * down is rejected.
+ *
+ * The analysis window is a Hann window, the synthesis window is scaled so that the
+ * overlapping frames add up to unity gain for any overlap. All buffers are allocated
+ * once; the output buffer is reused for every audio event.
+ *
+ * With phase locking (Laroche and Dolson's identity phase locking) only the phases of
+ * spectral peaks are advanced; the bins around a peak keep their phase relation to
+ * the peak as measured in the analysis. This reduces the phasiness of the vocoder,
+ * especially with a small overlap, so fewer transforms per second can be used.
+ *
  * @author Joren Six
  * @author Stephan M. Bernsee
  */
-class PitchShifter(
+class PitchShifter @JvmOverloads constructor(
     private var pitchShiftRatio: Double,
     private val sampleRate: Double,
     private val size: Int,
-    overlap: Int
+    overlap: Int,
+    /**
+     * The number of interleaved channels in the audio buffers.
+     */
+    private val channels: Int = 1,
+    /**
+     * Lock the phases of the bins around each spectral peak to the phase of the peak.
+     */
+    private val phaseLocking: Boolean = false
 ) :
-    AudioProcessor {
-    private val fft: FFT = FFT(size)
-    private val currentMagnitudes: FloatArray = FloatArray(size / 2)
-    private val currentPhase: FloatArray = FloatArray(size / 2)
+    MultichannelAudioProcessor {
+    private val fft: FloatFFT = FloatFFT(size)
+    private val osamp: Int = size / (size - overlap)
+    private val stepSize: Int = size / osamp
+    private val excpt: Double = TWO_PI * (size - overlap).toDouble() / size.toDouble()
+    private val analysisWindow = FloatArray(size)
+    private val synthesisWindow = FloatArray(size)
+
+    private val fftData: FloatArray = FloatArray(size)
+    private val currentMagnitudes: Array<FloatArray> = Array(channels) { FloatArray(size / 2) }
+    private val currentPhase: Array<FloatArray> = Array(channels) { FloatArray(size / 2) }
+    private val midData: FloatArray = FloatArray(if (channels == 1) 0 else size)
+    private val midMagnitudes: FloatArray = FloatArray(if (channels == 1) 0 else size / 2)
+    private val midPhase: FloatArray = FloatArray(if (channels == 1) 0 else size / 2)
+    private val referenceChannel: IntArray = IntArray(if (channels == 1) 0 else size / 2)
+    private val referenceMagnitudes: FloatArray = FloatArray(if (channels == 1) 0 else size / 2)
+    private val referencePhase: FloatArray = FloatArray(if (channels == 1) 0 else size / 2)
+    private val previousChannelPhases: Array<FloatArray> = Array(if (channels == 1) 0 else channels) { FloatArray(size / 2) }
     private val currentFrequencies: FloatArray = FloatArray(size / 2)
-    private val outputAccumulator: FloatArray = FloatArray(size * 2)
-    private val summedPhase: FloatArray = FloatArray(size / 2)
     private val previousPhase: FloatArray = FloatArray(size / 2)
-    private val osamp: Long = size / (size - overlap).toLong()
-    private val excpt: Double = TWO_PI * (size - overlap).toDouble() / size.toDouble()
+
+    private val newMagnitudes: Array<FloatArray> = Array(channels) { FloatArray(size / 2) }
+    private val newPhaseOffsets: Array<FloatArray> = Array(channels) { FloatArray(size / 2) }
+    private val newFrequencies: FloatArray = FloatArray(size / 2)
+    private val newAnalysisPhase: FloatArray = FloatArray(if (phaseLocking) size / 2 else 0)
+    private val newPeakMagnitudes: FloatArray = FloatArray(if (phaseLocking) size / 2 else 0)
+    private val peaks: IntArray = IntArray(if (phaseLocking) size / 2 else 0)
+    private val summedPhase: FloatArray = FloatArray(size / 2)
+
+    private val outputAccumulator: Array<FloatArray> = Array(channels) { FloatArray(size) }
+    private var outputBuffer = FloatArray(size * channels)
+
+    init {
+        require(overlap in 0 until size) { "The overlap should be smaller than the size" }
+        require(channels > 0) { "The number of channels should be positive" }
+        for (i in 0 until size) {
+            analysisWindow[i] = (-.5 * cos(2.0 * PI * i.toDouble() / size.toDouble()) + .5).toFloat()
+        }
+        // least squares synthesis: the windowed frames overlap-add to unity
+        for (i in 0 until size) {
+            var sum = 0.0
+            var j = i % stepSize
+            while (j < size) {
+                sum += analysisWindow[j] * analysisWindow[j].toDouble()
+                j += stepSize
+            }
+            synthesisWindow[i] = if (sum > 1e-6) (analysisWindow[i] / sum).toFloat() else 0f
+        }
+    }
 
     override fun process(audioEvent: AudioEvent): Boolean {
         //see http://downloads.dspdimension.com/smbPitchShift.cpp
+        // a mixed down or mono event cannot be split into the channels
+        require(channels == 1 || audioEvent.channels == channels) {
+            "Expected $channels channels, got ${audioEvent.channels}"
+        }
+        val buffer = audioEvent.floatBuffer
 
         /* ***************** ANALYSIS ******************* */
-        val fftData = audioEvent.floatBuffer.clone()
-        for (i in 0 until size) {
-            val window =
-                (-.5 * cos(2.0 * PI * i.toDouble() / size.toDouble()) + .5).toFloat()
-            fftData[i] = window * fftData[i]
+        for (c in 0 until channels) {
+            if (channels > 1) {
+                val input = audioEvent.getChannelBuffer(c)
+                for (i in 0 until size) fftData[i] = analysisWindow[i] * input[i]
+            } else {
+                for (i in 0 until size) fftData[i] = analysisWindow[i] * buffer[i]
+            }
+            //Fourier transform the audio
+            fft.realForward(fftData)
+            //Calculate the magnitudes and phase information.
+            toPolar(fftData, currentMagnitudes[c], currentPhase[c])
+            //the transform is linear: the spectrum of the mid signal is the sum of the spectra
+            if (channels > 1) {
+                if (c == 0) System.arraycopy(fftData, 0, midData, 0, size)
+                else for (i in 0 until size) midData[i] += fftData[i]
+            }
+        }
+        val analysisMagnitudes: FloatArray
+        val analysisPhase: FloatArray
+        if (channels == 1) {
+            analysisMagnitudes = currentMagnitudes[0]
+            analysisPhase = currentPhase[0]
+        } else {
+            toPolar(midData, midMagnitudes, midPhase)
+            chooseReferences()
+            analysisMagnitudes = referenceMagnitudes
+            analysisPhase = referencePhase
         }
-        //Fourier transform the audio
-        fft.forwardTransform(fftData)
-        //Calculate the magnitudes and phase information.
-        fft.powerAndPhaseFromFFT(fftData, currentMagnitudes, currentPhase)
         val freqPerBin =
             (sampleRate / size.toFloat()).toFloat() // distance in Hz between FFT bins
         for (i in 0 until size / 2) {
-            val phase = currentPhase[i]
+            val phase = analysisPhase[i]
 
-            /* compute phase difference */
-            var tmp = phase - previousPhase[i].toDouble()
-            previousPhase[i] = phase
+            /* compute phase difference with the previous frame of the same signal */
+            val reference = if (channels == 1) -1 else referenceChannel[i]
+            var tmp = phase - (if (reference < 0) previousPhase[i] else previousChannelPhases[reference][i]).toDouble()
 
             /* subtract expected phase difference */tmp -= i.toDouble() * excpt
 
@@ -69,23 +161,36 @@ class PitchShifter(
             /* store magnitude and true frequency in analysis arrays */
             currentFrequencies[i] = tmp.toFloat()
         }
+        if (channels == 1) {
+            System.arraycopy(currentPhase[0], 0, previousPhase, 0, size / 2)
+        } else {
+            System.arraycopy(midPhase, 0, previousPhase, 0, size / 2)
+            for (c in 0 until channels) System.arraycopy(currentPhase[c], 0, previousChannelPhases[c], 0, size / 2)
+        }
 
         /* ***************** PROCESSING ******************* */
         /* this does the actual pitch shifting */
-        val newMagnitudes = FloatArray(size / 2)
-        val newFrequencies = FloatArray(size / 2)
+        for (c in 0 until channels) newMagnitudes[c].fill(0f)
+        newFrequencies.fill(0f)
+        if (phaseLocking) newPeakMagnitudes.fill(0f)
         for (i in 0 until size / 2) {
             val index = (i * pitchShiftRatio).toInt()
             if (index < size / 2) {
-                newMagnitudes[index] += currentMagnitudes[i]
+                for (c in 0 until channels) {
+                    newMagnitudes[c][index] += currentMagnitudes[c][i]
+                    if (channels > 1) newPhaseOffsets[c][index] = currentPhase[c][i] - analysisPhase[i]
+                }
                 newFrequencies[index] = (currentFrequencies[i] * pitchShiftRatio).toFloat()
+                if (phaseLocking) {
+                    // the phase relation is taken from the strongest of the bins shifted to the index
+                    if (analysisMagnitudes[i] > newPeakMagnitudes[index]) newAnalysisPhase[index] = analysisPhase[i]
+                    newPeakMagnitudes[index] = max(newPeakMagnitudes[index], analysisMagnitudes[i])
+                }
             }
         }
 
         ///Synthesis****
-        val newFFTData = FloatArray(size)
         for (i in 0 until size / 2) {
-            val magn = newMagnitudes[i]
             var tmp = newFrequencies[i].toDouble()
 
             /* subtract bin mid frequency */
@@ -102,36 +207,116 @@ class PitchShifter(
 
             /* accumulate delta phase to get bin phase */
             summedPhase[i] += tmp.toFloat()
-            val phase = summedPhase[i]
-
-            /* get real and imag part and re-interleave */
-            newFFTData[2 * i] = (magn * cos(phase.toDouble())).toFloat()
-            newFFTData[2 * i + 1] = (magn * sin(phase.toDouble())).toFloat()
         }
+        if (phaseLocking) lockPhases()
+
+        if (outputBuffer.size != buffer.size) outputBuffer = FloatArray(buffer.size)
+        outputBuffer.fill(0f, 0, (size - stepSize) * channels)
+        for (c in 0 until channels) {
+            val magnitudes = newMagnitudes[c]
+            val offsets = newPhaseOffsets[c]
+            for (i in 0 until size / 2) {
+                val phase = if (channels > 1) summedPhase[i] + offsets[i] else summedPhase[i]
 
-        /* zero negative frequencies */for (i in size / 2 + 2 until size) {
-            newFFTData[i] = 0f
+                /* get real and imag part and re-interleave */
+                fftData[2 * i] = (magnitudes[i] * cos(phase.toDouble())).toFloat()
+                fftData[2 * i + 1] = (magnitudes[i] * sin(phase.toDouble())).toFloat()
+            }
+            /* the imaginary part of the DC bin holds the Nyquist bin, which is left out */
+            fftData[1] = 0f
+            fft.realInverse(fftData, true)
+            val accumulator = outputAccumulator[c]
+            for (i in 0 until size) {
+                accumulator[i] += synthesisWindow[i] * fftData[i]
+            }
+            for (i in 0 until stepSize) {
+                outputBuffer[(size - stepSize + i) * channels + c] = accumulator[i]
+            }
+            System.arraycopy(accumulator, stepSize, accumulator, 0, size - stepSize)
+            accumulator.fill(0f, size - stepSize, size)
         }
-        fft.backwardsTransform(newFFTData)
-        for (i in newFFTData.indices) {
-            val window =
-                (-.5 * cos(2.0 * PI * i.toDouble() / size.toDouble()) + .5).toFloat()
-            //outputAccumulator[i] += 2000*window*newFFTData[i]/(float) (size*osamp);
-            outputAccumulator[i] += window * newFFTData[i] / osamp.toFloat()
-            if (outputAccumulator[i] > 1.0 || outputAccumulator[i] < -1.0) {
-                System.err.println("Clipping!")
+        audioEvent.floatBuffer = outputBuffer
+        return true
+    }
+
+    /**
+     * Converts the packed real transform to magnitudes and phases. The DC bin is real;
+     * the Nyquist bin is ignored.
+     */
+    /**
+     * Selects the signal from which the phase advance of each bin is estimated: the mid
+     * signal, or the strongest channel where the channels cancel out in the mid signal.
+     */
+    private fun chooseReferences() {
+        for (i in 0 until size / 2) {
+            var strongest = 0
+            for (c in 1 until channels) if (currentMagnitudes[c][i] > currentMagnitudes[strongest][i]) strongest = c
+            val magnitude = currentMagnitudes[strongest][i]
+            if (midMagnitudes[i] < CANCELLATION_RATIO * magnitude) {
+                referenceChannel[i] = strongest
+                referenceMagnitudes[i] = magnitude
+                referencePhase[i] = currentPhase[strongest][i]
+            } else {
+                referenceChannel[i] = -1
+                referenceMagnitudes[i] = midMagnitudes[i]
+                referencePhase[i] = midPhase[i]
             }
         }
-        val stepSize = (size / osamp).toInt()
+    }
 
+    private fun toPolar(data: FloatArray, magnitudes: FloatArray, phases: FloatArray) {
+        magnitudes[0] = abs(data[0])
+        phases[0] = if (data[0] < 0) PI else 0f
+        for (i in 1 until size / 2) {
+            val re = data[2 * i]
+            val im = data[2 * i + 1]
+            magnitudes[i] = sqrt(re * re + im * im)
+            phases[i] = atan2(im, re)
+        }
+    }
 
-        //Arrays.fill(audioBuffer, 0);
-        System.arraycopy(outputAccumulator, stepSize, outputAccumulator, 0, size)
-        val audioBuffer = FloatArray(audioEvent.floatBuffer.size)
-        audioEvent.floatBuffer = audioBuffer
-        System.arraycopy(outputAccumulator, 0, audioBuffer, size - stepSize, stepSize)
-        return true
+    /**
+     * Identity phase locking: each bin gets the synthesis phase of the nearest peak
+     * plus the analysis phase difference with that peak. The bins between two peaks
+     * are split at the bin with the smallest magnitude.
+     */
+    private fun lockPhases() {
+        val magnitudes = newPeakMagnitudes
+        val bins = size / 2
+        var peakCount = 0
+        for (i in 1 until bins) {
+            val m = magnitudes[i]
+            if (m > magnitudes[i - 1] && (i < 2 || m > magnitudes[i - 2]) &&
+                (i + 1 >= bins || m >= magnitudes[i + 1]) && (i + 2 >= bins || m >= magnitudes[i + 2])
+            ) {
+                peaks[peakCount++] = i
+            }
+        }
+        var from = 0
+        for (p in 0 until peakCount) {
+            val peak = peaks[p]
+            var to = bins
+            if (p + 1 < peakCount) {
+                // the region of this peak ends at the lowest bin before the next peak
+                to = peak + 1
+                for (i in peak + 1 until peaks[p + 1]) if (magnitudes[i] < magnitudes[to]) to = i
+            }
+            val peakPhase = summedPhase[peak]
+            val peakAnalysisPhase = newAnalysisPhase[peak]
+            for (i in from until to) {
+                if (i != peak) summedPhase[i] = peakPhase + newAnalysisPhase[i] - peakAnalysisPhase
+            }
+            from = to
+        }
     }
 
     override fun processingFinished() {}
-}
\ No newline at end of file
+
+    companion object {
+        /**
+         * A bin follows the strongest channel when the magnitude of the mid signal is
+         * below this fraction (-20dB) of the magnitude of that channel.
+         */
+        private const val CANCELLATION_RATIO = 0.1f
+    }
+}
@@ -48,6 +48,11 @@ import kotlin.math.pow
  * http://www.surina.net/soundtouch, especially the TDStrech.cpp file.
  *
  *
+ * This processor changes the buffer size of its dispatcher after every buffer. To
+ * stretch audio without a dispatcher, or next to other processors, see
+ * [WaveformSimilarityTimeStretcher].
+ *
+ *
  * @author Joren Six
  * @author Olli Parviainen
  */
@@ -87,7 +92,7 @@ class WaveformSimilarityBasedOverlapAdd(params: Parameters) :
         val nominalSkip = tempo * (seekWindowLength - overlapLength)
         intskip = (nominalSkip + 0.5).toInt()
         inputBufferSize = max(intskip + overlapLength, seekWindowLength) + seekLength
-        outputFloatBuffer = outputFloatBuffer.sliceArray(0..outputBufferSize)
+        if (outputFloatBuffer.size != outputBufferSize) outputFloatBuffer = FloatArray(outputBufferSize)
         lastParams = params
     }
 
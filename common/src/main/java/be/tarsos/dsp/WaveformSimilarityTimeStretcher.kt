@@ -0,0 +1,421 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp
+
+import be.tarsos.dsp.WaveformSimilarityBasedOverlapAdd.Parameters
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
+import be.tarsos.dsp.util.FloatFifo
+import kotlin.math.max
+
+/**
+ * A streaming time stretcher using waveform similarity based overlap-add (WSOLA),
+ * see [WaveformSimilarityBasedOverlapAdd] for the algorithm. Unlike that processor
+ * it does not change the buffer size of the dispatcher: samples are collected in an
+ * input queue, stretched into an output queue and can be put and received in blocks
+ * of any size. The tempo and the other parameters can be changed at any time.
+ *
+ * The stretcher can be driven directly with [putSamples] and [receiveSamples], for
+ * example to stretch many voices independently. As an [AudioProcessor] it takes the
+ * new samples of each buffer without changing the buffer, so other processors can
+ * analyse the original audio. The stretched audio is passed in blocks of
+ * `blockSize` samples to the processors added with [addOutputProcessor].
+ *
+ * Searching the best overlap position is the most expensive part of the algorithm;
+ * a faster [OverlapSearch.Mode] can be selected with [searchMode].
+ *
+ * Multichannel audio is stretched coherently: the overlap position is searched once
+ * on the mid signal, the mean of all channels, and every channel is cut and mixed at
+ * that position. The channels are kept in separate queues; interleaved audio is
+ * split when it is put and interleaved again when it is received. With more than one
+ * channel, lengths and offsets count frames of one sample per channel. Audio events
+ * are read from their channel buffers and should have the same number of channels;
+ * an event that was mixed down is rejected.
+ *
+ * Inspired by the work soundtouch by Olli Parviainen,
+ * http://www.surina.net/soundtouch, especially the TDStrech.cpp file.
+ *
+ * @author Olli Parviainen
+ */
+class WaveformSimilarityTimeStretcher @JvmOverloads constructor(
+    params: Parameters,
+    /**
+     * The number of frames in the buffers passed to the output processors.
+     */
+    private val blockSize: Int = DEFAULT_BLOCK_SIZE,
+    searchMode: OverlapSearch.Mode = OverlapSearch.Mode.BRUTE_FORCE,
+    /**
+     * The number of channels.
+     */
+    val channels: Int = 1
+) : MultichannelAudioProcessor {
+    private var seekWindowLength = 0
+    private var seekLength = 0
+    private var overlapLength = 0
+    private var search: OverlapSearch? = null
+
+    /**
+     * The number of input samples to advance per sequence and the fraction that is
+     * carried over to the next sequence.
+     */
+    private var nominalSkip = 0.0
+    private var skipFraction = 0.0
+
+    /**
+     * The number of input samples needed to process a sequence.
+     */
+    private var sampleRequirement = 0
+
+    /**
+     * The queues and the end of the previous sequence of each channel.
+     */
+    private val inputs: Array<FloatFifo>
+    private val outputs: Array<FloatFifo>
+    private val midBuffers: Array<FloatArray>
+
+    /**
+     * The mid signal the overlap position is searched in; the only channel for mono audio.
+     */
+    private val mixInput: FloatFifo
+    private var mixMidBuffer = FloatArray(0)
+
+    private val outputProcessors = ArrayList<AudioProcessor>()
+    private val outputFormat: TarsosDSPAudioFormat
+    private val block: FloatArray
+    private val outputEvent: AudioEvent
+    private var outputFrames = 0L
+    private var firstEvent = true
+
+    /**
+     * The current parameters.
+     */
+    var parameters = params
+        private set
+
+    /**
+     * The algorithm that searches the best overlap position, see [OverlapSearch].
+     */
+    var searchMode = searchMode
+        set(value) {
+            field = value
+            search = null
+            setParameters(parameters)
+        }
+
+    /**
+     * The tempo change: 1.0 means unchanged, 2.0 is twice as fast, 0.5 half as fast.
+     */
+    var tempo: Double
+        get() = parameters.tempo
+        set(value) {
+            setParameters(parameters.copy(tempo = value))
+        }
+
+    init {
+        require(blockSize > 0) { "The block size should be positive" }
+        require(channels > 0) { "The number of channels should be positive" }
+        inputs = Array(channels) { FloatFifo() }
+        outputs = Array(channels) { FloatFifo() }
+        midBuffers = Array(channels) { FloatArray(0) }
+        mixInput = if (channels == 1) inputs[0] else FloatFifo()
+        setParameters(params)
+        outputFormat = TarsosDSPAudioFormat(params.sampleRate.toFloat(), 16, channels, true, false)
+        block = FloatArray(blockSize * channels)
+        outputEvent = AudioEvent(outputFormat, block)
+    }
+
+    /**
+     * Applies new parameters. Buffers are only reallocated when the overlap is longer
+     * than before or the queues need more room.
+     *
+     * @param params The new parameters, with the same sample rate.
+     */
+    fun setParameters(params: Parameters) {
+        require(params.tempo > 0) { "The tempo should be positive" }
+        overlapLength = max(1, (params.sampleRate * params.overlapMs / 1000).toInt())
+        seekWindowLength = max(2 * overlapLength, (params.sampleRate * params.sequenceMs / 1000).toInt())
+        seekLength = max(1, (params.sampleRate * params.seekWindowMs / 1000).toInt())
+        for (c in midBuffers.indices) midBuffers[c] = grow(midBuffers[c])
+        if (channels > 1) mixMidBuffer = grow(mixMidBuffer)
+        val current = search
+        if (current == null || current.overlapLength != overlapLength || current.seekLength != seekLength) {
+            search = OverlapSearch(overlapLength, seekLength, searchMode)
+        }
+        nominalSkip = params.tempo * (seekWindowLength - overlapLength)
+        val intSkip = (nominalSkip + 0.5).toInt()
+        sampleRequirement = max(intSkip + overlapLength, seekWindowLength) + seekLength
+        for (input in inputs) input.ensureCapacity(2 * sampleRequirement)
+        mixInput.ensureCapacity(2 * sampleRequirement)
+        for (output in outputs) output.ensureCapacity(2 * (seekWindowLength + blockSize))
+        parameters = params
+    }
+
+    private fun grow(midBuffer: FloatArray): FloatArray {
+        if (midBuffer.size >= overlapLength) return midBuffer
+        val grown = FloatArray(overlapLength)
+        System.arraycopy(midBuffer, 0, grown, 0, midBuffer.size)
+        return grown
+    }
+
+    /**
+     * The number of samples the stretcher adds to the output for each processed
+     * sequence of input samples.
+     */
+    val sequenceOutputLength: Int
+        get() = seekWindowLength - overlapLength
+
+    /**
+     * Adds input samples and stretches as many sequences as possible.
+     *
+     * @param samples The input samples, interleaved if there is more than one channel.
+     * @param offset  The index of the first sample.
+     * @param length  The number of frames.
+     */
+    fun putSamples(samples: FloatArray, offset: Int, length: Int) {
+        if (channels == 1) {
+            inputs[0].put(samples, offset, length)
+        } else {
+            for (c in 0 until channels) {
+                val input = inputs[c]
+                val index = input.extend(length)
+                val buffer = input.buffer
+                var source = offset + c
+                for (i in index until index + length) {
+                    buffer[i] = samples[source]
+                    source += channels
+                }
+            }
+            mixChannels(length)
+        }
+        processSequences()
+    }
+
+    /**
+     * Adds input samples with one array per channel and stretches as many sequences
+     * as possible.
+     *
+     * @param samples The input samples of each channel.
+     * @param offset  The index of the first sample.
+     * @param length  The number of samples per channel.
+     */
+    fun putSamples(samples: Array<FloatArray>, offset: Int, length: Int) {
+        require(samples.size == channels) { "Expected $channels channels, got ${samples.size}" }
+        for (c in 0 until channels) inputs[c].put(samples[c], offset, length)
+        if (channels > 1) mixChannels(length)
+        processSequences()
+    }
+
+    /**
+     * Appends the mean of the last samples of all channels to the mid signal.
+     */
+    private fun mixChannels(length: Int) {
+        val index = mixInput.extend(length)
+        val mix = mixInput.buffer
+        for (c in 0 until channels) {
+            val input = inputs[c]
+            val buffer = input.buffer
+            val from = input.position + input.size - length
+            if (c == 0) System.arraycopy(buffer, from, mix, index, length)
+            else for (i in 0 until length) mix[index + i] += buffer[from + i]
+        }
+        val scale = 1f / channels
+        for (i in index until index + length) mix[i] *= scale
+    }
+
+    /**
+     * The number of stretched frames that can be received.
+     */
+    val availableSamples: Int
+        get() = outputs[0].size
+
+    /**
+     * Takes stretched samples from the output queue.
+     *
+     * @param target The array to copy the samples to, interleaved if there is more
+     * than one channel.
+     * @param offset The index in target of the first sample.
+     * @param length The maximum number of frames.
+     * @return The number of frames copied.
+     */
+    fun receiveSamples(target: FloatArray, offset: Int, length: Int): Int {
+        if (channels == 1) return outputs[0].take(target, offset, length)
+        val frames = minOf(length, availableSamples)
+        for (c in 0 until channels) {
+            val output = outputs[c]
+            val buffer = output.buffer
+            var index = offset + c
+            for (i in output.position until output.position + frames) {
+                target[index] = buffer[i]
+                index += channels
+            }
+            output.skip(frames)
+        }
+        return frames
+    }
+
+    /**
+     * Takes stretched samples from the output queue, with one array per channel.
+     *
+     * @param target The arrays to copy the samples of each channel to.
+     * @param offset The index in target of the first sample.
+     * @param length The maximum number of samples per channel.
+     * @return The number of samples per channel copied.
+     */
+    fun receiveSamples(target: Array<FloatArray>, offset: Int, length: Int): Int {
+        require(target.size == channels) { "Expected $channels channels, got ${target.size}" }
+        val frames = minOf(length, availableSamples)
+        for (c in 0 until channels) outputs[c].take(target[c], offset, frames)
+        return frames
+    }
+
+    /**
+     * Adds silence to process the remaining input samples, for example at the end of a stream.
+     */
+    fun flush() {
+        for (input in inputs) input.putSilence(sampleRequirement)
+        if (channels > 1) mixInput.putSilence(sampleRequirement)
+        processSequences()
+        for (input in inputs) input.clear()
+        mixInput.clear()
+    }
+
+    /**
+     * Clears the queues and the overlap, keeping the parameters.
+     */
+    fun clear() {
+        for (c in 0 until channels) {
+            inputs[c].clear()
+            outputs[c].clear()
+            midBuffers[c].fill(0f)
+        }
+        mixInput.clear()
+        mixMidBuffer.fill(0f)
+        skipFraction = 0.0
+        outputFrames = 0
+        firstEvent = true
+    }
+
+    private fun processSequences() {
+        val sequenceLength = seekWindowLength - 2 * overlapLength
+        while (mixInput.size >= sampleRequirement) {
+            val offset = search!!.bestOffset(if (channels == 1) midBuffers[0] else mixMidBuffer, mixInput.buffer, mixInput.position)
+            for (c in 0 until channels) {
+                val samples = inputs[c].buffer
+                val start = inputs[c].position + offset
+                val midBuffer = midBuffers[c]
+                val output = outputs[c]
+                // mix the start of the sequence with the end of the previous one
+                val index = output.extend(seekWindowLength - overlapLength)
+                val out = output.buffer
+                for (i in 0 until overlapLength) {
+                    out[index + i] = (samples[start + i] * i + midBuffer[i] * (overlapLength - i)) / overlapLength
+                }
+                // copy the sequence and keep its end to mix with the next sequence
+                System.arraycopy(samples, start + overlapLength, out, index + overlapLength, sequenceLength)
+                System.arraycopy(samples, start + overlapLength + sequenceLength, midBuffer, 0, overlapLength)
+            }
+            if (channels > 1) {
+                val start = mixInput.position + offset + overlapLength + sequenceLength
+                System.arraycopy(mixInput.buffer, start, mixMidBuffer, 0, overlapLength)
+            }
+
+            skipFraction += nominalSkip
+            val skip = skipFraction.toInt()
+            skipFraction -= skip
+            for (input in inputs) input.skip(skip)
+            if (channels > 1) mixInput.skip(skip)
+        }
+    }
+
+    /**
+     * Adds a processor that receives the stretched audio in blocks of `blockSize`
+     * frames when the stretcher is used as an [AudioProcessor].
+     *
+     * @param processor The processor to add.
+     */
+    fun addOutputProcessor(processor: AudioProcessor) {
+        outputProcessors.add(processor)
+    }
+
+    /**
+     * @param processor The processor to remove.
+     */
+    fun removeOutputProcessor(processor: AudioProcessor) {
+        outputProcessors.remove(processor)
+    }
+
+    override fun process(audioEvent: AudioEvent): Boolean {
+        // a mixed down or mono event cannot be split into the channels
+        require(channels == 1 || audioEvent.channels == channels) {
+            "Expected $channels channels, got ${audioEvent.channels}"
+        }
+        val buffer = audioEvent.floatBuffer
+        // the overlapping samples were already added with the previous buffer
+        val first = if (firstEvent) 0 else audioEvent.overlap
+        firstEvent = false
+        if (channels > 1) {
+            putSamples(audioEvent.channelBuffers, first / channels, (buffer.size - first) / channels)
+        } else {
+            putSamples(buffer, first, (buffer.size - first) / channels)
+        }
+        emitBlocks()
+        return true
+    }
+
+    private fun emitBlocks() {
+        while (availableSamples >= blockSize) {
+            receiveSamples(block, 0, blockSize)
+            emitBlock()
+        }
+    }
+
+    private fun emitBlock() {
+        // an output processor may have replaced the buffer or mixed the channels down
+        outputEvent.floatBuffer = block
+        outputEvent.channels = channels
+        outputEvent.setBytesProcessed(outputFrames * outputFormat.frameSize)
+        outputFrames += blockSize
+        for (processor in outputProcessors) {
+            if (!processor.process(outputEvent)) break
+            if (processor !is MultichannelAudioProcessor) outputEvent.invalidateChannelBuffers()
+        }
+    }
+
+    override fun processingFinished() {
+        flush()
+        emitBlocks()
+        val remaining = availableSamples
+        if (remaining > 0) {
+            receiveSamples(block, 0, remaining)
+            block.fill(0f, remaining * channels, block.size)
+            emitBlock()
+        }
+        for (processor in outputProcessors) processor.processingFinished()
+    }
+
+    companion object {
+        /**
+         * The default number of frames in the buffers passed to the output processors.
+         */
+        const val DEFAULT_BLOCK_SIZE = 1024
+    }
+}
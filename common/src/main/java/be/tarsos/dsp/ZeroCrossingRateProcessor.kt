@@ -32,16 +32,28 @@ class ZeroCrossingRateProcessor : AudioProcessor {
         private set
 
     override fun process(audioEvent: AudioEvent): Boolean {
-        val buffer = audioEvent.floatBuffer
-        var numberOfZeroCrossings = 0
-        for (i in 1 until buffer.size) {
-            if (buffer[i] * buffer[i - 1] < 0) {
-                numberOfZeroCrossings++
-            }
-        }
-        zeroCrossingRate = numberOfZeroCrossings / (buffer.size - 1).toFloat()
+        zeroCrossingRate = calculateZeroCrossingRate(audioEvent.floatBuffer)
         return true
     }
 
     override fun processingFinished() {}
+
+    companion object {
+        /**
+         * Calculates the zero crossing rate of a buffer: the number of sign
+         * changes divided by the number of sample pairs.
+         *
+         * @param buffer The buffer with audio information.
+         * @return The zero crossing rate, a value between zero and one.
+         */
+        fun calculateZeroCrossingRate(buffer: FloatArray): Float {
+            var numberOfZeroCrossings = 0
+            for (i in 1 until buffer.size) {
+                if (buffer[i] * buffer[i - 1] < 0) {
+                    numberOfZeroCrossings++
+                }
+            }
+            return numberOfZeroCrossings / (buffer.size - 1).toFloat()
+        }
+    }
 }
\ No newline at end of file
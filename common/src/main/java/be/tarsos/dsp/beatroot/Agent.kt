@@ -103,23 +103,38 @@ class Agent {
     var beatTime = 0.0
 
     /**
-     * The list of Events (onsets) accepted by this Agent as beats, plus interpolated beats.
+     * The onsets accepted by this Agent as beats, plus interpolated beats.
      */
     @JvmField
-    var events: EventList
+    var beats: EventStore
 
     /**
      * The Agent's unique identity number.
      */
     protected var idNumber = 0
 
+    /**
+     * The index of this Agent in the evaluation of the current event by
+     * [AgentList.beatTrack], or -1 when it has not been evaluated.
+     */
+    internal var evaluation = -1
+
     /**
      * Copy constructor.
      *
      * @param clone The Agent to duplicate.
      */
-    constructor(clone: Agent) {
-        idNumber = idCounter++
+    constructor(clone: Agent) : this(clone, true)
+
+    /**
+     * Copy constructor.
+     *
+     * @param clone    The Agent to duplicate.
+     * @param assignId Assign the next identity number, otherwise
+     * [assignIdNumber] needs to be called.
+     */
+    private constructor(clone: Agent, assignId: Boolean) {
+        if (assignId) idNumber = idCounter++
         phaseScore = clone.phaseScore
         tempoScore = clone.tempoScore
         topScoreTime = clone.topScoreTime
@@ -127,7 +142,7 @@ class Agent {
         beatInterval = clone.beatInterval
         initialBeatInterval = clone.initialBeatInterval
         beatTime = clone.beatTime
-        events = EventList(clone.events)
+        beats = EventStore(clone.beats)
         postMargin = clone.postMargin
         preMargin = clone.preMargin
     } // copy constructor
@@ -153,8 +168,17 @@ class Agent {
         topScoreTime = 0.0
         beatCount = 0
         beatTime = -1.0
-        events = EventList()
+        beats = EventStore()
     } // init()
+
+    /**
+     * Creates a list of the Events (onsets) accepted by this Agent as beats, plus
+     * interpolated beats. The list is a copy: changing it does not change [beats].
+     *
+     * @return A new list with the beats of this Agent.
+     */
+    fun toEventList(): EventList = beats.toEventList()
+
     /**
      * Output debugging information about this Agent.
      *
@@ -174,19 +198,20 @@ class Agent {
             )
         }
         if (level >= 2) println()
-        if (level >= 3) events.print()
+        if (level >= 3) toEventList().print()
     } // print()
     // print()/0
     /**
      * Accept a new Event as a beat time, and update the state of the Agent accordingly.
      *
-     * @param e     The Event which is accepted as being on the beat.
-     * @param err   The difference between the predicted and actual beat times.
-     * @param beats The number of beats since the last beat that matched an Event.
+     * @param time     The time of the Event which is accepted as being on the beat.
+     * @param salience The salience of the Event.
+     * @param err      The difference between the predicted and actual beat times.
+     * @param beats    The number of beats since the last beat that matched an Event.
      */
-    protected fun accept(e: Event, err: Double, beats: Int) {
-        beatTime = e.keyDown
-        events.add(e)
+    protected fun accept(time: Double, salience: Double, err: Double, beats: Int) {
+        beatTime = time
+        this.beats.add(time, salience)
         if (abs(
                 initialBeatInterval - beatInterval - err / correctionFactor
             ) < MAX_CHANGE * initialBeatInterval
@@ -201,8 +226,8 @@ class Agent {
                 decayFactor
             )
             phaseScore = memFactor * phaseScore +
-                    (1.0 - memFactor) * conFactor * e.salience
-        } else phaseScore += conFactor * e.salience
+                    (1.0 - memFactor) * conFactor * salience
+        } else phaseScore += conFactor * salience
         if (debug) {
             print(1)
             System.out.printf(
@@ -232,27 +257,60 @@ class Agent {
      * @return Indicate whether the given Event was accepted as a beat by this Agent.
      */
     fun considerAsBeat(e: Event, a: AgentList): Boolean {
+        return considerAsBeat(e.keyDown, e.salience, a)
+    } // considerAsBeat()
+
+    /**
+     * The given Event is tested for a possible beat time, see [considerAsBeat].
+     *
+     * @param time     The time of the Event to be tested
+     * @param salience The salience of the Event to be tested
+     * @param a        The list of all agents, which is updated if a new agent is created.
+     * @return Indicate whether the given Event was accepted as a beat by this Agent.
+     */
+    fun considerAsBeat(time: Double, salience: Double, a: AgentList): Boolean {
+        return considerAsBeat(time, salience, a, null, 0)
+    } // considerAsBeat()
+
+    /**
+     * The given Event is tested for a possible beat time, see [considerAsBeat].
+     * A new Agent is either added to the list of agents or, to evaluate agents
+     * in parallel, stored without an identity number in `forks[index]`.
+     */
+    internal fun considerAsBeat(
+        time: Double, salience: Double,
+        a: AgentList?, forks: Array<Agent?>?, index: Int
+    ): Boolean {
         val err: Double
         if (beatTime < 0) {    // first event
-            accept(e, 0.0, 1)
+            accept(time, salience, 0.0, 1)
             return true
         } else {            // subsequent events
-            if (e.keyDown - events.l.last.keyDown > expiryTime) {
+            if (time - beats.lastTime > expiryTime) {
                 phaseScore = -1.0 // flag agent to be deleted
                 return false
             }
-            val beats = ((e.keyDown - beatTime) / beatInterval).roundToLong().toDouble()
-            err = e.keyDown - beatTime - beats * beatInterval
+            val beats = ((time - beatTime) / beatInterval).roundToLong().toDouble()
+            err = time - beatTime - beats * beatInterval
             if (beats > 0 && -preMargin <= err && err <= postMargin) {
-                if (abs(err) > innerMargin) // Create new agent that skips this
-                    a.add(Agent(this)) //  event (avoids large phase jump)
-                accept(e, err, beats.toInt())
+                if (abs(err) > innerMargin) { // Create new agent that skips this
+                    if (a != null) a.add(Agent(this)) //  event (avoids large phase jump)
+                    else forks!![index] = Agent(this, false)
+                }
+                accept(time, salience, err, beats.toInt())
                 return true
             }
         }
         return false
     } // considerAsBeat()
 
+    /**
+     * Assigns the next identity number to an Agent created without one.
+     */
+    internal fun assignIdNumber() {
+        idNumber = idCounter++
+    }
+
     /**
      * Interpolates missing beats in the Agent's beat track, starting from the beginning of the piece.
      */
@@ -270,16 +328,14 @@ class Agent {
         var nextBeat: Double
         var currentInterval: Double
         var beats: Double
-        val list = events.listIterator()
-        if (list.hasNext()) {
-            prevBeat = list.next().keyDown
+        val filled = EventStore(this.beats.size)
+        if (this.beats.size > 0) {
+            prevBeat = this.beats.time(0)
             // alt. to fill from 0:
-            // prevBeat = Math.mod(list.next().keyDown, beatInterval);
-            list.previous()
+            // prevBeat = Math.mod(this.beats.time(0), beatInterval);
         }
-        while (list.hasNext()) {
-            nextBeat = list.next().keyDown
-            list.previous()
+        for (i in 0 until this.beats.size) {
+            nextBeat = this.beats.time(i)
             beats = ((nextBeat - prevBeat) / beatInterval - 0.01).roundToLong().toDouble() //prefer slow
             currentInterval = (nextBeat - prevBeat) / beats
             while (nextBeat > start && beats > 1.5) {
@@ -288,24 +344,14 @@ class Agent {
                     "Insert beat at: %8.3f (n=%1.0f)\n",
                     prevBeat, beats - 1.0
                 )
-                list.add(newBeat(prevBeat, 0)) // more than once OK??
+                filled.add(prevBeat, 0.0, EventStore.INTERPOLATED) // more than once OK??
                 beats--
             }
             prevBeat = nextBeat
-            list.next()
+            filled.add(nextBeat, this.beats.salience(i), this.beats.flags(i))
         }
+        this.beats = filled
     } // fillBeats()
-
-    /**
-     * Creates a new Event object representing a beat.
-     *
-     * @param time    The time of the beat in seconds
-     * @param beatNum The index of the beat
-     * @return The Event object representing the beat
-     */
-    private fun newBeat(time: Double, beatNum: Int): Event {
-        return Event(time, time, time, 56, 64, beatNum.toDouble(), 0.0, 1)
-    } // newBeat()
     /**
      * Show detailed debugging output describing the beat tracking behaviour of this agent.
      *
@@ -325,23 +371,23 @@ class Agent {
         var prevBeat: Double
         var nextBeat: Double
         var gap: Double
-        val beats = events.listIterator() // point to 1st beat
+        var beat = 0 // point to 1st beat
         val all = allEvents.listIterator() // point to 1st event
-        if (!beats.hasNext()) {
+        if (beats.size == 0) {
             System.err.println("No beats found")
             return
         }
-        prevBeat = events.l.first.keyDown
+        prevBeat = beats.time(0)
         // prevBeat = fmod(beats.next().keyDown, beatInterval);
         print("Beat  (IBI)   BeatTime   Other Events")
         var first = true
         while (all.hasNext()) {    // print each real event
             val currentEvent = all.next()
-            var currentBeat: Event? = null
-            while (beats.hasNext()) {    // if event was chosen as beat
-                currentBeat = beats.next()
-                if (currentBeat.keyDown > currentEvent.keyDown + Induction.clusterWidth) break
-                gap = currentBeat.keyDown - prevBeat
+            var currentBeat = -1.0
+            while (beat < beats.size) {    // if event was chosen as beat
+                currentBeat = beats.time(beat++)
+                if (currentBeat > currentEvent.keyDown + Induction.clusterWidth) break
+                gap = currentBeat - prevBeat
                 gapCount = (gap / beatInterval).roundToLong().toInt()
                 for (j in 1 until gapCount) {    //empty beat(s) before event
                     nextBeat = prevBeat + gap / gapCount
@@ -355,12 +401,12 @@ class Agent {
                     "\n%4d (%5.3f) ",
                     count++, currentEvent.keyDown - prevBeat
                 )
-                prevBeat = currentBeat.keyDown
-                currentBeat = null
+                prevBeat = currentBeat
+                currentBeat = -1.0
                 first = false
             }
-            if (currentBeat != null && currentBeat.keyDown > currentEvent.keyDown) {
-                gap = currentBeat.keyDown - prevBeat
+            if (currentBeat >= 0 && currentBeat > currentEvent.keyDown) {
+                gap = currentBeat - prevBeat
                 gapCount = (gap / beatInterval).roundToInt()
                 for (j in 1 until gapCount) {    //empty beat(s) before event
                     nextBeat = prevBeat + gap / gapCount
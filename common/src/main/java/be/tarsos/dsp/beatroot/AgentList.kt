@@ -40,33 +40,50 @@
 */
 package be.tarsos.dsp.beatroot
 
+import be.tarsos.dsp.util.ConcurrencyUtils
+import java.util.concurrent.Future
 import kotlin.math.abs
+import kotlin.math.min
 
 /**
  * Class for maintaining the set of all Agents involved in beat tracking a piece of music.
- * Implements a simple linked list terminated by an AgentList with a null Agent (ag).
+ * The Agents are kept in an array in ascending order of beatInterval. For each event all
+ * Agents are evaluated, in parallel when there are many of them, after which new Agents
+ * are merged into the list as a sequential evaluation would, so the outcome does not
+ * depend on the number of threads.
  */
-class AgentList @JvmOverloads constructor(
+class AgentList {
+    private var agents = arrayOfNulls<Agent>(INITIAL_CAPACITY)
+
     /**
-     * A beat tracking Agent
+     * Per event state: the beat intervals before evaluation,
+     * whether an agent accepted the event and the agents it forked.
      */
-    var ag: Agent? = null,
+    private var intervals = DoubleArray(INITIAL_CAPACITY)
+    private var accepted = BooleanArray(INITIAL_CAPACITY)
+    private var forks = arrayOfNulls<Agent>(INITIAL_CAPACITY)
+
+    /**
+     * The length of the list (number of beat tracking Agents)
+     */
+    var size = 0
+        private set
+
     /**
-     * The remainder of the linked list
+     * @param index The index of the Agent, in ascending order of beatInterval.
+     * @return The Agent at the given index.
      */
-    var next: AgentList? = null
-) {
+    operator fun get(index: Int): Agent {
+        require(index in 0 until size) { "Index $index out of bounds for size $size" }
+        return agents[index]!!
+    }
 
     /**
      * Deep print of AgentList for debugging
      */
     fun print() {
-        println("agentList.print: (size=$count)")
-        var ptr: AgentList? = this
-        while (ptr!!.ag != null) {
-            ptr.ag!!.print(2)
-            ptr = ptr.next
-        }
+        println("agentList.print: (size=$size)")
+        for (i in 0 until size) agents[i]!!.print(2)
         println("End of agentList.print()")
     }
 
@@ -88,56 +105,26 @@ class AgentList @JvmOverloads constructor(
      */
     fun add(newAgent: Agent?, sort: Boolean) {
         if (newAgent == null) return
-        var ptr: AgentList?
-        count++
-        ptr = this
-        while (ptr!!.ag != null) {
-            if (sort && newAgent.beatInterval <= ptr.ag!!.beatInterval) {
-                ptr.next = AgentList(ptr.ag, ptr.next)
-                ptr.ag = newAgent
-                return
-            }
-            ptr = ptr.next
-        }
-        ptr.next = AgentList()
-        ptr.ag = newAgent
+        if (size == agents.size) agents = agents.copyOf(size * 2)
+        size = insert(agents, size, newAgent, sort)
     }
 
     /**
-     * Sorts the AgentList by increasing beatInterval, using a bubble sort
+     * Sorts the AgentList by increasing beatInterval, using a stable insertion sort
      * since it is assumed that the list is almost sorted.
      */
     fun sort() {
-        var sorted = false
-        while (!sorted) {
-            sorted = true
-            var ptr: AgentList? = this
-            while (ptr!!.ag != null) {
-                if (ptr.next!!.ag != null &&
-                    ptr.ag!!.beatInterval > ptr.next!!.ag!!.beatInterval
-                ) {
-                    val temp = ptr.ag
-                    ptr.ag = ptr.next!!.ag
-                    ptr.next!!.ag = temp
-                    sorted = false
-                }
-                ptr = ptr.next
+        for (i in 1 until size) {
+            val a = agents[i]!!
+            var j = i - 1
+            while (j >= 0 && agents[j]!!.beatInterval > a.beatInterval) {
+                agents[j + 1] = agents[j]
+                j--
             }
+            agents[j + 1] = a
         }
     }
 
-    /**
-     * Removes the current item from the list.
-     * The current item does not need to be the head of the whole list.
-     *
-     * @param ptr Points to the Agent which is removed from the list
-     */
-    fun remove(ptr: AgentList?) {
-        count--
-        ptr!!.ag = ptr.next!!.ag // null-terminated list always has next
-        ptr.next = ptr.next!!.next
-    }
-
     /**
      * Removes Agents from the list which are duplicates of other Agents.
      * A duplicate is defined by the tempo and phase thresholds
@@ -145,86 +132,170 @@ class AgentList @JvmOverloads constructor(
      */
     protected fun removeDuplicates() {
         sort()
-        run {
-            var ptr: AgentList? = this
-            while (ptr!!.ag != null) {
-                if (ptr!!.ag!!.phaseScore < 0.0) {
-                    ptr = ptr!!.next
-                    // already flagged for deletion
-                    continue
+        for (i in 0 until size) {
+            val a = agents[i]!!
+            if (a.phaseScore < 0.0) // already flagged for deletion
+                continue
+            for (j in i + 1 until size) {
+                val b = agents[j]!!
+                if (b.beatInterval - a.beatInterval > thresholdBI) break
+                if (abs(a.beatTime - b.beatTime) > thresholdBT) continue
+                if (a.phaseScore < b.phaseScore) {
+                    a.phaseScore = -1.0 // flag for deletion
+                    if (b.topScoreTime < a.topScoreTime) b.topScoreTime = a.topScoreTime
+                    break
+                } else {
+                    b.phaseScore = -1.0 // flag for deletion
+                    if (a.topScoreTime < b.topScoreTime) a.topScoreTime = b.topScoreTime
                 }
-                var ptr2 = ptr!!.next
-                while (ptr2!!.ag != null) {
-                    if (ptr2.ag!!.beatInterval - ptr!!.ag!!.beatInterval > thresholdBI) break
-                    if (abs(ptr!!.ag!!.beatTime - ptr2.ag!!.beatTime) > thresholdBT) {
-                        ptr2 = ptr2.next
-                        continue
-                    }
-                    if (ptr!!.ag!!.phaseScore < ptr2.ag!!.phaseScore) {
-                        ptr!!.ag!!.phaseScore = -1.0 // flag for deletion
-                        if (ptr2.ag!!.topScoreTime < ptr!!.ag!!.topScoreTime) ptr2.ag!!.topScoreTime =
-                            ptr!!.ag!!.topScoreTime
-                        break
-                    } else {
-                        ptr2.ag!!.phaseScore = -1.0 // flag for deletion
-                        if (ptr!!.ag!!.topScoreTime < ptr2.ag!!.topScoreTime) ptr!!.ag!!.topScoreTime =
-                            ptr2.ag!!.topScoreTime
-                    }
-                    ptr2 = ptr2.next
-                }
-                ptr = ptr!!.next
             }
         }
-        var ptr: AgentList? = this
-        while (ptr!!.ag != null) {
-            if (ptr!!.ag!!.phaseScore < 0.0) {
-                remove(ptr)
-            } else ptr = ptr!!.next
+        var kept = 0
+        for (i in 0 until size) {
+            val a = agents[i]
+            if (a!!.phaseScore >= 0.0) agents[kept++] = a
         }
+        agents.fill(null, kept, size)
+        size = kept
     } // removeDuplicates()
+
     /**
      * Perform beat tracking on a list of events (onsets).
      *
      * @param el   The list of onsets (or events or peaks) to beat track.
      * @param stop Do not find beats after `stop` seconds.
      */
+    @JvmOverloads
+    fun beatTrack(el: EventList, stop: Double = -1.0) {
+        beatTrack(el.toEventStore(), stop)
+    } // beatTrack()
+
     /**
      * Perform beat tracking on a list of events (onsets).
      *
-     * @param el The list of onsets (or events or peaks) to beat track
+     * @param events The onsets (or events or peaks) to beat track.
+     * @param stop   Do not find beats after `stop` seconds.
      */
     @JvmOverloads
-    fun beatTrack(el: EventList, stop: Double = -1.0) {
-        val ptr: ListIterator<Event> = el.listIterator()
-        val phaseGiven = ag != null &&
-                ag!!.beatTime >= 0 // if given for one, assume given for others
-        while (ptr.hasNext()) {
-            val ev = ptr.next()
-            if (stop > 0 && ev.keyDown > stop) break
-            var created = phaseGiven
-            var prevBeatInterval = -1.0
-            var ap: AgentList? = this
-            while (ap!!.ag != null) {
-                val currentAgent = ap.ag
-                if (currentAgent!!.beatInterval != prevBeatInterval) {
-                    if (prevBeatInterval >= 0 && !created && ev.keyDown < 5.0) {
-                        // Create new agent with different phase
-                        val newAgent = Agent(prevBeatInterval)
-                        newAgent.considerAsBeat(ev, this)
-                        add(newAgent)
-                    }
-                    prevBeatInterval = currentAgent.beatInterval
-                    created = phaseGiven
-                }
-                if (currentAgent.considerAsBeat(ev, this)) created = true
-                if (currentAgent != ap.ag) // new one been inserted, skip it
-                    ap = ap.next
-                ap = ap!!.next
+    fun beatTrack(events: EventStore, stop: Double = -1.0) {
+        val phaseGiven = size > 0 &&
+                agents[0]!!.beatTime >= 0 // if given for one, assume given for others
+        for (ev in 0 until events.size) {
+            val time = events.time(ev)
+            val salience = events.salience(ev)
+            if (stop > 0 && time > stop) break
+            val n = size
+            if (forks.size <= n) {
+                intervals = DoubleArray(agents.size + 1)
+                accepted = BooleanArray(agents.size + 1)
+                forks = arrayOfNulls(agents.size + 1)
             }
+            for (i in 0 until n) intervals[i] = agents[i]!!.beatInterval
+            evaluate(n, time, salience)
+            merge(n, time, salience, phaseGiven)
             removeDuplicates()
         } // loop for each event
     } // beatTrack()
-    // beatTrack()/1
+
+    /**
+     * Lets the first n agents consider the event, without changing the list itself.
+     */
+    private fun evaluate(n: Int, time: Double, salience: Double) {
+        val threads = min(ConcurrencyUtils.getNumberOfThreads(), n / parallelThreshold)
+        if (threads > 1) {
+            val futures = arrayOfNulls<Future<*>>(threads)
+            val k = n / threads
+            for (t in 0 until threads) {
+                val first = t * k
+                val last = if (t == threads - 1) n else first + k
+                futures[t] = ConcurrencyUtils.submit(Runnable { evaluate(first, last, time, salience) })
+            }
+            ConcurrencyUtils.waitForCompletion(futures)
+        } else {
+            evaluate(0, n, time, salience)
+        }
+    }
+
+    private fun evaluate(first: Int, last: Int, time: Double, salience: Double) {
+        for (i in first until last) {
+            val a = agents[i]!!
+            a.evaluation = i
+            accepted[i] = a.considerAsBeat(time, salience, null, forks, i)
+        }
+    }
+
+    /**
+     * Walks through the list as a sequential evaluation would, adding the forked agents
+     * and the agents with a new phase at the same positions and with the same identity
+     * numbers. The first visit of an evaluated agent uses the result of [evaluate], other
+     * visits (of agents that were inserted or are visited again) consider the event here.
+     */
+    private fun merge(n: Int, time: Double, salience: Double, phaseGiven: Boolean) {
+        var created = phaseGiven
+        var prevBeatInterval = -1.0
+        var p = 0
+        while (p < size) {
+            val currentAgent = agents[p]!!
+            val interval = intervalOf(currentAgent)
+            if (interval != prevBeatInterval) {
+                if (prevBeatInterval >= 0 && !created && time < 5.0) {
+                    // Create new agent with different phase
+                    val newAgent = Agent(prevBeatInterval)
+                    newAgent.considerAsBeat(time, salience, null, null, 0)
+                    p = insert(newAgent, p)
+                }
+                prevBeatInterval = interval
+                created = phaseGiven
+            }
+            val e = currentAgent.evaluation
+            val accept: Boolean
+            val fork: Agent?
+            if (e >= 0) {
+                accept = accepted[e]
+                fork = forks[e]
+                forks[e] = null
+            } else {
+                accept = currentAgent.considerAsBeat(time, salience, null, forks, n)
+                fork = forks[n]
+                forks[n] = null
+            }
+            if (fork != null) {
+                fork.assignIdNumber()
+                p = insert(fork, p)
+            }
+            currentAgent.evaluation = -1
+            if (accept) created = true
+            if (currentAgent !== agents[p]) // new one been inserted, skip it
+                p++
+            p++
+        }
+    }
+
+    /**
+     * The beatInterval of an agent as it is before it considers the current event.
+     */
+    private fun intervalOf(a: Agent): Double {
+        return if (a.evaluation >= 0) intervals[a.evaluation] else a.beatInterval
+    }
+
+    /**
+     * Inserts an agent during [merge] and returns the position of the current agent.
+     */
+    private fun insert(newAgent: Agent, current: Int): Int {
+        if (size == agents.size) agents = agents.copyOf(size * 2)
+        var pos = size
+        for (i in 0 until size) {
+            if (newAgent.beatInterval <= intervalOf(agents[i]!!)) {
+                pos = i
+                break
+            }
+        }
+        System.arraycopy(agents, pos, agents, pos + 1, size - pos)
+        agents[pos] = newAgent
+        size++
+        return if (pos < current) current + 1 else current
+    }
+
     /**
      * Finds the Agent with the highest score in the list.
      *
@@ -233,23 +304,22 @@ class AgentList @JvmOverloads constructor(
     fun bestAgent(): Agent? {
         var best = -1.0
         var bestAg: Agent? = null
-        var ap: AgentList? = this
-        while (ap!!.ag != null) {
-            val startTime = ap.ag!!.events.l.first.keyDown
-            val conf = (ap.ag!!.phaseScore + ap.ag!!.tempoScore) /
-                    if (useAverageSalience) ap.ag!!.beatCount.toDouble() else 1.0
+        for (i in 0 until size) {
+            val a = agents[i]!!
+            val startTime = a.beats.time(0)
+            val conf = (a.phaseScore + a.tempoScore) /
+                    if (useAverageSalience) a.beatCount.toDouble() else 1.0
             if (conf > best) {
-                bestAg = ap.ag
+                bestAg = a
                 best = conf
             }
             if (debug) {
-                ap.ag!!.print(0)
+                a.print(0)
                 System.out.printf(
                     " +%5.3f    Av-salience = %3.1f\n",
                     startTime, conf
                 )
             }
-            ap = ap.next
         }
         if (debug) {
             if (bestAg != null) {
@@ -273,6 +343,8 @@ class AgentList @JvmOverloads constructor(
          */
         const val DEFAULT_BT = 0.04
 
+        private const val INITIAL_CAPACITY = 16
+
         /**
          * Flag for choice between sum and average beat salience values for Agent scores.
          * The use of summed saliences favours faster tempi or lower metrical levels.
@@ -284,11 +356,6 @@ class AgentList @JvmOverloads constructor(
          */
         var debug = false
 
-        /**
-         * The length of the list (number of beat tracking Agents)
-         */
-        var count = 0
-
         /**
          * For the purpose of removing duplicate agents, the JND of IBI.
          * Not changed in the current version.
@@ -300,24 +367,39 @@ class AgentList @JvmOverloads constructor(
          * Not changed in the current version.
          */
         var thresholdBT = DEFAULT_BT
+
+        /**
+         * The minimum number of Agents per thread before agents are evaluated in parallel.
+         * Below this the cost of handing work to other threads exceeds the gain.
+         */
+        var parallelThreshold = 128
+
+        /**
+         * Inserts a in the first n elements of list, in ascending order of beatInterval
+         * (sort==true) or at the end, and returns the new length. The list needs room
+         * for one more element.
+         */
+        private fun insert(list: Array<Agent?>, n: Int, a: Agent, sort: Boolean): Int {
+            var pos = n
+            if (sort) {
+                for (i in 0 until n) {
+                    if (a.beatInterval <= list[i]!!.beatInterval) {
+                        pos = i
+                        break
+                    }
+                }
+            }
+            System.arraycopy(list, pos, list, pos + 1, n - pos)
+            list[pos] = a
+            return n + 1
+        }
     }
-    /**
-     * Constructor for an AgentList: the Agent a is prepended to the list al.
-     *
-     * @param ag  The Agent at the head of the list
-     * @param next The tail of the list
-     */
+
     /**
      * Default constructor
      */
     init {
-        if (next == null) {
-            if (ag != null) next = AgentList() // insert null-terminator if it was forgotten
-            else {
-                count = 0
-                thresholdBI = DEFAULT_BI
-                thresholdBT = DEFAULT_BT
-            }
-        }
+        thresholdBI = DEFAULT_BI
+        thresholdBT = DEFAULT_BT
     }
 }
@@ -30,28 +30,16 @@ import kotlin.math.roundToLong
  * interchangeable onset detector. The beat tracker does not work in real-time.
  * First all onsets need to be detected. In a post-processing step a beat
  * estimation is done using reocurring inter onset intervals (IOI's). To return
- * the time of the beats an OnsetHandler is abused.
+ * the time of the beats an OnsetHandler is abused. For live input see
+ * [OnlineBeatTracker].
  *
  * @author Joren Six
  */
 class BeatRootOnsetEventHandler : OnsetHandler {
-    private val onsetList = EventList()
+    private val onsetList = EventStore()
     override fun handleOnset(time: Double, salience: Double) {
         val roundedTime = (time * 100).roundToLong() / 100.0
-        val e = newEvent(roundedTime, 0)
-        e.salience = salience
-        onsetList.add(e)
-    }
-
-    /**
-     * Creates a new Event object representing an onset or beat.
-     *
-     * @param time    The time of the beat in seconds
-     * @param beatNum The index of the beat or onset.
-     * @return The Event object representing the beat or onset.
-     */
-    private fun newEvent(time: Double, beatNum: Int): Event {
-        return Event(time, time, time, 56, 64, beatNum.toDouble(), 0.0, 1)
+        onsetList.add(roundedTime, salience)
     }
 
     /**
@@ -67,12 +55,9 @@ class BeatRootOnsetEventHandler : OnsetHandler {
         val best = agents.bestAgent()
         if (best != null) {
             best.fillBeats(-1.0)
-            val beats = best.events
-            val eventIterator = beats.iterator()
-            while (eventIterator.hasNext()) {
-                val beat = eventIterator.next()
-                val time = beat.keyDown
-                beatHandler.handleOnset(time, -1.0)
+            val beats = best.beats
+            for (i in 0 until beats.size) {
+                beatHandler.handleOnset(beats.time(i), -1.0)
             }
         } else {
             System.err.println("No best agent")
@@ -171,6 +171,12 @@ class EventList() {
         return d
     } // toOnsetArray()
 
+    fun toEventStore(): EventStore {
+        val store = EventStore(l.size)
+        for (e in l) store.add(e.keyDown, e.salience)
+        return store
+    } // toEventStore()
+
     @JvmOverloads
     fun toArray(match: Int = 0): Array<Event?> {
         var count = 0
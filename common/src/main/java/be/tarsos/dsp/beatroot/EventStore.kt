@@ -0,0 +1,252 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.beatroot
+
+/**
+ * A columnar store of events (onsets or beats), kept sorted by time. Each
+ * event is a time, a salience and flags in three primitive arrays, so a list
+ * of tens of thousands of onsets needs no objects per event. Events are
+ * found by binary search and windows of events are index ranges.
+ *
+ * A copy shares the arrays with the original until one of them changes an
+ * event or appends after events the other one appended. Beat tracking agents
+ * are copied often and mostly only append beats, so most copies never copy
+ * the arrays.
+ */
+class EventStore @JvmOverloads constructor(capacity: Int = 16) {
+    /**
+     * The arrays with the events, possibly shared with copies of this store.
+     */
+    private class Columns(capacity: Int) {
+        val times = DoubleArray(capacity)
+        val saliences = DoubleArray(capacity)
+        val flags = IntArray(capacity)
+
+        /**
+         * The number of events written by any of the stores sharing the columns.
+         */
+        var length = 0
+
+        /**
+         * True if more than one store uses the columns.
+         */
+        var shared = false
+    }
+
+    private var columns = Columns(maxOf(capacity, 1))
+
+    /**
+     * The number of events.
+     */
+    var size = 0
+        private set
+
+    /**
+     * Copy constructor.
+     *
+     * @param other The events to copy.
+     */
+    constructor(other: EventStore) : this(0) {
+        columns = other.columns
+        columns.shared = true
+        size = other.size
+    }
+
+    /**
+     * Adds an event. Events are usually added in order of time, which only
+     * appends the event; otherwise it is inserted after the events with
+     * the same or an earlier time.
+     *
+     * @param time     The time of the event in seconds.
+     * @param salience The salience of the event.
+     * @param flags    The flags of the event.
+     * @return The index of the event.
+     */
+    @JvmOverloads
+    fun add(time: Double, salience: Double, flags: Int = 0): Int {
+        if (size == 0 || columns.times[size - 1] <= time) {
+            if (size != columns.length || size == columns.times.size) copyColumns(size + 1)
+            setAt(size, time, salience, flags)
+            columns.length++
+            return size++
+        }
+        return insert(time, salience, flags, false)
+    }
+
+    /**
+     * Inserts an event after the events with the same or an earlier time.
+     *
+     * @param time        The time of the event in seconds.
+     * @param salience    The salience of the event.
+     * @param flags       The flags of the event.
+     * @param uniqueTimes Replace the first event with the same time, if any.
+     * @return The index of the event.
+     */
+    fun insert(time: Double, salience: Double, flags: Int, uniqueTimes: Boolean): Int {
+        if (uniqueTimes) {
+            val index = lowerBound(time)
+            if (index < size && columns.times[index] == time) {
+                if (columns.shared) copyColumns(size)
+                setAt(index, time, salience, flags)
+                return index
+            }
+        }
+        val index = upperBound(time)
+        if (columns.shared || size != columns.length || size == columns.times.size) copyColumns(size + 1)
+        val c = columns
+        System.arraycopy(c.times, index, c.times, index + 1, size - index)
+        System.arraycopy(c.saliences, index, c.saliences, index + 1, size - index)
+        System.arraycopy(c.flags, index, c.flags, index + 1, size - index)
+        setAt(index, time, salience, flags)
+        c.length++
+        size++
+        return index
+    }
+
+    /**
+     * @param index The index of an event.
+     * @return The time of the event in seconds.
+     */
+    fun time(index: Int): Double {
+        checkIndex(index)
+        return columns.times[index]
+    }
+
+    /**
+     * @param index The index of an event.
+     * @return The salience of the event.
+     */
+    fun salience(index: Int): Double {
+        checkIndex(index)
+        return columns.saliences[index]
+    }
+
+    /**
+     * @param index The index of an event.
+     * @return The flags of the event.
+     */
+    fun flags(index: Int): Int {
+        checkIndex(index)
+        return columns.flags[index]
+    }
+
+    /**
+     * @return The time of the last event.
+     */
+    val lastTime: Double
+        get() = time(size - 1)
+
+    /**
+     * @param time A time in seconds.
+     * @return The index of the first event at or after the time, or
+     * [size] if all events are earlier.
+     */
+    fun lowerBound(time: Double): Int {
+        val times = columns.times
+        var low = 0
+        var high = size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (times[mid] < time) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    /**
+     * @param time A time in seconds.
+     * @return The index of the first event after the time, or [size] if
+     * no event is later.
+     */
+    fun upperBound(time: Double): Int {
+        val times = columns.times
+        var low = 0
+        var high = size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (times[mid] <= time) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    /**
+     * Removes all events.
+     */
+    fun clear() {
+        size = 0
+        if (!columns.shared) columns.length = 0
+    }
+
+    /**
+     * @return A new array with the times of the events.
+     */
+    fun toOnsetArray(): DoubleArray {
+        return columns.times.copyOf(size)
+    }
+
+    /**
+     * @return The events as a list of [Event] objects.
+     */
+    fun toEventList(): EventList {
+        val list = EventList()
+        val c = columns
+        for (i in 0 until size) {
+            val e = Event(c.times[i], c.times[i], c.times[i], 56, 64, 0.0, 0.0, 1)
+            e.salience = c.saliences[i]
+            list.add(e)
+        }
+        return list
+    }
+
+    private fun setAt(index: Int, time: Double, salience: Double, flags: Int) {
+        val c = columns
+        c.times[index] = time
+        c.saliences[index] = salience
+        c.flags[index] = flags
+    }
+
+    /**
+     * Copies the events to columns of this store only, with room for at least
+     * `capacity` events.
+     */
+    private fun copyColumns(capacity: Int) {
+        val old = columns
+        val c = Columns(maxOf(capacity, size + size / 2, 16))
+        System.arraycopy(old.times, 0, c.times, 0, size)
+        System.arraycopy(old.saliences, 0, c.saliences, 0, size)
+        System.arraycopy(old.flags, 0, c.flags, 0, size)
+        c.length = size
+        columns = c
+    }
+
+    private fun checkIndex(index: Int) {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("Index $index, size $size")
+    }
+
+    companion object {
+        /**
+         * Flag of a beat that was interpolated between two beats, see
+         * [Agent.fillBeats].
+         */
+        const val INTERPOLATED = 1
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.beatroot
+
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
+
+/**
+ * An incremental version of the relative peak picking of
+ * [Peaks.findPeaks]. Values are added one by one and a peak is reported as
+ * soon as the values after it are known, so with a latency of
+ * `max(width, Peaks.post * width)` values. Only a ring buffer with the values
+ * around the current candidate peak is kept, which makes the peak picker
+ * usable on live input and very long streams.
+ *
+ * When the values are added without normalisation the peaks are exactly the
+ * ones found by `Peaks.findPeaks(data, width, threshold, decayRate, true)`.
+ * When the normalisation is enabled the threshold is expressed in standard
+ * deviations of the values seen so far, which approximates the normalisation
+ * of the whole array with [Peaks.normalise] before peak picking.
+ *
+ * @author Simon Dixon
+ */
+class IncrementalPeakPicker @JvmOverloads constructor(
+    /**
+     * Minimum distance between peaks, in values.
+     */
+    private val width: Int,
+    /**
+     * Minimum value of peaks, relative to the local average.
+     */
+    private val threshold: Double,
+    /**
+     * How quickly previous peaks are forgotten.
+     */
+    private val decayRate: Double,
+    private val handler: PeakHandler,
+    /**
+     * Express the threshold in standard deviations of the values seen so far.
+     */
+    private val normalise: Boolean = false
+) {
+    private val pre = Peaks.pre
+    private val post = Peaks.post
+    private val lookAhead = max(width, post * width)
+    private val values = DoubleArray(max(pre * width, width) + lookAhead + 1)
+
+    /**
+     * Exponential decay with hold of the values, up to the current candidate peak.
+     */
+    private var average = 0.0
+
+    /**
+     * The index of the next candidate peak.
+     */
+    private var candidate = 0
+
+    private var runningMean = 0.0
+    private var runningSquares = 0.0
+
+    /**
+     * The number of values added.
+     */
+    var count = 0
+        private set
+
+    /**
+     * The smallest value added so far.
+     */
+    var minimum = Double.POSITIVE_INFINITY
+        private set
+
+    /**
+     * The mean of the values added so far.
+     */
+    val mean: Double
+        get() = runningMean
+
+    /**
+     * The standard deviation of the values added so far, or one if all
+     * values are equal (as in [Peaks.normalise]).
+     */
+    val standardDeviation: Double
+        get() {
+            val sd = if (count == 0) 0.0 else sqrt(runningSquares / count)
+            return if (sd == 0.0) 1.0 else sd
+        }
+
+    /**
+     * Adds the next value. The peak handler is called if the value completes
+     * the look-ahead of a peak.
+     *
+     * @param value The next value.
+     */
+    fun add(value: Double) {
+        values[count % values.size] = value
+        if (count == 0) average = value
+        count++
+        val delta = value - runningMean
+        runningMean += delta / count
+        runningSquares += delta * (value - runningMean)
+        if (value < minimum) minimum = value
+        if (count > lookAhead) evaluate(count - 1 - lookAhead)
+    }
+
+    /**
+     * Evaluates the remaining candidate peaks as if the stream of values ends
+     * here.
+     */
+    fun flush() {
+        while (candidate < count) evaluate(candidate)
+    }
+
+    /**
+     * Forgets all values.
+     */
+    fun reset() {
+        count = 0
+        candidate = 0
+        average = 0.0
+        runningMean = 0.0
+        runningSquares = 0.0
+        minimum = Double.POSITIVE_INFINITY
+    }
+
+    private fun valueAt(index: Int): Double {
+        return values[index % values.size]
+    }
+
+    private fun evaluate(mid: Int) {
+        val value = valueAt(mid)
+        average = decayRate * average + (1 - decayRate) * value
+        if (average < value) average = value
+        candidate = mid + 1
+        var maxp = max(0, mid - width)
+        val stop = min(count, mid + width + 1)
+        for (i in maxp + 1 until stop) if (valueAt(i) > valueAt(maxp)) maxp = i
+        if (maxp == mid && value >= average) {
+            val start = max(0, mid - pre * width)
+            val end = min(count, mid + post * width)
+            var sum = 0.0
+            for (i in start until end) sum += valueAt(i)
+            val scale = if (normalise) standardDeviation else 1.0
+            if (value > sum / (end - start) + threshold * scale) handler.handlePeak(mid, value)
+        }
+    }
+
+    /**
+     * An interface to react on the peaks found by an [IncrementalPeakPicker].
+     */
+    interface PeakHandler {
+        /**
+         * Handle a peak.
+         *
+         * @param index The index of the peak in the stream of added values.
+         * @param value The value of the peak.
+         */
+        fun handlePeak(index: Int, value: Double)
+    }
+
+    init {
+        require(width >= 0) { "The width should not be negative" }
+    }
+}
@@ -56,6 +56,11 @@ object Induction {
      */
     var clusterWidth = 0.025
 
+    /**
+     * The width in seconds of the bins of the IOI histogram in [histogramInduction]
+     */
+    var histogramResolution = 0.001
+
     /**
      * The minimum IOI for inclusion in a cluster
      */
@@ -101,32 +106,26 @@ object Induction {
      * of the top tempo hypotheses but no beats
      */
     fun beatInduction(events: EventList): AgentList {
-        var i: Int
-        var j: Int
+        return beatInduction(events.toEventStore())
+    } // beatInduction()
+
+    /**
+     * Performs tempo induction (see JNMR 2001 paper by Simon Dixon for details).
+     *
+     * @param events The onsets (or other events) from which the tempo is induced
+     * @return A list of beat tracking agents, where each is initialised with one
+     * of the top tempo hypotheses but no beats
+     */
+    fun beatInduction(events: EventStore): AgentList {
         var b: Int
-        var submult: Boolean
         var intervals = 0 // number of interval clusters
-        val bestn = IntArray(topN) // count of high-scoring clusters
-        var ratio: Double
-        var err: Double
-        var degree: Int
         val maxClusterCount = ceil((maxIOI - minIOI) / clusterWidth).toInt()
         val clusterMean = DoubleArray(maxClusterCount)
         val clusterSize = IntArray(maxClusterCount)
-        val clusterScore = IntArray(maxClusterCount)
-        val ptr1: ListIterator<Event>
-        var ptr2: ListIterator<Event?>
-        var e1: Event
-        var e2: Event
-        ptr1 = events.listIterator()
-        while (ptr1.hasNext()) {
-            e1 = ptr1.next()
-            ptr2 = events.listIterator()
-            e2 = ptr2.next()
-            while (e2 != e1) e2 = ptr2.next()
-            while (ptr2.hasNext()) {
-                e2 = ptr2.next()
-                val ioi = e2.keyDown - e1.keyDown
+        for (e1 in 0 until events.size) {
+            val t1 = events.time(e1)
+            for (e2 in e1 + 1 until events.size) {
+                val ioi = events.time(e2) - t1
                 if (ioi < minIOI) // skip short intervals
                     continue
                 if (ioi > maxIOI) // ioi too long
@@ -179,7 +178,104 @@ object Induction {
             }
             println("]; ioiclusters(ioi, name);\nEndMatlabCode\n")
         }
-        b = 0
+        intervals = mergeClusters(clusterMean, clusterSize, intervals)
+        return hypotheses(clusterMean, clusterSize, intervals)
+    } // beatInduction()
+
+    /**
+     * Performs tempo induction with a histogram of IOIs instead of assigning each IOI
+     * to the nearest cluster. The IOIs are counted in bins of `histogramResolution`
+     * seconds; clusters are formed by repeatedly taking the IOIs in the window of
+     * `clusterWidth` seconds with the most IOIs. The clusters are merged, scored and
+     * turned into agents as in [beatInduction]. The time needed is linear in the number
+     * of IOIs, the tempo hypotheses are the same up to the histogram resolution.
+     *
+     * @param events The onsets (or other events) from which the tempo is induced
+     * @return A list of beat tracking agents, where each is initialised with one
+     * of the top tempo hypotheses but no beats
+     */
+    fun histogramInduction(events: EventList): AgentList {
+        return histogramInduction(events.toEventStore())
+    } // histogramInduction()
+
+    /**
+     * Performs tempo induction with a histogram of IOIs, see [histogramInduction].
+     *
+     * @param events The onsets (or other events) from which the tempo is induced
+     * @return A list of beat tracking agents, where each is initialised with one
+     * of the top tempo hypotheses but no beats
+     */
+    fun histogramInduction(events: EventStore): AgentList {
+        val bins = ceil(maxIOI / histogramResolution).toInt() + 1
+        val count = IntArray(bins)
+        val sum = DoubleArray(bins)
+        for (e1 in 0 until events.size) {
+            val t1 = events.time(e1)
+            for (e2 in e1 + 1 until events.size) {
+                val ioi = events.time(e2) - t1
+                if (ioi < minIOI) // skip short intervals
+                    continue
+                if (ioi > maxIOI) // ioi too long
+                    break
+                val bin = (ioi / histogramResolution).toInt()
+                count[bin]++
+                sum[bin] += ioi
+            }
+        }
+        // the number of IOIs in the window of width bins starting at each bin
+        val width = maxOf(1, (clusterWidth / histogramResolution).roundToInt())
+        val window = IntArray(bins)
+        for (b in 0 until bins) window[b] = windowCount(count, b, width)
+        val maxClusterCount = ceil((maxIOI - minIOI) / clusterWidth).toInt()
+        val clusterMean = DoubleArray(maxClusterCount)
+        val clusterSize = IntArray(maxClusterCount)
+        var intervals = 0
+        while (intervals < maxClusterCount) {
+            var lo = 0
+            for (b in 1 until bins) if (window[b] > window[lo]) lo = b
+            if (window[lo] == 0) break
+            val hi = minOf(lo + width, bins)
+            var ioiSum = 0.0
+            var ioiCount = 0
+            for (b in lo until hi) {
+                ioiSum += sum[b]
+                ioiCount += count[b]
+                sum[b] = 0.0
+                count[b] = 0
+            }
+            for (b in maxOf(0, lo - width + 1) until hi) window[b] = windowCount(count, b, width)
+            // insert the new cluster in ascending order
+            val mean = ioiSum / ioiCount
+            var b = intervals
+            while (b > 0 && clusterMean[b - 1] > mean) {
+                clusterMean[b] = clusterMean[b - 1]
+                clusterSize[b] = clusterSize[b - 1]
+                b--
+            }
+            clusterMean[b] = mean
+            clusterSize[b] = ioiCount
+            intervals++
+        }
+        intervals = mergeClusters(clusterMean, clusterSize, intervals)
+        return hypotheses(clusterMean, clusterSize, intervals)
+    } // histogramInduction()
+
+    private fun windowCount(count: IntArray, first: Int, width: Int): Int {
+        var total = 0
+        for (b in first until minOf(first + width, count.size)) total += count[b]
+        return total
+    }
+
+    /**
+     * Merges clusters with a mean IOI closer than `clusterWidth`.
+     *
+     * @return The number of clusters after merging.
+     */
+    private fun mergeClusters(clusterMean: DoubleArray, clusterSize: IntArray, count: Int): Int {
+        var intervals = count
+        var i: Int
+        var j: Int
+        var b = 0
         while (b < intervals) {
             // merge similar intervals
             // TODO: they are now in order, so don't need the 2nd loop
@@ -203,6 +299,29 @@ object Induction {
             }
             b++
         }
+        return intervals
+    } // mergeClusters()
+
+    /**
+     * Scores the IOI clusters according to their size and the relationships
+     * between them and creates agents for the top scoring clusters.
+     *
+     * @param clusterMean The mean IOI of each cluster, in ascending order.
+     * @param clusterSize The number of IOIs in each cluster.
+     * @param intervals   The number of clusters.
+     * @return A list of beat tracking agents, where each is initialised with one
+     * of the top tempo hypotheses but no beats
+     */
+    private fun hypotheses(clusterMean: DoubleArray, clusterSize: IntArray, intervals: Int): AgentList {
+        var i: Int
+        var j: Int
+        var b: Int
+        var submult: Boolean
+        val bestn = IntArray(topN) // count of high-scoring clusters
+        var ratio: Double
+        var err: Double
+        var degree: Int
+        val clusterScore = IntArray(intervals)
         if (intervals == 0) return AgentList()
         b = 0
         while (b < intervals) {
@@ -335,7 +454,7 @@ object Induction {
         }
         if (debug) println(" IBI")
         return a
-    } // beatInduction()
+    } // hypotheses()
 
     /**
      * For variable cluster widths in newInduction().
@@ -354,22 +473,22 @@ object Induction {
      * @param events The events on which tempo induction is performed
      */
     fun newInduction(events: EventList) {
+        newInduction(events.toEventStore())
+    }
+
+    /**
+     * An alternative (incomplete) tempo induction method (not used).
+     * Uses integer (millisecond) resolution.
+     *
+     * @param events The events on which tempo induction is performed
+     */
+    fun newInduction(events: EventStore) {
         val MAX_MS = 2500
         val count = IntArray(MAX_MS)
         for (i in 0 until MAX_MS) count[i] = 0
-        val ptr1: ListIterator<Event>
-        var ptr2: ListIterator<Event?>
-        var e1: Event
-        var e2: Event
-        ptr1 = events.listIterator()
-        while (ptr1.hasNext()) {
-            e1 = ptr1.next()
-            ptr2 = events.listIterator()
-            e2 = ptr2.next()
-            while (e2 != e1) e2 = ptr2.next()
-            while (ptr2.hasNext()) {
-                e2 = ptr2.next()
-                val diff = ((e1.keyDown - e2.keyDown) * 1000).roundToInt()
+        for (e1 in 0 until events.size) {
+            for (e2 in e1 + 1 until events.size) {
+                val diff = ((events.time(e1) - events.time(e2)) * 1000).roundToInt()
                 if (diff < MAX_MS) count[diff]++ else break
             }
         }
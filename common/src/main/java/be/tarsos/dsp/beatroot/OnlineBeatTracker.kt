@@ -0,0 +1,218 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.beatroot
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.AudioProcessor
+import be.tarsos.dsp.onsets.OnsetHandler
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.roundToLong
+
+/**
+ * A causal beat tracker for live input. Onsets are kept in a sliding window of
+ * the last few seconds. Regularly the tempo is induced from this window and the
+ * BeatRoot agents track the window; the best agent gives the current tempo and
+ * phase hypothesis. Beats are predicted from this hypothesis and reported as
+ * soon as their time is reached (or a bit ahead, see `lookAhead`).
+ *
+ * Onsets arrive through [handleOnset]. Time advances with each onset and, when
+ * the tracker is also added to an [be.tarsos.dsp.AudioDispatcher], with each
+ * processed buffer, which bounds the latency of the reported beats to the
+ * buffer duration. Memory use is constant: onsets that do not fit in the
+ * window are dropped.
+ */
+class OnlineBeatTracker @JvmOverloads constructor(
+    /**
+     * Receives the predicted beats. The salience of a beat is not calculated: -1 is returned.
+     */
+    private val beatHandler: OnsetHandler,
+    /**
+     * The duration of the window with onsets used to induce the tempo, in seconds.
+     */
+    private val windowLength: Double = DEFAULT_WINDOW_LENGTH,
+    /**
+     * The time between two updates of the tempo hypothesis, in seconds.
+     */
+    private val updateInterval: Double = DEFAULT_UPDATE_INTERVAL,
+    /**
+     * Beats are reported this many seconds before their predicted time.
+     */
+    private val lookAhead: Double = 0.0
+) : OnsetHandler, AudioProcessor {
+    private val capacity = ceil(windowLength * MAX_ONSET_RATE).toInt()
+    private val times = DoubleArray(capacity)
+    private val saliences = DoubleArray(capacity)
+    private var first = 0
+    private var count = 0
+    private val window = EventStore(capacity)
+
+    private var now = Double.NEGATIVE_INFINITY
+    private var lastUpdate = Double.NEGATIVE_INFINITY
+    private var lastBeat = Double.NEGATIVE_INFINITY
+    private var nextBeat = Double.POSITIVE_INFINITY
+
+    /**
+     * The beat interval of the current hypothesis in seconds, or a negative value
+     * when there is no hypothesis yet.
+     */
+    var beatInterval = -1.0
+        private set
+
+    init {
+        require(windowLength > 0 && updateInterval > 0) { "Window length and update interval should be positive" }
+        require(lookAhead >= 0) { "Look ahead should not be negative" }
+    }
+
+    override fun handleOnset(time: Double, salience: Double) {
+        if (count == capacity) { // drop the oldest onset
+            first = (first + 1) % capacity
+            count--
+        }
+        val index = (first + count) % capacity
+        times[index] = time
+        saliences[index] = salience
+        count++
+        advance(time)
+    }
+
+    override fun process(audioEvent: AudioEvent): Boolean {
+        advance(audioEvent.endTimeStamp)
+        return true
+    }
+
+    /**
+     * Advances the time of the tracker: reports the beats predicted before the given
+     * time (plus look ahead) and updates the tempo hypothesis when it is due.
+     *
+     * @param time The current time in seconds.
+     */
+    fun advance(time: Double) {
+        if (time > now) now = time // onsets are reported later than the audio is processed
+        while (count > 0 && times[first] < now - windowLength) {
+            first = (first + 1) % capacity
+            count--
+        }
+        if (now - lastUpdate >= updateInterval && count >= MIN_ONSETS) {
+            lastUpdate = now
+            updateHypothesis(now)
+        }
+        while (nextBeat <= now + lookAhead) {
+            beatHandler.handleOnset(nextBeat, -1.0)
+            lastBeat = nextBeat
+            nextBeat += beatInterval
+        }
+    }
+
+    /**
+     * Tracks the beats in the window, relative to its start so new phases are explored
+     * at the start of the window, and predicts the next beat with the best agent.
+     */
+    private fun updateHypothesis(time: Double) {
+        val start = times[first]
+        window.clear()
+        for (i in 0 until count) {
+            val index = (first + i) % capacity
+            window.add(((times[index] - start) * 100).roundToLong() / 100.0, saliences[index])
+        }
+        val agents = Induction.beatInduction(window)
+        agents.beatTrack(window, -1.0)
+        val best = chooseAgent(agents, nextBeat - start) ?: return
+        beatInterval = best.beatInterval
+        val beatTime = best.beatTime + start
+        // the first predicted beat that is not in the past and not too close to the last reported one
+        val from = maxOf(time, lastBeat + beatInterval / 2)
+        nextBeat = beatTime + beatInterval * maxOf(0.0, ceil((from - beatTime) / beatInterval))
+    }
+
+    /**
+     * Chooses the best agent, but keeps following the agent that agrees with the current
+     * prediction unless the best agent scores clearly higher. This avoids that the beats
+     * jump to an off-beat hypothesis whenever it scores a bit better in the window.
+     */
+    private fun chooseAgent(agents: AgentList, prediction: Double): Agent? {
+        val best = agents.bestAgent() ?: return null
+        if (beatInterval < 0) return best
+        var current: Agent? = null
+        for (i in 0 until agents.size) {
+            val a = agents[i]
+            if (abs(a.beatInterval - beatInterval) > TEMPO_TOLERANCE * beatInterval) continue
+            val phase = (prediction - a.beatTime) / a.beatInterval
+            if (abs(phase - phase.roundToLong()) > PHASE_TOLERANCE) continue
+            if (current == null || score(a) > score(current)) current = a
+        }
+        return if (current != null && score(best) < SWITCH_RATIO * score(current)) current else best
+    }
+
+    private fun score(a: Agent): Double {
+        return (a.phaseScore + a.tempoScore) /
+                if (AgentList.useAverageSalience) a.beatCount.toDouble() else 1.0
+    }
+
+    /**
+     * Forgets all onsets and the current hypothesis.
+     */
+    fun reset() {
+        first = 0
+        count = 0
+        now = Double.NEGATIVE_INFINITY
+        lastUpdate = Double.NEGATIVE_INFINITY
+        lastBeat = Double.NEGATIVE_INFINITY
+        nextBeat = Double.POSITIVE_INFINITY
+        beatInterval = -1.0
+    }
+
+    companion object {
+        /**
+         * The default duration of the onset window in seconds.
+         */
+        const val DEFAULT_WINDOW_LENGTH = 8.0
+
+        /**
+         * The default time between updates of the tempo hypothesis in seconds.
+         */
+        const val DEFAULT_UPDATE_INTERVAL = 1.0
+
+        /**
+         * The maximum number of onsets per second kept in the window.
+         */
+        const val MAX_ONSET_RATE = 25.0
+
+        /**
+         * The minimum number of onsets in the window to induce a tempo.
+         */
+        const val MIN_ONSETS = 4
+
+        /**
+         * The relative difference in beat interval and the difference in phase, as a
+         * fraction of the beat interval, of an agent that agrees with the prediction.
+         */
+        private const val TEMPO_TOLERANCE = 0.05
+        private const val PHASE_TOLERANCE = 0.1
+
+        /**
+         * How much higher the score of the best agent needs to be to switch to it.
+         */
+        private const val SWITCH_RATIO = 1.25
+    }
+}
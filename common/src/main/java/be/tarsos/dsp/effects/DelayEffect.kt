@@ -24,6 +24,7 @@ package be.tarsos.dsp.effects
 
 import be.tarsos.dsp.AudioEvent
 import be.tarsos.dsp.AudioProcessor
+import be.tarsos.dsp.util.flushDenormal
 
 /**
  *
@@ -70,8 +71,9 @@ class DelayEffect(
                 position = 0
             }
 
-            //output is the input added with the decayed echo
-            audioFloatBuffer[i] = audioFloatBuffer[i] + echoBuffer!![position] * decay.toFloat()
+            //output is the input added with the decayed echo, flushed to zero
+            //instead of decaying into subnormal numbers during silence
+            audioFloatBuffer[i] = flushDenormal(audioFloatBuffer[i] + echoBuffer!![position] * decay.toFloat())
             //store the sample in the buffer;
             echoBuffer!![position] = audioFloatBuffer[i]
             position++
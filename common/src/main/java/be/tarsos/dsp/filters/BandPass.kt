@@ -50,7 +50,7 @@ import kotlin.math.cos
  */
 class BandPass(freq: Float, bandWidth: Float, sampleRate: Float) :
     IIRFilter(freq, sampleRate) {
-    private var bw = bandWidth
+    private var bw = bandWidth / sampleRate
 
     /**
      * Returns the band width of this filter.
@@ -75,7 +75,7 @@ class BandPass(freq: Float, bandWidth: Float, sampleRate: Float) :
         val fracFreq = getFrequency() / sampleRate
         val T = 2 * cos(TWO_PI * fracFreq).toFloat()
         val K = (1 - R * T + R * R) / (2 - T)
-        a = floatArrayOf(1 - K, (K - R) * T, R * R - K)
-        b = floatArrayOf(R * T, -R * R)
+        sections.setSectionCount(1)
+        sections.setSection(0, (1 - K).toDouble(), ((K - R) * T).toDouble(), (R * R - K).toDouble(), (-R * T).toDouble(), (R * R).toDouble())
     }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.filters
+
+/**
+ * A Butterworth low or high pass filter of order 1 to [IIRDesign.MAX_ORDER]. Frequency
+ * defines the -3dB cutoff.
+ */
+class ButterworthFilter(
+    private val type: IIRDesign.Type,
+    private val order: Int,
+    freq: Float,
+    sampleRate: Float
+) : IIRFilter(freq, sampleRate) {
+    override fun calcCoeff() {
+        IIRDesign.butterworth(type, order, getFrequency().toDouble(), sampleRate.toDouble(), sections)
+    }
+
+    init {
+        require(order in 1..IIRDesign.MAX_ORDER) { "The order should be between 1 and ${IIRDesign.MAX_ORDER}" }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.filters
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.AudioProcessor
+import be.tarsos.dsp.util.flushDenormal
+import java.util.*
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.exp
+import kotlin.math.pow
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * A bank of band pass filters that computes the energy in many bands in one pass
+ * over the samples. Each band is a band pass biquad with unity gain at its center
+ * frequency. The state of the filters is kept in a structure of arrays. A hop is
+ * filtered one band at a time with the state of the band in local variables, while
+ * the samples of the hop stay in cache; the filtering, energy and envelope of a band
+ * are done in the same loop over the samples.
+ *
+ * Every call to [process] is one hop. It reports the RMS of each band over the new samples,
+ * and the envelope of each band at the end of the hop, to the handler. The filter state is
+ * carried over from one hop to the next. When used as an [AudioProcessor] only the new
+ * samples of each buffer are used, so overlapping buffers are handled correctly. The results
+ * are written into reused arrays; nothing is allocated while processing.
+ */
+class FilterBank @JvmOverloads constructor(
+    private val sampleRate: Float,
+    /**
+     * The center frequency of each band, in Hz.
+     */
+    val centerFrequencies: DoubleArray,
+    /**
+     * The bandwidth of each band, in Hz.
+     */
+    val bandwidths: DoubleArray,
+    private val handler: BandHandler,
+    /**
+     * Defines how fast the envelopes rise, in seconds.
+     */
+    attackTime: Double = DEFAULT_ATTACK_TIME,
+    /**
+     * Defines how fast the envelopes fall, in seconds.
+     */
+    releaseTime: Double = DEFAULT_RELEASE_TIME
+) : AudioProcessor {
+    private val bands = centerFrequencies.size
+
+    /**
+     * The coefficients of each band. A constant peak gain band pass has `b1 = 0` and `b2 = -b0`.
+     */
+    private val b0 = DoubleArray(bands)
+    private val a1 = DoubleArray(bands)
+    private val a2 = DoubleArray(bands)
+
+    /**
+     * The transposed direct form II state of each band.
+     */
+    private val z1 = DoubleArray(bands)
+    private val z2 = DoubleArray(bands)
+
+    private val energy = DoubleArray(bands)
+    private val envelopeState = DoubleArray(bands)
+    private val gainAttack = exp(-1.0 / (sampleRate * attackTime))
+    private val gainRelease = exp(-1.0 / (sampleRate * releaseTime))
+
+    /**
+     * The RMS of each band over the last hop. The array is reused for every hop.
+     */
+    val rms = FloatArray(bands)
+
+    /**
+     * The envelope of each band at the end of the last hop. The array is reused for every hop.
+     */
+    val envelope = FloatArray(bands)
+
+    /**
+     * The total number of samples processed.
+     */
+    private var samplesProcessed: Long = 0
+
+    init {
+        require(bandwidths.size == bands) { "Each band needs a center frequency and a bandwidth" }
+        for (j in 0 until bands) {
+            require(centerFrequencies[j] > 0 && centerFrequencies[j] < sampleRate / 2) {
+                "The center frequency of band $j should be between zero and the Nyquist frequency"
+            }
+            require(bandwidths[j] > 0) { "The bandwidth of band $j should be positive" }
+            val w0 = 2 * PI * centerFrequencies[j] / sampleRate
+            val alpha = sin(w0) / (2 * centerFrequencies[j] / bandwidths[j])
+            val a0 = 1 + alpha
+            b0[j] = alpha / a0
+            a1[j] = -2 * cos(w0) / a0
+            a2[j] = (1 - alpha) / a0
+        }
+    }
+
+    override fun process(audioEvent: AudioEvent): Boolean {
+        val buffer = audioEvent.floatBuffer
+        val overlap = audioEvent.overlap
+        process(buffer, overlap, buffer.size - overlap)
+        return true
+    }
+
+    /**
+     * Feeds one hop of samples to the filter bank and reports the band energies to the handler.
+     *
+     * @param buffer The buffer with audio samples.
+     * @param offset The index of the first sample to use.
+     * @param length The number of samples to use.
+     */
+    fun process(buffer: FloatArray, offset: Int, length: Int) {
+        if (length <= 0) return
+        val gainAttack = gainAttack
+        val gainRelease = gainRelease
+        for (j in 0 until bands) {
+            // a band pass with unity peak gain: b1 = 0 and b2 = -b0
+            val b0 = b0[j]
+            val a1 = a1[j]
+            val a2 = a2[j]
+            var z1 = z1[j]
+            var z2 = z2[j]
+            var envelope = envelopeState[j]
+            var energy = 0.0
+            for (i in offset until offset + length) {
+                val x = buffer[i].toDouble()
+                val y = flushDenormal(b0 * x + z1)
+                z1 = z2 - a1 * y
+                z2 = -b0 * x - a2 * y
+                energy += y * y
+                val level = abs(y)
+                envelope = flushDenormal(level + (if (envelope < level) gainAttack else gainRelease) * (envelope - level))
+            }
+            this.z1[j] = z1
+            this.z2[j] = z2
+            envelopeState[j] = envelope
+            this.energy[j] = energy
+        }
+        for (j in 0 until bands) {
+            rms[j] = sqrt(energy[j] / length).toFloat()
+            envelope[j] = envelopeState[j].toFloat()
+        }
+        val timeStamp = samplesProcessed / sampleRate.toDouble()
+        samplesProcessed += length
+        handler.handleBands(timeStamp, rms, envelope)
+    }
+
+    /**
+     * Clears the filter state.
+     */
+    fun reset() {
+        Arrays.fill(z1, 0.0)
+        Arrays.fill(z2, 0.0)
+        Arrays.fill(envelopeState, 0.0)
+        samplesProcessed = 0
+    }
+
+    override fun processingFinished() {}
+
+    /**
+     * An interface to react on the band energies computed by a [FilterBank].
+     */
+    interface BandHandler {
+        /**
+         * Handle the band energies of a hop.
+         *
+         * @param timeStamp The time stamp of the start of the hop, in seconds.
+         * @param rms       The RMS of each band over the hop. A sine with amplitude `a` at the
+         * center frequency of a band has an RMS of about `a / sqrt(2)` in that band.
+         * @param envelope  The envelope of each band at the end of the hop.
+         * Both arrays are reused for the next hop.
+         */
+        fun handleBands(timeStamp: Double, rms: FloatArray, envelope: FloatArray)
+    }
+
+    companion object {
+        /**
+         * Defines how fast the envelopes rise by default, in seconds.
+         */
+        const val DEFAULT_ATTACK_TIME = 0.002
+
+        /**
+         * Defines how fast the envelopes fall by default, in seconds.
+         */
+        const val DEFAULT_RELEASE_TIME = 0.05
+
+        /**
+         * Creates a bank of logarithmically spaced bands that together cover a frequency
+         * range. Neighbouring bands meet at the geometric mean of their center frequencies.
+         *
+         * @param sampleRate The sample rate in Hz.
+         * @param lowest     The center frequency of the lowest band, in Hz.
+         * @param highest    The center frequency of the highest band, in Hz.
+         * @param bands      The number of bands, at least two.
+         * @param handler    The handler for the band energies.
+         * @return The filter bank.
+         */
+        @JvmStatic
+        fun logarithmic(sampleRate: Float, lowest: Double, highest: Double, bands: Int, handler: BandHandler): FilterBank {
+            require(bands >= 2) { "A logarithmic filter bank needs at least two bands" }
+            require(lowest > 0 && highest > lowest) { "The lowest frequency should be positive and below the highest" }
+            val ratio = (highest / lowest).pow(1.0 / (bands - 1))
+            val centers = DoubleArray(bands) { lowest * ratio.pow(it) }
+            val bandwidths = DoubleArray(bands) { centers[it] * (sqrt(ratio) - 1 / sqrt(ratio)) }
+            return FilterBank(sampleRate, centers, bandwidths, handler)
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.filters
+
+import kotlin.math.PI
+import kotlin.math.asinh
+import kotlin.math.cos
+import kotlin.math.cosh
+import kotlin.math.pow
+import kotlin.math.sin
+import kotlin.math.sinh
+import kotlin.math.sqrt
+import kotlin.math.tan
+
+/**
+ * Designs Butterworth and Chebyshev (type I) low and high pass filters as cascades of
+ * [SecondOrderSections]. The analog prototype poles are paired into sections and mapped
+ * with the bilinear transform, prewarped so that the cutoff lands exactly on the requested
+ * frequency. For a Butterworth filter the cutoff is the -3dB point, for a Chebyshev filter
+ * it is the edge of the pass band ripple.
+ */
+object IIRDesign {
+    /**
+     * The highest supported filter order.
+     */
+    const val MAX_ORDER = 12
+
+    /**
+     * The kind of filter to design.
+     */
+    enum class Type {
+        LOW_PASS, HIGH_PASS
+    }
+
+    /**
+     * Designs a Butterworth filter, maximally flat in the pass band.
+     *
+     * @param type       Low or high pass.
+     * @param order      The order of the filter, from 1 to [MAX_ORDER].
+     * @param frequency  The -3dB cutoff frequency in Hz.
+     * @param sampleRate The sample rate in Hz.
+     * @param sections   The cascade to configure.
+     * @return The configured cascade.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun butterworth(
+        type: Type,
+        order: Int,
+        frequency: Double,
+        sampleRate: Double,
+        sections: SecondOrderSections = SecondOrderSections()
+    ): SecondOrderSections {
+        design(type, order, frequency, sampleRate, sections, 1.0, 1.0)
+        return sections
+    }
+
+    /**
+     * Designs a Chebyshev type I filter: a steeper transition than a Butterworth filter of
+     * the same order, at the cost of ripple in the pass band.
+     *
+     * @param type       Low or high pass.
+     * @param order      The order of the filter, from 1 to [MAX_ORDER].
+     * @param ripple     The pass band ripple in dB.
+     * @param frequency  The frequency in Hz where the pass band ripple ends.
+     * @param sampleRate The sample rate in Hz.
+     * @param sections   The cascade to configure.
+     * @return The configured cascade.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun chebyshev(
+        type: Type,
+        order: Int,
+        ripple: Double,
+        frequency: Double,
+        sampleRate: Double,
+        sections: SecondOrderSections = SecondOrderSections()
+    ): SecondOrderSections {
+        require(ripple > 0) { "The pass band ripple should be positive" }
+        val epsilon = sqrt(10.0.pow(ripple / 10) - 1)
+        val mu = asinh(1 / epsilon) / order
+        // an even order filter starts its pass band at the bottom of the ripple
+        val gain = if (order % 2 == 0) 1 / sqrt(1 + epsilon * epsilon) else 1.0
+        design(type, order, frequency, sampleRate, sections, sinh(mu), cosh(mu), gain)
+        return sections
+    }
+
+    private fun design(
+        type: Type,
+        order: Int,
+        frequency: Double,
+        sampleRate: Double,
+        sections: SecondOrderSections,
+        realScale: Double,
+        imaginaryScale: Double,
+        gain: Double = 1.0
+    ) {
+        require(order in 1..MAX_ORDER) { "The order should be between 1 and $MAX_ORDER" }
+        require(frequency > 0 && frequency < sampleRate / 2) { "The frequency should be between zero and the Nyquist frequency" }
+        sections.setSectionCount((order + 1) / 2)
+        // the bilinear transform maps the prototype cutoff of 1 rad/s to the requested frequency
+        val k = 1 / tan(PI * frequency / sampleRate)
+        for (p in 0 until order / 2) {
+            val theta = PI * (2 * p + 1) / (2 * order)
+            val real = -realScale * sin(theta)
+            val imaginary = imaginaryScale * cos(theta)
+            // the prototype section is b / (s^2 + a s + b)
+            var a = -2 * real
+            var b = real * real + imaginary * imaginary
+            val sectionGain = if (p == 0) gain else 1.0
+            if (type == Type.LOW_PASS) {
+                val d0 = k * k + a * k + b
+                val g = sectionGain * b / d0
+                sections.setSection(p, g, 2 * g, g, (2 * b - 2 * k * k) / d0, (k * k - a * k + b) / d0)
+            } else {
+                // s -> 1/s turns the section into s^2 / (s^2 + a/b s + 1/b)
+                a /= b
+                b = 1 / b
+                val d0 = k * k + a * k + b
+                val g = sectionGain * k * k / d0
+                sections.setSection(p, g, -2 * g, g, (2 * b - 2 * k * k) / d0, (k * k - a * k + b) / d0)
+            }
+        }
+        if (order % 2 == 1) {
+            // the real pole of an odd order filter, c / (s + c)
+            var c = realScale
+            val section = order / 2
+            val sectionGain = if (section == 0) gain else 1.0
+            if (type == Type.LOW_PASS) {
+                val d0 = k + c
+                sections.setSection(section, sectionGain * c / d0, sectionGain * c / d0, 0.0, (c - k) / d0, 0.0)
+            } else {
+                c = 1 / c
+                val d0 = k + c
+                sections.setSection(section, sectionGain * k / d0, -sectionGain * k / d0, 0.0, (c - k) / d0, 0.0)
+            }
+        }
+    }
+}
@@ -48,9 +48,9 @@ import be.tarsos.dsp.AudioProcessor
  * an efficient way to do digital filtering. IIRFilter is a general IIRFilter
  * that simply applies the filter designated by the filter coefficients so that
  * sub-classes only have to dictate what the values of those coefficients are by
- * defining the `calcCoeff()` function. When filling the coefficient
- * arrays, be aware that `b[0]` corresponds to
- * `b<sub>1</sub>`.
+ * defining the `calcCoeff()` function. The filter runs as a cascade of
+ * [SecondOrderSections], which stays accurate for higher order filters where a
+ * single direct form polynomial does not.
  *
  * @author Damien Di Fede
  * @author Joren Six
@@ -58,25 +58,15 @@ import be.tarsos.dsp.AudioProcessor
 abstract class IIRFilter(private var frequency: Float, protected val sampleRate: Float) : AudioProcessor {
 
     /**
-     * The b coefficients.
+     * The cascade of second order sections that does the filtering, configured by
+     * [calcCoeff].
      */
-    protected lateinit var b: FloatArray
+    protected val sections = SecondOrderSections()
 
     /**
-     * The a coefficients.
+     * True when the sections reflect the current parameters.
      */
-    protected lateinit var a: FloatArray
-
-    /**
-     * The input values to the left of the output value currently being
-     * calculated.
-     */
-    protected var inputValues: FloatArray
-
-    /**
-     * The previous output values.
-     */
-    protected var out: FloatArray
+    private var designed = false
 
     /**
      * Returns the cutoff frequency (in Hz).
@@ -90,53 +80,27 @@ abstract class IIRFilter(private var frequency: Float, protected val sampleRate:
     fun setFrequency(freq: Float) {
         frequency = freq
         calcCoeff()
+        designed = true
     }
 
     /**
      * Calculates the coefficients of the filter using the current cutoff
      * frequency. To make your own IIRFilters, you must extend IIRFilter and
-     * implement this function. The frequency is expressed as a fraction of the
-     * sample rate. When filling the coefficient arrays, be aware that
-     * `b[0]` corresponds to the coefficient
-     * `b<sub>1</sub>`.
+     * implement this function by configuring [sections]. It is called before
+     * the first buffer is filtered, once all properties of the sub-class are
+     * initialized, and again whenever a parameter changes.
      */
     protected abstract fun calcCoeff()
-    override fun process(audioEvent: AudioEvent): Boolean {
-        val audioFloatBuffer = audioEvent.floatBuffer
-        for (i in audioEvent.overlap until audioFloatBuffer.size) {
-            //shift the in array
-            System.arraycopy(inputValues, 0, inputValues, 1, inputValues.size - 1)
-            inputValues[0] = audioFloatBuffer[i]
 
-            //calculate y based on a and b coefficients
-            //and in and out.
-            var y = 0f
-            for (j in a.indices) {
-                y += a[j] * inputValues[j]
-            }
-            for (j in b.indices) {
-                y += b[j] * out[j]
-            }
-            //shift the out array
-            System.arraycopy(out, 0, out, 1, out.size - 1)
-            out[0] = y
-            audioFloatBuffer[i] = y
+    override fun process(audioEvent: AudioEvent): Boolean {
+        if (!designed) {
+            calcCoeff()
+            designed = true
         }
+        val audioFloatBuffer = audioEvent.floatBuffer
+        sections.process(audioFloatBuffer, audioEvent.overlap, audioFloatBuffer.size)
         return true
     }
 
     override fun processingFinished() {}
-
-    /**
-     * Constructs an IIRFilter with the given cutoff frequency that will be used
-     * to filter audio recorded at `sampleRate`.
-     *
-     * @param freq       the cutoff frequency
-     * @param sampleRate the sample rate of audio to be filtered
-     */
-    init {
-        calcCoeff()
-        inputValues = FloatArray(a.size)
-        out = FloatArray(b.size)
-    }
-}
\ No newline at end of file
+}
@@ -43,14 +43,18 @@ import kotlin.math.exp
 import kotlin.math.pow
 
 /**
- * Four stage low pass filter.
+ * Four stage low pass filter: four identical one pole stages, run as two second
+ * order sections.
  */
 class LowPassFS(freq: Float, sampleRate: Float) :
     IIRFilter(if (freq > 60) freq else 60F, sampleRate) {
     override fun calcCoeff() {
         val freqFrac = getFrequency() / sampleRate
-        val x = exp(-14.445 * freqFrac).toFloat()
-        a = floatArrayOf((1 - x.toDouble()).pow(4.0).toFloat())
-        b = floatArrayOf(4 * x, -6 * x * x, 4 * x * x * x, -x * x * x * x)
+        val x = exp(-14.445 * freqFrac)
+        // each section is two stages: (1 - x)^2 / (1 - x z^-1)^2
+        val g = (1 - x).pow(2)
+        sections.setSectionCount(2)
+        sections.setSection(0, g, 0.0, 0.0, -2 * x, x * x)
+        sections.setSection(1, g, 0.0, 0.0, -2 * x, x * x)
     }
 }
\ No newline at end of file
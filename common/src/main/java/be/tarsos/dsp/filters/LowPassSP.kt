@@ -50,8 +50,8 @@ import kotlin.math.exp
 class LowPassSP(freq: Float, sampleRate: Float) : IIRFilter(freq, sampleRate) {
     override fun calcCoeff() {
         val fracFreq = getFrequency() / sampleRate
-        val x = exp(-2 * PI * fracFreq)
-        a = floatArrayOf(1 - x)
-        b = floatArrayOf(x)
+        val x = exp(-2 * PI * fracFreq).toDouble()
+        sections.setSectionCount(1)
+        sections.setSection(0, 1 - x, 0.0, 0.0, -x, 0.0)
     }
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.filters
+
+import be.tarsos.dsp.util.flushDenormal
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * A cascade of second order sections (biquads), the numerically robust way to run higher
+ * order IIR filters. Each section is evaluated in transposed direct form II:
+ *
+ * `y = b0*x + z1, z1 = b1*x - a1*y + z2, z2 = b2*x - a2*y`
+ *
+ * Coefficients and state are kept in double precision. A buffer is filtered one section
+ * at a time, so that the coefficients and state of a section stay in registers for the
+ * whole buffer. A first order section is a section with `b2` and `a2` zero.
+ *
+ * The output of each section is flushed to zero below [be.tarsos.dsp.util.DENORMAL_THRESHOLD],
+ * so that the state decays to zero instead of into subnormal numbers when the input goes silent.
+ */
+class SecondOrderSections @JvmOverloads constructor(sectionCount: Int = 0) {
+    /**
+     * The number of sections in the cascade.
+     */
+    var sectionCount: Int = 0
+        private set
+
+    /**
+     * `b0, b1, b2, a1, a2` for each section.
+     */
+    private var coefficients = DoubleArray(0)
+
+    /**
+     * `z1, z2` for each section.
+     */
+    private var state = DoubleArray(0)
+
+    /**
+     * Changes the number of sections. The state is only cleared when the number changes, so
+     * that a filter can be redesigned while it runs.
+     *
+     * @param sectionCount The new number of sections.
+     */
+    fun setSectionCount(sectionCount: Int) {
+        require(sectionCount >= 0) { "The number of sections should not be negative" }
+        if (sectionCount != this.sectionCount) {
+            this.sectionCount = sectionCount
+            coefficients = DoubleArray(COEFFICIENTS * sectionCount)
+            state = DoubleArray(STATES * sectionCount)
+            // a section that is not set passes the signal unchanged
+            for (s in 0 until sectionCount) coefficients[COEFFICIENTS * s] = 1.0
+        }
+    }
+
+    /**
+     * Sets the coefficients of a section, normalized so that `a0` is one.
+     *
+     * @param section The index of the section.
+     */
+    fun setSection(section: Int, b0: Double, b1: Double, b2: Double, a1: Double, a2: Double) {
+        require(section in 0 until sectionCount) { "Section $section does not exist, there are $sectionCount sections" }
+        val c = COEFFICIENTS * section
+        coefficients[c] = b0
+        coefficients[c + 1] = b1
+        coefficients[c + 2] = b2
+        coefficients[c + 3] = a1
+        coefficients[c + 4] = a2
+    }
+
+    /**
+     * Filters part of a buffer in place.
+     *
+     * @param buffer The samples to filter.
+     * @param from   The index of the first sample to filter.
+     * @param to     The index after the last sample to filter.
+     */
+    fun process(buffer: FloatArray, from: Int, to: Int) {
+        for (s in 0 until sectionCount) {
+            val c = COEFFICIENTS * s
+            val b0 = coefficients[c]
+            val b1 = coefficients[c + 1]
+            val b2 = coefficients[c + 2]
+            val a1 = coefficients[c + 3]
+            val a2 = coefficients[c + 4]
+            var z1 = state[STATES * s]
+            var z2 = state[STATES * s + 1]
+            for (i in from until to) {
+                val x = buffer[i].toDouble()
+                val y = flushDenormal(b0 * x + z1)
+                z1 = b1 * x - a1 * y + z2
+                z2 = b2 * x - a2 * y
+                buffer[i] = y.toFloat()
+            }
+            state[STATES * s] = z1
+            state[STATES * s + 1] = z2
+        }
+    }
+
+    /**
+     * Filters the next sample of a stream.
+     *
+     * @param sample The next input sample.
+     * @return The next output sample.
+     */
+    fun process(sample: Double): Double {
+        var x = sample
+        for (s in 0 until sectionCount) {
+            val c = COEFFICIENTS * s
+            val z = STATES * s
+            val y = flushDenormal(coefficients[c] * x + state[z])
+            state[z] = coefficients[c + 1] * x - coefficients[c + 3] * y + state[z + 1]
+            state[z + 1] = coefficients[c + 2] * x - coefficients[c + 4] * y
+            x = y
+        }
+        return x
+    }
+
+    /**
+     * Clears the state of the filter.
+     */
+    fun reset() {
+        state.fill(0.0)
+    }
+
+    /**
+     * Calculates the magnitude response of the cascade.
+     *
+     * @param frequency  The frequency in Hz.
+     * @param sampleRate The sample rate in Hz.
+     * @return The gain at the frequency, one is unity gain.
+     */
+    fun magnitude(frequency: Double, sampleRate: Double): Double {
+        val w = 2 * Math.PI * frequency / sampleRate
+        val cos1 = cos(w)
+        val sin1 = sin(w)
+        val cos2 = cos(2 * w)
+        val sin2 = sin(2 * w)
+        var gain = 1.0
+        for (s in 0 until sectionCount) {
+            val c = COEFFICIENTS * s
+            val numeratorReal = coefficients[c] + coefficients[c + 1] * cos1 + coefficients[c + 2] * cos2
+            val numeratorImaginary = coefficients[c + 1] * sin1 + coefficients[c + 2] * sin2
+            val denominatorReal = 1 + coefficients[c + 3] * cos1 + coefficients[c + 4] * cos2
+            val denominatorImaginary = coefficients[c + 3] * sin1 + coefficients[c + 4] * sin2
+            gain *= sqrt(
+                (numeratorReal * numeratorReal + numeratorImaginary * numeratorImaginary) /
+                        (denominatorReal * denominatorReal + denominatorImaginary * denominatorImaginary)
+            )
+        }
+        return gain
+    }
+
+    companion object {
+        private const val COEFFICIENTS = 5
+        private const val STATES = 2
+    }
+
+    init {
+        setSectionCount(sectionCount)
+    }
+}
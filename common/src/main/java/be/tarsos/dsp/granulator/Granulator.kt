@@ -4,296 +4,421 @@ import be.tarsos.dsp.AudioEvent
 import be.tarsos.dsp.AudioProcessor
 import be.tarsos.dsp.util.fft.CosineWindow
 import java.util.*
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.math.floor
+import kotlin.random.Random
 
 /**
  * Granulator plays back samples using granular synthesis.
  * Methods can be used to control playback rate, pitch, grain size,
  * grain interval and grain randomness and position (this last case assumes that the playback rate is zero).
  *
+ * Incoming audio is kept in a circular history with a power of two length, sized to hold
+ * [maxGrainPosition] seconds. Grains are kept in a pool of fixed capacity backed by
+ * primitive arrays. Memory use is constant and processing does not allocate, whatever the
+ * length of the stream. Grains that read outside of the history read silence.
+ *
+ * The setters can be called from any thread: parameters are published through volatile
+ * fields and are picked up at the start of the next buffer.
+ *
  * @author ollie
  * @author Joren
  */
-class Granulator(sampleRate: Float, bufferSize: Int) : AudioProcessor {
+open class Granulator @JvmOverloads constructor(
+    sampleRate: Float,
+    bufferSize: Int,
     /**
-     * The window used by grains.
+     * How far, in seconds, grains can read behind the most recent input sample.
      */
-    private val window: FloatArray = CosineWindow().generateCurve(bufferSize)
-    private val audioBuffer: FloatArray = FloatArray((12 * 60 * sampleRate).toInt())
-    private val outputBuffer: FloatArray = FloatArray(bufferSize)
-
+    maxGrainPosition: Float = DEFAULT_MAX_GRAIN_POSITION,
     /**
-     * The position in milliseconds.
+     * The maximum number of grains that sound at the same time. New grains are skipped while
+     * the pool is full.
      */
-    protected var position = 0.0
-
-
-    private var grainInterval: Float = 40.0f
-    private var grainSize: Float = 100.0f
-    private var grainRandomness: Float = 0.1f
+    val maxGrains: Int = DEFAULT_MAX_GRAINS
+) : AudioProcessor {
+    /**
+     * The window used by grains, with the last value repeated so that interpolating at the
+     * very end of a grain stays within the table.
+     */
+    private val window: FloatArray = CosineWindow().generateCurve(WINDOW_SIZE).let { it.copyOf(WINDOW_SIZE + 1).apply { this[WINDOW_SIZE] = it[WINDOW_SIZE - 1] } }
 
     /**
-     * The time in milliseconds since the last grain was activated.
+     * The number of samples kept in the circular history, a power of two.
      */
-    private var timeSinceLastGrain = 0f
+    val historySize: Int
+    private val history: FloatArray
+    private val historyMask: Int
 
     /**
-     * The length of one sample in milliseconds.
+     * The total number of samples written to the history. Sample `n` is stored at `n and historyMask`.
      */
-    private val msPerSample: Double = 1000.0f / sampleRate.toDouble()
+    private var samplesWritten = 0L
+    private var outputBuffer: FloatArray = FloatArray(bufferSize)
 
     /**
-     * The millisecond position increment per sample. Calculated from the ratio
-     * of the [AudioContext]'s sample rate and the [Sample]'s sample
-     * rate.
+     * The position in samples.
      */
-    private val positionIncrement: Double = msPerSample
+    private var position = 0.0
 
     /**
-     * The pitch, bound to the pitch envelope.
+     * A position requested with [setPosition], in samples, or `NaN` bits when there is none.
      */
+    private val requestedPosition = AtomicLong(NO_POSITION)
+
+    @Volatile
+    private var grainInterval: Float = 40.0f
+
+    @Volatile
+    private var grainSize: Float = 100.0f
+
+    @Volatile
+    private var grainRandomness: Float = 0.1f
+
+    @Volatile
     private var pitchFactor: Float = 1.0f
 
+    @Volatile
+    private var timeStretchFactor: Float = 1.0f
+
     /**
-     * The pitch, bound to the pitch envelope.
+     * The time in samples since the last grain was activated.
      */
-    private var timeStretchFactor = 0f
-    /** The interpolation type.  */ //protected InterpolationType interpolationType;
+    private var timeSinceLastGrain = 0.0
+
     /**
-     * The list of current grains.
+     * The number of samples in a millisecond.
      */
-    private val grains: ArrayList<Grain?> = ArrayList()
+    private val samplesPerMs: Double = sampleRate / 1000.0
+
+    private val random = Random(System.nanoTime())
 
     /**
-     * A list of free grains.
+     * The grain pool. The active grains are stored at the indexes below [activeGrains].
      */
-    private val freeGrains: ArrayList<Grain?> = ArrayList()
+    private val grainPosition = DoubleArray(maxGrains)
+    private val grainAge = DoubleArray(maxGrains)
+    private val grainLength = DoubleArray(maxGrains)
 
     /**
-     * A list of dead grains.
+     * The offset in the current buffer after the last sample of each grain.
      */
-    private val deadGrains: ArrayList<Grain?> = ArrayList()
-    private var audioBufferWatermark: Int = 0
+    private val grainEnd = IntArray(maxGrains)
+
+    /**
+     * The number of active grains.
+     */
+    var activeGrains = 0
+        private set
 
     /**
      * Flag to indicate special case for the first grain.
      */
     private var firstGrain = true
+
     fun start() {
-        timeSinceLastGrain = 0f
+        timeSinceLastGrain = 0.0
     }
 
     /**
      * Special case method for playing first grain.
      */
-    private fun firstGrain() {
+    private fun firstGrain(grainSizeSamples: Double, grainIntervalSamples: Double) {
         if (firstGrain) {
-            val g = Grain()
-            g.position = position
-            g.age = (grainSize / 4f).toDouble()
-            g.grainSize = grainSize.toDouble()
-            grains.add(g)
+            grainPosition[0] = position
+            grainAge[0] = grainSizeSamples / 4
+            grainLength[0] = grainSizeSamples
+            activeGrains = 1
             firstGrain = false
-            timeSinceLastGrain = grainInterval / 2f
+            timeSinceLastGrain = grainIntervalSamples / 2
         }
     }
 
-    override fun process(audioEvent: AudioEvent): Boolean {
-        System.arraycopy(
-            audioEvent.floatBuffer, 0, audioBuffer,
-            audioBufferWatermark, audioEvent.bufferSize
-        )
-        audioBufferWatermark += audioEvent.bufferSize
+    /**
+     * Activates a grain that starts at the given offset in the current buffer. Fewer than
+     * [maxGrains] grains should sound at that offset.
+     *
+     * @return The index of the grain.
+     */
+    private fun startGrain(offset: Int, position: Double, grainSizeSamples: Double, randomness: Double, stretch: Double): Int {
+        val randomTimeDiff = (if (random.nextDouble() > 0.5) +1 else -1) * grainSizeSamples * randomness
+        val length = (grainSizeSamples + randomTimeDiff) / stretch + samplesPerMs
+        var index = 0
+        if (activeGrains < maxGrains) {
+            index = activeGrains++
+        } else {
+            // reuse a grain that ended earlier in this buffer
+            while (grainEnd[index] > offset) index++
+        }
+        grainPosition[index] = position - length
+        grainAge[index] = 0.0
+        grainLength[index] = length
+        return index
+    }
 
-        // grains.clear();
-        // position = audioEvent.getTimeStamp()*1000 - 5000;
+    private fun write(samples: FloatArray, length: Int) {
+        var offset = 0
+        while (offset < length) {
+            val index = (samplesWritten and historyMask.toLong()).toInt()
+            val count = minOf(length - offset, historySize - index)
+            System.arraycopy(samples, offset, history, index, count)
+            offset += count
+            samplesWritten += count
+        }
+    }
 
-        // reset output
-        Arrays.fill(outputBuffer, 0f)
-        firstGrain()
+    override fun process(audioEvent: AudioEvent): Boolean {
         val bufferSize = audioEvent.bufferSize
+        write(audioEvent.floatBuffer, bufferSize)
+        if (outputBuffer.size < bufferSize) outputBuffer = FloatArray(bufferSize)
+
+        // take a consistent snapshot of the parameters for this buffer
+        val requested = requestedPosition.getAndSet(NO_POSITION)
+        if (requested != NO_POSITION) position = java.lang.Double.longBitsToDouble(requested)
+        val pitch = pitchFactor.toDouble()
+        val stretch = timeStretchFactor.toDouble()
+        val grainSizeSamples = grainSize * samplesPerMs
+        val grainIntervalSamples = grainInterval * samplesPerMs
+        val randomness = grainRandomness.toDouble()
+        val direction = if (stretch >= 0) 1 else -1 //this is a bit odd in the case when controlling grain from positionEnvelope
+        val grainIncrement = direction * pitch
+        val interpolation = when {
+            pitch > ADAPTIVE_INTERP_HIGH_THRESH -> Interpolation.NONE
+            pitch > ADAPTIVE_INTERP_LOW_THRESH -> Interpolation.LINEAR
+            else -> Interpolation.CUBIC
+        }
 
-        // now loop through the buffer
-        for (i in 0 until bufferSize) {
-            // determine if we need a new grain
-            if (timeSinceLastGrain > grainInterval) {
-                val g: Grain = if (freeGrains.size > 0) {
-                    freeGrains.removeAt(0)!!
-                } else {
-                    Grain()
-                }
-                g.reset(
-                    grainSize.toDouble(),
-                    grainRandomness.toDouble(),
-                    position,
-                    timeStretchFactor.toDouble(),
-                    pitchFactor.toDouble()
-                )
-                grains.add(g)
-                timeSinceLastGrain = 0f
-                //System.out.println(grains.size());
+        // reset output
+        Arrays.fill(outputBuffer, 0, bufferSize, 0f)
+        firstGrain(grainSizeSamples, grainIntervalSamples)
+
+        // render the grains that were already sounding over the whole buffer
+        for (g in 0 until activeGrains) {
+            renderGrain(g, 0, bufferSize, grainIncrement, interpolation)
+        }
+
+        // start and render the grains that begin in this buffer, one every interval
+        var start = if (timeSinceLastGrain > grainIntervalSamples) 0 else (floor(grainIntervalSamples - timeSinceLastGrain) + 1).toInt()
+        var lastStart = -1
+        while (start < bufferSize) {
+            if (soundingGrains(start) < maxGrains) {
+                val g = startGrain(start, position + start * stretch, grainSizeSamples, randomness, stretch)
+                renderGrain(g, start, bufferSize - start, grainIncrement, interpolation)
             }
+            lastStart = start
+            start += floor(grainIntervalSamples).toInt() + 1
+        }
+        timeSinceLastGrain = if (lastStart < 0) timeSinceLastGrain + bufferSize else (bufferSize - lastStart).toDouble()
 
-            // gather the output from each grain
-            for (g in grains) {
-                // calculate value of grain window
-                val windowScale = getValueFraction((g!!.age / g.grainSize).toFloat())
-                // get position in sample for this grain
-                // get the frame for this grain
-                getFrameLinear(g.position)
-                var sampleValue: Double = when {
-                    pitchFactor > ADAPTIVE_INTERP_HIGH_THRESH -> {
-                        getFrameNoInterp(g.position).toDouble()
-                    }
-                    pitchFactor > ADAPTIVE_INTERP_LOW_THRESH -> {
-                        getFrameLinear(g.position)
-                    }
-                    else -> {
-                        getFrameCubic(g.position).toDouble()
-                    }
-                }
-                sampleValue *= windowScale
-                outputBuffer[i] += sampleValue.toFloat()
+        removeDeadGrains()
+        position += stretch * bufferSize
+        audioEvent.floatBuffer = outputBuffer
+        return true
+    }
+
+    /**
+     * @return The number of grains that still sound at the given offset in the current buffer.
+     */
+    private fun soundingGrains(offset: Int): Int {
+        var count = 0
+        for (g in 0 until activeGrains) if (grainEnd[g] > offset) count++
+        return count
+    }
+
+    private fun removeDeadGrains() {
+        var g = 0
+        while (g < activeGrains) {
+            if (grainAge[g] > grainLength[g]) {
+                // move the last active grain in its place
+                activeGrains--
+                grainPosition[g] = grainPosition[activeGrains]
+                grainAge[g] = grainAge[activeGrains]
+                grainLength[g] = grainLength[activeGrains]
+            } else {
+                g++
             }
-            // increment time
-            position += positionIncrement * timeStretchFactor
-            for (g in grains) {
-                calculateNextGrainPosition(g)
+        }
+    }
+
+    /**
+     * Adds the contribution of one grain to the output buffer, from the given offset until the
+     * end of the buffer or the end of the grain, and moves the grain on.
+     */
+    private fun renderGrain(g: Int, from: Int, length: Int, increment: Double, interpolation: Interpolation) {
+        val age = grainAge[g]
+        val grainLength = grainLength[g]
+        // a grain sounds as long as its age does not exceed its length
+        val count = minOf(length, maxOf(1, floor(grainLength - age).toInt() + 1))
+        val phaseIncrement = (WINDOW_SIZE - 1) / grainLength
+        val firstPosition = grainPosition[g]
+        val lastPosition = firstPosition + (count - 1) * increment
+
+        // with the whole span in the history the samples can be read without bounds checks
+        val lowest = floor(minOf(firstPosition, lastPosition)).toLong() - 1
+        val highest = floor(maxOf(firstPosition, lastPosition)).toLong() + 2
+        if (lowest >= 0 && lowest >= samplesWritten - historySize && highest < samplesWritten) {
+            when (interpolation) {
+                Interpolation.NONE -> renderNoInterp(from, count, firstPosition, increment, age * phaseIncrement, phaseIncrement)
+                Interpolation.LINEAR -> renderLinear(from, count, firstPosition, increment, age * phaseIncrement, phaseIncrement)
+                Interpolation.CUBIC -> renderCubic(from, count, firstPosition, increment, age * phaseIncrement, phaseIncrement)
             }
-            // increment timeSinceLastGrain
-            timeSinceLastGrain += msPerSample.toFloat()
-            // finally, see if any grains are dead
-            for (g in grains) {
-                if (g!!.age > g.grainSize) {
-                    freeGrains.add(g)
-                    deadGrains.add(g)
+        } else {
+            var position = firstPosition
+            var phase = age * phaseIncrement
+            for (i in from until from + count) {
+                val sample = when (interpolation) {
+                    Interpolation.NONE -> frameNoInterp(position)
+                    Interpolation.LINEAR -> frameLinear(position).toFloat()
+                    Interpolation.CUBIC -> frameCubic(position)
                 }
+                outputBuffer[i] += sample * windowValue(phase)
+                position += increment
+                phase += phaseIncrement
             }
-            for (g in deadGrains) {
-                grains.remove(g)
-            }
-            deadGrains.clear()
         }
-        audioEvent.floatBuffer = outputBuffer
-        return true
+        grainAge[g] = age + count
+        grainPosition[g] = firstPosition + count * increment
+        grainEnd[g] = from + count
+    }
+
+    private fun windowValue(phase: Double): Float {
+        val index = phase.toInt()
+        val fraction = (phase - index).toFloat()
+        return window[index] + fraction * (window[index + 1] - window[index])
+    }
+
+    private fun renderNoInterp(from: Int, count: Int, firstPosition: Double, increment: Double, firstPhase: Double, phaseIncrement: Double) {
+        val history = history
+        val mask = historyMask
+        val output = outputBuffer
+        var position = firstPosition
+        var phase = firstPhase
+        for (i in from until from + count) {
+            output[i] += history[position.toLong().toInt() and mask] * windowValue(phase)
+            position += increment
+            phase += phaseIncrement
+        }
+    }
+
+    private fun renderLinear(from: Int, count: Int, firstPosition: Double, increment: Double, firstPhase: Double, phaseIncrement: Double) {
+        val history = history
+        val mask = historyMask
+        val output = outputBuffer
+        var position = firstPosition
+        var phase = firstPhase
+        for (i in from until from + count) {
+            val index = position.toLong()
+            val fraction = (position - index).toFloat()
+            val current = history[index.toInt() and mask]
+            val next = history[(index + 1).toInt() and mask]
+            output[i] += (current + fraction * (next - current)) * windowValue(phase)
+            position += increment
+            phase += phaseIncrement
+        }
+    }
+
+    private fun renderCubic(from: Int, count: Int, firstPosition: Double, increment: Double, firstPhase: Double, phaseIncrement: Double) {
+        val history = history
+        val mask = historyMask
+        val output = outputBuffer
+        var position = firstPosition
+        var phase = firstPhase
+        for (i in from until from + count) {
+            val index = position.toLong()
+            val mu = (position - index).toFloat()
+            val j = index.toInt()
+            val ym1 = history[(j - 1) and mask]
+            val y0 = history[j and mask]
+            val y1 = history[(j + 1) and mask]
+            val y2 = history[(j + 2) and mask]
+            val mu2 = mu * mu
+            val a0 = y2 - y1 - ym1 + y0
+            val a1 = ym1 - y0 - a0
+            val a2 = y1 - ym1
+            output[i] += (a0 * mu * mu2 + a1 * mu2 + a2 * mu + y0) * windowValue(phase)
+            position += increment
+            phase += phaseIncrement
+        }
+    }
+
+    /**
+     * @return The sample with the given index or zero if it is not in the history.
+     */
+    private fun sampleAt(index: Long): Float {
+        return if (index < samplesWritten && index >= 0 && index >= samplesWritten - historySize) {
+            history[(index and historyMask.toLong()).toInt()]
+        } else {
+            0f
+        }
+    }
+
+    private fun frameLinear(frame: Double): Double {
+        val frameFloor = floor(frame)
+        val index = frameFloor.toLong()
+        val fraction = frame - frameFloor
+        return (1 - fraction) * sampleAt(index) + fraction * sampleAt(index + 1)
+    }
+
+    private fun frameNoInterp(frame: Double): Float {
+        return sampleAt(floor(frame).toLong())
+    }
+
+    private fun frameCubic(frame: Double): Float {
+        val frameFloor = floor(frame)
+        val index = frameFloor.toLong()
+        val fractionOffset = (frame - frameFloor).toFloat()
+        val ym1 = sampleAt(index - 1)
+        val y0 = sampleAt(index)
+        val y1 = sampleAt(index + 1)
+        val y2 = sampleAt(index + 2)
+        val mu2 = fractionOffset * fractionOffset
+        val a0 = y2 - y1 - ym1 + y0
+        val a1 = ym1 - y0 - a0
+        val a2 = y1 - ym1
+        val a3 = y0
+        return a0 * fractionOffset * mu2 + a1 * mu2 + a2 * fractionOffset + a3
     }
 
     /**
      * Retrieves a frame of audio using linear interpolation. If the frame is
-     * not in the sample range then zeros are returned.
+     * not in the history then zero is returned.
      *
      * @param posInMS The frame to read -- can be fractional (e.g., 4.4).
-     * @param result  The framedata to fill.
      */
     fun getFrameLinear(posInMS: Double): Double {
-        var result = 0.0
-        val sampleNumber = msToSamples(posInMS)
-        val sampleNumberFloor = floor(sampleNumber).toInt()
-        if (sampleNumberFloor in 1 until audioBufferWatermark) {
-            val sampleNumberFraction = sampleNumber - sampleNumberFloor
-            result = if (sampleNumberFloor == audioBufferWatermark - 1) {
-                audioBuffer[sampleNumberFloor].toDouble()
-            } else {
-                // linear interpolation
-                val current = audioBuffer[sampleNumberFloor].toDouble()
-                val next = audioBuffer[sampleNumberFloor].toDouble()
-                ((1 - sampleNumberFraction) * current + sampleNumberFraction * next)
-            }
-        }
-        return result
+        return frameLinear(posInMS * samplesPerMs)
     }
 
     /**
      * Retrieves a frame of audio using no interpolation. If the frame is not in
-     * the sample range then zeros are returned.
+     * the history then zero is returned.
      *
      * @param posInMS The frame to read -- will take the last frame before this one.
      */
     fun getFrameNoInterp(posInMS: Double): Float {
-        val frame = msToSamples(posInMS)
-        val frame_floor = floor(frame).toInt()
-        return audioBuffer[frame_floor]
+        return frameNoInterp(posInMS * samplesPerMs)
     }
 
     /**
      * Retrieves a frame of audio using cubic interpolation. If the frame is not
-     * in the sample range then zeros are returned.
+     * in the history then zero is returned.
      *
      * @param posInMS The frame to read -- can be fractional (e.g., 4.4).
      */
     fun getFrameCubic(posInMS: Double): Float {
-        val frame = msToSamples(posInMS).toFloat()
-        var result = 0.0f
-        val a0: Float
-        val a1: Float
-        val a2: Float
-        val a3: Float
-        val mu2: Float
-        val ym1: Float
-        val y0: Float
-        val y1: Float
-        val y2: Float
-        var realCurrentSample = floor(frame.toDouble()).toInt()
-        val fractionOffset = frame - realCurrentSample
-        if (realCurrentSample >= 0 && realCurrentSample < audioBufferWatermark - 1) {
-            realCurrentSample--
-            if (realCurrentSample < 0) {
-                ym1 = audioBuffer[0]
-                realCurrentSample = 0
-            } else {
-                ym1 = audioBuffer[realCurrentSample++]
-            }
-            y0 = audioBuffer[realCurrentSample++]
-            y1 = if (realCurrentSample >= audioBufferWatermark) {
-                audioBuffer[audioBufferWatermark - 1] // ??
-            } else {
-                audioBuffer[realCurrentSample++]
-            }
-            y2 = if (realCurrentSample >= audioBufferWatermark) {
-                audioBuffer[audioBufferWatermark - 1]
-            } else {
-                audioBuffer[realCurrentSample++]
-            }
-            mu2 = fractionOffset * fractionOffset
-            a0 = y2 - y1 - ym1 + y0
-            a1 = ym1 - y0 - a0
-            a2 = y1 - ym1
-            a3 = y0
-            result = a0 * fractionOffset * mu2 + a1 * mu2 + a2 * fractionOffset + a3
-        }
-        return result
-    }
-
-    private fun msToSamples(posInMs: Double): Double {
-        return posInMs / msPerSample
+        return frameCubic(posInMS * samplesPerMs)
     }
 
     override fun processingFinished() {}
 
     /**
-     * Returns the value of the buffer at the given fraction along its length (0 = start, 1 = end). Uses linear interpolation.
+     * Returns the value of the window at the given fraction along its length (0 = start, 1 = end). Uses linear interpolation.
      *
-     * @param fraction the point along the buffer to inspect.
+     * @param fraction the point along the window to inspect.
      * @return the value at that point.
      */
     fun getValueFraction(fraction: Float): Float {
-        val posInBuf = fraction * window.size
-        val lowerIndex = posInBuf.toInt()
-        val offset = posInBuf - lowerIndex
-        val upperIndex = (lowerIndex + 1) % window.size
-        return (1 - offset) * window[lowerIndex] + offset * window[upperIndex]
-    }
-
-    /**
-     * Calculate next position for the given Grain.
-     *
-     * @param g the Grain.
-     */
-    private fun calculateNextGrainPosition(g: Grain?) {
-        val direction =
-            if (timeStretchFactor >= 0) 1 else -1 //this is a bit odd in the case when controlling grain from positionEnvelope
-        g!!.age += msPerSample
-        g!!.position += direction * positionIncrement * pitchFactor
+        return windowValue(fraction.coerceIn(0f, 1f) * (WINDOW_SIZE - 1).toDouble())
     }
 
     fun setTimestretchFactor(currentFactor: Float) {
@@ -320,11 +445,35 @@ class Granulator(sampleRate: Float, bufferSize: Int) : AudioProcessor {
      * @param position in seconds
      */
     fun setPosition(position: Float) {
-        this.position = position * 1000.toDouble()
+        requestedPosition.set(java.lang.Double.doubleToRawLongBits(position * 1000.0 * samplesPerMs))
     }
 
     companion object {
         const val ADAPTIVE_INTERP_LOW_THRESH = 0.5f
         const val ADAPTIVE_INTERP_HIGH_THRESH = 2.5f
+
+        /**
+         * The default number of seconds grains can read behind the most recent input.
+         */
+        const val DEFAULT_MAX_GRAIN_POSITION = 2.0f
+
+        /**
+         * The default capacity of the grain pool.
+         */
+        const val DEFAULT_MAX_GRAINS = 64
+
+        private const val WINDOW_SIZE = 512
+
+        private enum class Interpolation { NONE, LINEAR, CUBIC }
+        private val NO_POSITION = java.lang.Double.doubleToRawLongBits(Double.NaN)
+    }
+
+    init {
+        require(maxGrainPosition > 0) { "The maximum grain position should be positive" }
+        require(maxGrains > 0) { "The grain pool should hold at least one grain" }
+        val minimumSize = (maxGrainPosition * sampleRate).toInt() + bufferSize
+        historySize = Integer.highestOneBit(minimumSize - 1) shl 1
+        history = FloatArray(historySize)
+        historyMask = historySize - 1
     }
-}
\ No newline at end of file
+}
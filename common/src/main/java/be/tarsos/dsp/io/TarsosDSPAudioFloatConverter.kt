@@ -460,8 +460,8 @@ sealed class TarsosDSPAudioFloatConverter {
             var ix = in_offset
             val len = out_offset + out_len
             for (ox in out_offset until len) {
-                out_buff[ox] = (in_buff[ix++] and 0xFF.toByte() or
-                        (in_buff[ix++] shl 8.toByte())).toShort() * (1.0f / 32767.0f)
+                out_buff[ox] = (in_buff[ix++].toInt() and 0xFF or
+                        (in_buff[ix++].toInt() shl 8)).toShort() * (1.0f / 32767.0f)
             }
             return out_buff
         }
@@ -490,8 +490,8 @@ sealed class TarsosDSPAudioFloatConverter {
             var ix = in_offset
             var ox = out_offset
             for (i in 0 until out_len) {
-                out_buff[ox++] = (in_buff[ix++] shl 8 or
-                        (in_buff[ix++] and 0xFF.toByte())).toShort() * (1.0f / 32767.0f)
+                out_buff[ox++] = (in_buff[ix++].toInt() shl 8 or
+                        (in_buff[ix++].toInt() and 0xFF)).toShort() * (1.0f / 32767.0f)
             }
             return out_buff
         }
@@ -27,9 +27,7 @@ import be.tarsos.dsp.AudioProcessor
 import be.tarsos.dsp.util.PeakPicker
 import be.tarsos.dsp.util.fft.FFT
 import be.tarsos.dsp.util.fft.HannWindow
-import kotlin.math.abs
-import kotlin.math.cos
-import kotlin.math.pow
+import kotlin.math.min
 import kotlin.math.sqrt
 
 /**
@@ -48,7 +46,7 @@ import kotlin.math.sqrt
  * @author Paul Brossiers
  */
 class ComplexOnsetDetector @JvmOverloads constructor(
-    fftSize: Int,
+    private val fftSize: Int,
     peakThreshold: Double = 0.3,
     /**
      * The minimum IOI (inter onset interval), in seconds.
@@ -57,10 +55,21 @@ class ComplexOnsetDetector @JvmOverloads constructor(
     /**
      * The threshold to define silence, in dbSPL.
      */
-    private val silenceThreshold: Double = -70.0
+    private val silenceThreshold: Double = -70.0,
+    /**
+     * Use single precision math with an approximated square root. The detection
+     * function deviates less than 0.5% from the exact one.
+     */
+    private val fastMath: Boolean = false,
+    /**
+     * Pick peaks incrementally, see [PeakPicker]: every value of the detection
+     * function is filtered once and the median is kept up to date, instead of
+     * filtering the whole window for every hop.
+     */
+    incrementalPeakPicking: Boolean = false
 ) : AudioProcessor, OnsetDetector {
 
-    private val peakPicker: PeakPicker = PeakPicker(peakThreshold)
+    private val peakPicker: PeakPicker = PeakPicker(peakThreshold, incremental = incrementalPeakPicking)
 
     /**
      * To calculate the FFT.
@@ -68,24 +77,26 @@ class ComplexOnsetDetector @JvmOverloads constructor(
     private val fft: FFT = FFT(fftSize, HannWindow())
 
     /**
-     * Previous phase vector, one frame behind
+     * The windowed buffer and its spectrum.
      */
-    private val theta1: FloatArray
+    private val data = FloatArray(fftSize)
 
     /**
-     * Previous phase vector, two frames behind
+     * Previous phase vector, one frame behind, as unit phasors (cosine and sine)
      */
-    private val theta2: FloatArray
+    private val cos1 = FloatArray(fftSize / 2) { 1f }
+    private val sin1 = FloatArray(fftSize / 2)
 
     /**
-     * Previous norm (power, magnitude) vector
+     * Previous phase vector, two frames behind, as unit phasors (cosine and sine)
      */
-    private val oldmag: FloatArray
+    private val cos2 = FloatArray(fftSize / 2) { 1f }
+    private val sin2 = FloatArray(fftSize / 2)
 
     /**
-     * Current onset detection measure vector
+     * Previous norm (power, magnitude) vector
      */
-    private val dev1: FloatArray
+    private val oldmag = FloatArray(fftSize / 2)
 
     /**
      * The last detected onset, in seconds.
@@ -93,9 +104,10 @@ class ComplexOnsetDetector @JvmOverloads constructor(
     private var lastOnset = 0.0
 
     /**
-     * The last detected onset value.
+     * The value of the onset detection function for the last processed buffer.
      */
-    private var lastOnsetValue = 0.0
+    var lastOnsetValue = 0.0
+        private set
     private var handler: OnsetHandler = PrintOnsetHandler()
     override fun process(audioEvent: AudioEvent): Boolean {
         onsetDetection(audioEvent)
@@ -103,32 +115,14 @@ class ComplexOnsetDetector @JvmOverloads constructor(
     }
 
     private fun onsetDetection(audioEvent: AudioEvent) {
-        //calculate the complex fft (the magnitude and phase)
-        val data = audioEvent.floatBuffer.clone()
-        val power = FloatArray(data.size / 2)
-        val phase = FloatArray(data.size / 2)
-        fft.powerPhaseFFT(data, power, phase)
-        var onsetValue = 0f
-        for (j in power.indices) {
-            //int imgIndex = (power.length - 1) * 2 - j;
-
-            // compute the predicted phase
-            dev1[j] = 2f * theta1[j] - theta2[j]
-
-            // compute the euclidean distance in the complex domain
-            // sqrt ( r_1^2 + r_2^2 - 2 * r_1 * r_2 * \cos ( \phi_1 - \phi_2 ) )
-            onsetValue += sqrt(
-                abs(
-                    oldmag[j].toDouble().pow(2.0) + power[j].toDouble()
-                        .pow(2.0) - 2.0 * oldmag[j] * power[j] * cos(dev1[j] - phase[j].toDouble())
-                )
-            ).toFloat()
-
-            /* swap old phase data (need to remember 2 frames behind)*/theta2[j] = theta1[j]
-            theta1[j] = phase[j]
-
-            /* swap old magnitude data (1 frame is enough) */oldmag[j] = power[j]
-        }
+        //calculate the complex fft
+        val buffer = audioEvent.floatBuffer
+        val length = min(buffer.size, fftSize)
+        System.arraycopy(buffer, 0, data, 0, length)
+        // a short last buffer is zero padded, data still holds the previous spectrum
+        if (length < fftSize) data.fill(0f, length, fftSize)
+        fft.forwardTransform(data)
+        val onsetValue = if (fastMath) deviationFast() else deviation()
         lastOnsetValue = onsetValue.toDouble()
         var isOnset = peakPicker.pickPeak(onsetValue)
         if (isOnset) {
@@ -145,6 +139,114 @@ class ComplexOnsetDetector @JvmOverloads constructor(
         }
     }
 
+    /**
+     * The sum over all bins of the euclidean distance in the complex domain between
+     * the spectrum and the prediction from the previous two frames: the previous
+     * magnitude with the phase advanced by the previous phase difference,
+     * sqrt ( r_1^2 + r_2^2 - 2 * r_1 * r_2 * \cos ( \phi_1 - \phi_2 ) ).
+     * The predicted phase 2 * theta1 - theta2 is applied as the product of unit
+     * phasors u1 * u1 * conj(u2), which avoids calculating angles. The DC bin has
+     * magnitude -data[0] and phase pi, as in [FFT.powerAndPhaseFromFFT].
+     */
+    private fun deviation(): Float {
+        var onsetValue = 0f
+        for (j in oldmag.indices) {
+            val re: Double
+            val im: Double
+            val mag: Double
+            var c: Double
+            var s: Double
+            if (j == 0) {
+                re = data[0].toDouble()
+                im = 0.0
+                mag = -re
+                c = -1.0
+                s = 0.0
+            } else {
+                re = data[2 * j].toDouble()
+                im = data[2 * j + 1].toDouble()
+                mag = sqrt(re * re + im * im)
+                c = 1.0
+                s = 0.0
+                if (mag > 0) {
+                    c = re / mag
+                    s = im / mag
+                }
+            }
+            val c1 = cos1[j].toDouble()
+            val s1 = sin1[j].toDouble()
+            val c2 = cos2[j].toDouble()
+            val s2 = sin2[j].toDouble()
+            // the predicted phasor u1 * u1 * conj(u2), scaled by the old magnitude
+            val a = c1 * c1 - s1 * s1
+            val b = 2 * c1 * s1
+            val predictedRe = oldmag[j] * (a * c2 + b * s2)
+            val predictedIm = oldmag[j] * (b * c2 - a * s2)
+            val dRe = re - predictedRe
+            val dIm = im - predictedIm
+            onsetValue += sqrt(dRe * dRe + dIm * dIm).toFloat()
+
+            /* swap old phase data (need to remember 2 frames behind)*/
+            cos2[j] = cos1[j]
+            sin2[j] = sin1[j]
+            cos1[j] = c.toFloat()
+            sin1[j] = s.toFloat()
+
+            /* swap old magnitude data (1 frame is enough) */
+            oldmag[j] = mag.toFloat()
+        }
+        return onsetValue
+    }
+
+    /**
+     * As [deviation] in single precision, with an approximated inverse square root.
+     */
+    private fun deviationFast(): Float {
+        var onsetValue = 0f
+        for (j in oldmag.indices) {
+            val re: Float
+            val im: Float
+            val mag: Float
+            var c: Float
+            var s: Float
+            if (j == 0) {
+                re = data[0]
+                im = 0f
+                mag = -re
+                c = -1f
+                s = 0f
+            } else {
+                re = data[2 * j]
+                im = data[2 * j + 1]
+                val squared = re * re + im * im
+                c = 1f
+                s = 0f
+                mag = if (squared > 0) {
+                    val inverse = inverseSqrt(squared)
+                    c = re * inverse
+                    s = im * inverse
+                    squared * inverse
+                } else 0f
+            }
+            val c1 = cos1[j]
+            val s1 = sin1[j]
+            val c2 = cos2[j]
+            val s2 = sin2[j]
+            val a = c1 * c1 - s1 * s1
+            val b = 2 * c1 * s1
+            val dRe = re - oldmag[j] * (a * c2 + b * s2)
+            val dIm = im - oldmag[j] * (b * c2 - a * s2)
+            val squared = dRe * dRe + dIm * dIm
+            if (squared > 0) onsetValue += squared * inverseSqrt(squared)
+            cos2[j] = c1
+            sin2[j] = s1
+            cos1[j] = c
+            sin1[j] = s
+            oldmag[j] = mag
+        }
+        return onsetValue
+    }
+
     override fun setHandler(handler: OnsetHandler) {
         this.handler = handler
     }
@@ -155,17 +257,15 @@ class ComplexOnsetDetector @JvmOverloads constructor(
 
     override fun processingFinished() {}
 
-    /**
-     * @param fftSize                   The size of the fft to take (e.g. 512)
-     * @param peakThreshold             A threshold used for peak picking. Values between 0.1 and 0.8. Default is 0.3, if too many onsets are detected adjust to 0.4 or 0.5.
-     * @param silenceThreshold          The threshold that defines when a buffer is silent. Default is -70dBSPL. -90 is also used.
-     * @param minimumInterOnsetInterval The minimum inter-onset-interval in seconds. When two onsets are detected within this interval the last one does not count. Default is 0.004 seconds.
-     */
-    init {
-        val rsize = fftSize / 2 + 1
-        oldmag = FloatArray(rsize)
-        dev1 = FloatArray(rsize)
-        theta1 = FloatArray(rsize)
-        theta2 = FloatArray(rsize)
+    companion object {
+        /**
+         * An approximation of 1 / sqrt(x) for positive x: an estimate from the
+         * floating point representation, refined by two Newton-Raphson steps.
+         */
+        private fun inverseSqrt(x: Float): Float {
+            var y = Float.fromBits(0x5f3759df - (x.toRawBits() shr 1))
+            y *= 1.5f - 0.5f * x * y * y
+            return y * (1.5f - 0.5f * x * y * y)
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.onsets
+
+/**
+ * Receives tempo estimates, for example from a [TempogramProcessor].
+ */
+interface TempoHandler {
+    /**
+     * @param time     The time, in seconds, at the center of the analysed window.
+     * @param bpm      The estimated tempo in beats per minute.
+     * @param salience The strength of the periodicity, between 0 and 1.
+     */
+    fun handleTempo(time: Double, bpm: Double, salience: Double)
+}
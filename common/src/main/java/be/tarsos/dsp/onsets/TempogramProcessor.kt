@@ -0,0 +1,285 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.onsets
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.AudioProcessor
+import be.tarsos.dsp.util.fft.FFT
+import be.tarsos.dsp.util.fft.FloatFFT
+import be.tarsos.dsp.util.fft.HannWindow
+import kotlin.math.ceil
+import kotlin.math.exp
+import kotlin.math.floor
+import kotlin.math.ln
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * Estimates the tempo without tracking beats. A novelty curve (onset detection function)
+ * is downsampled to about [NOVELTY_RATE] values per second. For each window of a few
+ * seconds the autocorrelation of the curve is calculated with an FFT; the lag with the
+ * strongest periodicity, weighted by a tempo preference around [PREFERRED_BPM], gives
+ * the tempo of the window. The autocorrelations are also accumulated to estimate a
+ * global tempo, see [globalTempo].
+ *
+ * The novelty curve is either the onset detection function of a [ComplexOnsetDetector],
+ * which needs to process the audio before this processor, or a log-magnitude spectral
+ * flux calculated here. Values can also be added directly with [addNovelty].
+ *
+ * Peter Grosche and Meinard Müller. Extracting Predominant Local Pulse Information
+ * From Music Recordings. IEEE Transactions on Audio, Speech, and Language Processing,
+ * 19(6), 2011.
+ */
+class TempogramProcessor @JvmOverloads constructor(
+    sampleRate: Float,
+    fftSize: Int,
+    hopSize: Int,
+    private val handler: TempoHandler,
+    /**
+     * The duration of the analysed windows, in seconds.
+     */
+    windowDuration: Double = DEFAULT_WINDOW_DURATION,
+    /**
+     * The time between two tempo estimates, in seconds.
+     */
+    stepDuration: Double = DEFAULT_STEP_DURATION,
+    /**
+     * If not null, the onset detection function of this detector is used as novelty curve.
+     */
+    private val detector: ComplexOnsetDetector? = null,
+    minBpm: Double = 40.0,
+    maxBpm: Double = 240.0
+) : AudioProcessor {
+    /**
+     * The number of novelty values averaged into one value of the downsampled curve.
+     */
+    private val factor: Int = max(1, (sampleRate / hopSize / NOVELTY_RATE).roundToInt())
+
+    /**
+     * The number of values per second of the downsampled novelty curve.
+     */
+    val noveltyRate: Double = sampleRate.toDouble() / hopSize / factor
+
+    private val windowSize = (windowDuration * noveltyRate).roundToInt()
+    private val stepSize = max(1, (stepDuration * noveltyRate).roundToInt())
+    private val minLag = max(1, floor(60 * noveltyRate / maxBpm).toInt())
+    private val maxLag = min(windowSize - 2, ceil(60 * noveltyRate / minBpm).toInt())
+
+    /**
+     * The downsampled novelty curve of the last window, as a ring buffer.
+     */
+    private val novelty = DoubleArray(windowSize)
+    private var written = 0L
+    private var pooledSum = 0.0
+    private var pooledCount = 0
+
+    private val acfFFT: FloatFFT
+    private val acf: FloatArray
+    private val weights: DoubleArray
+    private val globalAcf: DoubleArray
+
+    /**
+     * For the spectral flux, only used without detector.
+     */
+    private val fft: FFT? = if (detector == null) FFT(fftSize, HannWindow()) else null
+    private val frame = FloatArray(if (detector == null) fftSize else 0)
+    private val magnitudes = FloatArray(frame.size / 2)
+    private val previousMagnitudes = FloatArray(frame.size / 2)
+
+    init {
+        require(windowSize > 2 * 60 * noveltyRate / minBpm) { "The window should contain at least two beats at the minimum tempo" }
+        require(minBpm > 0 && maxBpm > minBpm) { "Invalid tempo range" }
+        var length = 1
+        while (length < 2 * windowSize) length *= 2 // zero padding avoids circular correlation
+        acfFFT = FloatFFT(length)
+        acf = FloatArray(length)
+        weights = DoubleArray(maxLag + 1)
+        for (lag in minLag..maxLag) {
+            val octaves = ln(60 * noveltyRate / lag / PREFERRED_BPM) / ln(2.0)
+            weights[lag] = exp(-0.5 * octaves * octaves / (PREFERENCE_WIDTH * PREFERENCE_WIDTH))
+        }
+        globalAcf = DoubleArray(maxLag + 1)
+    }
+
+    override fun process(audioEvent: AudioEvent): Boolean {
+        addNovelty(detector?.lastOnsetValue ?: spectralFlux(audioEvent.floatBuffer))
+        return true
+    }
+
+    /**
+     * The log-magnitude spectral flux between this buffer and the previous one.
+     */
+    private fun spectralFlux(buffer: FloatArray): Double {
+        val length = min(buffer.size, frame.size)
+        System.arraycopy(buffer, 0, frame, 0, length)
+        frame.fill(0f, length, frame.size)
+        fft!!.forwardTransform(frame)
+        fft.modulus(frame, magnitudes)
+        var flux = 0.0
+        for (i in magnitudes.indices) {
+            val magnitude = ln(1 + LOG_COMPRESSION * magnitudes[i]).toFloat()
+            if (magnitude > previousMagnitudes[i]) flux += magnitude - previousMagnitudes[i]
+            previousMagnitudes[i] = magnitude
+        }
+        return flux
+    }
+
+    /**
+     * Adds a value of the novelty curve, one per hop.
+     *
+     * @param value The value of the onset detection function.
+     */
+    fun addNovelty(value: Double) {
+        pooledSum += value
+        pooledCount++
+        if (pooledCount < factor) return
+        novelty[(written % windowSize).toInt()] = pooledSum / factor
+        written++
+        pooledSum = 0.0
+        pooledCount = 0
+        if (written >= windowSize && (written - windowSize) % stepSize == 0L) estimate()
+    }
+
+    /**
+     * Calculates the autocorrelation of the last window and reports its tempo.
+     */
+    private fun estimate() {
+        val first = (written % windowSize).toInt() // the oldest value
+        var mean = 0.0
+        for (v in novelty) mean += v
+        mean /= windowSize
+        for (i in 0 until windowSize) acf[i] = (novelty[(first + i) % windowSize] - mean).toFloat()
+        acf.fill(0f, windowSize, acf.size)
+        acfFFT.realForward(acf)
+        acf[0] = acf[0] * acf[0]
+        acf[1] = acf[1] * acf[1]
+        var i = 2
+        while (i < acf.size) {
+            acf[i] = acf[i] * acf[i] + acf[i + 1] * acf[i + 1]
+            acf[i + 1] = 0f
+            i += 2
+        }
+        acfFFT.realInverse(acf, true)
+        val energy = acf[0].toDouble()
+        if (energy <= 0) return // silence
+        for (lag in minLag..maxLag) globalAcf[lag] += acf[lag] / energy
+        val lag = bestLag(acf, energy)
+        if (lag > 0) {
+            val time = (written - windowSize / 2.0) / noveltyRate
+            handler.handleTempo(time, bpm(acf, lag), acf[lag] / energy)
+        }
+    }
+
+    /**
+     * The lag of the highest weighted local maximum of the autocorrelation, or -1.
+     */
+    private fun bestLag(values: FloatArray, energy: Double): Int {
+        var best = -1
+        var bestScore = 0.0
+        for (lag in minLag..maxLag) {
+            val v = values[lag]
+            if (v <= 0 || v < values[lag - 1] || v < values[lag + 1]) continue
+            val score = weights[lag] * v / energy
+            if (score > bestScore) {
+                bestScore = score
+                best = lag
+            }
+        }
+        return best
+    }
+
+    private fun bestLag(values: DoubleArray): Int {
+        var best = -1
+        var bestScore = 0.0
+        for (lag in minLag + 1 until maxLag) {
+            val v = values[lag]
+            if (v <= 0 || v < values[lag - 1] || v < values[lag + 1]) continue
+            val score = weights[lag] * v
+            if (score > bestScore) {
+                bestScore = score
+                best = lag
+            }
+        }
+        return best
+    }
+
+    /**
+     * Converts a lag to beats per minute, refined with parabolic interpolation.
+     */
+    private fun bpm(left: Double, center: Double, right: Double, lag: Int): Double {
+        val denominator = left - 2 * center + right
+        val offset = if (denominator < 0) 0.5 * (left - right) / denominator else 0.0
+        return 60 * noveltyRate / (lag + offset)
+    }
+
+    private fun bpm(values: FloatArray, lag: Int): Double {
+        return bpm(values[lag - 1].toDouble(), values[lag].toDouble(), values[lag + 1].toDouble(), lag)
+    }
+
+    /**
+     * The tempo, in beats per minute, of the autocorrelation accumulated over all
+     * windows so far, or -1 if no tempo was found.
+     */
+    val globalTempo: Double
+        get() {
+            val lag = bestLag(globalAcf)
+            return if (lag < 0) -1.0 else bpm(globalAcf[lag - 1], globalAcf[lag], globalAcf[lag + 1], lag)
+        }
+
+    /**
+     * Forgets the novelty curve and the accumulated autocorrelation.
+     */
+    fun reset() {
+        written = 0
+        pooledSum = 0.0
+        pooledCount = 0
+        globalAcf.fill(0.0)
+        previousMagnitudes.fill(0f)
+    }
+
+    companion object {
+        /**
+         * The default duration of the analysed windows, in seconds.
+         */
+        const val DEFAULT_WINDOW_DURATION = 8.0
+
+        /**
+         * The default time between two tempo estimates, in seconds.
+         */
+        const val DEFAULT_STEP_DURATION = 1.0
+
+        /**
+         * The approximate number of values per second of the downsampled novelty curve.
+         */
+        const val NOVELTY_RATE = 100.0
+
+        /**
+         * The center of the tempo preference, in beats per minute, and its width in octaves.
+         */
+        const val PREFERRED_BPM = 120.0
+        const val PREFERENCE_WIDTH = 1.0
+
+        private const val LOG_COMPRESSION = 100.0
+    }
+}
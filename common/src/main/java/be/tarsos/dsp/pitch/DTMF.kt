@@ -57,10 +57,13 @@ object DTMF {
      * Generate a DTMF - tone for a valid DTMF character.
      *
      * @param character a valid DTMF character (present in DTMF_CHARACTERS}
-     * @return a float buffer of predefined length (7168 samples) with the correct DTMF tone representing the character.
+     * @param sampleRate the sample rate of the tone, 44.1kHz by default.
+     * @param size the number of samples, 10240 by default.
+     * @return a float buffer with the correct DTMF tone representing the character.
      */
     @JvmStatic
-    fun generateDTMFTone(character: Char): FloatArray {
+    @JvmOverloads
+    fun generateDTMFTone(character: Char, sampleRate: Double = 44100.0, size: Int = 512 * 2 * 10): FloatArray {
         var firstFrequency = -1.0
         var secondFrequency = -1.0
         for (row in DTMF_CHARACTERS.indices) {
@@ -71,7 +74,7 @@ object DTMF {
                 }
             }
         }
-        return audioBufferDTMF(firstFrequency, secondFrequency, 512 * 2 * 10)
+        return audioBufferDTMF(firstFrequency, secondFrequency, size, sampleRate)
     }
 
     /**
@@ -99,18 +102,20 @@ object DTMF {
     /**
      * Creates an audio buffer in a float array of the defined size. The sample
      * rate is 44100Hz by default. It mixes the two given frequencies with an
-     * amplitude of 0.5.
+     * amplitude of 0.4.
      *
      * @param f0   The first fundamental frequency.
      * @param f1   The second fundamental frequency.
-     * @param size The size of the float array (sample rate is 44.1kHz).
+     * @param size The size of the float array.
+     * @param sampleRate The sample rate, 44.1kHz by default.
      * @return An array of the defined size.
      */
+    @JvmOverloads
     fun audioBufferDTMF(
         f0: Double, f1: Double,
-        size: Int
+        size: Int,
+        sampleRate: Double = 44100.0
     ): FloatArray {
-        val sampleRate = 44100.0
         val amplitudeF0 = 0.4
         val amplitudeF1 = 0.4
         val twoPiF0 = 2 * PI * f0
@@ -0,0 +1,323 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.pitch
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.AudioProcessor
+import java.util.*
+import kotlin.math.roundToInt
+
+/**
+ * Decodes DTMF digits on many channels, e.g. telephone lines, at once. The
+ * samples of all channels are processed in one interleaved batch: for each
+ * sample frame the Goertzel filters of the eight DTMF frequencies are updated
+ * for every channel. The coefficients are shared by all channels and the
+ * filter state is stored per frequency, per channel in primitive arrays, so
+ * the inner loop runs over consecutive channels.
+ *
+ *
+ * After each block of samples (205 samples at 8kHz, about 25ms) every channel
+ * is checked for a valid digit: one row and one column frequency should
+ * dominate their group, be loud enough, have an acceptable twist and contain
+ * most of the energy of the block. A per channel state machine only reports a
+ * digit if it is present for a minimum duration, and only reports it again
+ * after a pause.
+ *
+ *
+ * The decoder can be fed directly with [process] or be used as an
+ * [AudioProcessor] on a stream with one channel per line.
+ */
+class DTMFDecoder @JvmOverloads constructor(
+    /**
+     * The number of interleaved channels.
+     */
+    val channels: Int,
+    private val handler: DigitHandler,
+    private val sampleRate: Float = DEFAULT_SAMPLE_RATE,
+    /**
+     * The number of consecutive blocks a digit needs to be present before it
+     * is reported.
+     */
+    private val minDurationBlocks: Int = DEFAULT_MIN_DURATION_BLOCKS,
+    /**
+     * The number of consecutive blocks without a digit before the same digit
+     * can be reported again.
+     */
+    private val minPauseBlocks: Int = DEFAULT_MIN_PAUSE_BLOCKS
+) : AudioProcessor {
+
+    /**
+     * The number of samples per channel in a block.
+     */
+    val blockSize: Int = (BLOCK_SIZE_AT_8KHZ * sampleRate / DEFAULT_SAMPLE_RATE).roundToInt()
+
+    /**
+     * The Goertzel coefficients of the DTMF frequencies, shared by all channels.
+     */
+    private val coefficients: FloatArray = GoertzelBank.coefficients(sampleRate, DTMF.DTMF_FREQUENCIES).let { table ->
+        FloatArray(table.size) { table[it].toFloat() }
+    }
+
+    /**
+     * The filter state, indexed by `frequency * channels + channel`.
+     */
+    private val state1: FloatArray = FloatArray(FREQUENCIES * channels)
+    private val state2: FloatArray = FloatArray(FREQUENCIES * channels)
+
+    /**
+     * The energy of the current block for each channel.
+     */
+    private val energy: FloatArray = FloatArray(channels)
+
+    /**
+     * The powers of the eight frequencies for the channel being evaluated.
+     */
+    private val powers: FloatArray = FloatArray(FREQUENCIES)
+
+    /**
+     * The per channel state machine: the digit (index in [DIGITS]) detected in
+     * the last blocks or -1, for how many blocks it is present, the time it
+     * started and the digit that was reported last or -1 after a pause.
+     */
+    private val candidate: IntArray = IntArray(channels) { -1 }
+    private val runLength: IntArray = IntArray(channels)
+    private val runStart: DoubleArray = DoubleArray(channels)
+    private val reported: IntArray = IntArray(channels) { -1 }
+
+    /**
+     * The number of sample frames in the current block.
+     */
+    private var position = 0
+
+    /**
+     * The number of completed blocks.
+     */
+    private var blocks: Long = 0
+
+    init {
+        require(channels > 0) { "The number of channels should be positive, is $channels" }
+    }
+
+    override fun process(audioEvent: AudioEvent): Boolean {
+        val buffer = audioEvent.floatBuffer
+        val overlap = audioEvent.overlap
+        process(buffer, overlap, (buffer.size - overlap) / channels)
+        return true
+    }
+
+    /**
+     * Feeds interleaved samples of all channels to the decoder.
+     *
+     * @param samples The interleaved samples.
+     * @param offset  The index of the first sample of the first frame.
+     * @param frames  The number of frames, each frame contains one sample per channel.
+     */
+    fun process(samples: FloatArray, offset: Int, frames: Int) {
+        var index = offset
+        for (frame in 0 until frames) {
+            for (channel in 0 until channels) {
+                val sample = samples[index + channel]
+                energy[channel] += sample * sample
+            }
+            for (j in 0 until FREQUENCIES) {
+                val coefficient = coefficients[j]
+                val row = j * channels
+                for (channel in 0 until channels) {
+                    val i = row + channel
+                    val s0 = coefficient * state1[i] - state2[i] + samples[index + channel]
+                    state2[i] = state1[i]
+                    state1[i] = s0
+                }
+            }
+            index += channels
+            position++
+            if (position == blockSize) {
+                finishBlock()
+            }
+        }
+    }
+
+    /**
+     * Evaluates the block for each channel and resets the filters.
+     */
+    private fun finishBlock() {
+        val timeStamp = blocks * blockSize / sampleRate.toDouble()
+        val normalization = 4f / (blockSize.toFloat() * blockSize)
+        for (channel in 0 until channels) {
+            for (j in 0 until FREQUENCIES) {
+                val i = j * channels + channel
+                val s1 = state1[i]
+                val s2 = state2[i]
+                powers[j] = (s1 * s1 + s2 * s2 - coefficients[j] * s1 * s2) * normalization
+            }
+            update(channel, detect(energy[channel] / blockSize), timeStamp)
+        }
+        Arrays.fill(state1, 0f)
+        Arrays.fill(state2, 0f)
+        Arrays.fill(energy, 0f)
+        position = 0
+        blocks++
+    }
+
+    /**
+     * @param meanSquare The mean square of the samples of the block.
+     * @return The index of the digit present in the powers, or -1.
+     */
+    private fun detect(meanSquare: Float): Int {
+        val row = strongest(0)
+        val column = strongest(4)
+        val rowPower = powers[row]
+        val columnPower = powers[column]
+        if (rowPower < MIN_POWER || columnPower < MIN_POWER) {
+            return -1
+        }
+        // the column (high) tone may be up to 8dB louder than the row tone, or 4dB softer.
+        if (columnPower > rowPower * NORMAL_TWIST || rowPower > columnPower * REVERSE_TWIST) {
+            return -1
+        }
+        // both tones should clearly stand out in their group
+        for (j in 0 until 4) {
+            if (j != row && powers[j] * RELATIVE_PEAK > rowPower) {
+                return -1
+            }
+            if (j + 4 != column && powers[j + 4] * RELATIVE_PEAK > columnPower) {
+                return -1
+            }
+        }
+        // a sine with power p has a mean square of p / 2
+        if ((rowPower + columnPower) / 2 < meanSquare * MIN_TONE_ENERGY_RATIO) {
+            return -1
+        }
+        return row * 4 + column - 4
+    }
+
+    private fun strongest(first: Int): Int {
+        var strongest = first
+        for (j in first + 1 until first + 4) {
+            if (powers[j] > powers[strongest]) {
+                strongest = j
+            }
+        }
+        return strongest
+    }
+
+    /**
+     * Updates the state machine of a channel with the digit detected in a block.
+     */
+    private fun update(channel: Int, digit: Int, timeStamp: Double) {
+        if (digit == candidate[channel]) {
+            runLength[channel]++
+        } else {
+            candidate[channel] = digit
+            runLength[channel] = 1
+            runStart[channel] = timeStamp
+        }
+        if (digit == -1) {
+            if (runLength[channel] >= minPauseBlocks) {
+                reported[channel] = -1
+            }
+        } else if (runLength[channel] >= minDurationBlocks && reported[channel] != digit) {
+            reported[channel] = digit
+            handler.handleDigit(channel, runStart[channel], DIGITS[digit])
+        }
+    }
+
+    /**
+     * Clears the filters and the state of all channels.
+     */
+    fun reset() {
+        Arrays.fill(state1, 0f)
+        Arrays.fill(state2, 0f)
+        Arrays.fill(energy, 0f)
+        Arrays.fill(candidate, -1)
+        Arrays.fill(runLength, 0)
+        Arrays.fill(reported, -1)
+        position = 0
+        blocks = 0
+    }
+
+    override fun processingFinished() {}
+
+    /**
+     * An interface to react on decoded DTMF digits.
+     */
+    interface DigitHandler {
+        /**
+         * Handle a decoded digit.
+         *
+         * @param channel   The channel the digit was decoded on.
+         * @param timeStamp The start of the digit in seconds.
+         * @param digit     The DTMF character, see [DTMF.DTMF_CHARACTERS].
+         */
+        fun handleDigit(channel: Int, timeStamp: Double, digit: Char)
+    }
+
+    companion object {
+        /**
+         * The usual sample rate of telephony audio.
+         */
+        const val DEFAULT_SAMPLE_RATE = 8000f
+
+        /**
+         * Two blocks, about 50ms, is a safe minimum tone duration.
+         */
+        const val DEFAULT_MIN_DURATION_BLOCKS = 2
+
+        /**
+         * One block, about 25ms, without a digit separates two digits.
+         */
+        const val DEFAULT_MIN_PAUSE_BLOCKS = 1
+
+        /**
+         * The classic block size for DTMF detection at 8kHz.
+         */
+        private const val BLOCK_SIZE_AT_8KHZ = 205
+        private const val FREQUENCIES = 8
+
+        /**
+         * Tones with a lower power, an amplitude of about 0.01, are ignored.
+         */
+        private const val MIN_POWER = 1e-4f
+
+        /**
+         * Allowed power ratios between the row and column tone: 8dB and 4dB.
+         */
+        private const val NORMAL_TWIST = 6.31f
+        private const val REVERSE_TWIST = 2.51f
+
+        /**
+         * A tone should be 8dB louder than the others of its group.
+         */
+        private const val RELATIVE_PEAK = 6.31f
+
+        /**
+         * The part of the energy of a block that should be in the two tones.
+         */
+        private const val MIN_TONE_ENERGY_RATIO = 0.6f
+
+        /**
+         * The digits, row by row.
+         */
+        private val DIGITS: CharArray = CharArray(16) { DTMF.DTMF_CHARACTERS[it / 4][it % 4] }
+    }
+}
@@ -100,28 +100,38 @@ class DynamicWavelet(private val sampleRate: Float, bufferSize: Int) : PitchDete
      * The result of the pitch detection iteration.
      */
     private val result: PitchDetectionResult = PitchDetectionResult()
+
+    /**
+     * Work arrays, reused for each buffer. They only grow when a buffer larger
+     * than any buffer before is analyzed, so no garbage is created per frame.
+     */
     var distances: IntArray = IntArray(bufferSize)
     var mins: IntArray = IntArray(bufferSize)
     var maxs: IntArray = IntArray(bufferSize)
+
+    /**
+     * Holds the downsampled audio of each wavelet level. The first level is
+     * written here, the next levels are computed in place.
+     */
+    private var downsampled: FloatArray = FloatArray(bufferSize / 2)
+
     override fun getPitch(audioBuffer: FloatArray): PitchDetectionResult {
-        var audioBuffer = audioBuffer
+        var samples = audioBuffer
         var pitchF = -1.0f
         var curSamNb = audioBuffer.size
         var nbMins: Int
         var nbMaxs: Int
 
-        //check if the buffer size changed
-        if (distances.size == audioBuffer.size) {
-            //if not fill the arrays with zero
-            Arrays.fill(distances, 0)
-            Arrays.fill(mins, 0)
-            Arrays.fill(maxs, 0)
-        } else {
-            //otherwise create new ones
+        //make sure the work arrays are large enough
+        if (distances.size < audioBuffer.size) {
             distances = IntArray(audioBuffer.size)
             mins = IntArray(audioBuffer.size)
             maxs = IntArray(audioBuffer.size)
+            downsampled = FloatArray(audioBuffer.size / 2)
         }
+        // the number of valid elements in the samples array: the full buffer
+        // for the first level, half of it once the downsampled array is used.
+        var samplesLength = audioBuffer.size
         val ampltitudeThreshold: Double
         var theDC = 0.0
 
@@ -164,8 +174,8 @@ class DynamicWavelet(private val sampleRate: Float, bufferSize: Int) : PitchDete
             var findMax = false
             var findMin = false
             for (i in 2 until curSamNb) {
-                val si = audioBuffer[i] - theDC
-                val si1 = audioBuffer[i - 1] - theDC
+                val si = samples[i] - theDC
+                val si1 = samples[i - 1] - theDC
                 if (si1 <= 0 && si > 0) findMax = true
                 if (si1 >= 0 && si < 0) findMin = true
 
@@ -204,7 +214,7 @@ class DynamicWavelet(private val sampleRate: Float, bufferSize: Int) : PitchDete
                 break@search
             }
             var d: Int
-            Arrays.fill(distances, 0)
+            Arrays.fill(distances, 0, audioBuffer.size, 0)
             for (i in 0 until nbMins) {
                 for (j in 1 until differenceLevelsN) {
                     if (i + j < nbMins) {
@@ -216,10 +226,16 @@ class DynamicWavelet(private val sampleRate: Float, bufferSize: Int) : PitchDete
             }
             var bestDistance = -1
             var bestValue = -1
+            // the sum of distances[i - delta .. i + delta], kept up to date
+            // while sliding over i instead of summing the window every time.
+            var summed = 0
+            for (j in 0..min(delta, curSamNb - 1)) {
+                summed += distances[j]
+            }
             for (i in 0 until curSamNb) {
-                var summed = 0
-                for (j in -delta..delta) {
-                    if (i + j in 0 until curSamNb) summed += distances[i + j]
+                if (i > 0) {
+                    if (i + delta < curSamNb) summed += distances[i + delta]
+                    if (i - delta - 1 >= 0) summed -= distances[i - delta - 1]
                 }
                 //asLog("dywapitch i=%ld summed=%ld bestDistance=%ld\n", i, summed, bestDistance);
                 if (summed == bestValue) {
@@ -234,7 +250,7 @@ class DynamicWavelet(private val sampleRate: Float, bufferSize: Int) : PitchDete
             var distAvg = 0.0
             var nbDists = 0.0
             for (j in -delta..delta) {
-                if (bestDistance + j >= 0 && bestDistance + j < audioBuffer.size) {
+                if (bestDistance + j >= 0 && bestDistance + j < samplesLength) {
                     val nbDist = distances[bestDistance + j]
                     if (nbDist > 0) {
                         nbDists += nbDist.toDouble()
@@ -274,16 +290,15 @@ class DynamicWavelet(private val sampleRate: Float, bufferSize: Int) : PitchDete
                 //asLog("dywapitch not enough samples, exiting\n");
                 break@search
             }
-            //do not modify original audio buffer, make a copy buffer, if
-            //downsampling is needed (only once).
-            var newAudioBuffer = audioBuffer
-            if (curSamNb == distances.size) {
-                newAudioBuffer = FloatArray(curSamNb / 2)
-            }
+            //do not modify original audio buffer: the first level is written
+            //to the preallocated array, the next levels are computed in place.
             for (i in 0 until curSamNb / 2) {
-                newAudioBuffer[i] = (audioBuffer[2 * i] + audioBuffer[2 * i + 1]) / 2.0f
+                downsampled[i] = (samples[2 * i] + samples[2 * i + 1]) / 2.0f
+            }
+            if (samples !== downsampled) {
+                samplesLength = curSamNb / 2
             }
-            audioBuffer = newAudioBuffer
+            samples = downsampled
             curSamNb /= 2
         }
         result.pitch = pitchF
@@ -291,4 +306,4 @@ class DynamicWavelet(private val sampleRate: Float, bufferSize: Int) : PitchDete
         result.probability = -1f
         return result
     }
-}
\ No newline at end of file
+}
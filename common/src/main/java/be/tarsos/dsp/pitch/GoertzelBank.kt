@@ -0,0 +1,233 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.pitch
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.AudioProcessor
+import java.util.*
+import kotlin.math.PI
+import kotlin.math.cos
+
+/**
+ * A bank of Goertzel filters that computes the power of many frequencies in
+ * one pass over the samples. The state of the filters is kept in a structure
+ * of arrays so that the inner loop, over all frequencies, is a simple loop
+ * over primitive arrays.
+ *
+ *
+ * The filters accumulate blocks of `blockSize` samples. Blocks are
+ * independent of the size of the buffers that are fed: the state is carried
+ * over from one buffer to the next. When used as an [AudioProcessor] only the
+ * new samples of each buffer are used, so overlapping buffers are handled
+ * correctly. Every time a block is complete the powers are written into a
+ * reused array and reported to the handler; nothing is allocated while
+ * processing.
+ *
+ *
+ * By default blocks follow each other, so a tone is located with a resolution
+ * of one block. With a `hopSize` smaller than the block size, the blocks
+ * overlap: a block of `blockSize` samples is completed every `hopSize`
+ * samples. This runs `blockSize / hopSize` Goertzel filters per frequency,
+ * each started one hop after the other, so the cost grows with the overlap.
+ * Each reported block has exactly the power a non-overlapping block at the same
+ * position would have. A sliding DFT would update in constant time per sample,
+ * but its recursive state drifts over long streams.
+ */
+class GoertzelBank @JvmOverloads constructor(
+    private val sampleRate: Float,
+    /**
+     * The frequencies to detect, in Hz.
+     */
+    val frequencies: DoubleArray,
+    /**
+     * The number of samples in a block.
+     */
+    val blockSize: Int,
+    private val handler: PowersHandler,
+    /**
+     * The array the powers are written to, one element per frequency. It is
+     * reused for every block.
+     */
+    private val powers: DoubleArray = DoubleArray(frequencies.size),
+    /**
+     * The number of samples between the starts of consecutive blocks, a divisor
+     * of the block size.
+     */
+    val hopSize: Int = blockSize
+) : AudioProcessor {
+
+    /**
+     * The Goertzel coefficient, `2 cos(2 pi f / fs)`, for each frequency.
+     */
+    private val coefficients: DoubleArray = coefficients(sampleRate, frequencies)
+
+    /**
+     * The number of overlapping blocks in progress.
+     */
+    private val lanes: Int
+
+    /**
+     * The coefficients repeated for each lane, so that all filters are updated
+     * in one loop.
+     */
+    private val laneCoefficients: DoubleArray
+
+    /**
+     * The filter state for each lane and frequency: the previous and the one but
+     * previous output.
+     */
+    private val state1: DoubleArray
+    private val state2: DoubleArray
+
+    /**
+     * The number of samples in the current hop.
+     */
+    private var position = 0
+
+    /**
+     * The number of hops completed since the start or the last reset.
+     */
+    private var hops: Long = 0
+
+    /**
+     * The total number of samples processed.
+     */
+    private var samplesProcessed: Long = 0
+
+    init {
+        require(blockSize > 0) { "The block size should be positive, is $blockSize" }
+        require(powers.size >= frequencies.size) { "The powers array should have an element for each frequency" }
+        require(hopSize > 0 && blockSize % hopSize == 0) { "The hop size should divide the block size $blockSize, is $hopSize" }
+        lanes = blockSize / hopSize
+        laneCoefficients = DoubleArray(lanes * frequencies.size) { coefficients[it % frequencies.size] }
+        state1 = DoubleArray(lanes * frequencies.size)
+        state2 = DoubleArray(lanes * frequencies.size)
+    }
+
+    override fun process(audioEvent: AudioEvent): Boolean {
+        val buffer = audioEvent.floatBuffer
+        val overlap = audioEvent.overlap
+        process(buffer, overlap, buffer.size - overlap)
+        return true
+    }
+
+    /**
+     * Feeds samples to the filter bank. The handler is called for each block
+     * that is completed.
+     *
+     * @param buffer The buffer with audio samples.
+     * @param offset The index of the first sample to use.
+     * @param length The number of samples to use.
+     */
+    fun process(buffer: FloatArray, offset: Int, length: Int) {
+        val size = lanes * frequencies.size
+        var index = offset
+        val end = offset + length
+        while (index < end) {
+            val samples = minOf(end - index, hopSize - position)
+            for (i in index until index + samples) {
+                val sample = buffer[i].toDouble()
+                for (j in 0 until size) {
+                    val s0 = laneCoefficients[j] * state1[j] - state2[j] + sample
+                    state2[j] = state1[j]
+                    state1[j] = s0
+                }
+            }
+            index += samples
+            position += samples
+            samplesProcessed += samples
+            if (position == hopSize) {
+                finishHop()
+            }
+        }
+    }
+
+    /**
+     * The lane that started a block hops ago completes it: computes the power of
+     * each frequency, reports them and starts a new block in that lane.
+     */
+    private fun finishHop() {
+        position = 0
+        hops++
+        val lane = (hops % lanes).toInt()
+        val from = lane * frequencies.size
+        // during the first block the lanes are started one by one
+        val complete = hops >= lanes
+        if (complete) {
+            val normalization = 4.0 / (blockSize.toDouble() * blockSize)
+            for (j in frequencies.indices) {
+                val s1 = state1[from + j]
+                val s2 = state2[from + j]
+                powers[j] = (s1 * s1 + s2 * s2 - coefficients[j] * s1 * s2) * normalization
+            }
+        }
+        Arrays.fill(state1, from, from + frequencies.size, 0.0)
+        Arrays.fill(state2, from, from + frequencies.size, 0.0)
+        if (complete) {
+            handler.handlePowers((samplesProcessed - blockSize) / sampleRate.toDouble(), powers)
+        }
+    }
+
+    /**
+     * Clears the filter state and starts a new block.
+     */
+    fun reset() {
+        Arrays.fill(state1, 0.0)
+        Arrays.fill(state2, 0.0)
+        position = 0
+        hops = 0
+    }
+
+    override fun processingFinished() {}
+
+    /**
+     * An interface to react on the powers computed by a [GoertzelBank].
+     */
+    interface PowersHandler {
+        /**
+         * Handle the powers of a block.
+         *
+         * @param timeStamp The time stamp of the start of the block, in seconds.
+         * @param powers    The power for each frequency of the bank. A sine with
+         * amplitude `a` at one of the frequencies has a power of about
+         * `a * a`. The array is reused for the next block.
+         */
+        fun handlePowers(timeStamp: Double, powers: DoubleArray)
+    }
+
+    companion object {
+        /**
+         * Calculates the Goertzel coefficient `2 cos(2 pi f / fs)` for
+         * each frequency. The coefficients can be shared between filters that
+         * detect the same frequencies.
+         *
+         * @param sampleRate  The sample rate in Hz.
+         * @param frequencies The frequencies in Hz.
+         * @return The coefficient for each frequency.
+         */
+        @JvmStatic
+        fun coefficients(sampleRate: Float, frequencies: DoubleArray): DoubleArray {
+            return DoubleArray(frequencies.size) { j -> 2 * cos(2 * PI * frequencies[j] / sampleRate) }
+        }
+    }
+}
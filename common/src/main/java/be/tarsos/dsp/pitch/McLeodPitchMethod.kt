@@ -69,7 +69,7 @@ class McLeodPitchMethod @JvmOverloads constructor(
     private val sampleRate: Float,
     audioBufferSize: Int = DEFAULT_BUFFER_SIZE,
     cutoffMPM: Double = DEFAULT_CUTOFF
-) : PitchDetector {
+) : PitchCandidateDetector {
     /**
      * Defines the relative size the chosen peak (pitch) has.
      */
@@ -190,6 +190,17 @@ class McLeodPitchMethod @JvmOverloads constructor(
         return result
     }
 
+    override val candidateCount: Int
+        get() = periodEstimates.size
+
+    override fun getCandidatePitch(index: Int): Float {
+        return sampleRate / periodEstimates[index]
+    }
+
+    override fun getCandidateProbability(index: Int): Float {
+        return ampEstimates[index].coerceIn(0f, 1f)
+    }
+
     /**
      *
      *
@@ -0,0 +1,49 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.pitch
+
+/**
+ * A pitch detector that, besides its best estimate, exposes all pitch
+ * candidates it considered for the last analyzed buffer. The candidates are
+ * meant for post processing that takes more than one frame into account, see
+ * e.g. [ViterbiPitchTracker].
+ */
+interface PitchCandidateDetector : PitchDetector {
+    /**
+     * @return The number of candidates found in the buffer that was analyzed last.
+     */
+    val candidateCount: Int
+
+    /**
+     * @param index The index of the candidate, smaller than [candidateCount].
+     * @return The pitch of the candidate in Hz.
+     */
+    fun getCandidatePitch(index: Int): Float
+
+    /**
+     * @param index The index of the candidate, smaller than [candidateCount].
+     * @return A probability, between zero and one, for the candidate. The exact
+     * meaning depends on the detector used.
+     */
+    fun getCandidateProbability(index: Int): Float
+}
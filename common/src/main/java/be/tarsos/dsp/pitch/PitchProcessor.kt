@@ -33,14 +33,27 @@ import kotlin.math.roundToInt
  * @author Joren Six
  */
 class PitchProcessor(
-    algorithm: PitchEstimationAlgorithm, sampleRate: Float,
-    bufferSize: Int,
+    /**
+     * The underlying pitch detector;
+     */
+    private val detector: PitchDetector,
     private val handler: PitchDetectionHandler
 ) : AudioProcessor {
+
     /**
-     * The underlying pitch detector;
+     * Create a pitch processor for one of the built in pitch estimation algorithms.
+     *
+     * @param algorithm  The pitch estimation algorithm to use.
+     * @param sampleRate The sample rate of the audio buffer.
+     * @param bufferSize The size (in samples) of the audio buffer.
+     * @param handler    The handler that receives the pitch detection results.
      */
-    private val detector: PitchDetector = algorithm.getDetector(sampleRate, bufferSize)
+    constructor(
+        algorithm: PitchEstimationAlgorithm, sampleRate: Float,
+        bufferSize: Int,
+        handler: PitchDetectionHandler
+    ) : this(algorithm.getDetector(sampleRate, bufferSize), handler)
+
     override fun process(audioEvent: AudioEvent): Boolean {
         val audioFloatBuffer = audioEvent.floatBuffer
         val result = detector.getPitch(audioFloatBuffer)
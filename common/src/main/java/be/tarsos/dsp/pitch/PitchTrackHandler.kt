@@ -0,0 +1,37 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.pitch
+
+/**
+ * An interface to handle pitch that is emitted by a tracker some time after the
+ * audio was analyzed.
+ */
+interface PitchTrackHandler {
+    /**
+     * Handle a tracked pitch.
+     *
+     * @param timeStamp            The time stamp of the analyzed buffer, in seconds.
+     * @param pitchDetectionResult The tracked pitch for the buffer.
+     */
+    fun handlePitch(timeStamp: Double, pitchDetectionResult: PitchDetectionResult)
+}
@@ -0,0 +1,383 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.pitch
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.AudioProcessor
+import be.tarsos.dsp.util.PitchConverter
+import java.util.*
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.ln
+import kotlin.math.max
+import kotlin.math.roundToInt
+
+/**
+ * A streaming pitch tracker that smooths the output of a [PitchCandidateDetector]
+ * over time. Each frame the candidates of the detector are mapped onto a state
+ * space of pitches, quantized in cents, with one extra state for unvoiced
+ * frames. The most likely path through the states is decoded with a fixed lag
+ * Viterbi algorithm: the pitch of a frame is emitted `lag` frames after it
+ * was analyzed, which is enough context to correct isolated octave errors.
+ *
+ *
+ * Memory use is constant: only the back pointers and candidates of the last
+ * `lag` frames are kept. When processing finishes the remaining frames are
+ * emitted.
+ */
+class ViterbiPitchTracker @JvmOverloads constructor(
+    /**
+     * The detector that provides the pitch candidates for each buffer.
+     */
+    private val detector: PitchCandidateDetector,
+    /**
+     * The handler that receives the tracked pitch.
+     */
+    private val handler: PitchTrackHandler,
+    /**
+     * The number of frames between the analysis of a frame and the moment its
+     * pitch is emitted.
+     */
+    private val lag: Int = DEFAULT_LAG,
+    minFrequency: Double = DEFAULT_MIN_FREQUENCY,
+    maxFrequency: Double = DEFAULT_MAX_FREQUENCY
+) : AudioProcessor {
+
+    private val minCent: Double = PitchConverter.hertzToAbsoluteCent(minFrequency)
+    private val maxCent: Double = PitchConverter.hertzToAbsoluteCent(maxFrequency)
+
+    /**
+     * The number of voiced states. The state with this index is the unvoiced state.
+     */
+    private val voicedStates: Int = ceil((maxCent - minCent) / CENTS_PER_STATE).toInt() + 1
+    private val unvoicedState: Int = voicedStates
+
+    /**
+     * Log probabilities of a voiced to voiced transition, indexed by the
+     * distance between the states.
+     */
+    private val transition: DoubleArray
+
+    /**
+     * The log probability of the best path ending in each state.
+     */
+    private var delta: DoubleArray = DoubleArray(voicedStates + 1)
+    private var nextDelta: DoubleArray = DoubleArray(voicedStates + 1)
+    private val observation: DoubleArray = DoubleArray(voicedStates + 1)
+
+    /**
+     * A ring with back pointers, candidates and time stamps of the last frames.
+     */
+    private val backPointers: Array<IntArray> = Array(lag + 1) { IntArray(voicedStates + 1) }
+    private val candidatePitches: Array<FloatArray> = Array(lag + 1) { FloatArray(MAX_CANDIDATES) }
+    private val candidateProbabilities: Array<FloatArray> = Array(lag + 1) { FloatArray(MAX_CANDIDATES) }
+    private val candidateCounts: IntArray = IntArray(lag + 1)
+    private val timeStamps: DoubleArray = DoubleArray(lag + 1)
+    private val path: IntArray = IntArray(lag + 1)
+
+    /**
+     * The number of frames added since the start or the last flush.
+     */
+    private var frames: Long = 0
+
+    private val result: PitchDetectionResult = PitchDetectionResult()
+
+    init {
+        require(lag >= 0) { "The lag should be positive, is $lag" }
+        require(minFrequency < maxFrequency) { "The minimum frequency should be smaller than the maximum frequency" }
+        val maxJump = (MAX_JUMP_CENTS / CENTS_PER_STATE).toInt()
+        transition = DoubleArray(maxJump + 1) { distance ->
+            val cents = distance * CENTS_PER_STATE
+            -cents * cents / (2 * TRANSITION_DEVIATION_CENTS * TRANSITION_DEVIATION_CENTS)
+        }
+    }
+
+    override fun process(audioEvent: AudioEvent): Boolean {
+        detector.getPitch(audioEvent.floatBuffer)
+        val slot = (frames % (lag + 1)).toInt()
+        val count = minOf(detector.candidateCount, MAX_CANDIDATES)
+        for (i in 0 until count) {
+            candidatePitches[slot][i] = detector.getCandidatePitch(i)
+            candidateProbabilities[slot][i] = detector.getCandidateProbability(i)
+        }
+        addFrame(audioEvent.timeStamp, candidatePitches[slot], candidateProbabilities[slot], count)
+        return true
+    }
+
+    override fun processingFinished() {
+        flush()
+    }
+
+    /**
+     * Adds a frame with pitch candidates and emits the pitch of the frame that
+     * was added `lag` frames ago, if any. The candidates are expected in order
+     * of increasing period, as [McLeodPitchMethod] and [Yin] report them. Each
+     * following candidate is weighted slightly less, which favours the
+     * fundamental over its subharmonics.
+     *
+     * @param timeStamp     The time stamp of the frame in seconds.
+     * @param pitches       The pitch of each candidate in Hz.
+     * @param probabilities The probability, between zero and one, of each candidate.
+     * @param count         The number of candidates.
+     */
+    fun addFrame(timeStamp: Double, pitches: FloatArray, probabilities: FloatArray, count: Int) {
+        val slot = (frames % (lag + 1)).toInt()
+        val candidates = minOf(count, MAX_CANDIDATES)
+        if (pitches !== candidatePitches[slot]) {
+            System.arraycopy(pitches, 0, candidatePitches[slot], 0, candidates)
+            System.arraycopy(probabilities, 0, candidateProbabilities[slot], 0, candidates)
+        }
+        candidateCounts[slot] = candidates
+        timeStamps[slot] = timeStamp
+
+        observe(candidatePitches[slot], candidateProbabilities[slot], candidates)
+        if (frames == 0L) {
+            System.arraycopy(observation, 0, delta, 0, delta.size)
+        } else {
+            step(backPointers[slot])
+        }
+        frames++
+
+        if (frames > lag) {
+            var state = bestState()
+            var frame = frames - 1
+            for (i in 0 until lag) {
+                state = backPointers[(frame % (lag + 1)).toInt()][state]
+                frame--
+            }
+            emit((frame % (lag + 1)).toInt(), state)
+        }
+    }
+
+    /**
+     * Emits the pitch of the frames that are still waiting for more context and
+     * resets the tracker.
+     */
+    fun flush() {
+        if (frames > 0) {
+            val pending = minOf(frames, lag.toLong()).toInt()
+            var state = bestState()
+            var frame = frames - 1
+            for (i in pending - 1 downTo 0) {
+                path[i] = state
+                state = backPointers[(frame % (lag + 1)).toInt()][state]
+                frame--
+            }
+            frame = frames - pending
+            for (i in 0 until pending) {
+                emit((frame % (lag + 1)).toInt(), path[i])
+                frame++
+            }
+        }
+        frames = 0
+    }
+
+    /**
+     * Fills the observation log probabilities for each state.
+     */
+    private fun observe(pitches: FloatArray, probabilities: FloatArray, count: Int) {
+        Arrays.fill(observation, 0, voicedStates, LOG_OBSERVATION_FLOOR)
+        var maxProbability = 0f
+        for (i in 0 until count) {
+            val probability = probabilities[i]
+            if (pitches[i] <= 0 || probability <= 0) {
+                continue
+            }
+            val position = statePosition(pitches[i])
+            if (position < -OBSERVATION_SPREAD || position > voicedStates - 1 + OBSERVATION_SPREAD) {
+                continue
+            }
+            maxProbability = max(maxProbability, probability)
+            val logProbability = ln(probability.toDouble()) + i * LOG_CANDIDATE_DECAY
+            val center = position.roundToInt()
+            for (state in max(0, center - OBSERVATION_SPREAD)..minOf(voicedStates - 1, center + OBSERVATION_SPREAD)) {
+                val distance = state - position
+                val value = logProbability - distance * distance / (2 * OBSERVATION_DEVIATION_STATES * OBSERVATION_DEVIATION_STATES)
+                if (value > observation[state]) {
+                    observation[state] = value
+                }
+            }
+        }
+        observation[unvoicedState] = ln(max(1.0 - maxProbability, OBSERVATION_FLOOR))
+    }
+
+    /**
+     * One step of the Viterbi algorithm. Transitions between voiced states are
+     * limited to a maximum jump, transitions between voiced and unvoiced states
+     * are penalized.
+     */
+    private fun step(backPointer: IntArray) {
+        val maxJump = transition.size - 1
+        var bestVoiced = 0
+        for (state in 1 until voicedStates) {
+            if (delta[state] > delta[bestVoiced]) {
+                bestVoiced = state
+            }
+        }
+        val fromUnvoiced = delta[unvoicedState] + LOG_VOICING_SWITCH
+        var maxDelta = Double.NEGATIVE_INFINITY
+        for (state in 0 until voicedStates) {
+            var best = fromUnvoiced
+            var bestPrevious = unvoicedState
+            for (previous in max(0, state - maxJump)..minOf(voicedStates - 1, state + maxJump)) {
+                val value = delta[previous] + transition[abs(state - previous)]
+                if (value > best) {
+                    best = value
+                    bestPrevious = previous
+                }
+            }
+            nextDelta[state] = best + observation[state]
+            backPointer[state] = bestPrevious
+            maxDelta = max(maxDelta, nextDelta[state])
+        }
+        val fromVoiced = delta[bestVoiced] + LOG_VOICING_SWITCH
+        if (fromVoiced > delta[unvoicedState]) {
+            nextDelta[unvoicedState] = fromVoiced + observation[unvoicedState]
+            backPointer[unvoicedState] = bestVoiced
+        } else {
+            nextDelta[unvoicedState] = delta[unvoicedState] + observation[unvoicedState]
+            backPointer[unvoicedState] = unvoicedState
+        }
+        maxDelta = max(maxDelta, nextDelta[unvoicedState])
+        // normalize to keep the values in range
+        for (state in nextDelta.indices) {
+            nextDelta[state] -= maxDelta
+        }
+        val swap = delta
+        delta = nextDelta
+        nextDelta = swap
+    }
+
+    private fun bestState(): Int {
+        var best = 0
+        for (state in 1 until delta.size) {
+            if (delta[state] > delta[best]) {
+                best = state
+            }
+        }
+        return best
+    }
+
+    /**
+     * @return The (fractional) index of the voiced state for a pitch in Hz.
+     */
+    private fun statePosition(pitch: Float): Double {
+        return (PitchConverter.hertzToAbsoluteCent(pitch.toDouble()) - minCent) / CENTS_PER_STATE
+    }
+
+    /**
+     * Emits the decoded state for a frame in the ring. For a voiced state the
+     * candidate closest to the state is reported. If there is none, e.g. when
+     * the path bridges a frame without candidates, the pitch of the state itself
+     * is reported with a probability of zero.
+     */
+    private fun emit(slot: Int, state: Int) {
+        if (state == unvoicedState) {
+            result.pitch = -1f
+            result.probability = 0f
+            result.isPitched = false
+        } else {
+            var closest = -1
+            var closestDistance = 1.0
+            for (i in 0 until candidateCounts[slot]) {
+                val pitch = candidatePitches[slot][i]
+                if (pitch > 0) {
+                    val distance = abs(statePosition(pitch) - state)
+                    if (distance <= closestDistance) {
+                        closest = i
+                        closestDistance = distance
+                    }
+                }
+            }
+            if (closest >= 0) {
+                result.pitch = candidatePitches[slot][closest]
+                result.probability = candidateProbabilities[slot][closest]
+            } else {
+                result.pitch = PitchConverter.absoluteCentToHertz(minCent + state * CENTS_PER_STATE).toFloat()
+                result.probability = 0f
+            }
+            result.isPitched = true
+        }
+        handler.handlePitch(timeStamps[slot], result)
+    }
+
+    companion object {
+        /**
+         * The default number of frames of look ahead.
+         */
+        const val DEFAULT_LAG = 8
+
+        /**
+         * The default lowest pitch that is tracked, in Hz.
+         */
+        const val DEFAULT_MIN_FREQUENCY = 60.0
+
+        /**
+         * The default highest pitch that is tracked, in Hz.
+         */
+        const val DEFAULT_MAX_FREQUENCY = 1600.0
+
+        /**
+         * The maximum number of candidates used per frame.
+         */
+        private const val MAX_CANDIDATES = 16
+
+        /**
+         * The resolution of the state space.
+         */
+        private const val CENTS_PER_STATE = 20.0
+
+        /**
+         * The largest pitch change between consecutive voiced frames.
+         */
+        private const val MAX_JUMP_CENTS = 300.0
+
+        /**
+         * The standard deviation of the pitch change between consecutive frames.
+         */
+        private const val TRANSITION_DEVIATION_CENTS = 60.0
+
+        /**
+         * The log probability of a change from voiced to unvoiced or back.
+         */
+        private val LOG_VOICING_SWITCH = ln(0.01)
+
+        /**
+         * The log of the weight of a candidate relative to the previous one.
+         */
+        private val LOG_CANDIDATE_DECAY = ln(0.9)
+
+        /**
+         * The number of neighbouring states a candidate contributes to, and the
+         * deviation of that contribution in states.
+         */
+        private const val OBSERVATION_SPREAD = 2
+        private const val OBSERVATION_DEVIATION_STATES = 1.0
+
+        /**
+         * The probability of a state without a nearby candidate.
+         */
+        private const val OBSERVATION_FLOOR = 0.001
+        private val LOG_OBSERVATION_FLOOR = ln(OBSERVATION_FLOOR)
+    }
+}
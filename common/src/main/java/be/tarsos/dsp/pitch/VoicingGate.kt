@@ -0,0 +1,188 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.pitch
+
+import be.tarsos.dsp.SilenceDetector
+import be.tarsos.dsp.ZeroCrossingRateProcessor
+import be.tarsos.dsp.util.fft.FFT
+import kotlin.math.exp
+import kotlin.math.ln
+import kotlin.math.log10
+import kotlin.math.min
+
+/**
+ * A voicing gate wraps a [PitchDetector] and only calls it for frames that are
+ * likely to be voiced. Cheap features decide whether a frame is voiced: the
+ * sound pressure level (see [SilenceDetector]), the zero crossing rate (see
+ * [ZeroCrossingRateProcessor]) and, optionally, the spectral flatness. For
+ * frames that are rejected the detector is skipped and an unvoiced
+ * [PitchDetectionResult] is returned directly.
+ *
+ *
+ * To avoid chattering at the edges of voiced segments the gate has hysteresis:
+ * once open, the level only needs to stay above the silence threshold minus
+ * the hysteresis, and the gate stays open for a number of hangover frames
+ * after the features stop indicating voicing.
+ *
+ *
+ * Since a gate implements [PitchDetector] it can be passed to a
+ * [PitchProcessor] directly.
+ */
+class VoicingGate @JvmOverloads constructor(
+    /**
+     * The detector that is called for voiced frames.
+     */
+    private val detector: PitchDetector,
+    bufferSize: Int,
+    /**
+     * Frames with a sound pressure level (in dB) below this threshold are unvoiced.
+     */
+    private val silenceThreshold: Double = SilenceDetector.DEFAULT_SILENCE_THRESHOLD,
+    /**
+     * Frames with a zero crossing rate above this threshold are unvoiced.
+     */
+    private val zeroCrossingThreshold: Float = DEFAULT_ZERO_CROSSING_THRESHOLD,
+    /**
+     * Frames with a spectral flatness above this threshold are unvoiced. The
+     * flatness is a value between zero (tonal) and one (white noise). With a
+     * threshold of one or more the flatness is not calculated at all, which
+     * avoids an FFT per frame.
+     */
+    private val spectralFlatnessThreshold: Float = 1f,
+    /**
+     * The hysteresis (in dB) on the silence threshold once the gate is open.
+     */
+    private val hysteresis: Double = DEFAULT_HYSTERESIS,
+    /**
+     * The number of frames the gate stays open after the features stop
+     * indicating a voiced frame.
+     */
+    private val hangoverFrames: Int = DEFAULT_HANGOVER_FRAMES
+) : PitchDetector {
+
+    /**
+     * The result returned for unvoiced frames. Like the results of the detectors
+     * it is reused: it is reset for every unvoiced frame, so changes made by a
+     * caller do not leak into the next frame, but it should be copied to be kept.
+     */
+    private val unvoiced: PitchDetectionResult = PitchDetectionResult()
+
+    private val fft: FFT? = if (spectralFlatnessThreshold < 1f) FFT(bufferSize) else null
+    private val fftBuffer: FloatArray = FloatArray(if (fft != null) bufferSize else 0)
+
+    private var hangover = 0
+
+    /**
+     * True if the previous frame was passed to the detector.
+     */
+    var isOpen = false
+        private set
+
+    /**
+     * The number of frames passed to the detector.
+     */
+    var detectedFrames = 0L
+        private set
+
+    /**
+     * The number of frames for which the detector was skipped.
+     */
+    var skippedFrames = 0L
+        private set
+
+    override fun getPitch(audioBuffer: FloatArray): PitchDetectionResult {
+        val level = 20.0 * log10(SilenceDetector.calculateRMS(audioBuffer))
+        val threshold = if (isOpen) silenceThreshold - hysteresis else silenceThreshold
+        val loudEnough = level >= threshold
+        val voiced = loudEnough &&
+                ZeroCrossingRateProcessor.calculateZeroCrossingRate(audioBuffer) <= zeroCrossingThreshold &&
+                (fft == null || spectralFlatness(audioBuffer) <= spectralFlatnessThreshold)
+        isOpen = if (voiced) {
+            hangover = hangoverFrames
+            true
+        } else if (isOpen && loudEnough && hangover > 0) {
+            hangover--
+            true
+        } else {
+            hangover = 0
+            false
+        }
+        if (!isOpen) {
+            skippedFrames++
+            unvoiced.pitch = -1f
+            unvoiced.probability = 0f
+            unvoiced.isPitched = false
+            return unvoiced
+        }
+        detectedFrames++
+        return detector.getPitch(audioBuffer)
+    }
+
+    /**
+     * Calculates the spectral flatness: the ratio of the geometric mean and the
+     * arithmetic mean of the power spectrum. A buffer shorter than the FFT is
+     * zero padded.
+     */
+    private fun spectralFlatness(audioBuffer: FloatArray): Float {
+        val length = min(audioBuffer.size, fftBuffer.size)
+        System.arraycopy(audioBuffer, 0, fftBuffer, 0, length)
+        fftBuffer.fill(0f, length, fftBuffer.size)
+        fft!!.forwardTransform(fftBuffer)
+        val bins = fftBuffer.size / 2
+        var logSum = 0.0
+        var sum = 0.0
+        for (i in 1 until bins) {
+            val re = fftBuffer[2 * i]
+            val im = fftBuffer[2 * i + 1]
+            val power = re * re + im * im + POWER_FLOOR
+            logSum += ln(power.toDouble())
+            sum += power
+        }
+        val geometricMean = exp(logSum / (bins - 1))
+        val arithmeticMean = sum / (bins - 1)
+        return (geometricMean / arithmeticMean).toFloat()
+    }
+
+    companion object {
+        /**
+         * Voiced speech rarely has more than 0.3 zero crossings per sample,
+         * fricatives and noise typically do.
+         */
+        const val DEFAULT_ZERO_CROSSING_THRESHOLD = 0.3f
+
+        /**
+         * The default hysteresis on the silence threshold, in dB.
+         */
+        const val DEFAULT_HYSTERESIS = 6.0
+
+        /**
+         * The default number of hangover frames.
+         */
+        const val DEFAULT_HANGOVER_FRAMES = 2
+
+        /**
+         * Avoids the logarithm of zero for empty bins.
+         */
+        private const val POWER_FLOOR = 1e-12f
+    }
+}
@@ -38,7 +38,7 @@ class Yin @JvmOverloads constructor(
      * The actual YIN threshold.
      */
     private val threshold: Double = DEFAULT_THRESHOLD
-) : PitchDetector {
+) : PitchCandidateDetector {
 
     /**
      * The buffer that stores the calculated values. It is exactly half the size
@@ -51,6 +51,18 @@ class Yin @JvmOverloads constructor(
      */
     private val result: PitchDetectionResult = PitchDetectionResult()
 
+    /**
+     * The pitch and probability of each dip in the yin buffer. These are only
+     * calculated when candidates are requested.
+     */
+    private val candidatePitches: FloatArray = FloatArray(yinBuffer.size / 2 + 1)
+    private val candidateProbabilities: FloatArray = FloatArray(yinBuffer.size / 2 + 1)
+
+    /**
+     * The number of candidates or -1 if they are not calculated yet.
+     */
+    private var candidatesFound = -1
+
     /**
      * The main flow of the YIN algorithm. Returns a pitch value in Hz or -1 if
      * no pitch is detected.
@@ -61,6 +73,8 @@ class Yin @JvmOverloads constructor(
         val tauEstimate: Int
         val pitchInHertz: Float
 
+        candidatesFound = -1
+
         // step 2
         difference(audioBuffer)
 
@@ -175,6 +189,37 @@ class Yin @JvmOverloads constructor(
         return tau
     }
 
+    override val candidateCount: Int
+        get() {
+            if (candidatesFound < 0) {
+                findCandidates()
+            }
+            return candidatesFound
+        }
+
+    override fun getCandidatePitch(index: Int): Float {
+        return candidatePitches[index]
+    }
+
+    override fun getCandidateProbability(index: Int): Float {
+        return candidateProbabilities[index]
+    }
+
+    /**
+     * Stores each local minimum in the yin buffer below the candidate threshold
+     * as a candidate.
+     */
+    private fun findCandidates() {
+        candidatesFound = 0
+        for (tau in 2 until yinBuffer.size - 1) {
+            if (yinBuffer[tau] < CANDIDATE_THRESHOLD && yinBuffer[tau] < yinBuffer[tau - 1] && yinBuffer[tau] <= yinBuffer[tau + 1]) {
+                candidatePitches[candidatesFound] = sampleRate / parabolicInterpolation(tau)
+                candidateProbabilities[candidatesFound] = 1 - yinBuffer[tau]
+                candidatesFound++
+            }
+        }
+    }
+
     /**
      * Implements step 5 of the AUBIO_YIN paper. It refines the estimated tau
      * value using parabolic interpolation. This is needed to detect higher
@@ -240,6 +285,12 @@ class Yin @JvmOverloads constructor(
          * paper for more information.
          */
         private const val DEFAULT_THRESHOLD = 0.20
+
+        /**
+         * Dips in the yin buffer above this value are not considered as pitch
+         * candidates.
+         */
+        private const val CANDIDATE_THRESHOLD = 0.5f
     }
     /**
      * Create a new pitch detector for a stream with the defined sample rate.
@@ -35,6 +35,7 @@
 package be.tarsos.dsp.resample
 
 import be.tarsos.dsp.util.PI
+import kotlin.math.abs
 import kotlin.math.floor
 import kotlin.math.sin
 import kotlin.math.sqrt
@@ -138,6 +139,29 @@ internal object FilterKit {
         }
     }
 
+    /**
+     * Evaluates the filter of [lrsLpFilter] at any point instead of at multiples
+     * of 1/Num, without interpolation.
+     *
+     * @param x    distance from the center, in units of Num coeffs
+     * @param N    Half the window length in number of coeffs
+     * @param frq  roll-off frequency of filter
+     * @param Beta parameter of Kaiser window
+     * @param Num  number of coeffs before 1/frq
+     * @return the filter coefficient, zero outside of the window.
+     */
+    @JvmStatic
+    fun lrsLpFilterValue(x: Double, N: Int, frq: Double, Beta: Double, Num: Int): Double {
+        val i = abs(x) * Num
+        if (i >= N) return 0.0
+        if (i == 0.0) return 2.0 * frq
+        val temp = PI * i / Num.toDouble()
+        val ideal = sin(2.0 * temp * frq) / temp
+        val ratio = i / (N - 1).toDouble()
+        val temp1 = 1.0 - ratio * ratio
+        return ideal * Izero(Beta * sqrt(if (temp1 < 0) 0.0 else temp1)) / Izero(Beta)
+    }
+
     /**
      * @param Imp      impulse response
      * @param ImpD     impulse response deltas
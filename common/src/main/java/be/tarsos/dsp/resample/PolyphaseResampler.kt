@@ -0,0 +1,220 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.resample
+
+import be.tarsos.dsp.resample.FilterKit.lrsLpFilterValue
+import be.tarsos.dsp.util.FloatFifo
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.ceil
+import kotlin.math.min
+
+/**
+ * Resamples at a fixed rational ratio with a polyphase filter bank. The [Resampler]
+ * looks up the coefficients of its low-pass filter for every output sample, which
+ * is needed for continuously varying factors. For a fixed conversion from one sample
+ * rate to another, say 44.1kHz to 16kHz, the output samples fall on only
+ * L = 160 different fractional positions between the input samples. The
+ * coefficients for each of these phases are computed once and then every output
+ * sample is a plain dot product.
+ *
+ * The filter is the Kaiser-windowed low-pass filter of [Resampler] with the same
+ * quality settings, so the stopband attenuation of both is equal. The filter banks
+ * are shared between all resamplers with the same ratio and quality.
+ */
+class PolyphaseResampler @JvmOverloads constructor(
+    /**
+     * The sample rate of the input, in Hz.
+     */
+    inputSampleRate: Int,
+    /**
+     * The sample rate of the output, in Hz.
+     */
+    outputSampleRate: Int,
+    /**
+     * True for better quality, with a longer filter.
+     */
+    highQuality: Boolean = false
+) {
+    /**
+     * The interpolation factor L: the number of phases.
+     */
+    val upFactor: Int
+
+    /**
+     * The decimation factor M: the number of input samples per L output samples.
+     */
+    val downFactor: Int
+
+    /**
+     * The resampling factor, L/M.
+     */
+    val factor: Double
+        get() = upFactor.toDouble() / downFactor
+
+    private val bank: FilterBank
+    private val input = FloatFifo()
+
+    /**
+     * The index in the input queue of the input sample before the next output sample,
+     * and the phase of the output sample between that input sample and the next.
+     */
+    private var index = 0
+    private var phase = 0
+
+    /**
+     * The number of real input samples in the queue, without the padding.
+     */
+    private var inputLeft = 0
+    private var finished = false
+
+    /**
+     * Process a batch of samples. All input samples are taken; output samples that
+     * do not fit in the output buffer are produced with the next batch.
+     *
+     * @param inBuffer        array containing input samples in the range -1.0 to 1.0
+     * @param inBufferOffset  offset into inBuffer at which to start processing
+     * @param inBufferLen     number of valid elements in the inputBuffer
+     * @param lastBatch       pass true if this is the last batch of samples
+     * @param outBuffer       array to hold the resampled data
+     * @param outBufferOffset Offset in the output buffer.
+     * @param outBufferLen    Output buffer length.
+     * @return the number of samples consumed and generated
+     */
+    fun process(
+        inBuffer: FloatArray,
+        inBufferOffset: Int,
+        inBufferLen: Int,
+        lastBatch: Boolean,
+        outBuffer: FloatArray,
+        outBufferOffset: Int,
+        outBufferLen: Int
+    ): Resampler.Result {
+        require(!finished || inBufferLen == 0) { "No input is accepted after the last batch" }
+        input.put(inBuffer, inBufferOffset, inBufferLen)
+        inputLeft += inBufferLen
+        if (lastBatch && !finished) {
+            // zeros to finish the filter of the last output samples
+            input.putSilence(bank.halfLength)
+            finished = true
+        }
+
+        val taps = 2 * bank.halfLength
+        val coefficients = bank.coefficients
+        val samples = input.buffer
+        val start = input.position
+        var generated = 0
+        // the first tap is halfLength - 1 samples before the current input sample
+        while (generated < outBufferLen && index < inputLeft && index + bank.halfLength < input.size) {
+            var v = 0f
+            var x = start + index - bank.halfLength + 1
+            var c = phase * taps
+            for (j in 0 until taps) {
+                v += coefficients[c++] * samples[x++]
+            }
+            outBuffer[outBufferOffset + generated++] = v
+            phase += downFactor
+            while (phase >= upFactor) {
+                phase -= upFactor
+                index++
+            }
+        }
+
+        // drop the input that is no longer needed
+        val drop = min(index, inputLeft) - bank.halfLength + 1
+        if (drop > 0) {
+            input.skip(drop)
+            index -= drop
+            inputLeft -= drop
+        }
+        return Resampler.Result(inBufferLen, generated)
+    }
+
+    /**
+     * Clears the input history to start a new stream.
+     */
+    fun reset() {
+        input.clear()
+        input.putSilence(bank.halfLength - 1)
+        index = bank.halfLength - 1
+        inputLeft = index
+        phase = 0
+        finished = false
+    }
+
+    /**
+     * The coefficients for each phase p, for input samples at distances
+     * p/L + halfLength - 1, ..., p/L - halfLength from the output sample.
+     */
+    private class FilterBank(val halfLength: Int, val coefficients: FloatArray)
+
+    private data class BankKey(val upFactor: Int, val downFactor: Int, val highQuality: Boolean)
+
+    companion object {
+        private val banks = ConcurrentHashMap<BankKey, FilterBank>()
+
+        private fun gcd(a: Int, b: Int): Int = if (b == 0) a else gcd(b, a % b)
+
+        private fun design(key: BankKey): FilterBank {
+            // the same filter as the Resampler
+            val nmult = if (key.highQuality) 35 else 11
+            val npc = 4096
+            val nwing = npc * (nmult - 1) / 2
+            val rolloff = 0.90
+            val beta = 6.0
+            val factor = key.upFactor.toDouble() / key.downFactor
+            // for downsampling the filter is stretched to cut off below the new Nyquist frequency
+            val scale = min(1.0, factor)
+            val halfLength = ceil((nmult - 1) / 2.0 / scale).toInt() + 1
+            val taps = 2 * halfLength
+            val coefficients = FloatArray(key.upFactor * taps)
+            for (p in 0 until key.upFactor) {
+                val fraction = p.toDouble() / key.upFactor
+                for (j in 0 until taps) {
+                    // the distance in input samples from tap j to the output sample
+                    val distance = (j - halfLength + 1) - fraction
+                    coefficients[p * taps + j] =
+                        (scale * lrsLpFilterValue(distance * scale, nwing, 0.5 * rolloff, beta, npc)).toFloat()
+                }
+            }
+            return FilterBank(halfLength, coefficients)
+        }
+
+        /**
+         * Removes the cached filter banks, the resamplers in use keep theirs.
+         */
+        @JvmStatic
+        fun clearCache() {
+            banks.clear()
+        }
+    }
+
+    init {
+        require(inputSampleRate > 0 && outputSampleRate > 0) { "The sample rates should be positive" }
+        val divisor = gcd(inputSampleRate, outputSampleRate)
+        upFactor = outputSampleRate / divisor
+        downFactor = inputSampleRate / divisor
+        val key = BankKey(upFactor, downFactor, highQuality)
+        bank = banks[key] ?: design(key).let { banks.putIfAbsent(key, it) ?: it }
+        reset()
+    }
+}
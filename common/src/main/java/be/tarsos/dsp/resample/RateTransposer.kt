@@ -1,29 +1,10 @@
-/*
- *      _______                       _____   _____ _____
- *     |__   __|                     |  __ \ / ____|  __ \
- *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
- *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
- *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
- *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
- *
- * -------------------------------------------------------------
- *
- * TarsosDSP is developed by Joren Six at IPEM, University Ghent
- *
- * -------------------------------------------------------------
- *
- *  Info: http://0110.be/tag/TarsosDSP
- *  Github: https://github.com/JorenSix/TarsosDSP
- *  Releases: http://0110.be/releases/TarsosDSP/
- *
- *  TarsosDSP includes modified source code by various authors,
- *  for credits and info, see README.
- *
- */
 package be.tarsos.dsp.resample
 
 import be.tarsos.dsp.AudioEvent
 import be.tarsos.dsp.AudioProcessor
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.min
 
 /**
  * Sample rate transposer. Changes sample rate by using  interpolation
@@ -31,28 +12,141 @@ import be.tarsos.dsp.AudioProcessor
  *
  * Together with the time stretcher this can be used for pitch shifting.
  *
+ * The transposer leaves the audio event untouched. The transposed audio is queued
+ * and passed on in frames of `frameSize` samples to the processors added with
+ * [addOutputProcessor], so the size of the buffers does not depend on the factor.
+ * A new factor is reached gradually, over [RAMP_LENGTH] input samples.
+ *
+ * Earlier versions replaced the buffer of the audio event with the transposed audio.
+ * Processors that followed the transposer in the chain, a player or a writer, are
+ * now added with [addOutputProcessor]; [process] throws an [IllegalStateException]
+ * if there are none, rather than silently dropping the transposed audio.
+ *
  * @author Joren Six
  */
-class RateTransposer(private var factor: Double) : AudioProcessor {
-    private val r: Resampler = Resampler(false, 0.1, 4.0)
+class RateTransposer @JvmOverloads constructor(
+    private var factor: Double,
+    /**
+     * The number of samples in the buffers passed to the output processors.
+     */
+    frameSize: Int = DEFAULT_FRAME_SIZE
+) : AudioProcessor {
+    private val r: Resampler = Resampler(false, MIN_FACTOR, MAX_FACTOR)
+    private val output = TransposedOutput(frameSize)
+    private var targetFactor = factor
+    private var rampStep = 0.0
+    private var resampled = FloatArray(0)
+    private var firstEvent = true
+    private var sampleRate = 44100f
+
+    init {
+        require(factor in MIN_FACTOR..MAX_FACTOR) { "The factor should be between $MIN_FACTOR and $MAX_FACTOR" }
+    }
+
+    /**
+     * Sets a new factor, the number of output samples per input sample.
+     */
     fun setFactor(tempo: Double) {
-        factor = tempo
+        require(tempo in MIN_FACTOR..MAX_FACTOR) { "The factor should be between $MIN_FACTOR and $MAX_FACTOR" }
+        targetFactor = tempo
+        rampStep = abs(targetFactor - factor) * RAMP_CHUNK / RAMP_LENGTH
+    }
+
+    /**
+     * @param processor A processor that receives the transposed audio.
+     */
+    fun addOutputProcessor(processor: AudioProcessor) {
+        output.addProcessor(processor)
+    }
+
+    /**
+     * @param processor The processor to remove.
+     */
+    fun removeOutputProcessor(processor: AudioProcessor) {
+        output.removeProcessor(processor)
+    }
+
+    /**
+     * Transposes samples into the output queue.
+     *
+     * @param samples The input samples.
+     * @param offset  The index of the first sample.
+     * @param length  The number of samples.
+     */
+    fun putSamples(samples: FloatArray, offset: Int, length: Int) {
+        var done = 0
+        while (done < length) {
+            // while ramping, the factor changes per chunk of input
+            val chunk = if (factor == targetFactor) length - done else min(RAMP_CHUNK, length - done)
+            if (factor != targetFactor) {
+                factor = if (abs(targetFactor - factor) <= rampStep) targetFactor
+                else factor + if (targetFactor > factor) rampStep else -rampStep
+            }
+            resample(samples, offset + done, chunk, false)
+            done += chunk
+        }
+    }
+
+    private fun resample(samples: FloatArray, offset: Int, length: Int, last: Boolean) {
+        val room = ceil(length * factor).toInt() + 64
+        if (resampled.size < room) resampled = FloatArray(room)
+        var consumed = 0
+        do {
+            val result = r.process(factor, samples, offset + consumed, length - consumed, last, resampled, 0, resampled.size)
+            consumed += result.inputSamplesConsumed
+            output.queue.put(resampled, 0, result.outputSamplesGenerated)
+        } while (consumed < length || last && result.outputSamplesGenerated > 0)
+    }
+
+    /**
+     * The number of transposed samples in the output queue.
+     */
+    val availableSamples: Int
+        get() = output.queue.size
+
+    /**
+     * Takes transposed samples from the output queue.
+     *
+     * @param target The array to copy the samples to.
+     * @param offset The index in target of the first sample.
+     * @param length The maximum number of samples.
+     * @return The number of samples copied.
+     */
+    fun receiveSamples(target: FloatArray, offset: Int, length: Int): Int {
+        return output.queue.take(target, offset, length)
     }
 
     override fun process(audioEvent: AudioEvent): Boolean {
+        output.checkProcessors()
         val src = audioEvent.floatBuffer
-        //Creation of float array in loop could be prevented if src.length is known beforehand...
-        //Possible optimization is to instantiate it outside the loop and get a pointer to the
-        //array here, in the process method method.
-        val out = FloatArray((src.size * factor).toInt())
-        r.process(factor, src, 0, src.size, false, out, 0, out.size)
-        //The size of the output buffer changes (according to factor).
-        audioEvent.floatBuffer = out
-        //Update overlap offset to match new buffer size
-        audioEvent.overlap = (audioEvent.overlap * factor).toInt()
+        sampleRate = audioEvent.sampleRate
+        // the overlapping samples were already transposed with the previous buffer
+        val first = if (firstEvent) 0 else audioEvent.overlap
+        firstEvent = false
+        putSamples(src, first, src.size - first)
+        output.emit(sampleRate)
         return true
     }
 
-    override fun processingFinished() {}
+    override fun processingFinished() {
+        resample(NO_SAMPLES, 0, 0, true)
+        output.finish(sampleRate)
+    }
+
+    companion object {
+        /**
+         * The default number of samples in the buffers passed to the output processors.
+         */
+        const val DEFAULT_FRAME_SIZE = 1024
+
+        /**
+         * The number of input samples over which a new factor is reached.
+         */
+        const val RAMP_LENGTH = 2048
 
-}
\ No newline at end of file
+        private const val RAMP_CHUNK = 128
+        private const val MIN_FACTOR = 0.1
+        private const val MAX_FACTOR = 4.0
+        private val NO_SAMPLES = FloatArray(0)
+    }
+}
@@ -1,83 +1,143 @@
-/*
- *      _______                       _____   _____ _____
- *     |__   __|                     |  __ \ / ____|  __ \
- *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
- *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
- *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
- *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
- *
- * -------------------------------------------------------------
- *
- * TarsosDSP is developed by Joren Six at IPEM, University Ghent
- *
- * -------------------------------------------------------------
- *
- *  Info: http://0110.be/tag/TarsosDSP
- *  Github: https://github.com/JorenSix/TarsosDSP
- *  Releases: http://0110.be/releases/TarsosDSP/
- *
- *  TarsosDSP includes modified source code by various authors,
- *  for credits and info, see README.
- *
- */
 package be.tarsos.dsp.resample
 
-import be.tarsos.dsp.AudioDispatcher
 import be.tarsos.dsp.AudioEvent
 import be.tarsos.dsp.AudioProcessor
-import kotlin.math.roundToInt
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.min
 
 /**
- * Currently not working sample rate transposer, works only for integer factors.
- * Changes sample rate by using linear interpolation.
+ * Sample rate transposer using linear interpolation, for any positive rate.
+ * The rate is the number of input samples per output sample: a rate of 2 halves
+ * the number of samples.
  *
  *
  * Together with the time stretcher this can be used for pitch shifting.
  *
+ * The transposer leaves the audio event untouched. The transposed audio is queued
+ * and passed on in frames of `frameSize` samples to the processors added with
+ * [addOutputProcessor]. A new rate is reached gradually, over [RAMP_LENGTH] output
+ * samples.
+ *
+ * Earlier versions replaced the buffer of the audio event with the transposed audio.
+ * Processors that followed the transposer in the chain, a player or a writer, are
+ * now added with [addOutputProcessor]; [process] throws an [IllegalStateException]
+ * if there are none, rather than silently dropping the transposed audio.
+ *
  * @author Joren Six
  * @author Olli Parviainen
  */
-class SoundTouchRateTransposer(private val rate: Double) : AudioProcessor {
-    var slopeCount = 0
-    var prevSample = 0.0
-    private var dispatcher: AudioDispatcher? = null
-    fun setDispatcher(newDispatcher: AudioDispatcher?) {
-        dispatcher = newDispatcher
+class SoundTouchRateTransposer @JvmOverloads constructor(
+    private var rate: Double,
+    /**
+     * The number of samples in the buffers passed to the output processors.
+     */
+    frameSize: Int = RateTransposer.DEFAULT_FRAME_SIZE
+) : AudioProcessor {
+    /**
+     * The position of the next output sample between the previous and the next input sample.
+     */
+    private var slopeCount = 0.0
+    private var prevSample = 0f
+    private var targetRate = rate
+    private var rampStep = 0.0
+    private var transposed = FloatArray(0)
+    private val output = TransposedOutput(frameSize)
+    private var firstEvent = true
+    private var sampleRate = 44100f
+
+    init {
+        require(rate > 0) { "The rate should be positive" }
     }
 
-    override fun process(audioEvent: AudioEvent): Boolean {
-        val src = audioEvent.floatBuffer
-        val dest = FloatArray((audioEvent.bufferSize / rate).roundToInt())
-        var used: Int = 0
-        var i: Int = 0
+    /**
+     * Sets a new rate, the number of input samples per output sample.
+     */
+    fun setRate(newRate: Double) {
+        require(newRate > 0) { "The rate should be positive" }
+        targetRate = newRate
+        rampStep = abs(targetRate - rate) / RAMP_LENGTH
+    }
 
-        // Process the last sample saved from the previous call first...
-        while (slopeCount <= 1.0f) {
-            dest[i] = ((1.0f - slopeCount) * prevSample + slopeCount * src[0]).toFloat()
-            i++
-            slopeCount += rate.toInt()
-        }
-        slopeCount -= 1
-        end@ while (true) {
-            while (slopeCount > 1.0f) {
-                slopeCount -= 1
-                used++
-                if (used >= src.size - 1) break@end
-            }
-            if (i < dest.size) {
-                dest[i] = ((1.0f - slopeCount) * src[used] + slopeCount * src[used + 1])
+    /**
+     * @param processor A processor that receives the transposed audio.
+     */
+    fun addOutputProcessor(processor: AudioProcessor) {
+        output.addProcessor(processor)
+    }
+
+    /**
+     * @param processor The processor to remove.
+     */
+    fun removeOutputProcessor(processor: AudioProcessor) {
+        output.removeProcessor(processor)
+    }
+
+    /**
+     * Transposes samples into the output queue.
+     *
+     * @param samples The input samples.
+     * @param offset  The index of the first sample.
+     * @param length  The number of samples.
+     */
+    fun putSamples(samples: FloatArray, offset: Int, length: Int) {
+        val room = ceil((length + 1) / min(rate, targetRate)).toInt() + 1
+        if (transposed.size < room) transposed = FloatArray(room)
+        var count = 0
+        for (i in offset until offset + length) {
+            val sample = samples[i]
+            while (slopeCount < 1.0) {
+                transposed[count++] = (prevSample + slopeCount * (sample - prevSample)).toFloat()
+                if (rate != targetRate) {
+                    rate = if (abs(targetRate - rate) <= rampStep) targetRate
+                    else rate + if (targetRate > rate) rampStep else -rampStep
+                }
+                slopeCount += rate
             }
-            i++
-            slopeCount += rate.toInt()
+            slopeCount -= 1.0
+            prevSample = sample
         }
+        output.queue.put(transposed, 0, count)
+    }
+
+    /**
+     * The number of transposed samples in the output queue.
+     */
+    val availableSamples: Int
+        get() = output.queue.size
 
-        //Store the last sample for the next round
-        prevSample = src[src.size - 1].toDouble()
-        dispatcher!!.setStepSizeAndOverlap(dest.size, 0)
-        audioEvent.floatBuffer = dest
+    /**
+     * Takes transposed samples from the output queue.
+     *
+     * @param target The array to copy the samples to.
+     * @param offset The index in target of the first sample.
+     * @param length The maximum number of samples.
+     * @return The number of samples copied.
+     */
+    fun receiveSamples(target: FloatArray, offset: Int, length: Int): Int {
+        return output.queue.take(target, offset, length)
+    }
+
+    override fun process(audioEvent: AudioEvent): Boolean {
+        output.checkProcessors()
+        val src = audioEvent.floatBuffer
+        sampleRate = audioEvent.sampleRate
+        // the overlapping samples were already transposed with the previous buffer
+        val first = if (firstEvent) 0 else audioEvent.overlap
+        firstEvent = false
+        putSamples(src, first, src.size - first)
+        output.emit(sampleRate)
         return true
     }
 
-    override fun processingFinished() {}
+    override fun processingFinished() {
+        output.finish(sampleRate)
+    }
 
-}
\ No newline at end of file
+    companion object {
+        /**
+         * The number of output samples over which a new rate is reached.
+         */
+        const val RAMP_LENGTH = 2048
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.resample
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.AudioProcessor
+import be.tarsos.dsp.MultichannelAudioProcessor
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
+import be.tarsos.dsp.util.FloatFifo
+
+/**
+ * The output of a rate transposer: transposed samples are queued and passed on to
+ * the output processors in frames of a fixed size, whatever the ratio. The frame
+ * buffer and the audio event are reused for every frame.
+ */
+internal class TransposedOutput(private val frameSize: Int) {
+    /**
+     * The queue of transposed samples.
+     */
+    val queue = FloatFifo(4 * frameSize)
+    private val processors = ArrayList<AudioProcessor>()
+    private val frame = FloatArray(frameSize)
+    private var event: AudioEvent? = null
+    private var emitted = 0L
+
+    init {
+        require(frameSize > 0) { "The frame size should be positive" }
+    }
+
+    fun addProcessor(processor: AudioProcessor) {
+        processors.add(processor)
+    }
+
+    fun removeProcessor(processor: AudioProcessor) {
+        processors.remove(processor)
+    }
+
+    /**
+     * Fails if there is no processor to pass the transposed audio to, it would be lost.
+     */
+    fun checkProcessors() {
+        check(processors.isNotEmpty()) {
+            "No output processors: the transposed audio is passed to the processors added with " +
+                    "addOutputProcessor, not to the next processors in the chain"
+        }
+    }
+
+    /**
+     * Passes all complete frames on.
+     *
+     * @param sampleRate The sample rate of the transposed audio.
+     */
+    fun emit(sampleRate: Float) {
+        while (queue.size >= frameSize) {
+            queue.take(frame, 0, frameSize)
+            emit(event(sampleRate))
+        }
+    }
+
+    /**
+     * Passes all queued samples on, the last frame padded with zeros, and finishes
+     * the output processors.
+     */
+    fun finish(sampleRate: Float) {
+        emit(sampleRate)
+        if (queue.size > 0) {
+            val remaining = queue.take(frame, 0, frameSize)
+            frame.fill(0f, remaining, frameSize)
+            emit(event(sampleRate))
+        }
+        for (processor in processors) processor.processingFinished()
+    }
+
+    private fun event(sampleRate: Float): AudioEvent {
+        var current = event
+        if (current == null || current.sampleRate != sampleRate) {
+            current = AudioEvent(TarsosDSPAudioFormat(sampleRate, 16, 1, true, false), frame)
+            event = current
+        }
+        // a processor may have replaced the buffer of the event
+        current.floatBuffer = frame
+        return current
+    }
+
+    private fun emit(event: AudioEvent) {
+        event.setBytesProcessed(emitted * 2)
+        emitted += frameSize
+        for (processor in processors) {
+            if (!processor.process(event)) break
+            if (processor !is MultichannelAudioProcessor) event.invalidateChannelBuffers()
+        }
+    }
+
+    fun clear() {
+        queue.clear()
+        emitted = 0
+    }
+}
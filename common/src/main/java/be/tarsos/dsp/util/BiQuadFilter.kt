@@ -62,10 +62,36 @@ class BiQuadFilter(
         }
     }
 
+    /**
+     * Filters the next sample of a stream. The state of the filter is kept
+     * between calls.
+     *
+     * @param sample The next input sample.
+     * @return The next output sample.
+     */
+    fun filter(sample: Double): Double {
+        val o0 = flushDenormal(b1 * sample + b2 * i1 + b3 * i2 - a2 * o1 - a3 * o2)
+        i2 = i1
+        i1 = sample
+        o2 = o1
+        o1 = o0
+        return o0
+    }
+
+    /**
+     * Clears the state of the filter.
+     */
+    fun reset() {
+        i1 = 0.0
+        i2 = 0.0
+        o1 = 0.0
+        o2 = 0.0
+    }
+
     private fun doBiQuad(input: FloatArray) {
         for (j in input.indices) {
             val i0 = input[j].toDouble()
-            val o0 = b1 * i0 + b2 * i1 + b3 * i2 - a2 * o1 - a3 * o2
+            val o0 = flushDenormal(b1 * i0 + b2 * i1 + b3 * i2 - a2 * o1 - a3 * o2)
             input[j] = o0.toFloat()
             i2 = i1
             i1 = i0
@@ -0,0 +1,116 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.util
+
+/**
+ * A growable list of primitive doubles. Values are stored in fixed size chunks
+ * so that growing never copies the values already stored and a long stream of
+ * values does not need one large contiguous array.
+ */
+class ChunkedDoubleArray @JvmOverloads constructor(
+    /**
+     * The number of values in one chunk, a power of two.
+     */
+    chunkSize: Int = DEFAULT_CHUNK_SIZE
+) {
+    private val chunkShift: Int
+    private val chunkMask: Int
+    private var chunks: Array<DoubleArray?> = arrayOfNulls(16)
+
+    /**
+     * The number of values stored.
+     */
+    var size = 0
+        private set
+
+    /**
+     * Appends a value.
+     *
+     * @param value The value to append.
+     */
+    fun add(value: Double) {
+        val chunkIndex = size ushr chunkShift
+        if (chunkIndex == chunks.size) chunks = chunks.copyOf(chunks.size * 2)
+        var chunk = chunks[chunkIndex]
+        if (chunk == null) {
+            chunk = DoubleArray(chunkMask + 1)
+            chunks[chunkIndex] = chunk
+        }
+        chunk[size and chunkMask] = value
+        size++
+    }
+
+    /**
+     * @param index The index of the value, between zero and [size].
+     * @return The value at the index.
+     */
+    operator fun get(index: Int): Double {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("Index $index, size $size")
+        return chunks[index ushr chunkShift]!![index and chunkMask]
+    }
+
+    /**
+     * @param index The index of the value, between zero and [size].
+     * @param value The new value.
+     */
+    operator fun set(index: Int, value: Double) {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("Index $index, size $size")
+        chunks[index ushr chunkShift]!![index and chunkMask] = value
+    }
+
+    /**
+     * Removes all values. The allocated chunks are kept for reuse.
+     */
+    fun clear() {
+        size = 0
+    }
+
+    /**
+     * @return A new array with a copy of the stored values.
+     */
+    fun toDoubleArray(): DoubleArray {
+        val result = DoubleArray(size)
+        var offset = 0
+        var chunkIndex = 0
+        while (offset < size) {
+            val length = minOf(chunkMask + 1, size - offset)
+            System.arraycopy(chunks[chunkIndex]!!, 0, result, offset, length)
+            offset += length
+            chunkIndex++
+        }
+        return result
+    }
+
+    companion object {
+        /**
+         * The default number of values in one chunk.
+         */
+        const val DEFAULT_CHUNK_SIZE = 4096
+    }
+
+    init {
+        require(chunkSize > 0 && chunkSize and (chunkSize - 1) == 0) { "The chunk size should be a power of two" }
+        chunkShift = Integer.numberOfTrailingZeros(chunkSize)
+        chunkMask = chunkSize - 1
+    }
+}
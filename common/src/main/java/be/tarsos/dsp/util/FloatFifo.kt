@@ -0,0 +1,142 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.util
+
+/**
+ * A first in, first out queue of samples in one contiguous array. Samples are
+ * appended at the end and taken from the start; the samples in the queue can be
+ * read in place at `buffer[position] .. buffer[position + size - 1]`. The array is
+ * compacted when there is no room at the end and only grows when the queue holds
+ * more samples than fit.
+ */
+class FloatFifo @JvmOverloads constructor(capacity: Int = 1024) {
+    /**
+     * The array with the samples, the first sample in the queue is at [position].
+     * The array is replaced when the queue grows.
+     */
+    var buffer = FloatArray(maxOf(capacity, 1))
+        private set
+
+    /**
+     * The index in [buffer] of the first sample in the queue.
+     */
+    var position = 0
+        private set
+
+    /**
+     * The number of samples in the queue.
+     */
+    var size = 0
+        private set
+
+    /**
+     * Appends samples to the end of the queue.
+     *
+     * @param samples The samples to append.
+     * @param offset  The index of the first sample to append.
+     * @param length  The number of samples to append.
+     */
+    fun put(samples: FloatArray, offset: Int, length: Int) {
+        val index = extend(length)
+        System.arraycopy(samples, offset, buffer, index, length)
+    }
+
+    /**
+     * Appends zeros to the end of the queue.
+     *
+     * @param length The number of zeros to append.
+     */
+    fun putSilence(length: Int) {
+        val index = extend(length)
+        buffer.fill(0f, index, index + length)
+    }
+
+    /**
+     * Makes room for samples at the end of the queue, for example to write or
+     * mix samples in place. The added samples are not initialised.
+     *
+     * @param length The number of samples to add to the queue.
+     * @return The index in [buffer] of the first added sample.
+     */
+    fun extend(length: Int): Int {
+        require(length >= 0) { "Negative length $length" }
+        ensureCapacity(size + length)
+        val index = position + size
+        size += length
+        return index
+    }
+
+    /**
+     * Removes samples from the start of the queue.
+     *
+     * @param target The array to copy the samples to.
+     * @param offset The index in target of the first sample.
+     * @param length The maximum number of samples to take.
+     * @return The number of samples taken.
+     */
+    fun take(target: FloatArray, offset: Int, length: Int): Int {
+        val taken = minOf(length, size)
+        System.arraycopy(buffer, position, target, offset, taken)
+        skip(taken)
+        return taken
+    }
+
+    /**
+     * Removes samples from the start of the queue without copying them.
+     *
+     * @param length The number of samples to remove.
+     */
+    fun skip(length: Int) {
+        require(length in 0..size) { "Cannot skip $length of $size samples" }
+        position += length
+        size -= length
+        if (size == 0) position = 0
+    }
+
+    /**
+     * Makes sure the queue can hold the given number of samples, so that extending
+     * it up to that size neither grows nor moves the array. The samples may be moved
+     * to the start of the array or to a larger array now.
+     *
+     * @param capacity The number of samples.
+     */
+    fun ensureCapacity(capacity: Int) {
+        if (position + capacity <= buffer.size) return
+        if (capacity <= buffer.size) {
+            System.arraycopy(buffer, position, buffer, 0, size)
+        } else {
+            val grown = FloatArray(maxOf(capacity, buffer.size * 2))
+            System.arraycopy(buffer, position, grown, 0, size)
+            buffer = grown
+        }
+        position = 0
+    }
+
+    /**
+     * Removes all samples.
+     */
+    fun clear() {
+        position = 0
+        size = 0
+    }
+}
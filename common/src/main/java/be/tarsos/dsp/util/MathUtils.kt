@@ -1,5 +1,6 @@
 package be.tarsos.dsp.util
 
+import kotlin.math.abs
 import kotlin.math.ln
 
 
@@ -7,4 +8,23 @@ const val PI = 3.14159265358979311599796346854418516f
 
 const val TWO_PI = 6.28318530717958623199592693708837032f
 
-val LOG_TWO = ln(2.0)
\ No newline at end of file
+val LOG_TWO = ln(2.0)
+
+/**
+ * Recursive processors flush state values with a smaller magnitude than this, about -300dB, to zero.
+ * Without it, state that decays during silence ends up as subnormal numbers, which most CPUs
+ * process many times slower than normal numbers.
+ */
+const val DENORMAL_THRESHOLD = 1e-15
+
+/**
+ * @param value A state value of a recursive processor.
+ * @return Zero if the magnitude of the value is below [DENORMAL_THRESHOLD], the value otherwise.
+ */
+fun flushDenormal(value: Double): Double = if (abs(value) < DENORMAL_THRESHOLD) 0.0 else value
+
+/**
+ * @param value A state value of a recursive processor.
+ * @return Zero if the magnitude of the value is below [DENORMAL_THRESHOLD], the value otherwise.
+ */
+fun flushDenormal(value: Float): Float = if (abs(value) < DENORMAL_THRESHOLD.toFloat()) 0f else value
@@ -22,63 +22,118 @@
  */
 package be.tarsos.dsp.util
 
-import java.util.*
-
 /**
- * Implements a moving mean adaptive threshold peak picker.
+ * Implements a moving median adaptive threshold peak picker.
  *
  *
  * The implementation is a translation of peakpicker.c from Aubio, Copyright (C)
  * 2003-2009 Paul Brossier <piem></piem>@aubio.org>
  *
+ *
+ * By default the window of onsets is filtered forwards and backwards for every
+ * new onset, as in Aubio, which costs time linear in the length of the window.
+ * In incremental mode every onset is filtered once, forwards when it arrives
+ * and backwards over the anti-causal part of the window when it reaches the
+ * middle of the window. The median is then maintained with two heaps. The cost
+ * per onset is linear in the anti-causal part of the window (`win_pre`) for the
+ * backward filter plus logarithmic in the window length for the heaps, so a long
+ * causal part of the window is affordable. The incremental mode gives slightly
+ * more peaks.
+ *
  * @author Joren Six
  * @author Paul Brossiers
  */
-class PeakPicker(
+class PeakPicker @JvmOverloads constructor(
     /**
      * thresh: offset threshold [0.033 or 0.01]
      * The threshold defines when a peak is selected. It should be
      * between zero and one, 0.3 is a reasonable value. If too many
      * peaks are detected go to 0.5 - 0.8.
      */
-    var threshold: Double
-) {
-
+    var threshold: Double,
     /**
      * win_post: median filter window length (causal part) [8]
      */
-    private val win_post: Int
-
+    private val win_post: Int = 5,
     /**
      * pre: median filter window (anti-causal part) [post-1]
      */
-    private val win_pre: Int
+    private val win_pre: Int = 1,
+    /**
+     * Filter every onset once and keep a running median.
+     */
+    private val incremental: Boolean = false
+) {
 
     /**
      * biquad low pass filter
      */
-    private val biquad: BiQuadFilter = BiQuadFilter(0.1600, 0.3200, 0.1600, -0.5949, 0.2348)
+    private val biquad: BiQuadFilter = BiQuadFilter(BIQUAD_B1, BIQUAD_B2, BIQUAD_B3, BIQUAD_A2, BIQUAD_A3)
 
     /**
-     * original onsets
+     * The number of onsets in the window.
      */
-    private val onset_keep: FloatArray
+    private val length: Int = win_post + win_pre + 1
 
     /**
-     * modified onsets
+     * The index of the oldest onset in the circular buffers.
      */
-    private val onset_proc: FloatArray
+    private var position = 0
 
     /**
-     * peak picked window [3]
+     * original onsets, a circular buffer
      */
-    private val onset_peek: FloatArray
+    private val onset_keep: FloatArray
+
+    /**
+     * modified onsets, oldest first
+     */
+    private val onset_proc: FloatArray
 
     /**
      * scratch pad for biquad and median
      */
     private val scratch: FloatArray
 
+    /**
+     * Forward filtered onsets, a circular buffer. Only used in incremental mode.
+     */
+    private val forward: DoubleArray
+
+    /**
+     * Filtered onsets, a circular buffer. The onsets up to the middle of the
+     * window are filtered in both directions, the more recent ones only
+     * forwards. Only used in incremental mode.
+     */
+    private val smoothed: DoubleArray
+
+    /**
+     * The sum of the values in [smoothed].
+     */
+    private var sum = 0.0
+
+    /**
+     * Max heap with the indexes of the smallest `length / 2` values of
+     * [smoothed].
+     */
+    private val lower: IntArray
+
+    /**
+     * Min heap with the indexes of the remaining values, its top is the median.
+     */
+    private val upper: IntArray
+
+    /**
+     * For each index in [smoothed] the position in its heap. Positions in
+     * the upper heap are stored as `-1 - position`.
+     */
+    private val heapPosition: IntArray
+
+    /**
+     * peek values of the last three onsets, oldest first
+     */
+    private val onset_peek: DoubleArray = DoubleArray(3)
+
     /**
      * @return The value of the last detected peak, or zero.
      */
@@ -94,43 +149,87 @@ class PeakPicker(
      * @return True if a peak is detected, false otherwise.
      */
     fun pickPeak(onset: Float): Boolean {
-        var mean = 0f
-        var median = 0f
-        val length = win_post + win_pre + 1
-
+        /* shift peek array */
+        onset_peek[0] = onset_peek[1]
+        onset_peek[1] = onset_peek[2]
+        /* calculate new peek value */
+        onset_peek[2] = if (incremental) incrementalPeek(onset) else zeroPhasePeek(onset)
+        lastPeekValue = onset
+        return isPeak(1)
+    }
 
-        /* store onset in onset_keep */
-        /* shift all elements but last, then write last */
-        /* for (i=0;i<channels;i++) { */for (j in 0 until length - 1) {
-            onset_keep[j] = onset_keep[j + 1]
-            onset_proc[j] = onset_keep[j]
+    private fun zeroPhasePeek(onset: Float): Double {
+        /* store onset in onset_keep, overwriting the oldest */
+        onset_keep[position] = onset
+        position = if (position + 1 == length) 0 else position + 1
+        var index = position
+        for (j in 0 until length) {
+            onset_proc[j] = onset_keep[index]
+            index = if (index + 1 == length) 0 else index + 1
         }
-        onset_keep[length - 1] = onset
-        onset_proc[length - 1] = onset
 
         /* filter onset_proc */
         /** \bug filtfilt calculated post+pre times, should be only once !?  */
         biquad.doFiltering(onset_proc, scratch)
 
         /* calculate mean and median for onset_proc */
-
-        /* copy to scratch */
         var sum = 0.0f
         for (j in 0 until length) {
             scratch[j] = onset_proc[j]
             sum += scratch[j]
         }
-        Arrays.sort(scratch)
-        median = scratch[scratch.size / 2]
-        mean = sum / length.toFloat()
+        val median = select(scratch, length / 2)
+        val mean = sum / length.toFloat()
+        return (onset_proc[win_post] - median - mean * threshold).toFloat().toDouble()
+    }
+
+    private fun incrementalPeek(onset: Float): Double {
+        /* filter the new onset forwards, it replaces the oldest */
+        val newest = position
+        val filtered = biquad.filter(onset.toDouble())
+        forward[newest] = filtered
+        replace(newest, filtered)
+        position = if (position + 1 == length) 0 else position + 1
+
+        /* filter the middle onset backwards over the anti-causal part */
+        var middle = position + win_post
+        if (middle >= length) middle -= length
+        replace(middle, backward(newest, middle))
+
+        val median = smoothed[upper[0]]
+        val mean = sum / length
+        return smoothed[middle] - median - mean * threshold
+    }
+
+    /**
+     * Filters the forward filtered onsets backwards, from the newest to the
+     * middle onset, with the same initial state as in
+     * [BiQuadFilter.doFiltering].
+     */
+    private fun backward(newest: Int, middle: Int): Double {
+        val last = forward[newest]
+        val mirror = 2 * last
+        var i1 = mirror - forward[previous(previous(newest))]
+        var i2 = mirror - forward[previous(newest)]
+        var o1 = last
+        var o2 = forward[previous(newest)]
+        var index = newest
+        var o0: Double
+        while (true) {
+            val i0 = forward[index]
+            o0 = BIQUAD_B1 * i0 + BIQUAD_B2 * i1 + BIQUAD_B3 * i2 - BIQUAD_A2 * o1 - BIQUAD_A3 * o2
+            if (index == middle) break
+            i2 = i1
+            i1 = i0
+            o2 = o1
+            o1 = o0
+            index = previous(index)
+        }
+        return o0
+    }
 
-        /* shift peek array */
-        System.arraycopy(onset_peek, 1, onset_peek, 0, 3 - 1)
-        /* calculate new peek value */
-        onset_peek[2] = (onset_proc[win_post] - median - mean * threshold).toFloat()
-        val isPeak = isPeak(1)
-        lastPeekValue = onset
-        return isPeak
+    private fun previous(index: Int): Int {
+        return if (index == 0) length - 1 else index - 1
     }
 
     /**
@@ -143,13 +242,160 @@ class PeakPicker(
         return onset_peek[index] > onset_peek[index - 1] && onset_peek[index] > onset_peek[index + 1] && onset_peek[index] > 0.0
     }
 
+    /**
+     * Clears the window and the filter state.
+     */
+    fun reset() {
+        biquad.reset()
+        position = 0
+        onset_keep.fill(0f)
+        forward.fill(0.0)
+        smoothed.fill(0.0)
+        sum = 0.0
+        onset_peek.fill(0.0)
+        lastPeekValue = 0f
+        initHeaps()
+    }
+
+    /**
+     * Replaces a value of [smoothed] and restores the heaps. Both heaps keep
+     * their size, at most one pair of values moves between them.
+     */
+    private fun replace(index: Int, value: Double) {
+        sum += value - smoothed[index]
+        smoothed[index] = value
+        val heapIndex = heapPosition[index]
+        if (heapIndex >= 0) {
+            siftUpLower(heapIndex)
+            siftDownLower(heapPosition[index])
+        } else {
+            siftUpUpper(-1 - heapIndex)
+            siftDownUpper(-1 - heapPosition[index])
+        }
+        if (lower.isNotEmpty() && smoothed[lower[0]] > smoothed[upper[0]]) {
+            val largestLower = lower[0]
+            setLower(0, upper[0])
+            setUpper(0, largestLower)
+            siftDownLower(0)
+            siftDownUpper(0)
+        }
+    }
+
+    private fun initHeaps() {
+        for (i in lower.indices) setLower(i, i)
+        for (i in upper.indices) setUpper(i, lower.size + i)
+    }
+
+    private fun setLower(heapIndex: Int, index: Int) {
+        lower[heapIndex] = index
+        heapPosition[index] = heapIndex
+    }
+
+    private fun setUpper(heapIndex: Int, index: Int) {
+        upper[heapIndex] = index
+        heapPosition[index] = -1 - heapIndex
+    }
+
+    private fun siftUpLower(start: Int) {
+        var heapIndex = start
+        val index = lower[heapIndex]
+        while (heapIndex > 0) {
+            val parent = (heapIndex - 1) / 2
+            if (smoothed[lower[parent]] >= smoothed[index]) break
+            setLower(heapIndex, lower[parent])
+            heapIndex = parent
+        }
+        setLower(heapIndex, index)
+    }
+
+    private fun siftDownLower(start: Int) {
+        var heapIndex = start
+        val index = lower[heapIndex]
+        while (true) {
+            var child = 2 * heapIndex + 1
+            if (child >= lower.size) break
+            if (child + 1 < lower.size && smoothed[lower[child + 1]] > smoothed[lower[child]]) child++
+            if (smoothed[lower[child]] <= smoothed[index]) break
+            setLower(heapIndex, lower[child])
+            heapIndex = child
+        }
+        setLower(heapIndex, index)
+    }
+
+    private fun siftUpUpper(start: Int) {
+        var heapIndex = start
+        val index = upper[heapIndex]
+        while (heapIndex > 0) {
+            val parent = (heapIndex - 1) / 2
+            if (smoothed[upper[parent]] <= smoothed[index]) break
+            setUpper(heapIndex, upper[parent])
+            heapIndex = parent
+        }
+        setUpper(heapIndex, index)
+    }
+
+    private fun siftDownUpper(start: Int) {
+        var heapIndex = start
+        val index = upper[heapIndex]
+        while (true) {
+            var child = 2 * heapIndex + 1
+            if (child >= upper.size) break
+            if (child + 1 < upper.size && smoothed[upper[child + 1]] < smoothed[upper[child]]) child++
+            if (smoothed[upper[child]] >= smoothed[index]) break
+            setUpper(heapIndex, upper[child])
+            heapIndex = child
+        }
+        setUpper(heapIndex, index)
+    }
+
+    companion object {
+        /* coefficients of the biquad low pass filter */
+        private const val BIQUAD_B1 = 0.1600
+        private const val BIQUAD_B2 = 0.3200
+        private const val BIQUAD_B3 = 0.1600
+        private const val BIQUAD_A2 = -0.5949
+        private const val BIQUAD_A3 = 0.2348
+
+        /**
+         * Finds the k-th smallest value by partitioning the array in place,
+         * which is what sorting the array and taking `values[k]` gives.
+         */
+        private fun select(values: FloatArray, k: Int): Float {
+            var left = 0
+            var right = values.size - 1
+            while (left < right) {
+                val pivot = values[(left + right) ushr 1]
+                var i = left
+                var j = right
+                while (i <= j) {
+                    while (values[i] < pivot) i++
+                    while (values[j] > pivot) j--
+                    if (i <= j) {
+                        val tmp = values[i]
+                        values[i] = values[j]
+                        values[j] = tmp
+                        i++
+                        j--
+                    }
+                }
+                if (k <= j) right = j else if (k >= i) left = i else return values[k]
+            }
+            return values[k]
+        }
+    }
+
     init {
-        /* Low-pass filter cutoff [0.34, 1] */
-        win_post = 5
-        win_pre = 1
-        onset_keep = FloatArray(win_post + win_pre + 1)
-        onset_proc = FloatArray(win_post + win_pre + 1)
-        scratch = FloatArray(win_post + win_pre + 1)
-        onset_peek = FloatArray(3)
-    }
-}
\ No newline at end of file
+        require(win_post >= 0 && win_pre >= 0) { "The window lengths should not be negative" }
+        require(incremental || length >= 3) { "The window should contain at least three onsets" }
+        onset_keep = FloatArray(length)
+        onset_proc = FloatArray(length)
+        scratch = FloatArray(length)
+        val ringLength = if (incremental) length else 0
+        forward = DoubleArray(ringLength)
+        smoothed = DoubleArray(ringLength)
+        lower = IntArray(ringLength / 2)
+        upper = IntArray(ringLength - ringLength / 2)
+        heapPosition = IntArray(ringLength)
+        initHeaps()
+    }
+}
@@ -238,7 +238,7 @@ public class PitchShiftingExample extends JFrame implements TarsosDSPDemo {
         wsola.setDispatcher(dispatcher);
         dispatcher.addAudioProcessor(wsola);
         dispatcher.addAudioProcessor(rateTransposer);
-        dispatcher.addAudioProcessor(writer);
+        rateTransposer.addOutputProcessor(writer);
         dispatcher.run();
     }
 
@@ -306,8 +306,8 @@ public class PitchShiftingExample extends JFrame implements TarsosDSPDemo {
             wsola.setDispatcher(dispatcher);
             dispatcher.addAudioProcessor(wsola);
             dispatcher.addAudioProcessor(rateTransposer);
-            dispatcher.addAudioProcessor(gain);
-            dispatcher.addAudioProcessor(audioPlayer);
+            rateTransposer.addOutputProcessor(gain);
+            rateTransposer.addOutputProcessor(audioPlayer);
             dispatcher.addAudioProcessor(new AudioProcessor() {
 
                 @Override
@@ -222,10 +222,10 @@ public class SampleExtractor extends JFrame implements TarsosDSPDemo {
                         if (saveWav) {
                             String filename = String.format("%s_%.2fs-%.2fs_modified_%dcents_%.2fs.wav", file.getName(), startValue, endValue, cents, duration);
                             WaveformWriter wfw = new WaveformWriter(format, filename);
-                            dispatcher.addAudioProcessor(wfw);
+                            rateTransposer.addOutputProcessor(wfw);
                             System.out.println("Saving to " + filename);
                         } else {
-                            dispatcher.addAudioProcessor(audioPlayer);
+                            rateTransposer.addOutputProcessor(audioPlayer);
                         }
 
                         Thread t = new Thread(dispatcher);
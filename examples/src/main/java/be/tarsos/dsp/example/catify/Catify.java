@@ -200,7 +200,7 @@ public class Catify {
             dispatcher.addAudioProcessor(new GainProcessor(gain));
             dispatcher.addAudioProcessor(wsola);
             dispatcher.addAudioProcessor(rateTransposer);
-            dispatcher.addAudioProcessor(new AudioProcessor() {
+            rateTransposer.addOutputProcessor(new AudioProcessor() {
 
                 int dispatcherIndex = 0;
 
@@ -0,0 +1,115 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.beatroot.Agent
+import be.tarsos.dsp.beatroot.AgentList
+import be.tarsos.dsp.beatroot.EventStore
+import be.tarsos.dsp.beatroot.Induction
+import be.tarsos.dsp.util.ConcurrencyUtils
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+import kotlin.math.roundToLong
+
+class AgentListTest {
+    private val numberOfThreads = ConcurrencyUtils.getNumberOfThreads()
+
+    /**
+     * Onsets rounded to 10ms at random intervals, on average density onsets per second.
+     */
+    private fun onsets(random: Random, seconds: Double, density: Double): EventStore {
+        val onsets = EventStore()
+        var time = 0.05
+        while (time < seconds) {
+            onsets.add((time * 100).roundToLong() / 100.0, random.nextDouble())
+            time += 0.01 + random.nextDouble() * 2 / density
+        }
+        return onsets
+    }
+
+    private fun trackBeats(onsets: EventStore, parallelThreshold: Int): DoubleArray {
+        AgentList.parallelThreshold = parallelThreshold
+        val agents = Induction.beatInduction(onsets)
+        agents.beatTrack(onsets, -1.0)
+        val best = agents.bestAgent()!!
+        best.fillBeats(-1.0)
+        return best.beats.toOnsetArray()
+    }
+
+    @AfterEach
+    fun restoreThreshold() {
+        AgentList.parallelThreshold = 128
+        ConcurrencyUtils.setNumberOfThreads(numberOfThreads)
+    }
+
+    @Test
+    fun testSortedAdd() {
+        val agents = AgentList()
+        for (interval in doubleArrayOf(0.5, 0.3, 0.7, 0.5, 0.4)) agents.add(Agent(interval))
+        agents.add(Agent(0.1), false)
+        Assertions.assertEquals(6, agents.size)
+        val intervals = DoubleArray(agents.size) { agents[it].beatInterval }
+        Assertions.assertArrayEquals(doubleArrayOf(0.3, 0.4, 0.5, 0.5, 0.7, 0.1), intervals)
+        agents.sort()
+        Assertions.assertEquals(0.1, agents[0].beatInterval)
+        Assertions.assertThrows(IllegalArgumentException::class.java) { agents[6] }
+    }
+
+    @Test
+    fun testParallelSameAsSequential() {
+        // The number of threads is the number of processors, which might be one
+        ConcurrencyUtils.setNumberOfThreads(4)
+        val random = Random(5)
+        for (i in 0 until 10) {
+            val onsets = onsets(random, 30.0 + 10 * i, 3.0 + 3 * i)
+            val sequential = trackBeats(onsets, Int.MAX_VALUE)
+            val parallel = trackBeats(onsets, 1)
+            Assertions.assertArrayEquals(sequential, parallel, "Parallel evaluation should find the same beats")
+        }
+    }
+
+    @Test
+    fun testSameAsReference() {
+        ConcurrencyUtils.setNumberOfThreads(4)
+        val random = Random(7)
+        for (i in 0 until 5) {
+            val onsets = onsets(random, 30.0 + 10 * i, 3.0 + 3 * i)
+            val reference = ReferenceBeatTracker.beatTrack(onsets.toEventList())
+            Assertions.assertArrayEquals(reference, trackBeats(onsets, Int.MAX_VALUE), "Sequential evaluation should find the beats of the linked list")
+            Assertions.assertArrayEquals(reference, trackBeats(onsets, 1), "Parallel evaluation should find the beats of the linked list")
+        }
+    }
+
+    @Test
+    fun testDenseOnsetBenchmark() {
+        val onsets = onsets(Random(6), 1200.0, 30.0)
+        for (parallelThreshold in intArrayOf(Int.MAX_VALUE, 8)) {
+            val start = System.nanoTime()
+            trackBeats(onsets, parallelThreshold)
+            val time = (System.nanoTime() - start) / 1e6
+            println(String.format("%d onsets, parallel threshold %d: %.0f ms", onsets.size, parallelThreshold, time))
+        }
+    }
+}
@@ -3,11 +3,18 @@ package be.tarsos.dsp.test
 import be.tarsos.dsp.AudioDispatcher
 import be.tarsos.dsp.AudioEvent
 import be.tarsos.dsp.AudioProcessor
+import be.tarsos.dsp.GainProcessor
+import be.tarsos.dsp.MultichannelAudioProcessor
+import be.tarsos.dsp.MultichannelToMono
 import be.tarsos.dsp.io.PipedAudioStream
+import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
 import be.tarsos.dsp.io.TarsosDSPAudioInputStream
+import be.tarsos.dsp.io.UniversalAudioInputStream
 import be.tarsos.dsp.io.jvm.JVMAudioInputStream
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
+import java.io.ByteArrayInputStream
 import java.io.IOException
 import javax.sound.sampled.AudioInputStream
 import javax.sound.sampled.AudioSystem
@@ -31,7 +38,7 @@ class AudioDispatcherTest {
     val audioInputStreamPiped: TarsosDSPAudioInputStream
         get() {
             val audioFile = TestUtilities.sineOf4000SamplesFile()
-            return PipedAudioStream(audioFile.absolutePath).getMonoStream(44100, 0.0)
+            return PipedAudioStream(audioFile!!.absolutePath).getMonoStream(44100, 0.0)
         }
 
     @Test
@@ -40,7 +47,7 @@ class AudioDispatcherTest {
         testZeroPaddingFirstBufferForStream(audioInputStreamPiped)
     }
 
-    fun testZeroPaddingFirstBufferForStream(audioStream: TarsosDSPAudioInputStream?) {
+    fun testZeroPaddingFirstBufferForStream(audioStream: TarsosDSPAudioInputStream) {
         val bufferSize = 4096
         val stepSize = 2048
         val totalSamples = 4000
@@ -103,7 +110,7 @@ class AudioDispatcherTest {
         testFirstAndLastBufferForStream(audioInputStreamPiped)
     }
 
-    fun testFirstAndLastBufferForStream(audioStream: TarsosDSPAudioInputStream?) {
+    fun testFirstAndLastBufferForStream(audioStream: TarsosDSPAudioInputStream) {
         val bufferSize = 4096
         val stepSize = 0
         val totalSamples = 4000
@@ -131,4 +138,117 @@ class AudioDispatcherTest {
         })
         adp.run()
     }
-}
\ No newline at end of file
+
+    /**
+     * An interleaved stream where every channel has its own offset on a repeating ramp.
+     */
+    private fun multichannelStream(channels: Int, frames: Int): TarsosDSPAudioInputStream {
+        val format = TarsosDSPAudioFormat(44100f, 16, channels, true, false)
+        val samples = FloatArray(frames * channels)
+        for (i in 0 until frames) {
+            for (c in 0 until channels) samples[i * channels + c] = expectedSample(c, i.toLong())
+        }
+        val bytes = ByteArray(samples.size * 2)
+        TarsosDSPAudioFloatConverter.getConverter(format)!!.toByteArray(samples, bytes)
+        return UniversalAudioInputStream(ByteArrayInputStream(bytes), format)
+    }
+
+    private fun expectedSample(channel: Int, frame: Long): Float =
+        channel / 128f + (frame % 100) / 1000f
+
+    @Test
+    fun testMultichannelChannelBuffers() {
+        for (channels in intArrayOf(2, 8, 64)) {
+            val frames = 10 * 1024
+            val size = 1024
+            val overlap = 512
+            val adp = AudioDispatcher(multichannelStream(channels, frames), size * channels, overlap * channels)
+            adp.addAudioProcessor(object : MultichannelAudioProcessor {
+                var bufferCounter = 0
+                var previous: Array<FloatArray>? = null
+                override fun process(audioEvent: AudioEvent): Boolean {
+                    Assertions.assertEquals(channels, audioEvent.channels)
+                    Assertions.assertEquals(size, audioEvent.frameCount)
+                    // after the first buffer the time stamp is at the end of the overlap
+                    val start = if (bufferCounter == 0) 0 else audioEvent.samplesProcessed - overlap
+                    Assertions.assertEquals(bufferCounter * (size - overlap).toLong(), start, "Hops should count frames")
+                    val channelBuffers = audioEvent.channelBuffers
+                    if (previous != null) {
+                        for (c in 0 until channels) Assertions.assertSame(previous!![c], channelBuffers[c], "Channel buffers should be reused")
+                    }
+                    previous = channelBuffers
+                    for (c in 0 until channels) {
+                        for (i in 0 until size) {
+                            val expected = if (start + i < frames) expectedSample(c, start + i) else 0f
+                            Assertions.assertEquals(expected, channelBuffers[c][i], 1e-4f)
+                            Assertions.assertEquals(channelBuffers[c][i], audioEvent.floatBuffer[i * channels + c])
+                        }
+                    }
+                    bufferCounter++
+                    return true
+                }
+
+                override fun processingFinished() {
+                    Assertions.assertEquals(frames / (size - overlap) - 1, bufferCounter)
+                }
+            })
+            adp.run()
+        }
+    }
+
+    @Test
+    fun testMultichannelToMono() {
+        val channels = 8
+        val frames = 8 * 1024
+        val size = 1024
+        val adp = AudioDispatcher(multichannelStream(channels, frames), size * channels, 0)
+        adp.addAudioProcessor(MultichannelToMono(channels, true))
+        adp.addAudioProcessor(object : AudioProcessor {
+            var previous: FloatArray? = null
+            override fun process(audioEvent: AudioEvent): Boolean {
+                val buffer = audioEvent.floatBuffer
+                Assertions.assertEquals(1, audioEvent.channels)
+                Assertions.assertEquals(size, buffer.size)
+                if (previous != null) Assertions.assertSame(previous, buffer, "The mono buffer should be reused")
+                previous = buffer
+                val start = audioEvent.samplesProcessed
+                for (i in 0 until size) {
+                    var mean = 0f
+                    for (c in 0 until channels) mean += expectedSample(c, start + i) / channels
+                    Assertions.assertEquals(mean, buffer[i], 1e-4f)
+                }
+                return true
+            }
+        })
+        adp.run()
+    }
+
+    @Test
+    fun testInPlaceProcessorBeforeMultichannelProcessor() {
+        val channels = 2
+        val size = 1024
+        val adp = AudioDispatcher(multichannelStream(channels, 4 * size), size * channels, 0)
+        // splits the channel buffers before the gain is applied
+        adp.addAudioProcessor(object : MultichannelAudioProcessor {
+            override fun process(audioEvent: AudioEvent): Boolean {
+                Assertions.assertNotEquals(0f, audioEvent.getChannelBuffer(1)[10])
+                return true
+            }
+        })
+        adp.addAudioProcessor(GainProcessor(0.0))
+        adp.addAudioProcessor(MultichannelToMono(channels, true))
+        adp.addAudioProcessor(object : AudioProcessor {
+            var processed = 0
+            override fun process(audioEvent: AudioEvent): Boolean {
+                for (sample in audioEvent.floatBuffer) Assertions.assertEquals(0f, sample, "The gain should silence the mix")
+                processed++
+                return true
+            }
+
+            override fun processingFinished() {
+                Assertions.assertTrue(processed > 0)
+            }
+        })
+        adp.run()
+    }
+}
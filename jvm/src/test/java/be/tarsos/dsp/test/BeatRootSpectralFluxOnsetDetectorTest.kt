@@ -0,0 +1,164 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.beatroot.IncrementalPeakPicker
+import be.tarsos.dsp.beatroot.Peaks
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
+import be.tarsos.dsp.onsets.BeatRootSpectralFluxOnsetDetector
+import be.tarsos.dsp.onsets.OnsetHandler
+import be.tarsos.dsp.util.ChunkedDoubleArray
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+import kotlin.math.exp
+
+class BeatRootSpectralFluxOnsetDetectorTest {
+    private val sampleRate = 44100f
+    private val fftSize = 2048
+    private val hopSize = 441
+
+    private val expectedOnsets = DoubleArray(12) { 0.5 + 0.7 * it }
+
+    /**
+     * Decaying noise bursts at the expected onsets.
+     */
+    private fun bursts(): FloatArray {
+        val random = Random(1)
+        val audio = FloatArray((sampleRate * 9).toInt())
+        for (onset in expectedOnsets) {
+            val start = (onset * sampleRate).toInt()
+            val amplitude = 0.3 + 0.5 * random.nextDouble()
+            for (i in 0 until (sampleRate * 0.3).toInt()) {
+                audio[start + i] += (amplitude * exp(-i / (sampleRate * 0.05)) * random.nextGaussian()).toFloat()
+            }
+        }
+        return audio
+    }
+
+    private class RecordingHandler : OnsetHandler {
+        val onsets = ArrayList<Double>()
+        val reportedAtFrame = ArrayList<Int>()
+        var frame = 0
+        override fun handleOnset(time: Double, salience: Double) {
+            onsets.add(time)
+            reportedAtFrame.add(frame)
+        }
+    }
+
+    /**
+     * Feeds the audio in frames centered on multiples of the hop size.
+     */
+    private fun detect(streaming: Boolean): RecordingHandler {
+        val audio = bursts()
+        val detector = BeatRootSpectralFluxOnsetDetector(sampleRate, fftSize, hopSize, streaming)
+        val handler = RecordingHandler()
+        detector.setHandler(handler)
+        val format = TarsosDSPAudioFormat(sampleRate, 16, 1, true, false)
+        val buffer = FloatArray(fftSize)
+        val event = AudioEvent(format, buffer)
+        while (handler.frame * hopSize < audio.size) {
+            val start = handler.frame * hopSize - fftSize / 2
+            for (i in 0 until fftSize) {
+                val index = start + i
+                buffer[i] = if (index >= 0 && index < audio.size) audio[index] else 0f
+            }
+            detector.process(event)
+            handler.frame++
+        }
+        detector.processingFinished()
+        return handler
+    }
+
+    private fun assertOnsets(onsets: List<Double>) {
+        Assertions.assertEquals(expectedOnsets.size, onsets.size, "Each burst should give one onset: $onsets")
+        for (i in expectedOnsets.indices) {
+            Assertions.assertEquals(expectedOnsets[i], onsets[i], 0.03, "Onset should be at the start of a burst")
+        }
+    }
+
+    @Test
+    fun testOnsetsAfterProcessing() {
+        val handler = detect(false)
+        assertOnsets(handler.onsets)
+        for (frame in handler.reportedAtFrame) {
+            Assertions.assertEquals(handler.frame, frame, "Onsets should be reported after processing")
+        }
+    }
+
+    @Test
+    fun testStreamingOnsets() {
+        val handler = detect(true)
+        assertOnsets(handler.onsets)
+        // the peak picking window is 60ms, six frames of 10ms
+        for (i in handler.onsets.indices) {
+            val onsetFrame = (handler.onsets[i] * sampleRate / hopSize + 0.5).toInt()
+            Assertions.assertEquals(onsetFrame + 6, handler.reportedAtFrame[i], "Onsets should be reported with a fixed latency")
+        }
+    }
+
+    @Test
+    fun testIncrementalPeakPickerMatchesPeaks() {
+        val random = Random(3)
+        for (width in intArrayOf(1, 3, 6)) {
+            val data = DoubleArray(5000)
+            var smooth = 0.0
+            for (i in data.indices) {
+                smooth = 0.7 * smooth + random.nextDouble() + if (random.nextInt(20) == 0) 5.0 else 0.0
+                data[i] = smooth
+            }
+            // exercise equal values
+            for (i in 100 until 110) data[i] = data[100]
+            Peaks.normalise(data)
+            val expected = Peaks.findPeaks(data, width, 0.35, 0.84, true)
+            val actual = ArrayList<Int>()
+            val picker = IncrementalPeakPicker(width, 0.35, 0.84, object : IncrementalPeakPicker.PeakHandler {
+                override fun handlePeak(index: Int, value: Double) {
+                    Assertions.assertEquals(data[index], value)
+                    actual.add(index)
+                }
+            })
+            for (value in data) picker.add(value)
+            picker.flush()
+            Assertions.assertTrue(expected.size > 50, "The data should contain peaks")
+            Assertions.assertEquals(expected, actual, "Incremental peaks should equal the peaks of the whole array")
+        }
+    }
+
+    @Test
+    fun testChunkedDoubleArray() {
+        val values = ChunkedDoubleArray(4)
+        for (i in 0 until 1000) values.add(i * 0.5)
+        Assertions.assertEquals(1000, values.size)
+        Assertions.assertEquals(499.5, values[999])
+        values[10] = -1.0
+        val array = values.toDoubleArray()
+        Assertions.assertEquals(1000, array.size)
+        Assertions.assertEquals(-1.0, array[10])
+        Assertions.assertEquals(499.0, array[998])
+        values.clear()
+        Assertions.assertEquals(0, values.size)
+        Assertions.assertThrows(IndexOutOfBoundsException::class.java) { values[0] }
+    }
+}
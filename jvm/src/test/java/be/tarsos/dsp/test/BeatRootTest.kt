@@ -112,7 +112,7 @@ class BeatRootTest {
         val best = agents.bestAgent()
         if (best != null) {
             best.fillBeats(-1.0)
-            val beats = best.events
+            val beats = best.toEventList()
             val eventIterator =
                 beats.iterator()
             while (eventIterator.hasNext()) {
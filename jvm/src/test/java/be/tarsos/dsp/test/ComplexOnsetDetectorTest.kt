@@ -0,0 +1,201 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
+import be.tarsos.dsp.onsets.ComplexOnsetDetector
+import be.tarsos.dsp.onsets.OnsetHandler
+import be.tarsos.dsp.util.fft.FFT
+import be.tarsos.dsp.util.fft.HannWindow
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.exp
+import kotlin.math.pow
+import kotlin.math.sqrt
+
+class ComplexOnsetDetectorTest {
+    private val sampleRate = 44100f
+    private val fftSize = 1024
+    private val hopSize = 512
+
+    /**
+     * The detection function as calculated from the magnitude and phase spectrum.
+     */
+    private class ReferenceDetectionFunction(fftSize: Int) {
+        private val fft = FFT(fftSize, HannWindow())
+        private val theta1 = FloatArray(fftSize / 2 + 1)
+        private val theta2 = FloatArray(fftSize / 2 + 1)
+        private val oldmag = FloatArray(fftSize / 2 + 1)
+        private val dev1 = FloatArray(fftSize / 2 + 1)
+
+        fun value(buffer: FloatArray): Float {
+            val data = buffer.clone()
+            val power = FloatArray(data.size / 2)
+            val phase = FloatArray(data.size / 2)
+            fft.powerPhaseFFT(data, power, phase)
+            var onsetValue = 0f
+            for (j in power.indices) {
+                dev1[j] = 2f * theta1[j] - theta2[j]
+                onsetValue += sqrt(
+                    abs(
+                        oldmag[j].toDouble().pow(2.0) + power[j].toDouble()
+                            .pow(2.0) - 2.0 * oldmag[j] * power[j] * cos(dev1[j] - phase[j].toDouble())
+                    )
+                ).toFloat()
+                theta2[j] = theta1[j]
+                theta1[j] = phase[j]
+                oldmag[j] = power[j]
+            }
+            return onsetValue
+        }
+    }
+
+    /**
+     * Decaying noise bursts and a sine with changing frequency.
+     */
+    private fun audio(): FloatArray {
+        val random = Random(2)
+        val audio = FloatArray((sampleRate * 5).toInt())
+        var phase = 0.0
+        for (i in audio.indices) {
+            phase += 2 * Math.PI * (220 + 110 * (i / sampleRate)) / sampleRate
+            audio[i] = (0.2 * Math.sin(phase)).toFloat()
+        }
+        for (b in 0 until 8) {
+            val start = ((0.3 + 0.6 * b) * sampleRate).toInt()
+            for (i in 0 until (sampleRate * 0.2).toInt()) {
+                audio[start + i] += (0.5 * exp(-i / (sampleRate * 0.03)) * random.nextGaussian()).toFloat()
+            }
+        }
+        return audio
+    }
+
+    private class RecordingHandler : OnsetHandler {
+        val onsets = ArrayList<Double>()
+        override fun handleOnset(time: Double, salience: Double) {
+            onsets.add(time)
+        }
+    }
+
+    /**
+     * Runs the detector and the reference hop by hop, returns the largest relative
+     * difference of the detection function.
+     */
+    private fun compare(fastMath: Boolean, handler: RecordingHandler, incremental: Boolean = false): Double {
+        val audio = audio()
+        val detector = ComplexOnsetDetector(fftSize, fastMath = fastMath, incrementalPeakPicking = incremental)
+        detector.setHandler(handler)
+        val reference = ReferenceDetectionFunction(fftSize)
+        val format = TarsosDSPAudioFormat(sampleRate, 16, 1, true, false)
+        val buffer = FloatArray(fftSize)
+        val event = AudioEvent(format, buffer)
+        var maxDifference = 0.0
+        var start = 0
+        while (start + fftSize <= audio.size) {
+            System.arraycopy(audio, start, buffer, 0, fftSize)
+            event.setBytesProcessed(start * 2L)
+            detector.process(event)
+            val expected = reference.value(buffer).toDouble()
+            maxDifference = maxOf(maxDifference, abs(detector.lastOnsetValue - expected) / expected)
+            start += hopSize
+        }
+        return maxDifference
+    }
+
+    @Test
+    fun testSameDetectionFunction() {
+        val handler = RecordingHandler()
+        val difference = compare(false, handler)
+        Assertions.assertTrue(difference < 1e-4, "Relative difference $difference")
+        val onsets = handler.onsets.filter { it > 0.2 } // the start of the sine is an onset as well
+        Assertions.assertEquals(8, onsets.size, "One onset per burst: $onsets")
+        for (b in 0 until 8) Assertions.assertEquals(0.3 + 0.6 * b, onsets[b], 0.03)
+    }
+
+    @Test
+    fun testFastMath() {
+        val exact = RecordingHandler()
+        compare(false, exact)
+        val fast = RecordingHandler()
+        val difference = compare(true, fast)
+        Assertions.assertTrue(difference < 5e-3, "Relative difference $difference")
+        Assertions.assertEquals(exact.onsets, fast.onsets)
+    }
+
+    @Test
+    fun testIncrementalPeakPicking() {
+        val handler = RecordingHandler()
+        compare(false, handler, true)
+        val onsets = handler.onsets.filter { it > 0.2 }
+        Assertions.assertEquals(8, onsets.size, "One onset per burst: $onsets")
+        for (b in 0 until 8) Assertions.assertEquals(0.3 + 0.6 * b, onsets[b], 0.03)
+    }
+
+    @Test
+    fun testShortBufferIsZeroPadded() {
+        val audio = audio()
+        val format = TarsosDSPAudioFormat(sampleRate, 16, 1, true, false)
+        val short = audio.copyOfRange(20000, 20000 + 300)
+        // the same history, then a short buffer and the same buffer padded explicitly
+        val values = DoubleArray(2)
+        for (padded in 0 until 2) {
+            val detector = ComplexOnsetDetector(fftSize)
+            detector.setHandler(RecordingHandler())
+            for (start in intArrayOf(0, hopSize, 2 * hopSize)) {
+                detector.process(AudioEvent(format, audio.copyOfRange(start, start + fftSize)))
+            }
+            detector.process(AudioEvent(format, if (padded == 1) short.copyOf(fftSize) else short))
+            values[padded] = detector.lastOnsetValue
+        }
+        Assertions.assertEquals(values[1], values[0], 1e-9 * values[1])
+    }
+
+    @Test
+    fun testBenchmarkPerHop() {
+        val random = Random(3)
+        val format = TarsosDSPAudioFormat(sampleRate, 16, 1, true, false)
+        val buffers = Array(64) { FloatArray(fftSize) { random.nextGaussian().toFloat() } }
+        val hops = 20000
+        val reference = ReferenceDetectionFunction(fftSize)
+        val exact = ComplexOnsetDetector(fftSize)
+        val fast = ComplexOnsetDetector(fftSize, fastMath = true)
+        for (detector in arrayOf(exact, fast)) detector.setHandler(RecordingHandler())
+        for (round in 0 until 2) {
+            var start = System.nanoTime()
+            for (i in 0 until hops) reference.value(buffers[i % buffers.size])
+            val referenceTime = (System.nanoTime() - start) / hops.toDouble()
+            val times = DoubleArray(2)
+            for ((d, detector) in arrayOf(exact, fast).withIndex()) {
+                start = System.nanoTime()
+                for (i in 0 until hops) detector.process(AudioEvent(format, buffers[i % buffers.size]))
+                times[d] = (System.nanoTime() - start) / hops.toDouble()
+            }
+            println(String.format("Complex onset detection per hop of %d samples: magnitude and phase %.0f ns, complex %.0f ns, fast math %.0f ns",
+                fftSize, referenceTime, times[0], times[1]))
+        }
+    }
+}
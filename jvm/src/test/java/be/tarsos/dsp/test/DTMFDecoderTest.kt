@@ -0,0 +1,137 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.pitch.DTMF
+import be.tarsos.dsp.pitch.DTMFDecoder
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+
+class DTMFDecoderTest {
+    private class CollectingHandler(channels: Int) : DTMFDecoder.DigitHandler {
+        val digits = Array(channels) { StringBuilder() }
+        val timeStamps = Array(channels) { ArrayList<Double>() }
+        override fun handleDigit(channel: Int, timeStamp: Double, digit: Char) {
+            digits[channel].append(digit)
+            timeStamps[channel].add(timeStamp)
+        }
+    }
+
+    /**
+     * Interleaves one signal per channel, padding shorter signals with zeros.
+     */
+    private fun interleave(signals: List<FloatArray>): FloatArray {
+        val frames = signals.fold(0) { frames, signal -> maxOf(frames, signal.size) }
+        val interleaved = FloatArray(frames * signals.size)
+        for (channel in signals.indices) {
+            for (frame in signals[channel].indices) {
+                interleaved[frame * signals.size + channel] = signals[channel][frame]
+            }
+        }
+        return interleaved
+    }
+
+    /**
+     * Generates 100ms tones separated by 50ms of silence at 8kHz.
+     */
+    private fun dialTones(digits: String): FloatArray {
+        return digits.fold(FloatArray(0)) { acc, digit -> acc + DTMF.generateDTMFTone(digit, 8000.0, 800) + FloatArray(400) }
+    }
+
+    @Test
+    fun testDecodeChannels() {
+        val numbers = listOf("123456789", "0*#ABCD", "5551234", "9", "")
+        val handler = CollectingHandler(numbers.size)
+        val decoder = DTMFDecoder(numbers.size, handler)
+        val samples = interleave(numbers.map { dialTones(it) })
+        // feed in odd sized chunks, the state should be kept between calls
+        val frames = samples.size / numbers.size
+        var frame = 0
+        while (frame < frames) {
+            val chunk = minOf(333, frames - frame)
+            decoder.process(samples, frame * numbers.size, chunk)
+            frame += chunk
+        }
+        for (channel in numbers.indices) {
+            Assertions.assertEquals(numbers[channel], handler.digits[channel].toString(), "Channel $channel")
+        }
+        // each tone starts 150ms after the previous one; with 25ms blocks detection is within a block
+        for (i in handler.timeStamps[0].indices) {
+            Assertions.assertEquals(i * 0.15, handler.timeStamps[0][i], 0.026)
+        }
+    }
+
+    @Test
+    fun testRejectNonDTMF() {
+        val random = Random(0)
+        val noise = FloatArray(8000) { (random.nextGaussian() * 0.2).toFloat() }
+        // a single tone
+        val tone = DTMF.audioBufferDTMF(697.0, 697.0, 8000, 8000.0)
+        // a DTMF tone with strong noise
+        val noisy = DTMF.generateDTMFTone('5', 8000.0, 8000).mapIndexed { i, v -> v + noise[i] * 4 }.toFloatArray()
+        // a DTMF tone with too much twist: the row tone is 20dB softer than the column tone
+        val twisted = DTMF.audioBufferDTMF(697.0, 1209.0, 8000, 8000.0)
+        for (i in twisted.indices) {
+            twisted[i] -= tone[i] * 0.45f
+        }
+        val handler = CollectingHandler(4)
+        val decoder = DTMFDecoder(4, handler)
+        decoder.process(interleave(listOf(noise, tone, noisy, twisted)), 0, 8000)
+        for (channel in 0 until 4) {
+            Assertions.assertEquals("", handler.digits[channel].toString(), "Nothing should be detected on channel $channel")
+        }
+    }
+
+    @Test
+    fun benchmarkManyLines() {
+        val lines = 512
+        val seconds = 2
+        val digits = "0123456789*#ABCD"
+        val line = dialTones(digits).copyOf(8000 * seconds)
+        val signals = List(lines) { line }
+        val samples = interleave(signals)
+        val frames = 8000 * seconds
+        val handler = CollectingHandler(lines)
+        val decoder = DTMFDecoder(lines, handler)
+        // warm up
+        decoder.process(samples, 0, frames)
+        decoder.reset()
+        for (builder in handler.digits) {
+            builder.setLength(0)
+        }
+        val hop = 160
+        val start = System.nanoTime()
+        var frame = 0
+        while (frame < frames) {
+            decoder.process(samples, frame * lines, hop)
+            frame += hop
+        }
+        val elapsed = (System.nanoTime() - start) / 1e9
+        val expected = digits.substring(0, (8000 * seconds / 1200.0).toInt() + 1)
+        for (channel in 0 until lines) {
+            Assertions.assertEquals(expected, handler.digits[channel].toString())
+        }
+        println(String.format("Decoded %d lines of %ds in %.3fs: %.0f lines in real time on one core", lines, seconds, elapsed, lines * seconds / elapsed))
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.AudioProcessor
+import be.tarsos.dsp.EnvelopeFollower
+import be.tarsos.dsp.effects.DelayEffect
+import be.tarsos.dsp.filters.ButterworthFilter
+import be.tarsos.dsp.filters.FilterBank
+import be.tarsos.dsp.filters.IIRDesign
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
+import be.tarsos.dsp.util.BiQuadFilter
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import kotlin.math.abs
+import kotlin.random.Random
+
+/**
+ * Checks that recursive processors do not decay into subnormal values when the input goes
+ * silent: subnormal arithmetic is many times slower on most CPUs.
+ */
+class DenormalTest {
+    private val bufferSize = 1024
+    private val format = TarsosDSPAudioFormat(44100f, 16, 1, true, false)
+
+    private fun processors(check: Boolean): List<Pair<String, AudioProcessor>> {
+        val biQuad = BiQuadFilter(0.1600, 0.3200, 0.1600, -0.5949, 0.2348)
+        return listOf(
+            "IIRFilter" to ButterworthFilter(IIRDesign.Type.LOW_PASS, 4, 5000f, 44100f),
+            "DelayEffect" to DelayEffect(0.01, 0.5, 44100.0),
+            "EnvelopeFollower" to EnvelopeFollower(44100.0),
+            "FilterBank" to FilterBank.logarithmic(44100f, 100.0, 8000.0, 24, object : FilterBank.BandHandler {
+                override fun handleBands(timeStamp: Double, rms: FloatArray, envelope: FloatArray) {
+                    if (check) for (value in rms) checkNormal(value)
+                    if (check) for (value in envelope) checkNormal(value)
+                }
+            }),
+            "BiQuadFilter" to object : AudioProcessor {
+                override fun process(audioEvent: AudioEvent): Boolean {
+                    val buffer = audioEvent.floatBuffer
+                    for (i in buffer.indices) buffer[i] = biQuad.filter(buffer[i].toDouble()).toFloat()
+                    return true
+                }
+
+                override fun processingFinished() {}
+            }
+        )
+    }
+
+    private fun checkNormal(value: Float) {
+        Assertions.assertFalse(value != 0f && abs(value) < java.lang.Float.MIN_NORMAL, "Subnormal value $value")
+    }
+
+    /**
+     * Feeds a burst of noise followed by silence.
+     *
+     * @return The time spent on each buffer, in nanoseconds.
+     */
+    private fun run(processor: AudioProcessor, silentBuffers: Int, check: Boolean): LongArray {
+        val random = Random(1)
+        val buffer = FloatArray(bufferSize)
+        val event = AudioEvent(format, buffer)
+        val noiseBuffers = 4
+        val times = LongArray(noiseBuffers + silentBuffers)
+        for (b in times.indices) {
+            for (i in buffer.indices) buffer[i] = if (b < noiseBuffers) random.nextFloat() - 0.5f else 0f
+            event.floatBuffer = buffer
+            val start = System.nanoTime()
+            processor.process(event)
+            times[b] = System.nanoTime() - start
+            if (check) for (value in buffer) checkNormal(value)
+        }
+        return times
+    }
+
+    @Test
+    fun testSilenceDecaysWithoutSubnormals() {
+        for ((name, processor) in processors(true)) {
+            val silentBuffers = 44100 * 10 / bufferSize
+            run(processor, silentBuffers, true)
+            // the state is flushed to zero: silence in is silence out
+            val buffer = FloatArray(bufferSize)
+            processor.process(AudioEvent(format, buffer))
+            for (value in buffer) Assertions.assertEquals(0f, value, 0f, "$name is silent after silence")
+        }
+    }
+
+    @Test
+    fun benchmarkSilence() {
+        val silentBuffers = 44100 * 20 / bufferSize
+        val buffersPerSecond = 44100 / bufferSize
+        for ((name, processor) in processors(false)) {
+            // warm up on a separate instance
+            run(processors(false).first { it.first == name }.second, silentBuffers, false)
+            val times = run(processor, silentBuffers, false)
+            var total = 0L
+            var slowestSecond = 0L
+            var second = 0L
+            for (b in 4 until times.size) {
+                total += times[b]
+                second += times[b]
+                if (b >= 4 + buffersPerSecond) second -= times[b - buffersPerSecond]
+                if (b >= 3 + buffersPerSecond) slowestSecond = maxOf(slowestSecond, second)
+            }
+            val active = (times[1] + times[2] + times[3]) / 3.0
+            println(
+                "%-18s noise %7.0f ns/buffer, silence %7.0f ns/buffer, slowest second of silence %7.0f ns/buffer".format(
+                    name, active, total.toDouble() / (times.size - 4), slowestSecond.toDouble() / buffersPerSecond
+                )
+            )
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.pitch.DynamicWavelet
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.lang.management.ManagementFactory
+import java.util.*
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.pow
+
+class DynamicWaveletTest {
+    /**
+     * The previous implementation, which allocates a downsampled buffer and
+     * sums the histogram window for every distance.
+     */
+    private class ReferenceDynamicWavelet(private val sampleRate: Float) {
+        private val maxFLWTlevels = 6
+        private val maxF = 3000.0
+        private val differenceLevelsN = 3
+        private val maximaThresholdRatio = 0.75
+        private var distances = IntArray(0)
+        private var mins = IntArray(0)
+        private var maxs = IntArray(0)
+
+        fun getPitch(input: FloatArray): Float {
+            var audioBuffer = input
+            var pitchF = -1.0f
+            var curSamNb = audioBuffer.size
+            if (distances.size == audioBuffer.size) {
+                Arrays.fill(distances, 0)
+                Arrays.fill(mins, 0)
+                Arrays.fill(maxs, 0)
+            } else {
+                distances = IntArray(audioBuffer.size)
+                mins = IntArray(audioBuffer.size)
+                maxs = IntArray(audioBuffer.size)
+            }
+            var theDC = 0.0
+            var maxValue = 0.0
+            var minValue = 0.0
+            for (sample in audioBuffer) {
+                theDC += sample
+                maxValue = max(maxValue, sample.toDouble())
+                minValue = min(sample.toDouble(), minValue)
+            }
+            theDC /= audioBuffer.size
+            maxValue -= theDC
+            minValue -= theDC
+            val amplitudeMax = if (maxValue > -minValue) maxValue else -minValue
+            val ampltitudeThreshold = amplitudeMax * maximaThresholdRatio
+            var curLevel = 0
+            var curModeDistance = -1.0
+            while (true) {
+                val delta = (sampleRate / (2.0.pow(curLevel.toDouble()) * maxF)).toInt()
+                if (curSamNb < 2) break
+                var previousDV = -1000.0
+                var nbMins = 0
+                var nbMaxs = 0
+                var lastMinIndex = -1000000
+                var lastmaxIndex = -1000000
+                var findMax = false
+                var findMin = false
+                for (i in 2 until curSamNb) {
+                    val si = audioBuffer[i] - theDC
+                    val si1 = audioBuffer[i - 1] - theDC
+                    if (si1 <= 0 && si > 0) findMax = true
+                    if (si1 >= 0 && si < 0) findMin = true
+                    val dv = si - si1
+                    if (previousDV > -1000) {
+                        if (findMin && previousDV < 0 && dv >= 0 && abs(si) >= ampltitudeThreshold && i > lastMinIndex + delta) {
+                            mins[nbMins++] = i
+                            lastMinIndex = i
+                            findMin = false
+                        }
+                        if (findMax && previousDV > 0 && dv <= 0 && abs(si) >= ampltitudeThreshold && i > lastmaxIndex + delta) {
+                            maxs[nbMaxs++] = i
+                            lastmaxIndex = i
+                            findMax = false
+                        }
+                    }
+                    previousDV = dv
+                }
+                if (nbMins == 0 && nbMaxs == 0) break
+                Arrays.fill(distances, 0)
+                for (i in 0 until nbMins) {
+                    for (j in 1 until differenceLevelsN) {
+                        if (i + j < nbMins) distances[abs(mins[i] - mins[i + j])]++
+                    }
+                }
+                var bestDistance = -1
+                var bestValue = -1
+                for (i in 0 until curSamNb) {
+                    var summed = 0
+                    for (j in -delta..delta) {
+                        if (i + j in 0 until curSamNb) summed += distances[i + j]
+                    }
+                    if (summed == bestValue) {
+                        if (i == 2 * bestDistance) bestDistance = i
+                    } else if (summed > bestValue) {
+                        bestValue = summed
+                        bestDistance = i
+                    }
+                }
+                var distAvg = 0.0
+                var nbDists = 0.0
+                for (j in -delta..delta) {
+                    if (bestDistance + j >= 0 && bestDistance + j < audioBuffer.size) {
+                        val nbDist = distances[bestDistance + j]
+                        if (nbDist > 0) {
+                            nbDists += nbDist.toDouble()
+                            distAvg += (bestDistance + j) * nbDist.toDouble()
+                        }
+                    }
+                }
+                distAvg /= nbDists
+                if (curModeDistance > -1.0 && abs(distAvg * 2 - curModeDistance) <= 2 * delta) {
+                    pitchF = (sampleRate / (2.0.pow(curLevel - 1.toDouble()) * curModeDistance)).toFloat()
+                    break
+                }
+                curModeDistance = distAvg
+                curLevel += 1
+                if (curLevel >= maxFLWTlevels) break
+                var newAudioBuffer = audioBuffer
+                if (curSamNb == distances.size) newAudioBuffer = FloatArray(curSamNb / 2)
+                for (i in 0 until curSamNb / 2) {
+                    newAudioBuffer[i] = (audioBuffer[2 * i] + audioBuffer[2 * i + 1]) / 2.0f
+                }
+                audioBuffer = newAudioBuffer
+                curSamNb /= 2
+            }
+            return pitchF
+        }
+    }
+
+    @Test
+    fun testSameAsReference() {
+        val random = Random(7)
+        val detector = DynamicWavelet(44100f, 1024)
+        val reference = ReferenceDynamicWavelet(44100f)
+        val sizes = intArrayOf(512, 1000, 1024, 2048, 1536)
+        var pitched = 0
+        for (frame in 0 until 3000) {
+            val size = sizes[random.nextInt(sizes.size)]
+            val frequency = 80 + random.nextDouble() * 1500
+            val noise = if (frame % 10 == 0) 1.0 else random.nextDouble() * 0.3
+            val buffer = FloatArray(size) {
+                (0.5 * Math.sin(2 * Math.PI * frequency * it / 44100) + 0.2 * Math.sin(4 * Math.PI * frequency * it / 44100) +
+                        noise * random.nextGaussian()).toFloat()
+            }
+            val expected = reference.getPitch(buffer)
+            Assertions.assertEquals(expected, detector.getPitch(buffer).pitch, "Frame $frame of $size samples")
+            if (expected != -1f) pitched++
+        }
+        Assertions.assertTrue(pitched > 300, "Pitched frames should be compared too, $pitched are pitched")
+    }
+    @Test
+    fun testChangingBufferSizes() {
+        val sine = TestUtilities.audioBufferSine()
+        val detector = DynamicWavelet(44100f, 1024)
+        for (size in intArrayOf(1024, 2048, 512, 1000, 2048, 1024)) {
+            val buffer = sine.copyOf(size)
+            Assertions.assertEquals(440f, detector.getPitch(buffer).pitch, 2f, "Expected about 440Hz for a buffer of $size samples")
+        }
+    }
+
+    @Test
+    fun benchmarkPerFrame() {
+        val bufferSize = 2048
+        val sine = TestUtilities.audioBufferSine()
+        val frames = Array(64) { sine.copyOfRange(it * 512, it * 512 + bufferSize) }
+        val detector = DynamicWavelet(44100f, bufferSize)
+        for (i in 0 until 20000) {
+            detector.getPitch(frames[i % frames.size])
+        }
+        val threads = ManagementFactory.getThreadMXBean()
+        val threadId = Thread.currentThread().id
+        val measureAllocation = threads is com.sun.management.ThreadMXBean
+        val allocatedBefore = if (measureAllocation) (threads as com.sun.management.ThreadMXBean).getThreadAllocatedBytes(threadId) else 0
+        val iterations = 20000
+        val start = System.nanoTime()
+        for (i in 0 until iterations) {
+            detector.getPitch(frames[i % frames.size])
+        }
+        val microsPerFrame = (System.nanoTime() - start) / 1000.0 / iterations
+        val allocated = if (measureAllocation) (threads as com.sun.management.ThreadMXBean).getThreadAllocatedBytes(threadId) - allocatedBefore else 0
+
+        val reference = ReferenceDynamicWavelet(44100f)
+        for (i in 0 until 20000) {
+            reference.getPitch(frames[i % frames.size])
+        }
+        val referenceAllocatedBefore = if (measureAllocation) (threads as com.sun.management.ThreadMXBean).getThreadAllocatedBytes(threadId) else 0
+        val referenceStart = System.nanoTime()
+        for (i in 0 until iterations) {
+            reference.getPitch(frames[i % frames.size])
+        }
+        val referenceMicros = (System.nanoTime() - referenceStart) / 1000.0 / iterations
+        if (measureAllocation) {
+            val referenceAllocated = (threads as com.sun.management.ThreadMXBean).getThreadAllocatedBytes(threadId) - referenceAllocatedBefore
+            println(String.format("DynamicWavelet: %.1f us per frame of %d samples, %.2f bytes allocated per frame", microsPerFrame, bufferSize, allocated / iterations.toDouble()))
+            println(String.format("Previous DynamicWavelet: %.1f us per frame, %.2f bytes allocated per frame", referenceMicros, referenceAllocated / iterations.toDouble()))
+            Assertions.assertTrue(allocated < iterations, "No garbage should be created per frame")
+        } else {
+            println(String.format("DynamicWavelet: %.1f us per frame of %d samples, previous implementation %.1f us", microsPerFrame, bufferSize, referenceMicros))
+        }
+    }
+}
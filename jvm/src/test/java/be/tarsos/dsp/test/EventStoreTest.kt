@@ -0,0 +1,124 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.beatroot.EventStore
+import be.tarsos.dsp.beatroot.Induction
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+import kotlin.math.abs
+import kotlin.math.roundToLong
+
+class EventStoreTest {
+    /**
+     * Onsets rounded to 10ms on every beat, with random eighth and sixteenth notes.
+     */
+    private fun onsets(random: Random, seconds: Double, beatInterval: Double): EventStore {
+        val onsets = EventStore()
+        var beat = 0.5
+        while (beat < seconds) {
+            for (k in 0 until 4) {
+                if (k == 0 || random.nextInt(3) == 0) {
+                    val time = ((beat + k * beatInterval / 4 + random.nextGaussian() * 0.004) * 100).roundToLong() / 100.0
+                    onsets.add(time, if (k == 0) 1 + random.nextDouble() else random.nextDouble())
+                }
+            }
+            beat += beatInterval
+        }
+        return onsets
+    }
+
+    private fun trackBeats(onsets: EventStore): EventStore {
+        val agents = Induction.beatInduction(onsets)
+        agents.beatTrack(onsets, -1.0)
+        val best = agents.bestAgent()!!
+        best.fillBeats(-1.0)
+        return best.beats
+    }
+
+    @Test
+    fun testSortedInsert() {
+        val store = EventStore(2)
+        store.add(1.0, 0.1)
+        store.add(3.0, 0.3)
+        store.add(2.0, 0.2)
+        store.add(2.0, 0.25)
+        Assertions.assertArrayEquals(doubleArrayOf(1.0, 2.0, 2.0, 3.0), store.toOnsetArray())
+        Assertions.assertEquals(0.25, store.salience(2), "Equal times keep the order in which they were added")
+        store.insert(2.0, 0.5, 0, true)
+        Assertions.assertEquals(4, store.size)
+        Assertions.assertEquals(0.5, store.salience(1), "The first event with an equal time is replaced")
+        Assertions.assertEquals(1, store.lowerBound(2.0))
+        Assertions.assertEquals(3, store.upperBound(2.0))
+        Assertions.assertEquals(4, store.lowerBound(3.5))
+        Assertions.assertThrows(IndexOutOfBoundsException::class.java) { store.time(4) }
+    }
+
+    @Test
+    fun testCopiesAreIndependent() {
+        val original = EventStore()
+        for (i in 0 until 10) original.add(i.toDouble(), 0.0)
+        val copy = EventStore(original)
+        original.add(10.0, 1.0)
+        copy.add(11.0, 2.0)
+        copy.add(12.0, 3.0)
+        original.insert(0.5, 4.0, 0, false)
+        Assertions.assertEquals(12, original.size)
+        Assertions.assertEquals(10.0, original.lastTime)
+        Assertions.assertEquals(0.5, original.time(1))
+        Assertions.assertEquals(12, copy.size)
+        Assertions.assertEquals(11.0, copy.time(10))
+        Assertions.assertEquals(1.0, copy.time(1))
+        copy.clear()
+        Assertions.assertEquals(0, copy.size)
+        Assertions.assertEquals(12, original.size)
+    }
+
+    @Test
+    fun testSameBeatsAsEventList() {
+        val onsets = onsets(Random(1), 60.0, 0.5)
+        val beats = trackBeats(onsets)
+        Assertions.assertArrayEquals(ReferenceBeatTracker.beatTrack(onsets.toEventList()), beats.toOnsetArray())
+        // 120 BPM from 0.5 seconds
+        for (i in 0 until beats.size) {
+            Assertions.assertEquals(0.5 * (beats.time(i) / 0.5).roundToLong(), beats.time(i), 0.02)
+        }
+        Assertions.assertTrue(beats.size > 110, "Beats should be found in the whole minute")
+    }
+
+    @Test
+    fun testThreeHourBenchmark() {
+        val onsets = onsets(Random(2), 3 * 3600.0, 60.0 / 124)
+        var start = System.nanoTime()
+        val agents = Induction.beatInduction(onsets)
+        val inductionTime = (System.nanoTime() - start) / 1e6
+        start = System.nanoTime()
+        agents.beatTrack(onsets, -1.0)
+        val trackTime = (System.nanoTime() - start) / 1e6
+        val best = agents.bestAgent()!!
+        println(String.format("%d onsets: tempo induction %.0f ms, beat tracking %.0f ms", onsets.size, inductionTime, trackTime))
+        Assertions.assertEquals(60.0 / 124, best.beatInterval, 0.01)
+        Assertions.assertTrue(abs(best.beats.lastTime - onsets.lastTime) < 1, "Beats should be tracked until the end")
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.filters.BandPass
+import be.tarsos.dsp.filters.FilterBank
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import kotlin.math.PI
+import kotlin.math.sin
+import kotlin.math.sqrt
+import kotlin.random.Random
+
+class FilterBankTest {
+    private class CollectingHandler : FilterBank.BandHandler {
+        val timeStamps = ArrayList<Double>()
+        val rms = ArrayList<FloatArray>()
+        val envelopes = ArrayList<FloatArray>()
+        override fun handleBands(timeStamp: Double, rms: FloatArray, envelope: FloatArray) {
+            timeStamps.add(timeStamp)
+            this.rms.add(rms.clone())
+            envelopes.add(envelope.clone())
+        }
+    }
+
+    private fun sine(frequency: Double, amplitude: Double, length: Int) =
+        FloatArray(length) { (amplitude * sin(2 * PI * frequency * it / 44100)).toFloat() }
+
+    @Test
+    fun testSineInOneBand() {
+        val handler = CollectingHandler()
+        val bank = FilterBank(44100f, doubleArrayOf(250.0, 1000.0, 4000.0), doubleArrayOf(100.0, 100.0, 100.0), handler)
+        val signal = sine(1000.0, 0.5, 44100)
+        val hop = 441
+        for (start in 0 until signal.size step hop) bank.process(signal, start, hop)
+        Assertions.assertEquals(100, handler.rms.size, "A hop should be reported every 10ms")
+        for (h in 20 until handler.rms.size) {
+            Assertions.assertEquals(h * 0.01, handler.timeStamps[h], 1e-9)
+            val rms = handler.rms[h]
+            Assertions.assertEquals(0.5 / sqrt(2.0), rms[1].toDouble(), 0.005, "A sine with amplitude 0.5 has an RMS of 0.354")
+            Assertions.assertTrue(rms[0] < 0.05 && rms[2] < 0.01, "Little energy expected outside of the band")
+            Assertions.assertEquals(0.475, handler.envelopes[h][1].toDouble(), 0.025)
+        }
+    }
+
+    @Test
+    fun testLogarithmicBands() {
+        val handler = CollectingHandler()
+        val bank = FilterBank.logarithmic(44100f, 100.0, 8000.0, 24, handler)
+        Assertions.assertEquals(8000.0, bank.centerFrequencies[23], 1e-6)
+        val signal = sine(bank.centerFrequencies[12], 0.5, 22050)
+        bank.process(signal, 0, 11025)
+        bank.process(signal, 11025, 11025)
+        val rms = handler.rms[1]
+        for (j in rms.indices) {
+            if (j != 12) Assertions.assertTrue(rms[j] < rms[12], "The band at the frequency of the sine is the loudest")
+        }
+        Assertions.assertEquals(0.5 / sqrt(2.0), rms[12].toDouble(), 0.01)
+    }
+
+    @Test
+    fun testOverlappingBuffers() {
+        val frequencies = doubleArrayOf(200.0, 440.0, 1000.0, 3000.0)
+        val bandwidths = doubleArrayOf(50.0, 50.0, 200.0, 500.0)
+        val random = Random(3)
+        val signal = FloatArray(44100) { random.nextFloat() - 0.5f }
+        val stepSize = 256
+
+        val hops = CollectingHandler()
+        val reference = FilterBank(44100f, frequencies, bandwidths, hops)
+        reference.process(signal, 0, 1024)
+        var start = 1024
+        while (start + stepSize <= signal.size) {
+            reference.process(signal, start, stepSize)
+            start += stepSize
+        }
+
+        // overlapping buffers as sent by a dispatcher: only new samples are used
+        val streamed = CollectingHandler()
+        val bank = FilterBank(44100f, frequencies, bandwidths, streamed)
+        val buffer = FloatArray(1024)
+        val event = AudioEvent(TarsosDSPAudioFormat(44100f, 16, 1, true, false), buffer)
+        System.arraycopy(signal, 0, buffer, 0, buffer.size)
+        bank.process(event)
+        event.overlap = buffer.size - stepSize
+        start = stepSize
+        while (start + buffer.size <= signal.size) {
+            System.arraycopy(signal, start, buffer, 0, buffer.size)
+            bank.process(event)
+            start += stepSize
+        }
+
+        Assertions.assertEquals(hops.rms.size, streamed.rms.size)
+        for (h in hops.rms.indices) {
+            Assertions.assertEquals(hops.timeStamps[h], streamed.timeStamps[h], 1e-9)
+            Assertions.assertArrayEquals(hops.rms[h], streamed.rms[h], 0f)
+            Assertions.assertArrayEquals(hops.envelopes[h], streamed.envelopes[h], 0f)
+        }
+    }
+
+    @Test
+    fun benchmarkBandEnergies() {
+        val bands = 24
+        val hop = 512
+        val random = Random(5)
+        val signal = FloatArray(44100 * 30) { random.nextFloat() - 0.5f }
+        val format = TarsosDSPAudioFormat(44100f, 16, 1, true, false)
+        val bank = FilterBank.logarithmic(44100f, 100.0, 8000.0, bands, object : FilterBank.BandHandler {
+            override fun handleBands(timeStamp: Double, rms: FloatArray, envelope: FloatArray) {}
+        })
+        // one band pass filter per band, each on its own copy of the buffer
+        val filters = Array(bands) { BandPass(bank.centerFrequencies[it].toFloat(), bank.bandwidths[it].toFloat(), 44100f) }
+        val rms = FloatArray(bands)
+
+        fun chained(length: Int) {
+            for (start in 0 until length - hop step hop) {
+                for (j in 0 until bands) {
+                    val copy = signal.copyOfRange(start, start + hop)
+                    filters[j].process(AudioEvent(format, copy))
+                    var energy = 0.0
+                    for (sample in copy) energy += sample * sample
+                    rms[j] = sqrt(energy / hop).toFloat()
+                }
+            }
+        }
+
+        fun bank(length: Int) {
+            for (start in 0 until length - hop step hop) bank.process(signal, start, hop)
+        }
+
+        chained(44100 * 3)
+        bank(44100 * 3)
+        var begin = System.nanoTime()
+        chained(signal.size)
+        val chainedTime = (System.nanoTime() - begin) / 1e9
+        begin = System.nanoTime()
+        bank(signal.size)
+        val bankTime = (System.nanoTime() - begin) / 1e9
+        println("%d bands over 30s of audio: %.3fs with a band pass per band, %.3fs with a filter bank".format(bands, chainedTime, bankTime))
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
+import be.tarsos.dsp.pitch.GoertzelBank
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class GoertzelBankTest {
+    private class CollectingHandler : GoertzelBank.PowersHandler {
+        val timeStamps = ArrayList<Double>()
+        val powers = ArrayList<DoubleArray>()
+        override fun handlePowers(timeStamp: Double, powers: DoubleArray) {
+            timeStamps.add(timeStamp)
+            this.powers.add(powers.clone())
+        }
+    }
+
+    @Test
+    fun testDetection() {
+        val handler = CollectingHandler()
+        val frequencies = doubleArrayOf(440.0, 660.0, 1000.0, 2000.0)
+        val bank = GoertzelBank(44100f, frequencies, 4410, handler)
+        val sine = TestUtilities.audioBufferSine(44100)
+        bank.process(sine, 0, sine.size)
+        Assertions.assertEquals(10, handler.powers.size, "A block should be reported every 0.1s")
+        for (block in handler.powers.indices) {
+            Assertions.assertEquals(block * 0.1, handler.timeStamps[block], 1e-6)
+            val powers = handler.powers[block]
+            Assertions.assertEquals(0.25, powers[0], 0.01, "A sine with amplitude 0.5 should have a power of 0.25")
+            for (j in 1 until frequencies.size) {
+                Assertions.assertTrue(powers[j] < 0.001, "No power expected at ${frequencies[j]}Hz")
+            }
+        }
+    }
+
+    @Test
+    fun testStateIsCarriedOverBuffers() {
+        val oneShot = CollectingHandler()
+        val streamed = CollectingHandler()
+        val frequencies = DoubleArray(100) { 200.0 + 10 * it }
+        val sine = TestUtilities.audioBufferSine(44100)
+        GoertzelBank(44100f, frequencies, 1000, oneShot).process(sine, 0, sine.size)
+
+        // overlapping buffers as sent by a dispatcher: only new samples are used
+        val bank = GoertzelBank(44100f, frequencies, 1000, streamed)
+        val format = TarsosDSPAudioFormat(44100f, 16, 1, true, false)
+        val buffer = FloatArray(768)
+        val event = AudioEvent(format, buffer)
+        val stepSize = 256
+        System.arraycopy(sine, 0, buffer, 0, buffer.size)
+        bank.process(event)
+        event.overlap = buffer.size - stepSize
+        var start = stepSize
+        while (start + buffer.size <= sine.size) {
+            System.arraycopy(sine, start, buffer, 0, buffer.size)
+            bank.process(event)
+            start += stepSize
+        }
+        Assertions.assertTrue(streamed.powers.size > 40)
+        for (block in streamed.powers.indices) {
+            Assertions.assertEquals(oneShot.timeStamps[block], streamed.timeStamps[block], 1e-9)
+            Assertions.assertArrayEquals(oneShot.powers[block], streamed.powers[block], 1e-12)
+        }
+    }
+
+    @Test
+    fun testOverlappingBlocks() {
+        val frequencies = doubleArrayOf(440.0, 660.0, 1000.0)
+        val blockSize = 1000
+        val hopSize = 250
+        // a tone that starts in the middle of the signal
+        val sine = TestUtilities.audioBufferSine(44100)
+        sine.fill(0f, 0, 22050)
+        val sliding = CollectingHandler()
+        val bank = GoertzelBank(44100f, frequencies, blockSize, sliding, hopSize = hopSize)
+        // buffer sizes that do not line up with the hops
+        var start = 0
+        while (start < sine.size) {
+            val length = minOf(777, sine.size - start)
+            bank.process(sine, start, length)
+            start += length
+        }
+        Assertions.assertEquals((sine.size - blockSize) / hopSize + 1, sliding.powers.size)
+        for (k in sliding.powers.indices) {
+            Assertions.assertEquals(k * hopSize / 44100.0, sliding.timeStamps[k], 1e-9)
+            val single = CollectingHandler()
+            GoertzelBank(44100f, frequencies, blockSize, single).process(sine, k * hopSize, blockSize)
+            Assertions.assertArrayEquals(single.powers[0], sliding.powers[k], 1e-9)
+        }
+        // the onset of the tone is located to within a hop, not a block
+        val first = sliding.powers.indexOfFirst { it[0] > 0.01 }
+        Assertions.assertEquals((22050 - blockSize).toDouble(), (first * hopSize).toDouble(), hopSize.toDouble())
+    }
+}
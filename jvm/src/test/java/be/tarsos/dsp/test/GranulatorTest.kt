@@ -0,0 +1,157 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.granulator.Granulator
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.sin
+
+class GranulatorTest {
+    private val sampleRate = 44100f
+    private val bufferSize = 512
+
+    /**
+     * Runs a 440Hz sine through the granulator.
+     *
+     * @return The output of the granulator.
+     */
+    private fun granulate(granulator: Granulator, seconds: Double, beforeBuffer: (Int) -> Unit = {}): FloatArray {
+        val buffers = (seconds * sampleRate / bufferSize).toInt()
+        val output = FloatArray(buffers * bufferSize)
+        val input = FloatArray(bufferSize)
+        val event = AudioEvent(TarsosDSPAudioFormat(sampleRate, 16, 1, true, false), input)
+        for (b in 0 until buffers) {
+            beforeBuffer(b)
+            for (i in 0 until bufferSize) {
+                input[i] = (0.5 * sin(2 * PI * 440 * (b * bufferSize + i) / sampleRate)).toFloat()
+            }
+            event.floatBuffer = input
+            granulator.process(event)
+            System.arraycopy(event.floatBuffer, 0, output, b * bufferSize, bufferSize)
+        }
+        return output
+    }
+
+    private fun frequency(samples: FloatArray, from: Int, to: Int): Double {
+        var crossings = 0
+        for (i in from + 1 until to) if (samples[i - 1] < 0 && samples[i] >= 0) crossings++
+        return crossings * sampleRate.toDouble() / (to - from)
+    }
+
+    @Test
+    fun testHistoryIsBounded() {
+        val granulator = Granulator(sampleRate, bufferSize)
+        Assertions.assertEquals(131072, granulator.historySize)
+        granulator.setGrainRandomness(0f)
+        // run well past the length of the history so that it wraps a few times
+        val output = granulate(granulator, 12.0)
+        for (sample in output) Assertions.assertTrue(sample.isFinite())
+        val end = output.size
+        Assertions.assertEquals(440.0, frequency(output, end - 44100, end), 5.0)
+        var peak = 0f
+        for (i in end - 44100 until end) peak = maxOf(peak, abs(output[i]))
+        Assertions.assertTrue(peak > 0.25f, "Output is not silent after the history wrapped")
+    }
+
+    @Test
+    fun testGrainPoolCapacity() {
+        val granulator = Granulator(sampleRate, bufferSize, 1f, 4)
+        granulator.setGrainSize(200)
+        granulator.setGrainInterval(5)
+        var maxActive = 0
+        granulate(granulator, 2.0) { maxActive = maxOf(maxActive, granulator.activeGrains) }
+        Assertions.assertEquals(4, maxActive)
+    }
+
+    @Test
+    fun testPositionOutsideHistoryIsSilent() {
+        val granulator = Granulator(sampleRate, bufferSize, 1f)
+        val output = granulate(granulator, 4.0) { if (it == 200) granulator.setPosition(0.5f) }
+        // the requested position is 3 seconds behind the input, outside of the one second history
+        var peak = 0f
+        for (i in 210 * bufferSize until 220 * bufferSize) peak = maxOf(peak, abs(output[i]))
+        Assertions.assertEquals(0f, peak, 0f)
+    }
+
+    @Test
+    fun testConcurrentParameterUpdates() {
+        val granulator = Granulator(sampleRate, bufferSize)
+        val running = AtomicBoolean(true)
+        val controller = Thread {
+            var i = 0
+            while (running.get()) {
+                granulator.setPitchShiftFactor(0.5f + (i % 10) / 5f)
+                granulator.setGrainSize(50 + i % 100)
+                granulator.setGrainInterval(20 + i % 30)
+                granulator.setGrainRandomness((i % 5) / 10f)
+                i++
+            }
+        }
+        controller.start()
+        val output = granulate(granulator, 5.0)
+        running.set(false)
+        controller.join()
+        for (sample in output) Assertions.assertTrue(sample.isFinite())
+        Assertions.assertTrue(granulator.activeGrains <= granulator.maxGrains)
+    }
+
+    @Test
+    fun benchmarkVoices() {
+        val voices = 32
+        val seconds = 5.0
+        val granulators = Array(voices) { Granulator(sampleRate, bufferSize) }
+        for (g in granulators.indices) granulators[g].setPitchShiftFactor(0.5f + g / 16f)
+        granulate(granulators[0], 1.0)
+        val start = System.nanoTime()
+        for (granulator in granulators) granulate(granulator, seconds)
+        val elapsed = (System.nanoTime() - start) / 1e9
+        println("%d granular voices, %.1fs of audio each: %.3fs (%.1fx real time)".format(voices, seconds, elapsed, voices * seconds / elapsed))
+    }
+
+    @Test
+    fun benchmarkDenseCloud() {
+        val seconds = 5.0
+        val granulator = Granulator(sampleRate, bufferSize)
+        granulator.setGrainSize(200)
+        granulator.setGrainInterval(5)
+        val pitches = floatArrayOf(0.4f, 1.0f, 1.5f, 3.0f)
+        // warm up every interpolation before timing
+        for (pitch in pitches) {
+            granulator.setPitchShiftFactor(pitch)
+            granulate(granulator, 1.0)
+        }
+        for (pitch in pitches) {
+            granulator.setPitchShiftFactor(pitch)
+            val start = System.nanoTime()
+            granulate(granulator, seconds)
+            val elapsed = (System.nanoTime() - start) / 1e9
+            println("Dense cloud of %d grains, pitch %.1f: %.3fs for %.1fs of audio (%.1fx real time)".format(granulator.activeGrains, pitch, elapsed, seconds, seconds / elapsed))
+        }
+    }
+}
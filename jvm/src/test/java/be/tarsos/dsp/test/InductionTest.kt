@@ -0,0 +1,96 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.beatroot.AgentList
+import be.tarsos.dsp.beatroot.EventStore
+import be.tarsos.dsp.beatroot.Induction
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+import kotlin.math.abs
+import kotlin.math.roundToLong
+
+class InductionTest {
+    private fun readOnsets(name: String): EventStore {
+        val onsets = EventStore()
+        for (line in TestUtilities.readFileFromJar(name)!!.split("\n")) {
+            if (line.isNotBlank()) onsets.add(line.trim().toDouble(), 1.0)
+        }
+        return onsets
+    }
+
+    private fun intervals(agents: AgentList): DoubleArray {
+        return DoubleArray(agents.size) { agents[it].beatInterval }
+    }
+
+    private fun trackedTempo(onsets: EventStore, agents: AgentList): Double {
+        agents.beatTrack(onsets, -1.0)
+        return agents.bestAgent()!!.beatInterval
+    }
+
+    @Test
+    fun testHistogramInductionOnFixtures() {
+        // the mean interval between the expected beats of NR45
+        val expectedBeats = readOnsets("NR45_expected_beats.txt")
+        val expectedInterval = (expectedBeats.lastTime - expectedBeats.time(0)) / (expectedBeats.size - 1)
+        for (name in arrayOf("NR45_expected_onsets.txt", "NR45_expected_onsets_complex.txt")) {
+            val onsets = readOnsets(name)
+            val clusters = intervals(Induction.beatInduction(onsets))
+            val histogram = intervals(Induction.histogramInduction(onsets))
+            Assertions.assertEquals(clusters.size, histogram.size, "Same number of hypotheses for $name")
+            for (interval in clusters.copyOf(3)) {
+                Assertions.assertTrue(histogram.any { abs(it - interval) < 0.01 }, "Hypothesis $interval should be found for $name")
+            }
+            val clusterTempo = trackedTempo(onsets, Induction.beatInduction(onsets))
+            val histogramTempo = trackedTempo(onsets, Induction.histogramInduction(onsets))
+            Assertions.assertEquals(clusterTempo, histogramTempo, 0.002, "Same tempo tracked for $name")
+            Assertions.assertEquals(expectedInterval, histogramTempo, 0.005)
+        }
+    }
+
+    @Test
+    fun testHistogramInductionBenchmark() {
+        val random = Random(2)
+        val beatInterval = 60.0 / 124
+        val onsets = EventStore()
+        var beat = 0.5
+        while (beat < 3 * 3600) {
+            for (k in 0 until 4) {
+                if (k == 0 || random.nextInt(3) == 0) {
+                    onsets.add(((beat + k * beatInterval / 4 + random.nextGaussian() * 0.004) * 100).roundToLong() / 100.0, 1.0)
+                }
+            }
+            beat += beatInterval
+        }
+        var start = System.nanoTime()
+        val clusters = intervals(Induction.beatInduction(onsets))
+        val clusterTime = (System.nanoTime() - start) / 1e6
+        start = System.nanoTime()
+        val histogram = intervals(Induction.histogramInduction(onsets))
+        val histogramTime = (System.nanoTime() - start) / 1e6
+        println(String.format("%d onsets: cluster induction %.1f ms, histogram induction %.1f ms", onsets.size, clusterTime, histogramTime))
+        Assertions.assertTrue(clusters.any { abs(it - beatInterval) < 0.005 })
+        Assertions.assertTrue(histogram.any { abs(it - beatInterval) < 0.005 })
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.beatroot.OnlineBeatTracker
+import be.tarsos.dsp.onsets.OnsetHandler
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+import kotlin.math.abs
+import kotlin.math.roundToLong
+
+class OnlineBeatTrackerTest {
+    private var clock = 0.0
+    private val beats = ArrayList<Double>()
+    private val reported = ArrayList<Double>()
+
+    private val tracker = OnlineBeatTracker(object : OnsetHandler {
+        override fun handleOnset(time: Double, salience: Double) {
+            beats.add(time)
+            reported.add(clock)
+        }
+    })
+
+    /**
+     * Feeds onsets on every beat with random sixteenth notes, advancing the
+     * clock every 10ms as an audio dispatcher would.
+     */
+    private fun play(random: Random, from: Double, to: Double, beatInterval: Double) {
+        val onsets = ArrayList<Double>()
+        var beat = from
+        while (beat < to) {
+            for (k in 0 until 4) {
+                if (k == 0 || random.nextInt(3) == 0) onsets.add(beat + k * beatInterval / 4 + random.nextGaussian() * 0.004)
+            }
+            beat += beatInterval
+        }
+        var next = 0
+        while (clock < to) {
+            clock = (clock * 100 + 1).roundToLong() / 100.0
+            while (next < onsets.size && onsets[next] <= clock) tracker.handleOnset(onsets[next++], random.nextDouble())
+            tracker.advance(clock)
+        }
+    }
+
+    private fun assertOnGrid(from: Double, to: Double, phase: Double, beatInterval: Double) {
+        var checked = 0
+        for (i in beats.indices) {
+            if (beats[i] < from || beats[i] >= to) continue
+            val offset = (beats[i] - phase) / beatInterval
+            Assertions.assertEquals(offset.roundToLong().toDouble(), offset, 0.1, "Beat at ${beats[i]} should be on the grid")
+            if (i > 0) Assertions.assertEquals(beatInterval, beats[i] - beats[i - 1], 0.05)
+            checked++
+        }
+        Assertions.assertTrue(checked >= (to - from) / beatInterval - 1, "Every beat should be reported")
+    }
+
+    @Test
+    fun testTempoChange() {
+        val random = Random(3)
+        play(random, 0.5, 30.0, 0.5)
+        Assertions.assertEquals(0.5, tracker.beatInterval, 0.02)
+        assertOnGrid(5.0, 30.0, 0.5, 0.5)
+        val change = beats.last() + 0.5
+        play(random, change, 60.0, 0.4)
+        Assertions.assertEquals(0.4, tracker.beatInterval, 0.02)
+        assertOnGrid(change + 12, 60.0, change, 0.4)
+        for (i in beats.indices) {
+            Assertions.assertTrue(reported[i] >= beats[i], "Beats are not reported ahead of time")
+            Assertions.assertTrue(reported[i] - beats[i] < 0.0101, "Beats are reported within one clock tick")
+        }
+    }
+
+    @Test
+    fun testReset() {
+        play(Random(4), 0.5, 10.0, 0.5)
+        Assertions.assertTrue(beats.isNotEmpty())
+        tracker.reset()
+        Assertions.assertEquals(-1.0, tracker.beatInterval)
+        val count = beats.size
+        tracker.advance(20.0)
+        Assertions.assertEquals(count, beats.size, "No beats without a hypothesis")
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.OverlapSearch
+import be.tarsos.dsp.WaveformSimilarityBasedOverlapAdd.Parameters
+import be.tarsos.dsp.WaveformSimilarityTimeStretcher
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+import kotlin.math.abs
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+class OverlapSearchTest {
+    private val sampleRate = 44100.0
+
+    /**
+     * A harmonic tone with vibrato, a few pitch changes and some noise.
+     */
+    private fun signal(seconds: Double): FloatArray {
+        val random = Random(1)
+        var phase = 0.0
+        return FloatArray((seconds * sampleRate).toInt()) {
+            val time = it / sampleRate
+            val f0 = doubleArrayOf(196.0, 247.0, 330.0, 220.0)[(time * 2).toInt() % 4] * (1 + 0.01 * sin(2 * Math.PI * 5 * time))
+            phase += 2 * Math.PI * f0 / sampleRate
+            var value = 0.0
+            for (h in 1..6) value += sin(h * phase) / h
+            (0.3 * value + 0.02 * random.nextGaussian()).toFloat()
+        }
+    }
+
+    /**
+     * The unweighted normalized correlation of the sloped reference and the samples at an offset.
+     */
+    private fun correlation(mid: FloatArray, samples: FloatArray, position: Int, offset: Int): Double {
+        var correlation = 0.0
+        var norm = 0.0
+        for (i in 1 until mid.size) {
+            val reference = mid[i] * i * (mid.size - i).toDouble()
+            correlation += reference * samples[position + offset + i]
+            norm += reference * reference
+        }
+        return correlation / sqrt(norm)
+    }
+
+    private class Trial(val mid: FloatArray, val position: Int)
+
+    private fun trials(signal: FloatArray, search: OverlapSearch, count: Int): List<Trial> {
+        val random = Random(2)
+        return List(count) {
+            val position = random.nextInt(signal.size - search.windowLength - search.overlapLength)
+            // the end of the previous sequence: audio from somewhat earlier in the signal
+            val from = position + random.nextInt(search.windowLength)
+            Trial(signal.copyOfRange(from, from + search.overlapLength), position)
+        }
+    }
+
+    @Test
+    fun testFastSearchQuality() {
+        val signal = signal(4.0)
+        for (parameters in listOf(Parameters.speechDefaults(2.0, sampleRate), Parameters.musicDefaults(2.0, sampleRate))) {
+            val overlap = (sampleRate * parameters.overlapMs / 1000).toInt()
+            val seek = (sampleRate * parameters.seekWindowMs / 1000).toInt()
+            val bruteForce = OverlapSearch(overlap, seek, OverlapSearch.Mode.BRUTE_FORCE)
+            val fft = OverlapSearch(overlap, seek, OverlapSearch.Mode.FFT)
+            val hierarchical = OverlapSearch(overlap, seek, OverlapSearch.Mode.HIERARCHICAL)
+            var fftMatches = 0
+            var hierarchicalMatches = 0
+            var worstLoss = 0.0
+            val trials = trials(signal, bruteForce, 500)
+            for (trial in trials) {
+                val expected = bruteForce.bestOffset(trial.mid, signal, trial.position)
+                val fftOffset = fft.bestOffset(trial.mid, signal, trial.position)
+                val hierarchicalOffset = hierarchical.bestOffset(trial.mid, signal, trial.position)
+                if (fftOffset == expected) fftMatches++
+                else Assertions.assertEquals(
+                    correlation(trial.mid, signal, trial.position, expected),
+                    correlation(trial.mid, signal, trial.position, fftOffset), 1e-3,
+                    "A different FFT offset can only be due to rounding"
+                )
+                if (hierarchicalOffset == expected) hierarchicalMatches++
+                worstLoss = maxOf(
+                    worstLoss,
+                    correlation(trial.mid, signal, trial.position, expected) - correlation(trial.mid, signal, trial.position, hierarchicalOffset)
+                )
+            }
+            Assertions.assertTrue(fftMatches >= trials.size * 0.99, "FFT offsets equal to brute force: $fftMatches")
+            Assertions.assertTrue(hierarchicalMatches >= trials.size * 0.9, "Hierarchical offsets equal to brute force: $hierarchicalMatches")
+            Assertions.assertTrue(worstLoss < 0.2, "Worst normalized correlation loss of the hierarchical search: $worstLoss")
+        }
+    }
+
+    @Test
+    fun testStretchedOutputMatches() {
+        val signal = signal(3.0)
+        val output = HashMap<OverlapSearch.Mode, FloatArray>()
+        for (mode in OverlapSearch.Mode.values()) {
+            val stretcher = WaveformSimilarityTimeStretcher(Parameters.speechDefaults(2.0, sampleRate), searchMode = mode)
+            stretcher.putSamples(signal, 0, signal.size)
+            stretcher.flush()
+            val stretched = FloatArray(stretcher.availableSamples)
+            stretcher.receiveSamples(stretched, 0, stretched.size)
+            output[mode] = stretched
+        }
+        val expected = output[OverlapSearch.Mode.BRUTE_FORCE]!!
+        for (mode in arrayOf(OverlapSearch.Mode.FFT, OverlapSearch.Mode.HIERARCHICAL)) {
+            val actual = output[mode]!!
+            Assertions.assertEquals(expected.size.toDouble(), actual.size.toDouble(), 2.0 * sampleRate / 100)
+            var difference = 0.0
+            var energy = 0.0
+            for (i in 0 until minOf(expected.size, actual.size)) {
+                difference += abs(expected[i] - actual[i])
+                energy += abs(expected[i])
+            }
+            Assertions.assertTrue(difference < 0.1 * energy, "$mode output differs too much: ${difference / energy}")
+        }
+    }
+
+    @Test
+    fun benchmarkSearch() {
+        val signal = signal(4.0)
+        for (parameters in listOf(Parameters.speechDefaults(2.0, sampleRate), Parameters.musicDefaults(2.0, sampleRate))) {
+            val overlap = (sampleRate * parameters.overlapMs / 1000).toInt()
+            val seek = (sampleRate * parameters.seekWindowMs / 1000).toInt()
+            for (mode in OverlapSearch.Mode.values()) {
+                val search = OverlapSearch(overlap, seek, mode)
+                val trials = trials(signal, search, 200)
+                var checksum = 0L
+                // warm up
+                for (trial in trials) checksum += search.bestOffset(trial.mid, signal, trial.position)
+                val start = System.nanoTime()
+                for (repeat in 0 until 5) {
+                    for (trial in trials) checksum += search.bestOffset(trial.mid, signal, trial.position)
+                }
+                val perSearch = (System.nanoTime() - start) / 1000.0 / (5 * trials.size)
+                val kind = if (seek < 1000) "speech" else "music"
+                println("%-8s %-12s %8.1f µs per search (checksum %d)".format(kind, mode, perSearch, checksum))
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.util.BiQuadFilter
+import be.tarsos.dsp.util.PeakPicker
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+
+class PeakPickerTest {
+    /**
+     * The peak picking of Aubio: shift the window, filter it forwards and
+     * backwards and sort it to find the median.
+     */
+    private class ReferencePeakPicker(private val threshold: Double, private val post: Int, pre: Int) {
+        private val biquad = BiQuadFilter(0.1600, 0.3200, 0.1600, -0.5949, 0.2348)
+        private val keep = FloatArray(post + pre + 1)
+        private val proc = FloatArray(keep.size)
+        private val scratch = FloatArray(keep.size)
+        private val peek = FloatArray(3)
+
+        fun pickPeak(onset: Float): Boolean {
+            for (j in 0 until keep.size - 1) {
+                keep[j] = keep[j + 1]
+                proc[j] = keep[j]
+            }
+            keep[keep.size - 1] = onset
+            proc[keep.size - 1] = onset
+            biquad.doFiltering(proc, scratch)
+            var sum = 0f
+            for (j in proc.indices) {
+                scratch[j] = proc[j]
+                sum += scratch[j]
+            }
+            Arrays.sort(scratch)
+            val median = scratch[scratch.size / 2]
+            val mean = sum / keep.size.toFloat()
+            System.arraycopy(peek, 1, peek, 0, 2)
+            peek[2] = (proc[post] - median - mean * threshold).toFloat()
+            return peek[1] > peek[0] && peek[1] > peek[2] && peek[1] > 0.0
+        }
+    }
+
+    private fun onsets(random: Random, length: Int): FloatArray {
+        return FloatArray(length) {
+            if (random.nextInt(8) == 0) 5 + random.nextFloat() * 20 else random.nextFloat() * 2
+        }
+    }
+
+    @Test
+    fun testEqualToAubioPeakPicking() {
+        val random = Random(1)
+        for (window in arrayOf(intArrayOf(5, 1), intArrayOf(8, 7), intArrayOf(2, 0), intArrayOf(30, 2))) {
+            val reference = ReferencePeakPicker(0.3, window[0], window[1])
+            val peakPicker = PeakPicker(0.3, window[0], window[1])
+            var peaks = 0
+            for (onset in onsets(random, 10000)) {
+                val expected = reference.pickPeak(onset)
+                Assertions.assertEquals(expected, peakPicker.pickPeak(onset), "Peaks should be the same as in Aubio")
+                if (expected) peaks++
+            }
+            Assertions.assertTrue(peaks > 100, "The onsets should contain peaks")
+        }
+    }
+
+    @Test
+    fun testIncrementalPulses() {
+        val random = Random(2)
+        val post = 40
+        val pre = 3
+        val peakPicker = PeakPicker(0.3, post, pre, true)
+        val period = 25
+        val detected = ArrayList<Int>()
+        for (i in 0 until 2000) {
+            val onset = if (i % period == 0) 10f else random.nextFloat() * 0.1f
+            // skip the peaks while the window fills up
+            if (peakPicker.pickPeak(onset) && i >= 2 * period) detected.add(i)
+        }
+        Assertions.assertEquals(2000 / period - 2, detected.size, "Each pulse should give one peak")
+        for (i in detected.indices) {
+            // the anti-causal part of the window, the low pass filter and one onset to see the peak
+            val delay = detected[i] - (i + 2) * period
+            Assertions.assertTrue(delay in pre + 1..pre + 3, "Peak detected with a delay of $delay onsets")
+        }
+        peakPicker.reset()
+        Assertions.assertFalse(peakPicker.pickPeak(0f))
+        Assertions.assertEquals(0f, peakPicker.lastPeekValue)
+    }
+
+    @Test
+    fun testIncrementalBenchmark() {
+        val random = Random(3)
+        val values = onsets(random, 1 shl 14)
+        for (window in intArrayOf(6, 100, 1000)) {
+            val post = window - window / 8
+            val pre = window / 8
+            for (incremental in booleanArrayOf(false, true)) {
+                val peakPicker = PeakPicker(0.3, post, pre, incremental)
+                val iterations = 2_000_000 / window
+                for (i in 0 until iterations) peakPicker.pickPeak(values[i and values.size - 1])
+                val start = System.nanoTime()
+                for (i in 0 until iterations) peakPicker.pickPeak(values[i and values.size - 1])
+                val time = (System.nanoTime() - start) / iterations.toDouble()
+                println(String.format("Window of %4d onsets, incremental %5b: %8.1f ns per onset", window + 1, incremental, time))
+            }
+        }
+    }
+}
@@ -1,11 +1,19 @@
 package be.tarsos.dsp.test
 
+import be.tarsos.dsp.AudioEvent
 import be.tarsos.dsp.PitchShifter
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
 import be.tarsos.dsp.io.jvm.AudioDispatcherFactory.fromFloatArray
 import be.tarsos.dsp.io.jvm.AudioPlayer
+import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
 import java.io.IOException
 import javax.sound.sampled.AudioFormat
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.sin
+import kotlin.math.sqrt
 import javax.sound.sampled.LineUnavailableException
 import javax.sound.sampled.UnsupportedAudioFileException
 
@@ -28,4 +36,154 @@ class PitchShifterTest {
         d.addAudioProcessor(AudioPlayer(f))
         d.run()
     }
-}
\ No newline at end of file
+
+    private fun shift(shifter: PitchShifter, channels: Array<FloatArray>, size: Int, hop: Int): Array<FloatArray> {
+        val format = TarsosDSPAudioFormat(44100f, 16, channels.size, true, false)
+        val length = channels[0].size
+        val result = Array(channels.size) { FloatArray(length) }
+        var start = 0
+        while (start + size <= length) {
+            val buffer = FloatArray(size * channels.size)
+            for (c in channels.indices) for (i in 0 until size) buffer[i * channels.size + c] = channels[c][start + i]
+            val event = AudioEvent(format, buffer)
+            shifter.process(event)
+            // the last hop of each buffer is new output
+            for (c in channels.indices) for (i in size - hop until size) {
+                result[c][start + i] = event.floatBuffer[i * channels.size + c]
+            }
+            start += hop
+        }
+        return result
+    }
+
+    @Test
+    fun testStereoPitchShiftIsCoherent() {
+        val left = TestUtilities.audioBufferSine(44100)
+        for (i in left.indices) left[i] *= 0.5f
+        val size = 1024
+        val hop = 256
+        val mono = shift(PitchShifter(1.35, 44100.0, size, size - hop), arrayOf(left), size, hop)[0]
+
+        // identical channels are shifted exactly like mono audio
+        val same = shift(PitchShifter(1.35, 44100.0, size, size - hop, 2), arrayOf(left, left), size, hop)
+        Assertions.assertArrayEquals(mono, same[0])
+        Assertions.assertArrayEquals(mono, same[1])
+
+        // an inverted, softer channel stays inverted and softer
+        val right = FloatArray(left.size) { -0.5f * left[it] }
+        val stereo = shift(PitchShifter(1.35, 44100.0, size, size - hop, 2), arrayOf(left, right), size, hop)
+        for (i in left.indices) Assertions.assertEquals(-0.5f * stereo[0][i], stereo[1][i], 1e-4f)
+    }
+
+    @Test
+    fun testAntiPhaseStereo() {
+        val left = TestUtilities.audioBufferSine(44100)
+        for (i in left.indices) left[i] *= 0.5f
+        val right = FloatArray(left.size) { -left[it] }
+        val size = 1024
+        val hop = 256
+        val mono = shift(PitchShifter(1.35, 44100.0, size, size - hop), arrayOf(left), size, hop)[0]
+
+        // the mid signal is silent, so the phase advance follows the channels
+        val stereo = shift(PitchShifter(1.35, 44100.0, size, size - hop, 2), arrayOf(left, right), size, hop)
+        for (i in left.indices) {
+            Assertions.assertEquals(mono[i], stereo[0][i], 1e-4f)
+            Assertions.assertEquals(-stereo[0][i], stereo[1][i], 1e-4f)
+        }
+    }
+
+    @Test
+    fun testMixedDownEventIsRejected() {
+        val shifter = PitchShifter(1.35, 44100.0, 1024, 768, 2)
+        val event = AudioEvent(TarsosDSPAudioFormat(44100f, 16, 2, true, false), FloatArray(2048))
+        event.channels = 1
+        Assertions.assertThrows(IllegalArgumentException::class.java) { shifter.process(event) }
+    }
+
+    private fun sine(frequency: Double, amplitude: Double, length: Int = 44100) =
+        FloatArray(length) { (amplitude * sin(2 * PI * frequency * it / 44100)).toFloat() }
+
+    private fun peak(samples: FloatArray, from: Int, to: Int): Float {
+        var peak = 0f
+        for (i in from until to) peak = max(peak, abs(samples[i]))
+        return peak
+    }
+
+    @Test
+    fun testGainAndPitch() {
+        val size = 1024
+        for (hop in intArrayOf(size / 4, size / 2)) {
+            // unity gain over the whole band
+            for (frequency in doubleArrayOf(440.0, 5000.0, 15000.0)) {
+                val output = shift(PitchShifter(1.0, 44100.0, size, size - hop), arrayOf(sine(frequency, 0.3)), size, hop)[0]
+                Assertions.assertEquals(0.3f, peak(output, 10000, 40000), 0.01f, "Gain at $frequency Hz with hop $hop")
+            }
+            // the pitch is shifted
+            val output = shift(PitchShifter(1.5, 44100.0, size, size - hop), arrayOf(sine(440.0, 0.3)), size, hop)[0]
+            var crossings = 0
+            for (i in 10001 until 40000) if (output[i - 1] < 0 && output[i] >= 0) crossings++
+            Assertions.assertEquals(660.0, crossings * 44100.0 / 30000, 5.0, "Shifted frequency with hop $hop")
+        }
+    }
+
+    /**
+     * The relative standard deviation of the RMS in 10ms frames, a steady tone should have
+     * a steady envelope. Phasiness shows up as fluctuations of the envelope.
+     */
+    private fun envelopeFluctuation(samples: FloatArray, from: Int, to: Int): Double {
+        val frame = 441
+        val rms = ArrayList<Double>()
+        var start = from
+        while (start + frame <= to) {
+            var energy = 0.0
+            for (i in start until start + frame) energy += samples[i] * samples[i].toDouble()
+            rms.add(sqrt(energy / frame))
+            start += frame
+        }
+        val mean = rms.average()
+        var variance = 0.0
+        for (value in rms) variance += (value - mean) * (value - mean)
+        return sqrt(variance / rms.size) / mean
+    }
+
+    @Test
+    fun testPhaseLocking() {
+        // a harmonic tone with vibrato, shifted with an overlap factor of two
+        val size = 1024
+        val hop = size / 2
+        var phase = 0.0
+        val tone = FloatArray(44100) {
+            phase += 2 * PI * 220 * (1 + 0.02 * sin(2 * PI * 5 * it / 44100)) / 44100
+            var value = 0.0
+            for (h in 1..8) value += 0.3 * sin(h * phase) / h
+            value.toFloat()
+        }
+        for (ratio in doubleArrayOf(0.8, 1.25)) {
+            val fluctuation = DoubleArray(2)
+            for ((index, locking) in booleanArrayOf(false, true).withIndex()) {
+                val output = shift(PitchShifter(ratio, 44100.0, size, size - hop, 1, locking), arrayOf(tone), size, hop)[0]
+                fluctuation[index] = envelopeFluctuation(output, 10000, 40000)
+            }
+            Assertions.assertTrue(
+                fluctuation[1] < 0.9 * fluctuation[0],
+                "Phase locking should steady the envelope at ratio $ratio: ${fluctuation[1]} vs ${fluctuation[0]}"
+            )
+        }
+    }
+
+    @Test
+    fun benchmarkPitchShift() {
+        val size = 2048
+        val hop = size / 4
+        val input = sine(440.0, 0.3, 10 * 44100)
+        for (locking in booleanArrayOf(false, true)) {
+            var time = 0.0
+            for (repeat in 0 until 3) {
+                val start = System.nanoTime()
+                shift(PitchShifter(1.2, 44100.0, size, size - hop, 1, locking), arrayOf(input), size, hop)
+                time = (System.nanoTime() - start) / 1e6
+            }
+            println("Pitch shifting 10s of audio, phase locking $locking: %.1f ms".format(time))
+        }
+    }
+}
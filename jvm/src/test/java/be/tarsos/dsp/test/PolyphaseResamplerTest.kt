@@ -0,0 +1,148 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.resample.PolyphaseResampler
+import be.tarsos.dsp.resample.Resampler
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+import kotlin.math.PI
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+class PolyphaseResamplerTest {
+    private val conversions = listOf(44100 to 16000, 48000 to 16000, 16000 to 44100, 22050 to 44100)
+
+    private fun tones(sampleRate: Int, seconds: Double, vararg frequencies: Double) =
+        FloatArray((sampleRate * seconds).toInt()) { i ->
+            var value = 0.0
+            for (frequency in frequencies) value += 0.2 * sin(2 * PI * frequency * i / sampleRate)
+            value.toFloat()
+        }
+
+    private fun interpolated(from: Int, to: Int, highQuality: Boolean, input: FloatArray): FloatArray {
+        val factor = to.toDouble() / from
+        val output = FloatArray((input.size * factor).toInt() + 100)
+        val result = Resampler(highQuality, factor, factor).process(factor, input, 0, input.size, true, output, 0, output.size)
+        return output.copyOf(result.outputSamplesGenerated)
+    }
+
+    private fun polyphase(resampler: PolyphaseResampler, input: FloatArray): FloatArray {
+        val output = FloatArray((input.size * resampler.factor).toInt() + 100)
+        val result = resampler.process(input, 0, input.size, true, output, 0, output.size)
+        return output.copyOf(result.outputSamplesGenerated)
+    }
+
+    private fun rms(samples: FloatArray, from: Int, to: Int): Double {
+        var sum = 0.0
+        for (i in from until to) sum += samples[i] * samples[i].toDouble()
+        return sqrt(sum / (to - from))
+    }
+
+    @Test
+    fun testSameAsInterpolatedResampler() {
+        for ((from, to) in conversions) {
+            for (highQuality in booleanArrayOf(false, true)) {
+                val input = tones(from, 1.0, 440.0, 3000.0, 7000.0)
+                val expected = interpolated(from, to, highQuality, input)
+                val actual = polyphase(PolyphaseResampler(from, to, highQuality), input)
+                Assertions.assertEquals(expected.size.toDouble(), actual.size.toDouble(), 4.0)
+                var error = 0.0
+                var energy = 0.0
+                for (i in 1000 until expected.size - 1000) {
+                    error += (expected[i] - actual[i]) * (expected[i] - actual[i]).toDouble()
+                    energy += expected[i] * expected[i].toDouble()
+                }
+                Assertions.assertTrue(sqrt(error / energy) < 1e-3, "$from to $to differs: ${sqrt(error / energy)}")
+            }
+        }
+    }
+
+    @Test
+    fun testStopband() {
+        // a tone above the Nyquist frequency of the output is removed as well as by the interpolating resampler
+        for (highQuality in booleanArrayOf(false, true)) {
+            val input = tones(44100, 1.0, 10000.0)
+            val expected = interpolated(44100, 16000, highQuality, input)
+            val actual = polyphase(PolyphaseResampler(44100, 16000, highQuality), input)
+            val expectedLevel = rms(expected, 1000, expected.size - 1000)
+            val actualLevel = rms(actual, 1000, actual.size - 1000)
+            Assertions.assertTrue(actualLevel < 0.01 * rms(input, 0, input.size), "Level in the stopband: $actualLevel")
+            Assertions.assertTrue(actualLevel < 1.1 * expectedLevel, "Stopband level $actualLevel, interpolated $expectedLevel")
+        }
+    }
+
+    @Test
+    fun testBlocksAndReset() {
+        val input = tones(44100, 1.0, 440.0, 5000.0)
+        val whole = polyphase(PolyphaseResampler(44100, 16000), input)
+        val resampler = PolyphaseResampler(44100, 16000)
+        val random = Random(1)
+        for (repeat in 0 until 2) {
+            val output = FloatArray(whole.size + 100)
+            var generated = 0
+            var offset = 0
+            while (offset < input.size) {
+                val length = minOf(1 + random.nextInt(2000), input.size - offset)
+                val last = offset + length == input.size
+                // small output buffers, the remaining output follows with the next batch
+                val room = minOf(1 + random.nextInt(2000), output.size - generated)
+                val result = resampler.process(input, offset, length, last, output, generated, room)
+                Assertions.assertEquals(length, result.inputSamplesConsumed)
+                generated += result.outputSamplesGenerated
+                offset += length
+            }
+            while (true) {
+                val result = resampler.process(input, 0, 0, true, output, generated, output.size - generated)
+                if (result.outputSamplesGenerated == 0) break
+                generated += result.outputSamplesGenerated
+            }
+            Assertions.assertArrayEquals(whole, output.copyOf(generated))
+            resampler.reset()
+        }
+    }
+
+    @Test
+    fun benchmarkResamplers() {
+        for ((from, to) in conversions.subList(0, 2)) {
+            val input = tones(from, 30.0, 440.0, 3000.0)
+            for (highQuality in booleanArrayOf(false, true)) {
+                var interpolatedTime = 0.0
+                var polyphaseTime = 0.0
+                for (repeat in 0 until 3) {
+                    var start = System.nanoTime()
+                    interpolated(from, to, highQuality, input)
+                    interpolatedTime = (System.nanoTime() - start) / 1e6
+                    start = System.nanoTime()
+                    polyphase(PolyphaseResampler(from, to, highQuality), input)
+                    polyphaseTime = (System.nanoTime() - start) / 1e6
+                }
+                println(
+                    "%d to %d, high quality %b, 30s of audio: interpolated %.1f ms, polyphase %.1f ms"
+                        .format(from, to, highQuality, interpolatedTime, polyphaseTime)
+                )
+            }
+        }
+    }
+}
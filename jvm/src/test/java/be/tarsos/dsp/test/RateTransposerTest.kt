@@ -22,16 +22,25 @@
  */
 package be.tarsos.dsp.test
 
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.AudioProcessor
 import be.tarsos.dsp.WaveformSimilarityBasedOverlapAdd
+import be.tarsos.dsp.WaveformSimilarityTimeStretcher
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
 import be.tarsos.dsp.io.jvm.AudioDispatcherFactory.fromFloatArray
 import be.tarsos.dsp.io.jvm.AudioDispatcherFactory.fromInputStream
 import be.tarsos.dsp.io.jvm.AudioPlayer
 import be.tarsos.dsp.resample.RateTransposer
+import be.tarsos.dsp.resample.SoundTouchRateTransposer
+import be.tarsos.dsp.util.FloatFifo
+import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
 import java.io.IOException
 import javax.sound.sampled.AudioFormat
 import javax.sound.sampled.LineUnavailableException
 import javax.sound.sampled.UnsupportedAudioFileException
+import kotlin.math.PI
+import kotlin.math.abs
 
 class RateTransposerTest {
     @Test
@@ -58,10 +67,11 @@ class RateTransposerTest {
         )
         val f =
             AudioFormat(sampleRate.toFloat(), 16, 1, true, false)
+        val rateTransposer = RateTransposer(factor)
         w.setDispatcher(d)
         d.addAudioProcessor(w)
-        d.addAudioProcessor(RateTransposer(factor))
-        d.addAudioProcessor(AudioPlayer(f))
+        d.addAudioProcessor(rateTransposer)
+        rateTransposer.addOutputProcessor(AudioPlayer(f))
         d.run()
     }
 
@@ -87,10 +97,154 @@ class RateTransposerTest {
         )
         val f =
             AudioFormat(sampleRate.toFloat(), 16, 1, true, false)
+        val rateTransposer = RateTransposer(factor)
         w.setDispatcher(d)
         d.addAudioProcessor(w)
-        d.addAudioProcessor(RateTransposer(factor))
-        d.addAudioProcessor(AudioPlayer(f))
+        d.addAudioProcessor(rateTransposer)
+        rateTransposer.addOutputProcessor(AudioPlayer(f))
         d.run()
     }
-}
\ No newline at end of file
+
+    /**
+     * Collects the frames passed on by a transposer, checking that they have a fixed size.
+     */
+    private class Collector(val frameSize: Int) : AudioProcessor {
+        val samples = FloatFifo()
+        val buffers = HashSet<FloatArray>()
+        var finished = false
+
+        override fun process(audioEvent: AudioEvent): Boolean {
+            Assertions.assertEquals(frameSize, audioEvent.bufferSize)
+            buffers.add(audioEvent.floatBuffer)
+            samples.put(audioEvent.floatBuffer, 0, audioEvent.bufferSize)
+            return true
+        }
+
+        override fun processingFinished() {
+            finished = true
+        }
+
+        fun toArray() = samples.buffer.copyOfRange(samples.position, samples.position + samples.size)
+    }
+
+    /**
+     * Feeds a signal as overlapping buffers, like a dispatcher does.
+     */
+    private fun feed(processor: AudioProcessor, signal: FloatArray, beforeEvent: (Int) -> Unit = {}) {
+        val size = 2048
+        val overlap = 1024
+        val buffer = FloatArray(size)
+        val event = AudioEvent(TarsosDSPAudioFormat(44100f, 16, 1, true, false), buffer)
+        event.overlap = overlap
+        var start = 0
+        var index = 0
+        while (start + size <= signal.size) {
+            beforeEvent(index++)
+            System.arraycopy(signal, start, buffer, 0, size)
+            processor.process(event)
+            Assertions.assertSame(buffer, event.floatBuffer, "The event is left untouched")
+            start += size - overlap
+        }
+        processor.processingFinished()
+    }
+
+    private fun sine(frequency: Double, length: Int) =
+        FloatArray(length) { (0.5 * kotlin.math.sin(2 * PI * frequency * it / 44100)).toFloat() }
+
+    private fun frequency(samples: FloatArray, from: Int, to: Int): Double {
+        var crossings = 0
+        for (i in from + 1 until to) if (samples[i - 1] < 0 && samples[i] >= 0) crossings++
+        return crossings * 44100.0 / (to - from)
+    }
+
+    private fun maxStep(samples: FloatArray, from: Int, to: Int): Float {
+        var step = 0f
+        for (i in from + 1 until to) step = maxOf(step, abs(samples[i] - samples[i - 1]))
+        return step
+    }
+
+    @Test
+    fun testFixedFrames() {
+        val input = sine(440.0, 44100 * 2)
+        for (factor in doubleArrayOf(0.5, 0.8, 1.5)) {
+            val transposer = RateTransposer(factor, 512)
+            val collector = Collector(512)
+            transposer.addOutputProcessor(collector)
+            // the last buffer of the signal is fed completely
+            feed(transposer, input.copyOf(1024 * (input.size / 1024) + 1024))
+            val output = collector.toArray()
+            Assertions.assertTrue(collector.finished)
+            Assertions.assertEquals(1, collector.buffers.size, "One reused frame buffer")
+            Assertions.assertEquals(input.size * factor, output.size.toDouble(), 0.02 * input.size * factor + 1024)
+            Assertions.assertEquals(440 / factor, frequency(output, 2000, (input.size * factor).toInt() - 4000), 5.0)
+        }
+    }
+
+    @Test
+    fun testSoundTouchFractionalRate() {
+        val input = sine(440.0, 44100 * 2)
+        for (rate in doubleArrayOf(0.75, 1.5, 2.5)) {
+            val transposer = SoundTouchRateTransposer(rate, 512)
+            val collector = Collector(512)
+            transposer.addOutputProcessor(collector)
+            feed(transposer, input)
+            val output = collector.toArray()
+            Assertions.assertEquals(1, collector.buffers.size, "One reused frame buffer")
+            Assertions.assertEquals(input.size / rate, output.size.toDouble(), 0.05 * input.size / rate + 512)
+            Assertions.assertEquals(440 * rate, frequency(output, 2000, (input.size / rate).toInt() - 4000), 5.0)
+        }
+    }
+
+    @Test
+    fun testSmoothRatioChange() {
+        val input = sine(440.0, 44100 * 2)
+        // the largest step between samples of a sine of 440Hz at the highest pitch
+        val highestPitch = 440 / 0.5
+        val largestStep = (0.5 * 2 * PI * highestPitch / 44100).toFloat()
+
+        val transposer = RateTransposer(1.0)
+        val collector = Collector(1024)
+        transposer.addOutputProcessor(collector)
+        feed(transposer, input) { if (it == 30) transposer.setFactor(0.5) }
+        val output = collector.toArray()
+        Assertions.assertTrue(maxStep(output, 1000, output.size - 2000) < 1.05 * largestStep)
+        Assertions.assertEquals(880.0, frequency(output, output.size - 20000, output.size - 2000), 10.0)
+
+        val soundTouch = SoundTouchRateTransposer(1.0)
+        val soundTouchCollector = Collector(1024)
+        soundTouch.addOutputProcessor(soundTouchCollector)
+        feed(soundTouch, input) { if (it == 30) soundTouch.setRate(2.0) }
+        val soundTouchOutput = soundTouchCollector.toArray()
+        Assertions.assertTrue(maxStep(soundTouchOutput, 1000, soundTouchOutput.size - 2000) < 1.05 * largestStep)
+        Assertions.assertEquals(880.0, frequency(soundTouchOutput, soundTouchOutput.size - 20000, soundTouchOutput.size - 2000), 10.0)
+    }
+
+    @Test
+    fun testStretchAndTranspose() {
+        val factor = 1.2
+        val input = sine(440.0, 44100 * 4)
+        val w = WaveformSimilarityTimeStretcher(
+            WaveformSimilarityBasedOverlapAdd.Parameters.musicDefaults(1.2, 44100.0)
+        )
+        val d = fromFloatArray(input, 44100, 2048, 0)
+        val rateTransposer = RateTransposer(factor)
+        val collector = Collector(1024)
+        d.addAudioProcessor(w)
+        w.addOutputProcessor(rateTransposer)
+        rateTransposer.addOutputProcessor(collector)
+        d.run()
+        val output = collector.toArray()
+        Assertions.assertTrue(collector.finished)
+        // the tempo change and the transposition cancel out in length
+        Assertions.assertEquals(input.size.toDouble(), output.size.toDouble(), 0.05 * input.size)
+        Assertions.assertEquals(440 / factor, frequency(output, 2000, output.size - 4000), 5.0)
+    }
+
+    @Test
+    fun testProcessWithoutOutputProcessorFails() {
+        val format = TarsosDSPAudioFormat(44100f, 16, 1, true, false)
+        val event = AudioEvent(format, sine(440.0, 1024))
+        Assertions.assertThrows(IllegalStateException::class.java) { RateTransposer(1.5).process(event) }
+        Assertions.assertThrows(IllegalStateException::class.java) { SoundTouchRateTransposer(1.5).process(event) }
+    }
+}
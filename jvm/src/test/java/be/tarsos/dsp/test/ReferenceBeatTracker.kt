@@ -0,0 +1,375 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.beatroot.Event
+import be.tarsos.dsp.beatroot.EventList
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.roundToInt
+import kotlin.math.roundToLong
+
+/**
+ * The previous beat tracker, which keeps the agents in a linked list and
+ * their beats in an [EventList]. Tempo induction, beat tracking and beat
+ * interpolation are frozen here so that the array backed implementation
+ * can be compared with it.
+ */
+internal object ReferenceBeatTracker {
+    private const val CLUSTER_WIDTH = 0.025
+    private const val MIN_IOI = 0.070
+    private const val MAX_IOI = 2.500
+    private const val MIN_IBI = 0.3
+    private const val MAX_IBI = 1.0
+    private const val TOP_N = 10
+    private const val THRESHOLD_BI = 0.02
+    private const val THRESHOLD_BT = 0.04
+
+    /**
+     * Tracks the beats in the onsets and returns the interpolated beat times of the best agent.
+     */
+    fun beatTrack(events: EventList): DoubleArray {
+        val agents = beatInduction(events)
+        agents.beatTrack(events)
+        val best = agents.bestAgent() ?: return DoubleArray(0)
+        best.fillBeats()
+        return best.events.toOnsetArray()
+    }
+
+    private class ReferenceAgent {
+        var phaseScore = 0.0
+        var topScoreTime = 0.0
+        var beatCount = 0
+        var beatInterval: Double
+        val initialBeatInterval: Double
+        var beatTime: Double
+        val events: EventList
+        val preMargin: Double
+        val postMargin: Double
+
+        constructor(clone: ReferenceAgent) {
+            phaseScore = clone.phaseScore
+            topScoreTime = clone.topScoreTime
+            beatCount = clone.beatCount
+            beatInterval = clone.beatInterval
+            initialBeatInterval = clone.initialBeatInterval
+            beatTime = clone.beatTime
+            events = EventList(clone.events)
+            postMargin = clone.postMargin
+            preMargin = clone.preMargin
+        }
+
+        constructor(ibi: Double) {
+            beatInterval = ibi
+            initialBeatInterval = ibi
+            postMargin = ibi * 0.3
+            preMargin = ibi * 0.15
+            beatTime = -1.0
+            events = EventList()
+        }
+
+        private fun accept(e: Event, err: Double, beats: Int) {
+            beatTime = e.keyDown
+            events.add(e)
+            if (abs(initialBeatInterval - beatInterval - err / 50.0) < 0.2 * initialBeatInterval)
+                beatInterval += err / 50.0
+            beatCount += beats
+            val conFactor = 1.0 - 0.5 * err / if (err > 0) postMargin else -preMargin
+            phaseScore += conFactor * e.salience
+        }
+
+        fun considerAsBeat(e: Event, a: ReferenceAgentList): Boolean {
+            if (beatTime < 0) {
+                accept(e, 0.0, 1)
+                return true
+            }
+            if (e.keyDown - events.l.last.keyDown > 10.0) {
+                phaseScore = -1.0
+                return false
+            }
+            val beats = ((e.keyDown - beatTime) / beatInterval).roundToLong().toDouble()
+            val err = e.keyDown - beatTime - beats * beatInterval
+            if (beats > 0 && -preMargin <= err && err <= postMargin) {
+                if (abs(err) > 0.040) a.add(ReferenceAgent(this))
+                accept(e, err, beats.toInt())
+                return true
+            }
+            return false
+        }
+
+        fun fillBeats() {
+            var prevBeat = 0.0
+            val list = events.listIterator()
+            if (list.hasNext()) {
+                prevBeat = list.next().keyDown
+                list.previous()
+            }
+            while (list.hasNext()) {
+                val nextBeat = list.next().keyDown
+                list.previous()
+                var beats = ((nextBeat - prevBeat) / beatInterval - 0.01).roundToLong().toDouble()
+                val currentInterval = (nextBeat - prevBeat) / beats
+                while (nextBeat > -1.0 && beats > 1.5) {
+                    prevBeat += currentInterval
+                    list.add(Event(prevBeat, prevBeat, prevBeat, 56, 64, 0.0, 0.0, 1))
+                    beats--
+                }
+                prevBeat = nextBeat
+                list.next()
+            }
+        }
+    }
+
+    private class ReferenceAgentList(var ag: ReferenceAgent? = null, var next: ReferenceAgentList? = null) {
+        init {
+            if (next == null && ag != null) next = ReferenceAgentList()
+        }
+
+        fun add(newAgent: ReferenceAgent) {
+            var ptr: ReferenceAgentList = this
+            while (ptr.ag != null) {
+                if (newAgent.beatInterval <= ptr.ag!!.beatInterval) {
+                    ptr.next = ReferenceAgentList(ptr.ag, ptr.next)
+                    ptr.ag = newAgent
+                    return
+                }
+                ptr = ptr.next!!
+            }
+            ptr.next = ReferenceAgentList()
+            ptr.ag = newAgent
+        }
+
+        private fun sort() {
+            var sorted = false
+            while (!sorted) {
+                sorted = true
+                var ptr: ReferenceAgentList = this
+                while (ptr.ag != null) {
+                    val next = ptr.next!!
+                    if (next.ag != null && ptr.ag!!.beatInterval > next.ag!!.beatInterval) {
+                        val temp = ptr.ag
+                        ptr.ag = next.ag
+                        next.ag = temp
+                        sorted = false
+                    }
+                    ptr = next
+                }
+            }
+        }
+
+        private fun remove(ptr: ReferenceAgentList) {
+            ptr.ag = ptr.next!!.ag
+            ptr.next = ptr.next!!.next
+        }
+
+        private fun removeDuplicates() {
+            sort()
+            var ptr: ReferenceAgentList = this
+            while (ptr.ag != null) {
+                val a = ptr.ag!!
+                if (a.phaseScore < 0.0) {
+                    ptr = ptr.next!!
+                    continue
+                }
+                var ptr2 = ptr.next!!
+                while (ptr2.ag != null) {
+                    val b = ptr2.ag!!
+                    if (b.beatInterval - a.beatInterval > THRESHOLD_BI) break
+                    if (abs(a.beatTime - b.beatTime) > THRESHOLD_BT) {
+                        ptr2 = ptr2.next!!
+                        continue
+                    }
+                    if (a.phaseScore < b.phaseScore) {
+                        a.phaseScore = -1.0
+                        if (b.topScoreTime < a.topScoreTime) b.topScoreTime = a.topScoreTime
+                        break
+                    } else {
+                        b.phaseScore = -1.0
+                        if (a.topScoreTime < b.topScoreTime) a.topScoreTime = b.topScoreTime
+                    }
+                    ptr2 = ptr2.next!!
+                }
+                ptr = ptr.next!!
+            }
+            ptr = this
+            while (ptr.ag != null) {
+                if (ptr.ag!!.phaseScore < 0.0) remove(ptr) else ptr = ptr.next!!
+            }
+        }
+
+        fun beatTrack(el: EventList) {
+            val phaseGiven = ag != null && ag!!.beatTime >= 0
+            for (ev in el) {
+                var created = phaseGiven
+                var prevBeatInterval = -1.0
+                var ap: ReferenceAgentList = this
+                while (ap.ag != null) {
+                    val currentAgent = ap.ag!!
+                    if (currentAgent.beatInterval != prevBeatInterval) {
+                        if (prevBeatInterval >= 0 && !created && ev.keyDown < 5.0) {
+                            val newAgent = ReferenceAgent(prevBeatInterval)
+                            newAgent.considerAsBeat(ev, this)
+                            add(newAgent)
+                        }
+                        prevBeatInterval = currentAgent.beatInterval
+                        created = phaseGiven
+                    }
+                    if (currentAgent.considerAsBeat(ev, this)) created = true
+                    if (currentAgent != ap.ag) ap = ap.next!!
+                    ap = ap.next!!
+                }
+                removeDuplicates()
+            }
+        }
+
+        fun bestAgent(): ReferenceAgent? {
+            var best = -1.0
+            var bestAg: ReferenceAgent? = null
+            var ap: ReferenceAgentList = this
+            while (ap.ag != null) {
+                val conf = ap.ag!!.phaseScore
+                if (conf > best) {
+                    bestAg = ap.ag
+                    best = conf
+                }
+                ap = ap.next!!
+            }
+            return bestAg
+        }
+    }
+
+    private fun beatInduction(events: EventList): ReferenceAgentList {
+        var intervals = 0
+        val maxClusterCount = ceil((MAX_IOI - MIN_IOI) / CLUSTER_WIDTH).toInt()
+        val clusterMean = DoubleArray(maxClusterCount)
+        val clusterSize = IntArray(maxClusterCount)
+        val clusterScore = IntArray(maxClusterCount)
+        val list = ArrayList(events.l)
+        for (e1 in list) {
+            // the inner loop starts after the first event that equals e1
+            for (i2 in list.indexOf(e1) + 1 until list.size) {
+                val ioi = list[i2].keyDown - e1.keyDown
+                if (ioi < MIN_IOI) continue
+                if (ioi > MAX_IOI) break
+                var b = 0
+                while (b < intervals) {
+                    if (abs(clusterMean[b] - ioi) < CLUSTER_WIDTH) {
+                        if (b < intervals - 1 && abs(clusterMean[b + 1] - ioi) < abs(clusterMean[b] - ioi)) b++
+                        clusterMean[b] = (clusterMean[b] * clusterSize[b] + ioi) / (clusterSize[b] + 1)
+                        clusterSize[b]++
+                        break
+                    }
+                    b++
+                }
+                if (b == intervals) {
+                    if (intervals == maxClusterCount) continue
+                    intervals++
+                    while (b > 0 && clusterMean[b - 1] > ioi) {
+                        clusterMean[b] = clusterMean[b - 1]
+                        clusterSize[b] = clusterSize[b - 1]
+                        b--
+                    }
+                    clusterMean[b] = ioi
+                    clusterSize[b] = 1
+                }
+            }
+        }
+        for (b in 0 until maxClusterCount) {
+            if (b >= intervals) break
+            var i = b + 1
+            while (i < intervals) {
+                if (abs(clusterMean[b] - clusterMean[i]) < CLUSTER_WIDTH) {
+                    clusterMean[b] = (clusterMean[b] * clusterSize[b] + clusterMean[i] * clusterSize[i]) /
+                            (clusterSize[b] + clusterSize[i])
+                    clusterSize[b] = clusterSize[b] + clusterSize[i]
+                    --intervals
+                    for (j in i + 1..intervals) {
+                        clusterMean[j - 1] = clusterMean[j]
+                        clusterSize[j - 1] = clusterSize[j]
+                    }
+                }
+                i++
+            }
+        }
+        if (intervals == 0) return ReferenceAgentList()
+        for (b in 0 until intervals) clusterScore[b] = 10 * clusterSize[b]
+        val bestn = IntArray(TOP_N)
+        var bestCount = 1
+        for (b in 0 until intervals) {
+            var i = 0
+            while (i <= bestCount) {
+                if (i < TOP_N && (i == bestCount || clusterScore[b] > clusterScore[bestn[i]])) {
+                    if (bestCount < TOP_N) bestCount++
+                    for (j in bestCount - 1 downTo i + 1) bestn[j] = bestn[j - 1]
+                    bestn[i] = b
+                    break
+                }
+                i++
+            }
+        }
+        for (b in 0 until intervals) {
+            for (i in b + 1 until intervals) {
+                val ratio = clusterMean[b] / clusterMean[i]
+                val submult = ratio < 1
+                var degree = if (submult) (1 / ratio).roundToInt() else ratio.roundToInt()
+                if (degree in 2..8) {
+                    val err = if (submult) abs(clusterMean[b] * degree - clusterMean[i])
+                    else abs(clusterMean[b] - clusterMean[i] * degree)
+                    if (err < (if (submult) CLUSTER_WIDTH else CLUSTER_WIDTH * degree)) {
+                        degree = if (degree >= 5) 1 else 6 - degree
+                        clusterScore[b] += degree * clusterSize[i]
+                        clusterScore[i] += degree * clusterSize[b]
+                    }
+                }
+            }
+        }
+        val a = ReferenceAgentList()
+        for (index in 0 until bestCount) {
+            val b = bestn[index]
+            var newSum = clusterMean[b] * clusterScore[b]
+            var newWeight = clusterScore[b]
+            for (i in 0 until intervals) {
+                if (i == b) continue
+                val ratio = clusterMean[b] / clusterMean[i]
+                if (ratio < 1) {
+                    val degree = (1 / ratio).roundToInt()
+                    if (degree in 2..8 && abs(clusterMean[b] * degree - clusterMean[i]) < CLUSTER_WIDTH) {
+                        newSum += clusterMean[i] / degree * clusterScore[i]
+                        newWeight += clusterScore[i]
+                    }
+                } else {
+                    val degree = ratio.roundToInt()
+                    if (degree in 2..8 && abs(clusterMean[b] - degree * clusterMean[i]) < CLUSTER_WIDTH * degree) {
+                        newSum += clusterMean[i] * degree * clusterScore[i]
+                        newWeight += clusterScore[i]
+                    }
+                }
+            }
+            var beat = newSum / newWeight
+            while (beat < MIN_IBI) beat *= 2.0
+            while (beat > MAX_IBI) beat /= 2.0
+            if (beat >= MIN_IBI) a.add(ReferenceAgent(beat))
+        }
+        return a
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.AudioProcessor
+import be.tarsos.dsp.beatroot.BeatRootOnsetEventHandler
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
+import be.tarsos.dsp.onsets.BeatRootSpectralFluxOnsetDetector
+import be.tarsos.dsp.onsets.ComplexOnsetDetector
+import be.tarsos.dsp.onsets.OnsetHandler
+import be.tarsos.dsp.onsets.TempoHandler
+import be.tarsos.dsp.onsets.TempogramProcessor
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+import kotlin.math.exp
+
+class TempogramProcessorTest {
+    private val sampleRate = 44100f
+    private val fftSize = 2048
+    private val hopSize = 441
+
+    private class RecordingHandler : TempoHandler {
+        val times = ArrayList<Double>()
+        val tempi = ArrayList<Double>()
+        override fun handleTempo(time: Double, bpm: Double, salience: Double) {
+            times.add(time)
+            tempi.add(bpm)
+        }
+    }
+
+    /**
+     * Decaying noise bursts on every beat, louder on the first beat of a bar, and
+     * on random eighth notes. The tempo changes from the first to the second tempo
+     * halfway.
+     */
+    private fun bursts(seconds: Double, firstBpm: Double, secondBpm: Double): FloatArray {
+        val random = Random(1)
+        val audio = FloatArray((sampleRate * seconds).toInt())
+        var beat = 0.25
+        var count = 0
+        while (beat < seconds - 0.2) {
+            val beatInterval = 60 / if (beat < seconds / 2) firstBpm else secondBpm
+            for (k in 0 until 2) {
+                if (k == 1 && random.nextInt(3) != 0) continue
+                val start = ((beat + k * beatInterval / 2) * sampleRate).toInt()
+                val amplitude = if (k == 1) 0.15 else if (count % 4 == 0) 0.6 else 0.4
+                for (i in 0 until (sampleRate * 0.1).toInt()) {
+                    if (start + i < audio.size) audio[start + i] += (amplitude * exp(-i / (sampleRate * 0.02)) * random.nextGaussian()).toFloat()
+                }
+            }
+            beat += beatInterval
+            count++
+        }
+        return audio
+    }
+
+    /**
+     * Feeds the audio in frames of fftSize, hopSize apart, to the processors.
+     */
+    private fun process(audio: FloatArray, vararg processors: AudioProcessor) {
+        val format = TarsosDSPAudioFormat(sampleRate, 16, 1, true, false)
+        val buffer = FloatArray(fftSize)
+        val event = AudioEvent(format, buffer)
+        var start = 0
+        while (start < audio.size) {
+            for (i in 0 until fftSize) buffer[i] = if (start + i < audio.size) audio[start + i] else 0f
+            for (processor in processors) processor.process(event)
+            start += hopSize
+        }
+        for (processor in processors) processor.processingFinished()
+    }
+
+    @Test
+    fun testSpectralFluxTempo() {
+        val handler = RecordingHandler()
+        val tempogram = TempogramProcessor(sampleRate, fftSize, hopSize, handler)
+        process(bursts(30.0, 100.0, 100.0), tempogram)
+        Assertions.assertEquals(100.0, tempogram.noveltyRate)
+        Assertions.assertTrue(handler.tempi.size >= 20, "A tempo estimate every second after the first window")
+        for (bpm in handler.tempi) Assertions.assertEquals(100.0, bpm, 1.5)
+        Assertions.assertEquals(100.0, tempogram.globalTempo, 1.0)
+    }
+
+    @Test
+    fun testLocalTempoChange() {
+        val handler = RecordingHandler()
+        val tempogram = TempogramProcessor(sampleRate, fftSize, hopSize, handler)
+        process(bursts(40.0, 90.0, 140.0), tempogram)
+        for (i in handler.times.indices) {
+            // windows of eight seconds entirely before or after the change
+            if (handler.times[i] < 16) Assertions.assertEquals(90.0, handler.tempi[i], 1.5)
+            if (handler.times[i] > 24) Assertions.assertEquals(140.0, handler.tempi[i], 2.5)
+        }
+    }
+
+    @Test
+    fun testComplexOnsetDetectionFunction() {
+        val handler = RecordingHandler()
+        val detector = ComplexOnsetDetector(fftSize)
+        detector.setHandler(object : OnsetHandler {
+            override fun handleOnset(time: Double, salience: Double) {}
+        })
+        val tempogram = TempogramProcessor(sampleRate, fftSize, hopSize, handler, detector = detector)
+        process(bursts(30.0, 120.0, 120.0), detector, tempogram)
+        Assertions.assertEquals(120.0, tempogram.globalTempo, 1.5)
+    }
+
+    @Test
+    fun testBenchmarkAgainstBeatRoot() {
+        val audio = bursts(180.0, 124.0, 124.0)
+        var start = System.nanoTime()
+        val tempogram = TempogramProcessor(sampleRate, fftSize, hopSize, RecordingHandler())
+        process(audio, tempogram)
+        val tempogramTime = (System.nanoTime() - start) / 1e6
+
+        start = System.nanoTime()
+        val detector = BeatRootSpectralFluxOnsetDetector(sampleRate, fftSize, hopSize)
+        val beatRoot = BeatRootOnsetEventHandler()
+        detector.setHandler(beatRoot)
+        process(audio, detector)
+        val beats = ArrayList<Double>()
+        beatRoot.trackBeats(object : OnsetHandler {
+            override fun handleOnset(time: Double, salience: Double) {
+                beats.add(time)
+            }
+        })
+        val beatRootTime = (System.nanoTime() - start) / 1e6
+        val beatRootTempo = 60 * (beats.size - 1) / (beats[beats.size - 1] - beats[0])
+        println(String.format("Three minutes: tempogram %.0f ms (%.1f BPM), BeatRoot %.0f ms (%.1f BPM)",
+            tempogramTime, tempogram.globalTempo, beatRootTime, beatRootTempo))
+        Assertions.assertEquals(124.0, tempogram.globalTempo, 1.0)
+    }
+}
@@ -23,8 +23,15 @@
 package be.tarsos.dsp.test
 
 import be.tarsos.dsp.AudioDispatcher
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.filters.BandPass
+import be.tarsos.dsp.filters.ButterworthFilter
+import be.tarsos.dsp.filters.ChebyshevFilter
 import be.tarsos.dsp.filters.HighPass
+import be.tarsos.dsp.filters.IIRDesign
+import be.tarsos.dsp.filters.IIRFilter
 import be.tarsos.dsp.filters.LowPassFS
+import be.tarsos.dsp.filters.LowPassSP
 import be.tarsos.dsp.io.TarsosDSPAudioFloatConverter
 import be.tarsos.dsp.io.TarsosDSPAudioFormat
 import be.tarsos.dsp.io.jvm.AudioPlayer
@@ -40,7 +47,14 @@ import javax.sound.sampled.AudioSystem
 import javax.sound.sampled.LineUnavailableException
 import javax.sound.sampled.UnsupportedAudioFileException
 import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.exp
+import kotlin.math.log10
+import kotlin.math.pow
 import kotlin.math.sin
+import kotlin.math.sqrt
+import kotlin.random.Random
 
 class TestFilters {
     @Throws(UnsupportedAudioFileException::class, LineUnavailableException::class)
@@ -50,7 +64,7 @@ class TestFilters {
         val converter = TarsosDSPAudioFloatConverter.getConverter(format)
         val byteBuffer = ByteArray(floatBuffer.size * format.frameSize)
         Assertions.assertEquals(2, format.frameSize, "Specified 16 bits so framesize should be 2.")
-        converter.toByteArray(floatBuffer, byteBuffer)
+        converter!!.toByteArray(floatBuffer, byteBuffer)
         val bais = ByteArrayInputStream(byteBuffer)
         val inputStream = AudioInputStream(bais, toAudioFormat(format), floatBuffer.size.toLong())
         val jvmAudioInputStream = JVMAudioInputStream(inputStream)
@@ -84,6 +98,175 @@ class TestFilters {
         dispatcher.run()
     }
 
+    /**
+     * The direct form loop the filters used before they ran as second order sections.
+     * `a` holds the feed forward coefficients, `b` the feedback coefficients.
+     */
+    private fun directForm(a: FloatArray, b: FloatArray, buffer: FloatArray) {
+        val inputValues = FloatArray(a.size)
+        val out = FloatArray(b.size)
+        for (i in buffer.indices) {
+            System.arraycopy(inputValues, 0, inputValues, 1, inputValues.size - 1)
+            inputValues[0] = buffer[i]
+            var y = 0f
+            for (j in a.indices) y += a[j] * inputValues[j]
+            for (j in b.indices) y += b[j] * out[j]
+            System.arraycopy(out, 0, out, 1, out.size - 1)
+            out[0] = y
+            buffer[i] = y
+        }
+    }
+
+    private fun filter(filter: IIRFilter, buffer: FloatArray) {
+        val blockSize = 1024
+        val block = FloatArray(blockSize)
+        val event = AudioEvent(TarsosDSPAudioFormat(44100F, 16, 1, true, false), block)
+        var start = 0
+        while (start < buffer.size) {
+            val length = minOf(blockSize, buffer.size - start)
+            val eventBuffer = if (length == blockSize) block else FloatArray(length)
+            System.arraycopy(buffer, start, eventBuffer, 0, length)
+            event.floatBuffer = eventBuffer
+            filter.process(event)
+            System.arraycopy(eventBuffer, 0, buffer, start, length)
+            start += length
+        }
+    }
+
+    private fun noise(length: Int): FloatArray {
+        val random = Random(7)
+        return FloatArray(length) { random.nextFloat() - 0.5f }
+    }
+
+    @Test
+    fun testMigratedFiltersMatchDirectForm() {
+        val sampleRate = 44100f
+        val x = exp(-14.445 * 1000 / sampleRate).toFloat()
+        val h = exp(-2 * PI * 100 / sampleRate).toFloat()
+        val l = exp(-2 * PI * 500 / sampleRate).toFloat()
+        val r = 1 - 3 * (200 / sampleRate)
+        val t = 2 * cos(2 * PI * 1000 / sampleRate).toFloat()
+        val k = (1 - r * t + r * r) / (2 - t)
+        val cases = listOf(
+            Triple(LowPassFS(1000f, sampleRate), floatArrayOf((1 - x).pow(4)), floatArrayOf(4 * x, -6 * x * x, 4 * x * x * x, -x * x * x * x)),
+            Triple(HighPass(100f, sampleRate), floatArrayOf((1 + h) / 2, -(1 + h) / 2), floatArrayOf(h)),
+            Triple(LowPassSP(500f, sampleRate), floatArrayOf(1 - l), floatArrayOf(l)),
+            Triple(BandPass(1000f, 200f, sampleRate), floatArrayOf(1 - k, (k - r) * t, r * r - k), floatArrayOf(r * t, -r * r))
+        )
+        for ((iirFilter, a, b) in cases) {
+            val expected = noise(44100)
+            val actual = expected.copyOf()
+            directForm(a, b, expected)
+            filter(iirFilter, actual)
+            var peak = 0f
+            var error = 0f
+            for (i in expected.indices) {
+                peak = maxOf(peak, abs(expected[i]))
+                error = maxOf(error, abs(expected[i] - actual[i]))
+            }
+            Assertions.assertTrue(error < 1e-3 * peak, "${iirFilter.javaClass.simpleName} differs by $error")
+        }
+    }
+
+    private fun decibel(gain: Double) = 20 * log10(gain)
+
+    @Test
+    fun testButterworthResponse() {
+        val sampleRate = 44100.0
+        for (order in 1..IIRDesign.MAX_ORDER) {
+            val lowPass = IIRDesign.butterworth(IIRDesign.Type.LOW_PASS, order, 1000.0, sampleRate)
+            Assertions.assertEquals((order + 1) / 2, lowPass.sectionCount)
+            Assertions.assertEquals(1.0, lowPass.magnitude(0.0, sampleRate), 1e-9)
+            Assertions.assertEquals(sqrt(0.5), lowPass.magnitude(1000.0, sampleRate), 1e-9)
+            // at least the 6dB per octave and order of the analog prototype
+            Assertions.assertTrue(decibel(lowPass.magnitude(4000.0, sampleRate)) < -12.0 * order + 0.5)
+            var previous = 2.0
+            for (f in 0 until 22000 step 250) {
+                val gain = lowPass.magnitude(f.toDouble(), sampleRate)
+                Assertions.assertTrue(gain < previous, "Monotonic response")
+                previous = gain
+            }
+
+            val highPass = IIRDesign.butterworth(IIRDesign.Type.HIGH_PASS, order, 1000.0, sampleRate)
+            Assertions.assertEquals(1.0, highPass.magnitude(sampleRate / 2, sampleRate), 1e-9)
+            Assertions.assertEquals(sqrt(0.5), highPass.magnitude(1000.0, sampleRate), 1e-9)
+            Assertions.assertTrue(decibel(highPass.magnitude(250.0, sampleRate)) < -12.0 * order + 0.5)
+        }
+    }
+
+    @Test
+    fun testChebyshevResponse() {
+        val sampleRate = 44100.0
+        val ripple = 1.0
+        for (order in 1..IIRDesign.MAX_ORDER) {
+            val lowPass = IIRDesign.chebyshev(IIRDesign.Type.LOW_PASS, order, ripple, 1000.0, sampleRate)
+            val butterworth = IIRDesign.butterworth(IIRDesign.Type.LOW_PASS, order, 1000.0, sampleRate)
+            for (f in 0..1000 step 10) {
+                val gain = decibel(lowPass.magnitude(f.toDouble(), sampleRate))
+                Assertions.assertTrue(gain <= 1e-6 && gain >= -ripple - 1e-6, "Order $order at $f Hz: $gain dB")
+            }
+            Assertions.assertEquals(-ripple, decibel(lowPass.magnitude(1000.0, sampleRate)), 1e-6)
+            // the -3dB point of a low order Chebyshev filter lies beyond the end of the ripple
+            if (order > 2) {
+                Assertions.assertTrue(lowPass.magnitude(2000.0, sampleRate) < butterworth.magnitude(2000.0, sampleRate))
+            }
+
+            val highPass = IIRDesign.chebyshev(IIRDesign.Type.HIGH_PASS, order, ripple, 1000.0, sampleRate)
+            Assertions.assertEquals(-ripple, decibel(highPass.magnitude(1000.0, sampleRate)), 1e-6)
+            for (f in 1000..22000 step 100) {
+                val gain = decibel(highPass.magnitude(f.toDouble(), sampleRate))
+                Assertions.assertTrue(gain <= 1e-6 && gain >= -ripple - 1e-6, "Order $order at $f Hz: $gain dB")
+            }
+        }
+    }
+
+    private fun sineGain(iirFilter: IIRFilter, frequency: Double): Double {
+        val sine = FloatArray(44100 * 2) { sin(2 * PI * frequency * it / 44100).toFloat() }
+        filter(iirFilter, sine)
+        var energy = 0.0
+        for (i in sine.size / 2 until sine.size) energy += sine[i] * sine[i]
+        return sqrt(2 * energy / (sine.size / 2))
+    }
+
+    @Test
+    fun testHighOrderFilterIsStable() {
+        // a low cutoff at a high order puts the poles very close to the unit circle
+        Assertions.assertEquals(1.0, sineGain(ButterworthFilter(IIRDesign.Type.LOW_PASS, 12, 50f, 44100f), 20.0), 0.01)
+        Assertions.assertTrue(sineGain(ButterworthFilter(IIRDesign.Type.LOW_PASS, 12, 50f, 44100f), 200.0) < 1e-6)
+        Assertions.assertEquals(1.0, sineGain(ChebyshevFilter(IIRDesign.Type.HIGH_PASS, 12, 0.5f, 50f, 44100f), 1000.0), 0.06)
+        Assertions.assertTrue(sineGain(ChebyshevFilter(IIRDesign.Type.HIGH_PASS, 12, 0.5f, 50f, 44100f), 20.0) < 1e-4)
+    }
+
+    @Test
+    fun benchmarkFilters() {
+        val sampleRate = 44100f
+        val samples = 44100 * 60
+        val buffer = noise(samples)
+        val x = exp(-14.445 * 1000 / sampleRate).toFloat()
+        val a = floatArrayOf((1 - x).pow(4))
+        val b = floatArrayOf(4 * x, -6 * x * x, 4 * x * x * x, -x * x * x * x)
+        val filters = listOf(
+            "LowPassFS" to LowPassFS(1000f, sampleRate),
+            "Butterworth order 4" to ButterworthFilter(IIRDesign.Type.LOW_PASS, 4, 1000f, sampleRate),
+            "Butterworth order 12" to ButterworthFilter(IIRDesign.Type.LOW_PASS, 12, 1000f, sampleRate)
+        )
+        // warm up
+        for (round in 0 until 3) {
+            directForm(a, b, buffer.copyOf(44100))
+            for ((_, iirFilter) in filters) filter(iirFilter, buffer.copyOf(44100))
+        }
+        var copy = buffer.copyOf()
+        var start = System.nanoTime()
+        directForm(a, b, copy)
+        println("%-30s %6.2f ns/sample".format("Direct form, order 4", (System.nanoTime() - start).toDouble() / samples))
+        for ((name, iirFilter) in filters) {
+            copy = buffer.copyOf()
+            start = System.nanoTime()
+            filter(iirFilter, copy)
+            println("%-30s %6.2f ns/sample".format("Second order sections, $name", (System.nanoTime() - start).toDouble() / samples))
+        }
+    }
+
     companion object {
         fun testAudioBufferSine(): FloatArray {
             val sampleRate = 44100.0
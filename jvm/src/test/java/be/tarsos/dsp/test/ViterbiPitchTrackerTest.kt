@@ -0,0 +1,116 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
+import be.tarsos.dsp.pitch.McLeodPitchMethod
+import be.tarsos.dsp.pitch.PitchCandidateDetector
+import be.tarsos.dsp.pitch.PitchDetectionResult
+import be.tarsos.dsp.pitch.PitchTrackHandler
+import be.tarsos.dsp.pitch.ViterbiPitchTracker
+import be.tarsos.dsp.pitch.Yin
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class ViterbiPitchTrackerTest {
+    private class CollectingHandler : PitchTrackHandler {
+        val timeStamps = ArrayList<Double>()
+        val pitches = ArrayList<Float>()
+        override fun handlePitch(timeStamp: Double, pitchDetectionResult: PitchDetectionResult) {
+            timeStamps.add(timeStamp)
+            pitches.add(if (pitchDetectionResult.isPitched) pitchDetectionResult.pitch else -1f)
+        }
+    }
+
+    @Test
+    fun testOctaveErrorsAreCorrected() {
+        val handler = CollectingHandler()
+        val lag = 5
+        val tracker = ViterbiPitchTracker(Yin(44100f, 1024), handler, lag)
+        val pitches = FloatArray(2)
+        val probabilities = FloatArray(2)
+        for (frame in 0 until 50) {
+            val count = when {
+                frame >= 40 -> 0
+                frame == 30 -> {
+                    // the fundamental is missed completely
+                    pitches[0] = 440f
+                    probabilities[0] = 0.95f
+                    1
+                }
+                else -> {
+                    pitches[0] = 440f
+                    pitches[1] = 220f
+                    if (frame == 10 || frame == 20 || frame == 21) {
+                        // an octave error: the octave is more salient than the fundamental
+                        probabilities[0] = 0.95f
+                        probabilities[1] = 0.7f
+                    } else {
+                        probabilities[0] = 0.5f
+                        probabilities[1] = 0.9f
+                    }
+                    2
+                }
+            }
+            tracker.addFrame(frame * 0.01, pitches, probabilities, count)
+            Assertions.assertEquals(maxOf(0, frame + 1 - lag), handler.pitches.size, "Pitch should be emitted with a lag of $lag frames")
+        }
+        tracker.flush()
+        Assertions.assertEquals(50, handler.pitches.size, "All frames should be emitted after a flush")
+        for (frame in 0 until 50) {
+            Assertions.assertEquals(frame * 0.01, handler.timeStamps[frame], 1e-9)
+            if (frame < 40) {
+                Assertions.assertEquals(220f, handler.pitches[frame], 3f, "Frame $frame should be tracked at 220Hz")
+            } else {
+                Assertions.assertEquals(-1f, handler.pitches[frame], "Frame $frame should be unvoiced")
+            }
+        }
+    }
+
+    @Test
+    fun testTrackSine() {
+        for (detector in listOf<PitchCandidateDetector>(McLeodPitchMethod(44100f, 1024), Yin(44100f, 1024))) {
+            val handler = CollectingHandler()
+            val tracker = ViterbiPitchTracker(detector, handler)
+            val format = TarsosDSPAudioFormat(44100f, 16, 1, true, false)
+            val sine = TestUtilities.audioBufferSine()
+            val buffer = FloatArray(1024)
+            val event = AudioEvent(format, buffer)
+            var start = 0
+            var frames = 0
+            while (start + buffer.size <= sine.size) {
+                System.arraycopy(sine, start, buffer, 0, buffer.size)
+                event.setBytesProcessed(start.toLong() * format.frameSize)
+                tracker.process(event)
+                start += 512
+                frames++
+            }
+            tracker.processingFinished()
+            Assertions.assertEquals(frames, handler.pitches.size, "Each buffer should be emitted")
+            for (pitch in handler.pitches) {
+                Assertions.assertEquals(440f, pitch, 2f, "A sine of 440Hz should be tracked with $detector")
+            }
+        }
+    }
+}
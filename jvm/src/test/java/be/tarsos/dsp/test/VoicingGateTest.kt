@@ -0,0 +1,109 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.pitch.PitchDetectionResult
+import be.tarsos.dsp.pitch.PitchDetector
+import be.tarsos.dsp.pitch.VoicingGate
+import be.tarsos.dsp.pitch.Yin
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+
+class VoicingGateTest {
+    private class CountingDetector(private val detector: PitchDetector) : PitchDetector {
+        var calls = 0
+        override fun getPitch(audioBuffer: FloatArray): PitchDetectionResult {
+            calls++
+            return detector.getPitch(audioBuffer)
+        }
+    }
+
+    @Test
+    fun testSilenceAndNoiseSkipDetector() {
+        val bufferSize = 1024
+        val detector = CountingDetector(Yin(44100f, bufferSize))
+        val gate = VoicingGate(detector, bufferSize, spectralFlatnessThreshold = 0.5f, hangoverFrames = 0)
+
+        val silence = FloatArray(bufferSize)
+        var result = gate.getPitch(silence)
+        Assertions.assertFalse(result.isPitched, "Silence should be unvoiced")
+        Assertions.assertEquals(-1f, result.pitch, "Silence should not have a pitch")
+        Assertions.assertEquals(0, detector.calls, "Detector should not be called on silence")
+
+        val random = Random(0)
+        val noise = FloatArray(bufferSize) { (random.nextGaussian() * 0.3).toFloat() }
+        result = gate.getPitch(noise)
+        Assertions.assertFalse(result.isPitched, "Noise should be unvoiced")
+        Assertions.assertEquals(0, detector.calls, "Detector should not be called on noise")
+
+        val sine = TestUtilities.audioBufferSine(bufferSize)
+        result = gate.getPitch(sine)
+        Assertions.assertTrue(result.isPitched, "A sine should be voiced")
+        Assertions.assertEquals(440f, result.pitch, 2f, "A sine of 440Hz should be detected")
+        Assertions.assertEquals(1, detector.calls, "Detector should be called on a sine")
+        Assertions.assertEquals(2L, gate.skippedFrames)
+        Assertions.assertEquals(1L, gate.detectedFrames)
+    }
+
+    @Test
+    fun testHysteresis() {
+        val bufferSize = 1024
+        val detector = CountingDetector(Yin(44100f, bufferSize))
+        val gate = VoicingGate(detector, bufferSize, silenceThreshold = -20.0, hysteresis = 10.0, hangoverFrames = 0)
+        val sine = TestUtilities.audioBufferSine(bufferSize)
+        // the sine has an amplitude of 0.5, about -9dB. Attenuated by 0.2 it is about -23dB.
+        val quiet = FloatArray(bufferSize) { sine[it] * 0.2f }
+
+        gate.getPitch(quiet)
+        Assertions.assertFalse(gate.isOpen, "A closed gate should stay closed below the threshold")
+        gate.getPitch(sine)
+        Assertions.assertTrue(gate.isOpen, "The gate should open above the threshold")
+        gate.getPitch(quiet)
+        Assertions.assertTrue(gate.isOpen, "An open gate should stay open within the hysteresis")
+        Assertions.assertEquals(2, detector.calls)
+    }
+
+    @Test
+    fun testUnvoicedResultIsReset() {
+        val bufferSize = 1024
+        val gate = VoicingGate(Yin(44100f, bufferSize), bufferSize)
+        val silence = FloatArray(bufferSize)
+        val result = gate.getPitch(silence)
+        result.pitch = 440f
+        result.isPitched = true
+        val next = gate.getPitch(silence)
+        Assertions.assertEquals(-1f, next.pitch, "Changes to a returned result should not leak into the next frame")
+        Assertions.assertFalse(next.isPitched)
+    }
+
+    @Test
+    fun testShortBufferIsZeroPadded() {
+        val bufferSize = 1024
+        val detector = CountingDetector(Yin(44100f, bufferSize / 2))
+        val gate = VoicingGate(detector, bufferSize, spectralFlatnessThreshold = 0.5f)
+        val sine = TestUtilities.audioBufferSine(bufferSize / 2)
+        Assertions.assertTrue(gate.getPitch(sine).isPitched, "A short sine should be voiced")
+        Assertions.assertEquals(1, detector.calls)
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ *      _______                       _____   _____ _____
+ *     |__   __|                     |  __ \ / ____|  __ \
+ *        | | __ _ _ __ ___  ___  ___| |  | | (___ | |__) |
+ *        | |/ _` | '__/ __|/ _ \/ __| |  | |\___ \|  ___/
+ *        | | (_| | |  \__ \ (_) \__ \ |__| |____) | |
+ *        |_|\__,_|_|  |___/\___/|___/_____/|_____/|_|
+ *
+ * -------------------------------------------------------------
+ *
+ * TarsosDSP is developed by Joren Six at IPEM, University Ghent
+ *
+ * -------------------------------------------------------------
+ *
+ *  Info: http://0110.be/tag/TarsosDSP
+ *  Github: https://github.com/JorenSix/TarsosDSP
+ *  Releases: http://0110.be/releases/TarsosDSP/
+ *
+ *  TarsosDSP includes modified source code by various authors,
+ *  for credits and info, see README.
+ *
+ */
+package be.tarsos.dsp.test
+
+import be.tarsos.dsp.AudioEvent
+import be.tarsos.dsp.AudioProcessor
+import be.tarsos.dsp.MultichannelToMono
+import be.tarsos.dsp.WaveformSimilarityBasedOverlapAdd.Parameters
+import be.tarsos.dsp.WaveformSimilarityTimeStretcher
+import be.tarsos.dsp.io.TarsosDSPAudioFormat
+import be.tarsos.dsp.util.FloatFifo
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.*
+import kotlin.math.sin
+
+class WaveformSimilarityTimeStretcherTest {
+    private val sampleRate = 44100.0
+
+    /**
+     * A 440Hz sine with a bit of noise.
+     */
+    private fun signal(seconds: Double): FloatArray {
+        val random = Random(1)
+        return FloatArray((seconds * sampleRate).toInt()) {
+            (0.5 * sin(2 * Math.PI * 440 * it / sampleRate) + 0.01 * random.nextGaussian()).toFloat()
+        }
+    }
+
+    /**
+     * Feeds the signal in blocks of random size (or all at once) and collects the output.
+     */
+    private fun stretch(stretcher: WaveformSimilarityTimeStretcher, signal: FloatArray, random: Random?): FloatArray {
+        val result = FloatFifo()
+        val block = FloatArray(4096)
+        var offset = 0
+        while (offset < signal.size) {
+            val length = if (random == null) signal.size else minOf(1 + random.nextInt(3000), signal.size - offset)
+            stretcher.putSamples(signal, offset, length)
+            offset += length
+            while (stretcher.availableSamples > 0) result.put(block, 0, stretcher.receiveSamples(block, 0, block.size))
+        }
+        stretcher.flush()
+        while (stretcher.availableSamples > 0) result.put(block, 0, stretcher.receiveSamples(block, 0, block.size))
+        return result.buffer.copyOfRange(result.position, result.position + result.size)
+    }
+
+    /**
+     * The frequency from the number of upward zero crossings in the middle half.
+     */
+    private fun frequency(samples: FloatArray): Double {
+        var crossings = 0
+        val from = samples.size / 4
+        val to = 3 * samples.size / 4
+        for (i in from + 1 until to) if (samples[i - 1] < 0 && samples[i] >= 0) crossings++
+        return crossings * sampleRate / (to - from)
+    }
+
+    @Test
+    fun testBlockSizeIndependent() {
+        val signal = signal(3.0)
+        val whole = stretch(WaveformSimilarityTimeStretcher(Parameters.musicDefaults(0.8, sampleRate)), signal, null)
+        val blocks = stretch(WaveformSimilarityTimeStretcher(Parameters.musicDefaults(0.8, sampleRate)), signal, Random(2))
+        Assertions.assertArrayEquals(whole, blocks, "The output should not depend on the input block sizes")
+    }
+
+    @Test
+    fun testLengthAndPitch() {
+        val signal = signal(4.0)
+        for (tempo in doubleArrayOf(0.5, 0.8, 1.25, 2.0)) {
+            val stretcher = WaveformSimilarityTimeStretcher(Parameters.automaticDefaults(tempo, sampleRate))
+            val output = stretch(stretcher, signal, Random(3))
+            // flushing adds at most a tenth of a second of silence to the output
+            Assertions.assertEquals(signal.size / tempo, output.size.toDouble(), 0.01 * signal.size / tempo + sampleRate / 10, "Length at tempo $tempo")
+            Assertions.assertEquals(440.0, frequency(output), 5.0, "Pitch at tempo $tempo")
+        }
+    }
+
+    @Test
+    fun testTempoChange() {
+        val signal = signal(2.0)
+        val stretcher = WaveformSimilarityTimeStretcher(Parameters.musicDefaults(1.0, sampleRate))
+        val block = FloatArray(2 * signal.size)
+        var total = 0
+        for (tempo in doubleArrayOf(1.0, 1.5, 0.7)) {
+            stretcher.tempo = tempo
+            stretcher.putSamples(signal, 0, signal.size)
+            val received = stretcher.receiveSamples(block, 0, block.size)
+            Assertions.assertEquals(signal.size / tempo, received.toDouble(), 0.03 * signal.size / tempo, "Length at tempo $tempo")
+            total += received
+        }
+        Assertions.assertEquals(0.7, stretcher.tempo, 1e-9)
+        Assertions.assertEquals(signal.size * (1 + 1 / 1.5 + 1 / 0.7), total.toDouble(), 0.03 * total)
+    }
+
+    @Test
+    fun testAsAudioProcessor() {
+        val signal = signal(2.0)
+        val bufferSize = 2048
+        val overlap = 1024
+        val stretcher = WaveformSimilarityTimeStretcher(Parameters.musicDefaults(1.25, sampleRate), 512)
+        val received = FloatFifo()
+        stretcher.addOutputProcessor(object : AudioProcessor {
+            override fun process(audioEvent: AudioEvent): Boolean {
+                Assertions.assertEquals(512, audioEvent.bufferSize)
+                received.put(audioEvent.floatBuffer, 0, audioEvent.bufferSize)
+                return true
+            }
+        })
+        val format = TarsosDSPAudioFormat(sampleRate.toFloat(), 16, 1, true, false)
+        val buffer = FloatArray(bufferSize)
+        val event = AudioEvent(format, buffer)
+        event.overlap = overlap
+        var start = 0
+        while (start + bufferSize <= signal.size) {
+            System.arraycopy(signal, start, buffer, 0, bufferSize)
+            stretcher.process(event)
+            Assertions.assertSame(buffer, event.floatBuffer, "The input buffer is left for other processors")
+            start += bufferSize - overlap
+        }
+        stretcher.processingFinished()
+        val direct = stretch(WaveformSimilarityTimeStretcher(Parameters.musicDefaults(1.25, sampleRate)), signal.copyOf(start + overlap), null)
+        Assertions.assertEquals(0, received.size % 512)
+        Assertions.assertTrue(received.size >= direct.size)
+        for (i in direct.indices) Assertions.assertEquals(direct[i], received.buffer[received.position + i])
+    }
+
+    private fun interleave(vararg channels: FloatArray): FloatArray {
+        val result = FloatArray(channels.size * channels[0].size)
+        for (c in channels.indices) for (i in channels[c].indices) result[i * channels.size + c] = channels[c][i]
+        return result
+    }
+
+    private fun stretchInterleaved(stretcher: WaveformSimilarityTimeStretcher, interleaved: FloatArray): FloatArray {
+        val channels = stretcher.channels
+        stretcher.putSamples(interleaved, 0, interleaved.size / channels)
+        stretcher.flush()
+        val result = FloatArray(stretcher.availableSamples * channels)
+        stretcher.receiveSamples(result, 0, stretcher.availableSamples)
+        return result
+    }
+
+    @Test
+    fun testStereoSharesOverlapPosition() {
+        val left = signal(2.0)
+        val parameters = Parameters.musicDefaults(1.3, sampleRate)
+        val mono = stretch(WaveformSimilarityTimeStretcher(parameters), left, null)
+
+        // identical channels are stretched exactly like mono audio
+        val same = stretchInterleaved(WaveformSimilarityTimeStretcher(parameters, channels = 2), interleave(left, left))
+        Assertions.assertEquals(2 * mono.size, same.size)
+        for (i in mono.indices) {
+            Assertions.assertEquals(mono[i], same[2 * i])
+            Assertions.assertEquals(mono[i], same[2 * i + 1])
+        }
+
+        // the channels are cut at the same positions, so their relation is kept
+        val right = FloatArray(left.size) { -0.5f * left[it] }
+        val stereo = WaveformSimilarityTimeStretcher(parameters, channels = 2)
+        stereo.putSamples(arrayOf(left, right), 0, left.size)
+        stereo.flush()
+        val frames = stereo.availableSamples
+        val planar = arrayOf(FloatArray(frames), FloatArray(frames))
+        Assertions.assertEquals(frames, stereo.receiveSamples(planar, 0, frames))
+        for (i in 0 until frames) Assertions.assertEquals(-0.5f * planar[0][i], planar[1][i], 0f)
+
+        // interleaved and planar input give the same output
+        val interleaved = stretchInterleaved(WaveformSimilarityTimeStretcher(parameters, channels = 2), interleave(left, right))
+        Assertions.assertArrayEquals(interleave(planar[0], planar[1]), interleaved)
+    }
+
+    @Test
+    fun testStereoOutputProcessorsReplacingTheBuffer() {
+        val left = signal(2.0)
+        val right = FloatArray(left.size) { -0.5f * left[it] }
+        val parameters = Parameters.musicDefaults(1.3, sampleRate)
+        val blockSize = 1024
+
+        val direct = WaveformSimilarityTimeStretcher(parameters, channels = 2)
+        direct.putSamples(arrayOf(left, right), 0, left.size)
+        direct.flush()
+        val frames = direct.availableSamples
+        val planar = arrayOf(FloatArray(frames), FloatArray(frames))
+        direct.receiveSamples(planar, 0, frames)
+
+        val stretcher = WaveformSimilarityTimeStretcher(parameters, blockSize, channels = 2)
+        // replaces the buffer of the event, like the pitch shifter does
+        val replaced = FloatArray(blockSize * 2)
+        var blocks = 0L
+        stretcher.addOutputProcessor(object : AudioProcessor {
+            override fun process(audioEvent: AudioEvent): Boolean {
+                Assertions.assertNotSame(replaced, audioEvent.floatBuffer, "The stretcher should not fill a replaced buffer")
+                Assertions.assertEquals(2, audioEvent.channels)
+                Assertions.assertEquals(blocks * blockSize, audioEvent.samplesProcessed)
+                blocks++
+                System.arraycopy(audioEvent.floatBuffer, 0, replaced, 0, replaced.size)
+                audioEvent.floatBuffer = replaced
+                return true
+            }
+        })
+        stretcher.addOutputProcessor(MultichannelToMono(2, true))
+        val received = FloatFifo()
+        stretcher.addOutputProcessor(object : AudioProcessor {
+            override fun process(audioEvent: AudioEvent): Boolean {
+                Assertions.assertEquals(blockSize, audioEvent.bufferSize)
+                received.put(audioEvent.floatBuffer, 0, audioEvent.bufferSize)
+                return true
+            }
+        })
+
+        val chunk = 2205
+        val format = TarsosDSPAudioFormat(sampleRate.toFloat(), 16, 2, true, false)
+        val buffer = FloatArray(chunk * 2)
+        val event = AudioEvent(format, buffer)
+        var start = 0
+        while (start < left.size) {
+            System.arraycopy(interleave(left.copyOfRange(start, start + chunk), right.copyOfRange(start, start + chunk)), 0, buffer, 0, buffer.size)
+            event.floatBuffer = buffer
+            stretcher.process(event)
+            start += chunk
+        }
+        stretcher.processingFinished()
+        Assertions.assertTrue(received.size >= frames)
+        for (i in 0 until frames) {
+            Assertions.assertEquals((planar[0][i] + planar[1][i]) / 2, received.buffer[received.position + i], 1e-6f)
+        }
+    }
+
+    @Test
+    fun testMixedDownEventIsRejected() {
+        val stretcher = WaveformSimilarityTimeStretcher(Parameters.musicDefaults(1.3, sampleRate), channels = 2)
+        val event = AudioEvent(TarsosDSPAudioFormat(sampleRate.toFloat(), 16, 2, true, false), FloatArray(2048))
+        MultichannelToMono(2, true).process(event)
+        Assertions.assertEquals(1, event.channels)
+        Assertions.assertThrows(IllegalArgumentException::class.java) { stretcher.process(event) }
+    }
+
+    @Test
+    fun benchmarkStereo() {
+        val random = Random(5)
+        val left = signal(10.0)
+        val right = FloatArray(left.size) { 0.7f * left[it] + 0.05f * random.nextGaussian().toFloat() }
+        val interleaved = interleave(left, right)
+        val parameters = Parameters.speechDefaults(2.0, sampleRate)
+        val times = DoubleArray(2)
+        for (repeat in 0 until 3) {
+            for (channels in 1..2) {
+                val start = System.nanoTime()
+                val stretcher = WaveformSimilarityTimeStretcher(parameters, channels = channels)
+                stretchInterleaved(stretcher, if (channels == 1) left else interleaved)
+                times[channels - 1] = (System.nanoTime() - start) / 1e6
+            }
+        }
+        println("Stretching 10s of audio: mono %.1f ms, stereo %.1f ms (%.2fx)".format(times[0], times[1], times[1] / times[0]))
+    }
+}